@@ -0,0 +1,112 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.BasicMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.LocalMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * The time {@link ProxyCascadingAgent#start()} takes to mount a source
+ * <tt>MBeanServer</tt> holding 1k, 10k and 100k MBeans into an empty target
+ * <tt>MBeanServer</tt>. Each iteration starts a fresh agent, once.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AgentStartBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    public int                           mbeans;
+
+    @Param({ "local", "rmi" })
+    public String                        transport;
+
+    private ProxyCascadingAgent          agent;
+    private JMXConnector                 connector;
+    private MBeanServerConnectionFactory factory;
+    private JMXConnectorServer           server;
+
+    @Setup(Level.Iteration)
+    public void newAgent() {
+        final MBeanServer target = MBeanServerFactory.newMBeanServer();
+        agent = new ProxyCascadingAgent(factory, Sources.PATTERN, null, "n1",
+                                        target, "benchmark");
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        final MBeanServer source = Sources.newSource(mbeans);
+        if ("local".equals(transport)) {
+            factory = LocalMBeanServerConnectionFactory.newInstance(source);
+        } else {
+            server = Sources.export(source);
+            connector = JMXConnectorFactory.connect(server.getAddress());
+            factory = BasicMBeanServerConnectionFactory.newInstance(connector);
+        }
+    }
+
+    @Benchmark
+    public int start() throws Exception {
+        agent.start();
+        return agent.getCascadedMBeanCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopAgent() throws Exception {
+        if (agent.isActive()) {
+            agent.stop();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (connector != null) {
+            connector.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
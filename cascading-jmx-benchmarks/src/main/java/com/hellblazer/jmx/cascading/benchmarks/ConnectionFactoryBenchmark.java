@@ -0,0 +1,109 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.BasicMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.StripedMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.StripedMBeanServerConnectionFactory.Routing;
+
+/**
+ * The cost of {@link MBeanServerConnectionFactory#getMBeanServerConnection()},
+ * which every proxied operation goes through, under contention. No remote call
+ * is made: the connector is only used to obtain the connection.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionFactoryBenchmark {
+
+    @Param({ "basic", "striped" })
+    public String                        factoryType;
+
+    private JMXConnector                 connector;
+    private MBeanServerConnectionFactory factory;
+    private JMXConnectorServer           server;
+
+    @Benchmark
+    @Threads(1)
+    public MBeanServerConnection getConnection1() throws Exception {
+        return factory.getMBeanServerConnection();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public MBeanServerConnection getConnection64() throws Exception {
+        return factory.getMBeanServerConnection();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public MBeanServerConnection getConnection8() throws Exception {
+        return factory.getMBeanServerConnection();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        server = Sources.export(Sources.newSource(1));
+        if ("basic".equals(factoryType)) {
+            connector = JMXConnectorFactory.connect(server.getAddress());
+            factory = BasicMBeanServerConnectionFactory.newInstance(connector);
+        } else {
+            factory = StripedMBeanServerConnectionFactory.newInstance(server.getAddress(),
+                                                                      null,
+                                                                      null, 4,
+                                                                      Routing.LEAST_OUTSTANDING);
+        }
+        factory.getMBeanServerConnection();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (factory instanceof StripedMBeanServerConnectionFactory) {
+            ((StripedMBeanServerConnectionFactory) factory).close();
+        }
+        if (connector != null) {
+            connector.close();
+        }
+        server.stop();
+    }
+}
@@ -0,0 +1,143 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.history.GorillaChunk;
+
+/**
+ * The cost per sample of appending and decoding a day of history sampled every
+ * 10 seconds, held in raw arrays and in a {@link GorillaChunk}. The memory per
+ * sample of each is printed by the setup: 16 bytes for the raw arrays.
+ * <ul>
+ * <li><tt>regular</tt> - a constant gauge polled at an exact period</li>
+ * <li><tt>jittered</tt> - a slowly growing counter polled with a few
+ * milliseconds of jitter</li>
+ * <li><tt>noisy</tt> - a random gauge polled with a few milliseconds of
+ * jitter</li>
+ * </ul>
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryEncodingBenchmark {
+    private static final int SAMPLES = 8640;
+
+    @Param({ "regular", "jittered", "noisy" })
+    public String            pattern;
+
+    private GorillaChunk     chunk;
+    private final long[]     times  = new long[SAMPLES];
+    private final double[]   values = new double[SAMPLES];
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public GorillaChunk appendGorilla() {
+        final GorillaChunk encoded = new GorillaChunk();
+        for (int i = 0; i < SAMPLES; i++) {
+            encoded.append(times[i], values[i]);
+        }
+        return encoded;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public long[] appendRaw() {
+        final long[] t = new long[SAMPLES];
+        final double[] v = new double[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            t[i] = times[i];
+            v[i] = values[i];
+        }
+        return v[SAMPLES - 1] == 0 ? null : t;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double decodeGorilla() {
+        final GorillaChunk.Decoder decoder = chunk.decoder();
+        long t = 0;
+        double v = 0;
+        while (decoder.next()) {
+            t += decoder.time();
+            v += decoder.value();
+        }
+        return t + v;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double decodeRaw() {
+        long t = 0;
+        double v = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            t += times[i];
+            v += values[i];
+        }
+        return t + v;
+    }
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+        long time = 1400000000000L;
+        double value = 1000;
+        for (int i = 0; i < SAMPLES; i++) {
+            switch (pattern) {
+                case "regular":
+                    time += 10000;
+                    break;
+                case "jittered":
+                    time += 10000 + random.nextInt(10) - 5;
+                    value += random.nextInt(50);
+                    break;
+                case "noisy":
+                    time += 10000 + random.nextInt(10) - 5;
+                    value = random.nextDouble() * 1000;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown pattern: "
+                                                       + pattern);
+            }
+            times[i] = time;
+            values[i] = value;
+        }
+        chunk = appendGorilla();
+        chunk.trim();
+        System.out.printf("%n%s: %.2f bytes per sample encoded, 16 raw%n",
+                          pattern, (double) chunk.bytes() / SAMPLES);
+    }
+}
@@ -0,0 +1,96 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.LocalMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.proxy.CascadingProxy;
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * The cost of fanning one source notification out to the listeners
+ * registered on its {@link CascadingProxy}, with the source of the
+ * notification translated to the target name of the proxy. Over a local
+ * connection delivery is synchronous, so the score is the full fan-out of one
+ * notification.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationFanOutBenchmark {
+    private static class Counter implements NotificationListener {
+        long received;
+
+        @Override
+        public void handleNotification(Notification notification,
+                                       Object handback) {
+            received += notification.getSequenceNumber();
+        }
+    }
+
+    @Param({ "1", "16", "256" })
+    public int        listeners;
+
+    private Counter[] counters;
+    private Sample    sample;
+
+    @Benchmark
+    public long fanOut() {
+        sample.fire();
+        return counters[0].received;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        final MBeanServer source = Sources.newSource(0);
+        sample = new Sample();
+        source.registerMBean(sample, Sources.nameOf(0));
+        final CascadingProxy proxy = new CascadingProxy(
+                                                        Sources.nameOf(0),
+                                                        LocalMBeanServerConnectionFactory.newInstance(source));
+        MBeanServerFactory.newMBeanServer().registerMBean(proxy,
+                                                          ProxyCascadingAgent.getTargetName("n1",
+                                                                                            Sources.nameOf(0)));
+        counters = new Counter[listeners];
+        for (int i = 0; i < listeners; i++) {
+            counters[i] = new Counter();
+            proxy.addNotificationListener(counters[i], null, null);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.export.PrometheusExporter;
+
+/**
+ * The cost of a scrape of a {@link PrometheusExporter}, rendering the polled
+ * values of MBeans of 20 numeric attributes each, spread over 100 cascaded
+ * nodes, to an output stream which discards them.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class PrometheusScrapeBenchmark {
+    /**
+     * An MBean of {@link #ATTRIBUTES} long attributes
+     */
+    public static class Wide implements DynamicMBean {
+        private static final MBeanInfo INFO;
+
+        static {
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[ATTRIBUTES];
+            for (int i = 0; i < ATTRIBUTES; i++) {
+                attributes[i] = new MBeanAttributeInfo("Attribute" + i, "long",
+                                                       "", true, false, false);
+            }
+            INFO = new MBeanInfo(Wide.class.getName(), "", attributes, null,
+                                 null, null);
+        }
+
+        private final long seed;
+
+        public Wide(long seed) {
+            this.seed = seed;
+        }
+
+        @Override
+        public Object getAttribute(String attribute) {
+            return seed * ATTRIBUTES
+                   + Integer.parseInt(attribute.substring("Attribute".length()));
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList(attributes.length);
+            for (String attribute : attributes) {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            }
+            return list;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            return INFO;
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params,
+                             String[] signature) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final int   ATTRIBUTES = 20;
+    private static final int   NODES      = 100;
+
+    @Param({ "100000", "1000000" })
+    public int                 samples;
+
+    private PrometheusExporter exporter;
+    private final OutputStream sink       = new OutputStream() {
+                                              @Override
+                                              public void write(byte[] b,
+                                                                int off,
+                                                                int len) {
+                                              }
+
+                                              @Override
+                                              public void write(int b) {
+                                              }
+                                          };
+
+    @Benchmark
+    public int scrape() throws Exception {
+        return exporter.render(sink);
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        MBeanServer target = MBeanServerFactory.newMBeanServer();
+        for (int i = 0; i < samples / ATTRIBUTES; i++) {
+            target.registerMBean(new Wide(i),
+                                 new ObjectName(
+                                                String.format("%s:type=Wide,name=wide-%s,cascadedNode=node-%s",
+                                                              Sources.DOMAIN,
+                                                              i, i % NODES)));
+        }
+        exporter = new PrometheusExporter(target, 1);
+        exporter.export(Sources.DOMAIN + ":type=Wide,*", Long.MAX_VALUE);
+        exporter.refresh();
+        System.out.println();
+        System.out.println(String.format("%s samples in %s families",
+                                         exporter.getSamples(),
+                                         exporter.getFamilies()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        exporter.shutdown();
+    }
+}
@@ -0,0 +1,109 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXConnectorServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.BasicMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.LocalMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.proxy.CascadingProxy;
+
+/**
+ * The cost of reading an attribute of a source MBean through its
+ * {@link CascadingProxy}, over a {@link LocalMBeanServerConnectionFactory}
+ * (the proxy overhead alone) and over a loopback RMI connector (the proxy
+ * plus a real round trip). The native read of the source MBean is the
+ * baseline of the local transport.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyGetAttributeBenchmark {
+
+    @Param({ "local", "rmi" })
+    public String              transport;
+
+    private JMXConnector       connector;
+    private ObjectName         name;
+    private CascadingProxy     proxy;
+    private JMXConnectorServer server;
+    private MBeanServer        source;
+
+    @Benchmark
+    public Object getAttribute() throws Exception {
+        return proxy.getAttribute("Value");
+    }
+
+    @Benchmark
+    public Object getPayload() throws Exception {
+        return proxy.getAttribute("Payload");
+    }
+
+    @Benchmark
+    public Object nativeGetAttribute() throws Exception {
+        return source.getAttribute(name, "Value");
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        source = Sources.newSource(1);
+        name = Sources.nameOf(0);
+        final MBeanServerConnectionFactory factory;
+        if ("local".equals(transport)) {
+            factory = LocalMBeanServerConnectionFactory.newInstance(source);
+        } else {
+            server = Sources.export(source);
+            connector = JMXConnectorFactory.connect(server.getAddress());
+            factory = BasicMBeanServerConnectionFactory.newInstance(connector);
+        }
+        proxy = new CascadingProxy(name, factory);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (connector != null) {
+            connector.close();
+        }
+        if (server != null) {
+            server.stop();
+        }
+    }
+}
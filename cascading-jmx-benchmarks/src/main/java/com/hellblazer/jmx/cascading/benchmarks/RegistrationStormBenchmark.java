@@ -0,0 +1,103 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.LocalMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * The cost to a started {@link ProxyCascadingAgent} of a storm of
+ * registration and unregistration notifications: a burst of MBeans is
+ * registered in, then unregistered from, the source <tt>MBeanServer</tt>.
+ * Over a local connection the notifications are handled on the registering
+ * thread, so the score is the time the agent takes to create and register, or
+ * unregister, one proxy.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationStormBenchmark {
+    private static final int    BURST = 1000;
+
+    /**
+     * The number of MBeans already cascaded when the storm hits
+     */
+    @Param({ "0", "10000" })
+    public int                  cascaded;
+
+    private ProxyCascadingAgent agent;
+    private final Sample[]      mbeans = new Sample[BURST];
+    private final ObjectName[]  names  = new ObjectName[BURST];
+    private MBeanServer         source;
+
+    @Setup
+    public void setup() throws Exception {
+        source = Sources.newSource(cascaded);
+        for (int i = 0; i < BURST; i++) {
+            mbeans[i] = new Sample();
+            names[i] = Sources.nameOf(cascaded + i);
+        }
+        agent = new ProxyCascadingAgent(
+                                        LocalMBeanServerConnectionFactory.newInstance(source),
+                                        Sources.PATTERN, null, "n1",
+                                        MBeanServerFactory.newMBeanServer(),
+                                        "benchmark");
+        agent.start();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2 * BURST)
+    public int storm() throws Exception {
+        for (int i = 0; i < BURST; i++) {
+            source.registerMBean(mbeans[i], names[i]);
+        }
+        final int count = agent.getCascadedMBeanCount();
+        for (int i = 0; i < BURST; i++) {
+            source.unregisterMBean(names[i]);
+        }
+        return count;
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        agent.stop();
+    }
+}
@@ -0,0 +1,85 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+
+/**
+ * A trivial source MBean, whose attributes cost next to nothing to compute so
+ * that the benchmarks measure the cascading machinery rather than the MBean.
+ * Notifications are delivered synchronously, on the thread calling
+ * {@link #fire()}, and carry the <tt>System.nanoTime()</tt> of their emission
+ * as user data.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class Sample extends NotificationBroadcasterSupport implements
+        SampleMBean {
+    public static final String NOTIFICATION_TYPE = "com.hellblazer.jmx.cascading.benchmarks.sample";
+
+    private final AtomicLong   counter           = new AtomicLong();
+    private final String       payload;
+    private final AtomicLong   sequence          = new AtomicLong();
+    private volatile int       value;
+
+    public Sample() {
+        this(16);
+    }
+
+    /**
+     * @param payloadSize
+     *            - the length of the <tt>Payload</tt> attribute
+     */
+    public Sample(int payloadSize) {
+        final char[] chars = new char[payloadSize];
+        Arrays.fill(chars, 'x');
+        payload = new String(chars);
+    }
+
+    @Override
+    public void fire() {
+        final Notification notification = new Notification(
+                                                           NOTIFICATION_TYPE,
+                                                           this,
+                                                           sequence.incrementAndGet());
+        notification.setUserData(System.nanoTime());
+        sendNotification(notification);
+    }
+
+    @Override
+    public long getCounter() {
+        return counter.incrementAndGet();
+    }
+
+    @Override
+    public String getPayload() {
+        return payload;
+    }
+
+    @Override
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public void setValue(int value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,37 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+/**
+ * The management interface of the source MBeans of the benchmarks
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface SampleMBean {
+
+    /**
+     * Emit one notification to the registered listeners
+     */
+    void fire();
+
+    long getCounter();
+
+    String getPayload();
+
+    int getValue();
+
+    void setValue(int value);
+}
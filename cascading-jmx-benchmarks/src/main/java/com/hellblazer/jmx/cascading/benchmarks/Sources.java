@@ -0,0 +1,95 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.io.IOException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * Fixtures shared by the benchmarks: populated source <tt>MBeanServer</tt>s
+ * and loopback connector servers exporting them.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public final class Sources {
+    public static final String DOMAIN  = "bench";
+
+    /**
+     * The pattern matching all the sample MBeans
+     */
+    public static final ObjectName PATTERN = name(DOMAIN + ":*");
+
+    /**
+     * Export the MBeanServer on a loopback RMI connector server. No RMI
+     * registry is needed: the address of the returned server embeds the stub.
+     */
+    public static JMXConnectorServer export(MBeanServer mbs) throws IOException {
+        final JMXServiceURL url = new JMXServiceURL("service:jmx:rmi://127.0.0.1");
+        final JMXConnectorServer server = JMXConnectorServerFactory.newJMXConnectorServer(url,
+                                                                                          null,
+                                                                                          mbs);
+        server.start();
+        return server;
+    }
+
+    /**
+     * @return the name of the <var>i</var>th sample MBean
+     */
+    public static ObjectName nameOf(int i) {
+        return name(String.format("%s:type=Sample,id=%s", DOMAIN, i));
+    }
+
+    /**
+     * @return a new, unregistered, <tt>MBeanServer</tt> holding
+     *         <var>mbeans</var> sample MBeans
+     */
+    public static MBeanServer newSource(int mbeans) throws JMException {
+        return newSource(mbeans, 16);
+    }
+
+    /**
+     * @return a new, unregistered, <tt>MBeanServer</tt> holding
+     *         <var>mbeans</var> sample MBeans, whose <tt>Payload</tt> is
+     *         <var>payloadSize</var> characters long
+     */
+    public static MBeanServer newSource(int mbeans, int payloadSize)
+                                                                    throws JMException {
+        final MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+        for (int i = 0; i < mbeans; i++) {
+            mbs.registerMBean(new Sample(payloadSize), nameOf(i));
+        }
+        return mbs;
+    }
+
+    private static ObjectName name(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private Sources() {
+    }
+}
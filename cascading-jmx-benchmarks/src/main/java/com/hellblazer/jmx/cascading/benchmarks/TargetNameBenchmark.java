@@ -0,0 +1,80 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * The cost of {@link ProxyCascadingAgent#getTargetName(String, ObjectName)},
+ * computed for every mounted MBean and every translated notification, over
+ * names with few and many key properties.
+ * 
+ * @author hhildebrand
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetNameBenchmark {
+    private static final int   NAMES = 1024;
+
+    private int                next;
+    private final ObjectName[] wide  = new ObjectName[NAMES];
+    private final ObjectName[] small = new ObjectName[NAMES];
+
+    @Setup
+    public void setup() throws Exception {
+        for (int i = 0; i < NAMES; i++) {
+            small[i] = Sources.nameOf(i);
+            wide[i] = new ObjectName(
+                                     String.format("%s:type=Sample,name=sample-%s,group=g%s,zone=z%s,rack=r%s,host=h%s",
+                                                   Sources.DOMAIN, i, i % 7,
+                                                   i % 3, i % 11, i));
+        }
+    }
+
+    @Benchmark
+    public ObjectName smallName() {
+        return ProxyCascadingAgent.getTargetName("n1", small[next()]);
+    }
+
+    @Benchmark
+    public ObjectName wideName() {
+        return ProxyCascadingAgent.getTargetName("n1", wide[next()]);
+    }
+
+    private int next() {
+        next = (next + 1) & (NAMES - 1);
+        return next;
+    }
+}
@@ -0,0 +1,295 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.loadtest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+
+import com.hellblazer.jmx.cascading.CascadingService;
+import com.hellblazer.jmx.cascading.MountResult;
+import com.hellblazer.jmx.cascading.MountSpec;
+import com.hellblazer.jmx.cascading.benchmarks.Sources;
+import com.hellblazer.jmx.cascading.metrics.LatencyHistogram;
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * A load test of one aggregator: a {@link CascadingService} mounting a fleet
+ * of {@link SimulatedNode simulated nodes}, all in process. The run proceeds in
+ * phases:
+ * <ol>
+ * <li>the fleet is started and every node exported on a loopback connector;</li>
+ * <li>all nodes are mounted with {@link CascadingService#mountAll}, timing the
+ * mount and measuring the heap retained per cascaded MBean;</li>
+ * <li>the cascaded MBeans are scraped through the target <tt>MBeanServer</tt>
+ * while the nodes apply churn and emit notifications, measuring the scrape
+ * throughput and latency and the notification lag;</li>
+ * <li>once the churn has settled, the target <tt>MBeanServer</tt> is checked
+ * against the fleet.</li>
+ * </ol>
+ * The heap retained per MBean includes the client and server side state of the
+ * connectors, as both ends live in the same JVM. Run with a heap large enough
+ * for the fleet, e.g. <tt>-Xmx16g</tt> for 500 nodes of 5000 MBeans:
+ * 
+ * <pre>
+ * java -Xmx16g -cp benchmarks.jar com.hellblazer.jmx.cascading.loadtest.LoadTest \
+ *      nodes=500 mbeansPerNode=5000 payloadSize=64 churnPerSecond=2 notificationsPerSecond=5
+ * </pre>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class LoadTest {
+
+    /**
+     * The measurements of one run
+     */
+    public static class Report {
+        public long                   bytesPerMBean;
+        public long                   cascadedAfterSettle;
+        public long                   cascadedMBeans;
+        public long                   churned;
+        public long                   churnFailures;
+        public LoadTestConfig         config;
+        public long                   expectedAfterSettle;
+        public long                   fired;
+        public final LatencyHistogram lag              = new LatencyHistogram();
+        public long                   mountFailures;
+        public long                   mountMillis;
+        public final AtomicLong       received         = new AtomicLong();
+        public final AtomicLong       scrapeErrors     = new AtomicLong();
+        public final LatencyHistogram scrapeLatency    = new LatencyHistogram();
+        public double                 scrapesPerSecond;
+
+        @Override
+        public String toString() {
+            final StringBuilder b = new StringBuilder();
+            b.append(String.format("config: %s%n", config));
+            b.append(String.format("mount: %s nodes in %s ms, %s failed, %s MBeans cascaded%n",
+                                   config.nodes, mountMillis, mountFailures,
+                                   cascadedMBeans));
+            b.append(String.format("memory: %s bytes retained per cascaded MBean%n",
+                                   bytesPerMBean));
+            b.append(String.format("scrape: %.0f getAttribute/s, %s errors, latency mean=%.0fus p50=%sus p99=%sus p99.9=%sus max=%sus%n",
+                                   scrapesPerSecond, scrapeErrors.get(),
+                                   scrapeLatency.getMean() / 1000.0,
+                                   micros(scrapeLatency.getPercentile(0.5)),
+                                   micros(scrapeLatency.getPercentile(0.99)),
+                                   micros(scrapeLatency.getPercentile(0.999)),
+                                   micros(scrapeLatency.getMax())));
+            b.append(String.format("notifications: %s fired, %s received, lag mean=%.0fus p50=%sus p99=%sus max=%sus%n",
+                                   fired, received.get(), lag.getMean() / 1000.0,
+                                   micros(lag.getPercentile(0.5)),
+                                   micros(lag.getPercentile(0.99)),
+                                   micros(lag.getMax())));
+            b.append(String.format("churn: %s applied, %s failed; after settling %s cascaded, %s expected%n",
+                                   churned, churnFailures, cascadedAfterSettle,
+                                   expectedAfterSettle));
+            return b.toString();
+        }
+    }
+
+    public static void main(String[] argv) throws Exception {
+        final LoadTestConfig config = LoadTestConfig.parse(argv);
+        System.out.println(new LoadTest(config).run());
+        System.exit(0);
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private final LoadTestConfig      config;
+    private final List<SimulatedNode> fleet = new ArrayList<SimulatedNode>();
+
+    public LoadTest(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Run the load test
+     * 
+     * @return the measurements
+     */
+    public Report run() throws Exception {
+        final Report report = new Report();
+        report.config = config;
+        for (int i = 0; i < config.nodes; i++) {
+            final SimulatedNode node = new SimulatedNode(i, config);
+            node.start();
+            fleet.add(node);
+        }
+        final MBeanServer target = MBeanServerFactory.newMBeanServer();
+        final CascadingService service = new CascadingService(target);
+        service.setMaxConcurrentMounts(config.mountConcurrency);
+        final ScheduledThreadPoolExecutor driver = new ScheduledThreadPoolExecutor(
+                                                                                   config.driverThreads,
+                                                                                   daemons("Load driver"));
+        try {
+            mount(service, target, report);
+            listen(target, report);
+            load(driver, target, report);
+            settle(target, report);
+        } finally {
+            driver.shutdownNow();
+            for (String id : service.getMountPointIDs()) {
+                service.unmount(id);
+            }
+            for (SimulatedNode node : fleet) {
+                node.stop();
+            }
+        }
+        return report;
+    }
+
+    private ThreadFactory daemons(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, String.format("%s %s", prefix,
+                                                             count.incrementAndGet()));
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private void listen(MBeanServer target, final Report report)
+                                                                throws Exception {
+        final NotificationListener listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification,
+                                           Object handback) {
+                final Object emitted = notification.getUserData();
+                if (emitted instanceof Long) {
+                    report.lag.record(System.nanoTime() - (Long) emitted);
+                }
+                report.received.incrementAndGet();
+            }
+        };
+        for (SimulatedNode node : fleet) {
+            for (int i = 0; i < config.listenedPerNode; i++) {
+                target.addNotificationListener(ProxyCascadingAgent.getTargetName(node.getName(),
+                                                                                 Sources.nameOf(i)),
+                                               listener, null, null);
+            }
+        }
+    }
+
+    private void load(ScheduledThreadPoolExecutor driver,
+                      final MBeanServer target, final Report report)
+                                                                    throws InterruptedException {
+        final ObjectName[] names = target.queryNames(Sources.PATTERN, null).toArray(new ObjectName[0]);
+        final long deadline = System.nanoTime()
+                              + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+        final CountDownLatch done = new CountDownLatch(config.scrapeThreads);
+        final AtomicLong scrapes = new AtomicLong();
+        for (SimulatedNode node : fleet) {
+            node.startLoad(driver);
+        }
+        final long start = System.nanoTime();
+        final ThreadFactory scrapers = daemons("Scraper");
+        for (int t = 0; t < config.scrapeThreads; t++) {
+            final int first = t;
+            scrapers.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int i = first;
+                        while (System.nanoTime() < deadline) {
+                            final long begin = System.nanoTime();
+                            try {
+                                target.getAttribute(names[i], "Payload");
+                            } catch (Exception e) {
+                                // churned away, or the connection failed
+                                report.scrapeErrors.incrementAndGet();
+                            }
+                            report.scrapeLatency.record(System.nanoTime()
+                                                        - begin);
+                            scrapes.incrementAndGet();
+                            i = (i + config.scrapeThreads) % names.length;
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        final double seconds = (System.nanoTime() - start) / 1.0e9;
+        report.scrapesPerSecond = scrapes.get() / seconds;
+        for (SimulatedNode node : fleet) {
+            node.stopLoad();
+            report.churned += node.getChurned();
+            report.churnFailures += node.getChurnFailures();
+            report.fired += node.getFired();
+        }
+    }
+
+    private void mount(CascadingService service, MBeanServer target,
+                       Report report) throws Exception {
+        final MountSpec[] specs = new MountSpec[fleet.size()];
+        for (int i = 0; i < specs.length; i++) {
+            final SimulatedNode node = fleet.get(i);
+            specs[i] = new MountSpec(node.getAddress(), null, Sources.PATTERN,
+                                     node.getName());
+        }
+        final long before = usedHeap();
+        final long start = System.nanoTime();
+        final MountResult[] results = service.mountAll(specs);
+        report.mountMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                                                           - start);
+        for (MountResult result : results) {
+            if (!result.isMounted()) {
+                report.mountFailures++;
+            }
+        }
+        report.cascadedMBeans = target.queryNames(Sources.PATTERN, null).size();
+        if (report.cascadedMBeans > 0) {
+            report.bytesPerMBean = (usedHeap() - before)
+                                   / report.cascadedMBeans;
+        }
+    }
+
+    private void settle(MBeanServer target, Report report)
+                                                          throws InterruptedException {
+        Thread.sleep(TimeUnit.SECONDS.toMillis(config.settleSeconds));
+        for (SimulatedNode node : fleet) {
+            report.expectedAfterSettle += node.getMBeanCount();
+        }
+        report.cascadedAfterSettle = target.queryNames(Sources.PATTERN, null).size();
+    }
+}
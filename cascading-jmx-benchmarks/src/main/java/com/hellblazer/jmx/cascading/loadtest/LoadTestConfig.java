@@ -0,0 +1,171 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.loadtest;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * The parameters of a {@link LoadTest} run. Each parameter is a public field,
+ * which can be set from the command line as <tt>name=value</tt>.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class LoadTestConfig {
+
+    /**
+     * Parse the <tt>name=value</tt> arguments into a configuration
+     * 
+     * @throws IllegalArgumentException
+     *             if an argument does not name a parameter, or its value cannot
+     *             be parsed
+     */
+    public static LoadTestConfig parse(String[] args) {
+        final LoadTestConfig config = new LoadTestConfig();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException(
+                                                   String.format("Expected name=value: %s",
+                                                                 arg));
+            }
+            config.set(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        config.validate();
+        return config;
+    }
+
+    /**
+     * The number of MBean registrations replaced per second, per node
+     */
+    public double churnPerSecond          = 1;
+
+    /**
+     * The number of threads driving the churn and notifications of the fleet
+     */
+    public int    driverThreads           = 4;
+
+    /**
+     * The number of seconds the scrape, churn and notification load is applied
+     */
+    public int    durationSeconds         = 30;
+
+    /**
+     * The number of MBeans of each node whose notifications are listened to
+     * through the target <tt>MBeanServer</tt>. These MBeans are never churned.
+     */
+    public int    listenedPerNode         = 10;
+
+    /**
+     * The number of MBeans registered in each node
+     */
+    public int    mbeansPerNode           = 1000;
+
+    /**
+     * The maximum number of nodes mounted concurrently
+     */
+    public int    mountConcurrency        = 16;
+
+    /**
+     * The number of simulated nodes
+     */
+    public int    nodes                   = 10;
+
+    /**
+     * The number of notifications emitted per second, per node
+     */
+    public double notificationsPerSecond  = 10;
+
+    /**
+     * The length of the <tt>Payload</tt> attribute of each MBean
+     */
+    public int    payloadSize             = 16;
+
+    /**
+     * The number of threads scraping the cascaded MBeans
+     */
+    public int    scrapeThreads           = 8;
+
+    /**
+     * The number of seconds allowed for churn to settle before the target
+     * <tt>MBeanServer</tt> is checked against the fleet
+     */
+    public int    settleSeconds           = 5;
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (Field field : LoadTestConfig.class.getFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            try {
+                builder.append(field.getName()).append('=').append(field.get(this));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return builder.toString();
+    }
+
+    private void set(String name, String value) {
+        final Field field;
+        try {
+            field = LoadTestConfig.class.getField(name);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Unknown parameter: %s",
+                                                             name));
+        }
+        try {
+            if (field.getType() == int.class) {
+                field.setInt(this, Integer.parseInt(value));
+            } else {
+                field.setDouble(this, Double.parseDouble(value));
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid value of %s: %s",
+                                                             name, value));
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void validate() {
+        if (nodes < 1 || mbeansPerNode < 1 || scrapeThreads < 1
+            || driverThreads < 1 || mountConcurrency < 1) {
+            throw new IllegalArgumentException(
+                                               String.format("Counts must be positive: %s",
+                                                             this));
+        }
+        if (listenedPerNode < 0 || listenedPerNode > mbeansPerNode) {
+            throw new IllegalArgumentException(
+                                               String.format("listenedPerNode must be in [0, %s]: %s",
+                                                             mbeansPerNode,
+                                                             listenedPerNode));
+        }
+        if (churnPerSecond < 0 || notificationsPerSecond < 0
+            || durationSeconds < 0 || settleSeconds < 0 || payloadSize < 0) {
+            throw new IllegalArgumentException(
+                                               String.format("Rates and durations cannot be negative: %s",
+                                                             this));
+        }
+    }
+}
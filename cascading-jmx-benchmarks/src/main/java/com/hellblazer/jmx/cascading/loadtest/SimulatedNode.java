@@ -0,0 +1,194 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXServiceURL;
+
+import com.hellblazer.jmx.cascading.benchmarks.Sample;
+import com.hellblazer.jmx.cascading.benchmarks.Sources;
+
+/**
+ * One source <tt>MBeanServer</tt> of the simulated fleet, exported on a
+ * loopback RMI connector.
+ * <p>
+ * The first {@link LoadTestConfig#listenedPerNode} MBeans of the node are
+ * stable and emit the notifications of the node; the others are subject to
+ * churn, each churn event unregistering one of them and registering a
+ * replacement under a new name.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class SimulatedNode {
+    private final AtomicLong               churnFailures = new AtomicLong();
+    private final AtomicLong               churned       = new AtomicLong();
+    private final LoadTestConfig           config;
+    private final AtomicLong               fired         = new AtomicLong();
+    private final MBeanServer              mbs;
+    private final String                   name;
+    private int                            nextId;
+    private final Sample[]                 notifiers;
+    private JMXConnectorServer             server;
+    private final int[]                    slots;
+    private final List<ScheduledFuture<?>> tasks         = new ArrayList<ScheduledFuture<?>>();
+
+    public SimulatedNode(int index, LoadTestConfig config) {
+        this.config = config;
+        name = String.format("node-%s", index);
+        mbs = MBeanServerFactory.newMBeanServer();
+        notifiers = new Sample[config.listenedPerNode];
+        slots = new int[config.mbeansPerNode - config.listenedPerNode];
+    }
+
+    /**
+     * @return the address of the connector exporting the node
+     */
+    public JMXServiceURL getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * @return the number of churn events which failed
+     */
+    public long getChurnFailures() {
+        return churnFailures.get();
+    }
+
+    /**
+     * @return the number of churn events applied
+     */
+    public long getChurned() {
+        return churned.get();
+    }
+
+    /**
+     * @return the number of notifications emitted
+     */
+    public long getFired() {
+        return fired.get();
+    }
+
+    /**
+     * @return the number of sample MBeans currently registered
+     */
+    public int getMBeanCount() {
+        return mbs.queryNames(Sources.PATTERN, null).size();
+    }
+
+    /**
+     * @return the cascaded node name of the node
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Register the MBeans of the node and export it
+     */
+    public void start() throws JMException, IOException {
+        for (int i = 0; i < notifiers.length; i++) {
+            notifiers[i] = new Sample(config.payloadSize);
+            mbs.registerMBean(notifiers[i], Sources.nameOf(i));
+        }
+        nextId = notifiers.length;
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = nextId;
+            mbs.registerMBean(new Sample(config.payloadSize),
+                              Sources.nameOf(nextId++));
+        }
+        server = Sources.export(mbs);
+    }
+
+    /**
+     * Start applying churn and emitting notifications at the configured rates
+     */
+    public synchronized void startLoad(ScheduledExecutorService driver) {
+        if (config.churnPerSecond > 0 && slots.length > 0) {
+            tasks.add(driver.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    churn();
+                }
+            }, 0, periodOf(config.churnPerSecond), TimeUnit.MICROSECONDS));
+        }
+        if (config.notificationsPerSecond > 0 && notifiers.length > 0) {
+            tasks.add(driver.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    fire();
+                }
+            }, 0, periodOf(config.notificationsPerSecond),
+                                                 TimeUnit.MICROSECONDS));
+        }
+    }
+
+    /**
+     * Stop the load and the connector of the node
+     */
+    public void stop() throws IOException {
+        stopLoad();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Stop applying churn and emitting notifications
+     */
+    public synchronized void stopLoad() {
+        for (ScheduledFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+        tasks.clear();
+    }
+
+    private long periodOf(double perSecond) {
+        return Math.max(1, (long) (TimeUnit.SECONDS.toMicros(1) / perSecond));
+    }
+
+    // Runs on one driver thread at a time, as a fixed rate task
+    //
+    private void churn() {
+        final int slot = ThreadLocalRandom.current().nextInt(slots.length);
+        try {
+            mbs.unregisterMBean(Sources.nameOf(slots[slot]));
+            mbs.registerMBean(new Sample(config.payloadSize),
+                              Sources.nameOf(nextId));
+            slots[slot] = nextId++;
+            churned.incrementAndGet();
+        } catch (JMException e) {
+            churnFailures.incrementAndGet();
+        }
+    }
+
+    private void fire() {
+        notifiers[ThreadLocalRandom.current().nextInt(notifiers.length)].fire();
+        fired.incrementAndGet();
+    }
+}
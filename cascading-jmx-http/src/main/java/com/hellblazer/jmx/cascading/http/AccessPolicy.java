@@ -0,0 +1,138 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.ObjectName;
+
+/**
+ * The MBeans a {@link JmxHttpServer} lets its clients read and the operations
+ * it lets them invoke, in the manner of a Jolokia access policy.
+ * <p>
+ * Reads and searches are allowed on every MBean until a read pattern is
+ * {@link #allowRead allowed}; from then on they are limited to the MBeans
+ * matching one of the allowed patterns. Exec requests are refused unless an
+ * operation is {@link #allowExec allowed} on the MBean: a default policy does
+ * not let the clients invoke any operation, as operations such as those of
+ * the <tt>DiagnosticCommand</tt> or <tt>MLet</tt> MBeans run arbitrary
+ * commands or code.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class AccessPolicy {
+    /**
+     * The operation name allowing all the operations of the matching MBeans
+     */
+    public static final String ALL_OPERATIONS = "*";
+
+    private static class ExecRule {
+        final Set<String> operations;
+        final ObjectName  pattern;
+
+        ExecRule(ObjectName pattern, Set<String> operations) {
+            this.pattern = pattern;
+            this.operations = operations;
+        }
+    }
+
+    private final List<ExecRule>   execs = new CopyOnWriteArrayList<>();
+    private final List<ObjectName> reads = new CopyOnWriteArrayList<>();
+
+    /**
+     * Allow the operations on the MBeans matching the pattern
+     * 
+     * @param pattern
+     *            - the name, or the pattern of the names, of the MBeans
+     * @param operations
+     *            - the names of the operations, or {@link #ALL_OPERATIONS}
+     * @return this policy
+     */
+    public AccessPolicy allowExec(ObjectName pattern, String... operations) {
+        if (operations.length == 0) {
+            throw new IllegalArgumentException("No operations allowed on "
+                                               + pattern);
+        }
+        execs.add(new ExecRule(
+                               pattern,
+                               Collections.unmodifiableSet(new HashSet<>(
+                                                                         Arrays.asList(operations)))));
+        return this;
+    }
+
+    /**
+     * Allow reading and searching the MBeans matching the pattern, and limit
+     * the reads and searches to the allowed patterns
+     * 
+     * @param pattern
+     *            - the name, or the pattern of the names, of the MBeans
+     * @return this policy
+     */
+    public AccessPolicy allowRead(ObjectName pattern) {
+        reads.add(pattern);
+        return this;
+    }
+
+    /**
+     * @return true if some operation is allowed
+     */
+    public boolean isExecEnabled() {
+        return !execs.isEmpty();
+    }
+
+    /**
+     * @param name
+     *            - the name of an MBean
+     * @param operation
+     *            - the name of the operation, with or without its signature
+     * @return true if the operation may be invoked on the MBean
+     */
+    public boolean isExecutable(ObjectName name, String operation) {
+        final int paren = operation.indexOf('(');
+        final String operationName = paren < 0 ? operation
+                                              : operation.substring(0, paren);
+        for (ExecRule rule : execs) {
+            if (rule.pattern.apply(name)
+                && (rule.operations.contains(ALL_OPERATIONS) || rule.operations.contains(operationName))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param name
+     *            - the name of an MBean
+     * @return true if the MBean may be read, and found by searches
+     */
+    public boolean isReadable(ObjectName name) {
+        if (reads.isEmpty()) {
+            return true;
+        }
+        for (ObjectName pattern : reads) {
+            if (pattern.apply(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
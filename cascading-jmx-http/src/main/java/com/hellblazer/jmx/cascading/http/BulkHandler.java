@@ -0,0 +1,596 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import javax.management.RuntimeErrorException;
+import javax.management.RuntimeMBeanException;
+import javax.management.RuntimeOperationsException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hellblazer.jmx.cascading.FanOutExecutor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Handles the bulk POSTs of a {@link JmxHttpServer}.
+ * <p>
+ * All the requests of a POST are dispatched to the worker executor before the
+ * first response is written, so that reads of cascaded MBeans living on
+ * different mount points proceed in parallel. A read of an
+ * <tt>ObjectName</tt> pattern is split into one task per matching MBean. Each
+ * task runs in the bulkhead of the node of its MBean, so that a slow mount
+ * point holds only its share of the workers, and is cancelled if it has not
+ * completed by the deadline of the POST. The responses are then written in
+ * the order of the requests, each as soon as it is complete, directly to the
+ * chunked body of the exchange.
+ * </p>
+ * <p>
+ * The requests are checked against the {@link AccessPolicy} of the server,
+ * and a POST holds at most <var>maxBatch</var> requests, of which a pattern
+ * read matches at most <var>maxMatches</var> MBeans, so that one POST cannot
+ * flood the workers with tasks.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+class BulkHandler implements HttpHandler {
+    /**
+     * The response of one request
+     */
+    private abstract class Pending {
+        protected final JmxRequest request;
+
+        Pending(JmxRequest request) {
+            this.request = request;
+        }
+
+        abstract void cancel();
+
+        abstract void write(JsonGenerator generator, long deadline)
+                                                                   throws IOException;
+
+        protected void writeError(JsonGenerator generator, Throwable error)
+                                                                           throws IOException {
+            Throwable cause = unwrap(error);
+            errors.incrementAndGet();
+            generator.writeStartObject();
+            request.write(generator);
+            generator.writeStringField("error_type", cause.getClass().getName());
+            generator.writeStringField("error", String.valueOf(cause.getMessage()));
+            generator.writeNumberField("status", statusOf(cause));
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * The response of a request which could not be dispatched
+     */
+    private class Invalid extends Pending {
+        private final Exception failure;
+
+        Invalid(JmxRequest request, Exception failure) {
+            super(request);
+            this.failure = failure;
+        }
+
+        @Override
+        void cancel() {
+        }
+
+        @Override
+        void write(JsonGenerator generator, long deadline) throws IOException {
+            writeError(generator, failure);
+        }
+    }
+
+    /**
+     * The response of a read of an <tt>ObjectName</tt> pattern, an object of
+     * the attributes of each matching MBean
+     */
+    private class PatternRead extends Pending {
+        private final Map<ObjectName, Future<Object>> reads;
+
+        PatternRead(JmxRequest request, Map<ObjectName, Future<Object>> reads) {
+            super(request);
+            this.reads = reads;
+        }
+
+        @Override
+        void cancel() {
+            for (Future<Object> read : reads.values()) {
+                read.cancel(true);
+            }
+        }
+
+        @Override
+        void write(JsonGenerator generator, long deadline) throws IOException {
+            int unanswered = 0;
+            generator.writeStartObject();
+            request.write(generator);
+            generator.writeObjectFieldStart("value");
+            for (Map.Entry<ObjectName, Future<Object>> entry : reads.entrySet()) {
+                Object value;
+                try {
+                    value = get(entry.getValue(), deadline);
+                } catch (TimeoutException e) {
+                    entry.getValue().cancel(true);
+                    unanswered++;
+                    continue;
+                } catch (ExecutionException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Unable to read %s",
+                                                entry.getKey()), e.getCause());
+                    }
+                    continue;
+                }
+                generator.writeFieldName(entry.getKey().getCanonicalName());
+                JsonValues.write(generator, value);
+            }
+            generator.writeEndObject();
+            if (unanswered == 0) {
+                generator.writeNumberField("status", 200);
+            } else {
+                errors.incrementAndGet();
+                generator.writeStringField("error",
+                                           String.format("%s MBeans did not answer within %s ms",
+                                                         unanswered,
+                                                         timeoutMillis));
+                generator.writeNumberField("status", 504);
+            }
+            generator.writeNumberField("timestamp",
+                                       System.currentTimeMillis() / 1000);
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * The response of any other request
+     */
+    private class Single extends Pending {
+        private final Future<Object> future;
+
+        Single(JmxRequest request, Future<Object> future) {
+            super(request);
+            this.future = future;
+        }
+
+        @Override
+        void cancel() {
+            future.cancel(true);
+        }
+
+        @Override
+        void write(JsonGenerator generator, long deadline) throws IOException {
+            Object value;
+            try {
+                value = get(future, deadline);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                writeError(generator,
+                           new TimeoutException(
+                                                String.format("No answer within %s ms",
+                                                              timeoutMillis)));
+                return;
+            } catch (ExecutionException e) {
+                writeError(generator, e.getCause());
+                return;
+            }
+            generator.writeStartObject();
+            request.write(generator);
+            generator.writeFieldName("value");
+            JsonValues.write(generator, value);
+            generator.writeNumberField("status", 200);
+            generator.writeNumberField("timestamp",
+                                       System.currentTimeMillis() / 1000);
+            generator.writeEndObject();
+        }
+    }
+
+    static final int              DEFAULT_MAX_BATCH   = 1000;
+    static final int              DEFAULT_MAX_MATCHES = 10000;
+
+    private static final Logger   log                 = LoggerFactory.getLogger(BulkHandler.class);
+
+    private final AtomicLong      errors              = new AtomicLong();
+    private final FanOutExecutor  executor;
+    private final JsonFactory     factory             = new JsonFactory();
+    private volatile int          maxBatch            = DEFAULT_MAX_BATCH;
+    private volatile int          maxMatches          = DEFAULT_MAX_MATCHES;
+    private final AccessPolicy    policy;
+    private final AtomicLong      requests            = new AtomicLong();
+    private final MBeanServer     target;
+    private final long            timeoutMillis;
+
+    BulkHandler(MBeanServer target, FanOutExecutor executor,
+                AccessPolicy policy, long timeoutMillis) {
+        this.target = target;
+        this.executor = executor;
+        this.policy = policy;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    long getErrors() {
+        return errors.get();
+    }
+
+    int getMaxBatch() {
+        return maxBatch;
+    }
+
+    int getMaxMatches() {
+        return maxMatches;
+    }
+
+    long getRequests() {
+        return requests.get();
+    }
+
+    void setMaxBatch(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("The maximum batch must be positive: "
+                                               + max);
+        }
+        maxBatch = max;
+    }
+
+    void setMaxMatches(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException("The maximum matches must be positive: "
+                                               + max);
+        }
+        maxMatches = max;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            List<JmxRequest> batch;
+            boolean bulk;
+            try (JsonParser parser = factory.createParser(exchange.getRequestBody())) {
+                bulk = parser.nextToken() == JsonToken.START_ARRAY;
+                batch = JmxRequest.parse(parser, maxBatch);
+            } catch (JsonProcessingException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+            requests.addAndGet(batch.size());
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long expiry = System.nanoTime()
+                          + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            List<Pending> pending = new ArrayList<>(batch.size());
+            for (JmxRequest request : batch) {
+                pending.add(dispatch(request, expiry));
+            }
+            try {
+                exchange.getResponseHeaders().set("Content-Type",
+                                                  "application/json; charset=utf-8");
+                exchange.sendResponseHeaders(200, 0);
+                try (JsonGenerator generator = factory.createGenerator(exchange.getResponseBody(),
+                                                                       JsonEncoding.UTF8)) {
+                    if (bulk) {
+                        generator.writeStartArray();
+                    }
+                    for (Pending response : pending) {
+                        response.write(generator, deadline);
+                        generator.flush();
+                    }
+                    if (bulk) {
+                        generator.writeEndArray();
+                    }
+                }
+            } finally {
+                for (Pending response : pending) {
+                    response.cancel();
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Pending dispatch(final JmxRequest request, long expiry) {
+        final ObjectName name;
+        try {
+            if (request.getType() == null) {
+                throw new IllegalArgumentException("A request type is required");
+            }
+            if (request.getMBean() == null) {
+                throw new IllegalArgumentException("An mbean is required");
+            }
+            name = ObjectName.getInstance(request.getMBean());
+            switch (request.getType()) {
+                case "read":
+                    if (name.isPattern()) {
+                        return dispatchPatternRead(request, name, expiry);
+                    }
+                    if (!policy.isReadable(name)) {
+                        throw new SecurityException(
+                                                    String.format("Reading %s is not allowed",
+                                                                  name));
+                    }
+                    return new Single(request, submit(name, expiry, new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return read(name, request);
+                        }
+                    }));
+                case "search":
+                    return new Single(request, submit(name, expiry, new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return readable(target.queryNames(name, null));
+                        }
+                    }));
+                case "exec":
+                    if (request.getOperation() == null) {
+                        throw new IllegalArgumentException(
+                                                           "An operation is required");
+                    }
+                    if (!policy.isExecutable(name, request.getOperation())) {
+                        throw new SecurityException(
+                                                    String.format("Operation %s is not allowed on %s",
+                                                                  request.getOperation(),
+                                                                  name));
+                    }
+                    return new Single(request, submit(name, expiry, new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return exec(name, request);
+                        }
+                    }));
+                default:
+                    throw new IllegalArgumentException(
+                                                       String.format("Unknown request type: %s",
+                                                                     request.getType()));
+            }
+        } catch (MalformedObjectNameException | IllegalArgumentException
+                | SecurityException e) {
+            return new Invalid(request, e);
+        }
+    }
+
+    private Pending dispatchPatternRead(final JmxRequest request,
+                                        ObjectName pattern, long expiry) {
+        Set<ObjectName> names = readable(target.queryNames(pattern, null));
+        if (names.size() > maxMatches) {
+            throw new IllegalArgumentException(
+                                               String.format("%s matches %s MBeans, more than %s",
+                                                             pattern,
+                                                             names.size(),
+                                                             maxMatches));
+        }
+        Map<ObjectName, Future<Object>> reads = new LinkedHashMap<>();
+        for (final ObjectName name : names) {
+            reads.put(name, submit(name, expiry, new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return readAttributes(name, request.getAttributes());
+                }
+            }));
+        }
+        return new PatternRead(request, reads);
+    }
+
+    private Object exec(ObjectName name, JmxRequest request) throws Exception {
+        String operation = request.getOperation();
+        List<?> arguments = request.getArguments();
+        String[] signature = null;
+        int paren = operation.indexOf('(');
+        if (paren >= 0) {
+            if (!operation.endsWith(")")) {
+                throw new IllegalArgumentException(
+                                                   String.format("Malformed operation: %s",
+                                                                 operation));
+            }
+            String types = operation.substring(paren + 1,
+                                               operation.length() - 1).trim();
+            operation = operation.substring(0, paren);
+            signature = types.isEmpty() ? new String[0] : types.split("\\s*,\\s*");
+        } else {
+            for (MBeanOperationInfo info : target.getMBeanInfo(name).getOperations()) {
+                MBeanParameterInfo[] parameters = info.getSignature();
+                if (!info.getName().equals(operation)
+                    || parameters.length != arguments.size()) {
+                    continue;
+                }
+                if (signature != null) {
+                    throw new IllegalArgumentException(
+                                                       String.format("Operation %s is overloaded on %s, a signature is required",
+                                                                     operation,
+                                                                     name));
+                }
+                signature = new String[parameters.length];
+                for (int i = 0; i < parameters.length; i++) {
+                    signature[i] = parameters[i].getType();
+                }
+            }
+            if (signature == null) {
+                throw new IllegalArgumentException(
+                                                   String.format("No operation %s with %s arguments on %s",
+                                                                 operation,
+                                                                 arguments.size(),
+                                                                 name));
+            }
+        }
+        if (signature.length != arguments.size()) {
+            throw new IllegalArgumentException(
+                                               String.format("Operation %s takes %s arguments, not %s",
+                                                             request.getOperation(),
+                                                             signature.length,
+                                                             arguments.size()));
+        }
+        Object[] params = new Object[signature.length];
+        for (int i = 0; i < params.length; i++) {
+            params[i] = JsonValues.convert(arguments.get(i), signature[i]);
+        }
+        return target.invoke(name, operation, params, signature);
+    }
+
+    private Object get(Future<Object> future, long deadline)
+                                                            throws TimeoutException,
+                                                            ExecutionException {
+        try {
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()),
+                              TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        } catch (CancellationException e) {
+            throw new ExecutionException(e);
+        }
+    }
+
+    private Object read(ObjectName name, JmxRequest request) throws Exception {
+        if (request.isSingleAttribute()) {
+            return target.getAttribute(name, request.getAttributes()[0]);
+        }
+        return readAttributes(name, request.getAttributes());
+    }
+
+    private AttributeList readAttributes(ObjectName name, String[] attributes)
+                                                                              throws JMException {
+        if (attributes == null) {
+            List<String> readable = new ArrayList<>();
+            for (MBeanAttributeInfo info : target.getMBeanInfo(name).getAttributes()) {
+                if (info.isReadable()) {
+                    readable.add(info.getName());
+                }
+            }
+            attributes = readable.toArray(new String[readable.size()]);
+        }
+        return target.getAttributes(name, attributes);
+    }
+
+    private Set<ObjectName> readable(Set<ObjectName> names) {
+        for (Iterator<ObjectName> i = names.iterator(); i.hasNext();) {
+            if (!policy.isReadable(i.next())) {
+                i.remove();
+            }
+        }
+        return names;
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message)
+                                                                             throws IOException {
+        byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type",
+                                          "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private int statusOf(Throwable cause) {
+        if (cause instanceof SecurityException) {
+            return 403;
+        }
+        if (cause instanceof InstanceNotFoundException
+            || cause instanceof AttributeNotFoundException
+            || cause instanceof NoSuchMethodException) {
+            return 404;
+        }
+        if (cause instanceof IllegalArgumentException
+            || cause instanceof MalformedObjectNameException
+            || cause instanceof ClassNotFoundException) {
+            return 400;
+        }
+        if (cause instanceof TimeoutException
+            || cause instanceof CancellationException) {
+            return 504;
+        }
+        if (cause instanceof RejectedExecutionException) {
+            return 503;
+        }
+        return 500;
+    }
+
+    // The requests naming a cascaded MBean run in the bulkhead of its node
+    //
+    private Future<Object> submit(ObjectName name, long expiry,
+                                  Callable<Object> task) {
+        return executor.submit(executor.bulkheadOf(name), task, expiry);
+    }
+
+    private Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while (true) {
+            Throwable next;
+            if (cause instanceof MBeanException) {
+                next = ((MBeanException) cause).getTargetException();
+            } else if (cause instanceof ReflectionException) {
+                next = ((ReflectionException) cause).getTargetException();
+            } else if (cause instanceof RuntimeOperationsException) {
+                next = ((RuntimeOperationsException) cause).getTargetException();
+            } else if (cause instanceof RuntimeMBeanException) {
+                next = ((RuntimeMBeanException) cause).getTargetException();
+            } else if (cause instanceof RuntimeErrorException) {
+                next = ((RuntimeErrorException) cause).getTargetError();
+            } else if (cause instanceof ExecutionException) {
+                next = cause.getCause();
+            } else {
+                return cause;
+            }
+            if (next == null) {
+                return cause;
+            }
+            cause = next;
+        }
+    }
+}
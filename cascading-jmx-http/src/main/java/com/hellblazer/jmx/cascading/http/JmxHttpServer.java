@@ -0,0 +1,273 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.MBeanServer;
+
+import com.hellblazer.jmx.cascading.CascadingExecutors;
+import com.hellblazer.jmx.cascading.FanOutExecutor;
+import com.hellblazer.jmx.cascading.export.PrometheusExporter;
+import com.sun.net.httpserver.Authenticator;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * An embedded HTTP endpoint exposing the read, search and exec operations of
+ * a target <tt>MBeanServer</tt> as JSON, so that collectors which speak HTTP
+ * can scrape the cascaded MBeans without a JMX client.
+ * <p>
+ * The endpoint accepts POSTs to {@link #CONTEXT} whose body is a single
+ * request, or an array of requests, in the form of the Jolokia protocol. The
+ * requests of a bulk POST are executed in parallel and their responses are
+ * streamed back in order, so that neither the reads of slow mount points nor
+ * the size of the result hold up or buffer the whole response.
+ * </p>
+ * <p>
+ * The requests are limited by an {@link AccessPolicy}: by default every MBean
+ * may be read and searched, and no operation may be invoked. Pass an
+ * <tt>Authenticator</tt> to authenticate the clients, and an
+ * <tt>HttpsConfigurator</tt> to serve HTTPS rather than HTTP.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class JmxHttpServer implements JmxHttpServerMBean {
+    public static final String    CONTEXT         = "/jmx";
+    public static final String    METRICS_CONTEXT = "/metrics";
+
+    private final Authenticator   authenticator;
+    private final ExecutorService dispatcher;
+    private final BulkHandler     handler;
+    private final AccessPolicy    policy;
+    private final HttpServer      server;
+    private final long            timeoutMillis;
+    private final FanOutExecutor  workers;
+
+    /**
+     * @param target
+     *            - the <tt>MBeanServer</tt> to expose
+     * @param address
+     *            - the address to listen on
+     * @param executor
+     *            - the executor of the requests, usually the
+     *            {@link com.hellblazer.jmx.cascading.CascadingService#getFanOutExecutor()
+     *            fan-out executor} of the cascading service of the target
+     * @param timeoutMillis
+     *            - the time allowed to answer all the requests of a POST
+     * @throws IOException
+     *             if the address cannot be bound
+     */
+    public JmxHttpServer(MBeanServer target, InetSocketAddress address,
+                         FanOutExecutor executor, long timeoutMillis)
+                                                                     throws IOException {
+        this(target, address, executor, false, timeoutMillis,
+             new AccessPolicy(), null, null);
+    }
+
+    /**
+     * @param target
+     *            - the <tt>MBeanServer</tt> to expose
+     * @param address
+     *            - the address to listen on
+     * @param executor
+     *            - the executor of the requests, usually the
+     *            {@link com.hellblazer.jmx.cascading.CascadingService#getFanOutExecutor()
+     *            fan-out executor} of the cascading service of the target
+     * @param timeoutMillis
+     *            - the time allowed to answer all the requests of a POST
+     * @param policy
+     *            - the MBeans which may be read, and the operations which may
+     *            be invoked
+     * @param authenticator
+     *            - the authenticator of the clients, or null
+     * @param https
+     *            - the configuration of HTTPS, or null to serve HTTP
+     * @throws IOException
+     *             if the address cannot be bound
+     */
+    public JmxHttpServer(MBeanServer target, InetSocketAddress address,
+                         FanOutExecutor executor, long timeoutMillis,
+                         AccessPolicy policy, Authenticator authenticator,
+                         HttpsConfigurator https) throws IOException {
+        this(target, address, executor, false, timeoutMillis, policy,
+             authenticator, https);
+    }
+
+    /**
+     * @param target
+     *            - the <tt>MBeanServer</tt> to expose
+     * @param address
+     *            - the address to listen on
+     * @param threads
+     *            - the number of threads executing the requests, of which the
+     *            requests to one node hold at most a quarter
+     * @param timeoutMillis
+     *            - the time allowed to answer all the requests of a POST
+     * @throws IOException
+     *             if the address cannot be bound
+     */
+    public JmxHttpServer(MBeanServer target, InetSocketAddress address,
+                         int threads, long timeoutMillis) throws IOException {
+        this(target, address, threads, timeoutMillis, new AccessPolicy(),
+             null, null);
+    }
+
+    /**
+     * @param target
+     *            - the <tt>MBeanServer</tt> to expose
+     * @param address
+     *            - the address to listen on
+     * @param threads
+     *            - the number of threads executing the requests, of which the
+     *            requests to one node hold at most a quarter
+     * @param timeoutMillis
+     *            - the time allowed to answer all the requests of a POST
+     * @param policy
+     *            - the MBeans which may be read, and the operations which may
+     *            be invoked
+     * @param authenticator
+     *            - the authenticator of the clients, or null
+     * @param https
+     *            - the configuration of HTTPS, or null to serve HTTP
+     * @throws IOException
+     *             if the address cannot be bound
+     */
+    public JmxHttpServer(MBeanServer target, InetSocketAddress address,
+                         int threads, long timeoutMillis, AccessPolicy policy,
+                         Authenticator authenticator, HttpsConfigurator https)
+                                                                             throws IOException {
+        this(target, address, new FanOutExecutor("Cascading http worker",
+                                                 threads,
+                                                 Math.max(1, threads / 4),
+                                                 Integer.MAX_VALUE), true,
+             timeoutMillis, policy, authenticator, https);
+    }
+
+    private JmxHttpServer(MBeanServer target, InetSocketAddress address,
+                          FanOutExecutor executor, boolean owned,
+                          long timeoutMillis, AccessPolicy policy,
+                          Authenticator authenticator, HttpsConfigurator https)
+                                                                               throws IOException {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive: "
+                                               + timeoutMillis);
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("An access policy is required");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.authenticator = authenticator;
+        this.policy = policy;
+        workers = owned ? executor : null;
+        dispatcher = Executors.newCachedThreadPool(CascadingExecutors.newThreadFactory("Cascading http dispatcher"));
+        handler = new BulkHandler(target, executor, policy, timeoutMillis);
+        if (https == null) {
+            server = HttpServer.create(address, 0);
+        } else {
+            final HttpsServer httpsServer = HttpsServer.create(address, 0);
+            httpsServer.setHttpsConfigurator(https);
+            server = httpsServer;
+        }
+        authenticate(server.createContext(CONTEXT, handler));
+        server.setExecutor(dispatcher);
+    }
+
+    @Override
+    public long getErrors() {
+        return handler.getErrors();
+    }
+
+    @Override
+    public int getMaxBatch() {
+        return handler.getMaxBatch();
+    }
+
+    @Override
+    public int getMaxMatches() {
+        return handler.getMaxMatches();
+    }
+
+    @Override
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public long getRequests() {
+        return handler.getRequests();
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @Override
+    public boolean isExecEnabled() {
+        return policy.isExecEnabled();
+    }
+
+    /**
+     * Serve the scrapes of the exporter at {@link #METRICS_CONTEXT}
+     * 
+     * @param exporter
+     */
+    public void publish(PrometheusExporter exporter) {
+        authenticate(server.createContext(METRICS_CONTEXT,
+                                          new MetricsHandler(exporter)));
+    }
+
+    @Override
+    public void setMaxBatch(int max) {
+        handler.setMaxBatch(max);
+    }
+
+    @Override
+    public void setMaxMatches(int max) {
+        handler.setMaxMatches(max);
+    }
+
+    /**
+     * Start listening
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop listening, abandoning the requests in flight
+     */
+    public void stop() {
+        server.stop(0);
+        dispatcher.shutdownNow();
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    private void authenticate(HttpContext context) {
+        if (authenticator != null) {
+            context.setAuthenticator(authenticator);
+        }
+    }
+}
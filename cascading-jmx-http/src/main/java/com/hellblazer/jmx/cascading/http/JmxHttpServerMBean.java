@@ -0,0 +1,75 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+/**
+ * The management interface of the HTTP endpoint
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface JmxHttpServerMBean {
+
+    /**
+     * @return the number of requests which failed, in whole or in part
+     */
+    long getErrors();
+
+    /**
+     * @return the maximum number of requests of a POST
+     */
+    int getMaxBatch();
+
+    /**
+     * @return the maximum number of MBeans matched by the pattern of a read
+     */
+    int getMaxMatches();
+
+    /**
+     * @return the port the endpoint listens on
+     */
+    int getPort();
+
+    /**
+     * @return the number of requests received, counting each request of a
+     *         bulk POST
+     */
+    long getRequests();
+
+    /**
+     * @return the time, in milliseconds, allowed to answer all the requests
+     *         of a POST
+     */
+    long getTimeoutMillis();
+
+    /**
+     * @return true if the access policy allows some operation to be invoked
+     */
+    boolean isExecEnabled();
+
+    /**
+     * @param max
+     *            - the maximum number of requests of a POST; a larger POST
+     *            is refused as a whole
+     */
+    void setMaxBatch(int max);
+
+    /**
+     * @param max
+     *            - the maximum number of MBeans matched by the pattern of a
+     *            read; a read of a pattern matching more fails
+     */
+    void setMaxMatches(int max);
+}
@@ -0,0 +1,236 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * One request of a bulk POST, in the form of the Jolokia protocol:
+ * 
+ * <pre>
+ * {"type": "read", "mbean": "java.lang:type=Memory", "attribute": "HeapMemoryUsage"}
+ * {"type": "read", "mbean": "*:cascadedNode=n1,*", "attribute": ["Count", "Rate"]}
+ * {"type": "search", "mbean": "com.example:*"}
+ * {"type": "exec", "mbean": "com.example:type=Cache", "operation": "evict(java.lang.String)", "arguments": ["key"]}
+ * </pre>
+ * 
+ * The fields are kept as they were sent; they are validated when the request
+ * is executed, so that one bad request does not fail the others of the bulk.
+ * 
+ * @author hhildebrand
+ * 
+ */
+final class JmxRequest {
+
+    /**
+     * Parse one request, or an array of requests, from the parser. The parser
+     * must be positioned on the first token of the body.
+     * 
+     * @param parser
+     * @param maxRequests
+     *            - the maximum number of requests
+     * @return the requests
+     * @throws IOException
+     *             if the body is not valid, or holds more than
+     *             <var>maxRequests</var> requests
+     */
+    static List<JmxRequest> parse(JsonParser parser, int maxRequests)
+                                                                    throws IOException {
+        JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            return Collections.singletonList(parseRequest(parser));
+        }
+        if (token != JsonToken.START_ARRAY) {
+            throw new JsonParseException(
+                                         "Expected a request or an array of requests",
+                                         parser.getCurrentLocation());
+        }
+        List<JmxRequest> requests = new ArrayList<>();
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new JsonParseException("Expected a request",
+                                             parser.getCurrentLocation());
+            }
+            if (requests.size() >= maxRequests) {
+                throw new JsonParseException(
+                                             String.format("More than %s requests",
+                                                           maxRequests),
+                                             parser.getCurrentLocation());
+            }
+            requests.add(parseRequest(parser));
+        }
+        return requests;
+    }
+
+    private static JmxRequest parseRequest(JsonParser parser)
+                                                             throws IOException {
+        JmxRequest request = new JmxRequest();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "type":
+                    request.type = parser.getValueAsString();
+                    break;
+                case "mbean":
+                    request.mbean = parser.getValueAsString();
+                    break;
+                case "attribute":
+                    request.attribute = parseValue(parser);
+                    break;
+                case "operation":
+                    request.operation = parser.getValueAsString();
+                    break;
+                case "arguments":
+                    request.arguments = parseValue(parser);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return request;
+    }
+
+    private static Object parseValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_ARRAY:
+                List<Object> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    list.add(parseValue(parser));
+                }
+                return list;
+            case START_OBJECT:
+                Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    map.put(field, parseValue(parser));
+                }
+                return map;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new JsonParseException("Unexpected "
+                                             + parser.getCurrentToken(),
+                                             parser.getCurrentLocation());
+        }
+    }
+
+    private Object arguments;
+    private Object attribute;
+    private String mbean;
+    private String operation;
+    private String type;
+
+    private JmxRequest() {
+    }
+
+    /**
+     * @return the arguments of an exec request, never null
+     */
+    List<?> getArguments() {
+        if (arguments == null) {
+            return Collections.emptyList();
+        }
+        if (arguments instanceof List) {
+            return (List<?>) arguments;
+        }
+        return Collections.singletonList(arguments);
+    }
+
+    /**
+     * @return the attributes requested, or null if all the attributes are
+     *         requested
+     */
+    String[] getAttributes() {
+        if (attribute == null) {
+            return null;
+        }
+        if (attribute instanceof List) {
+            List<?> list = (List<?>) attribute;
+            String[] attributes = new String[list.size()];
+            for (int i = 0; i < attributes.length; i++) {
+                attributes[i] = String.valueOf(list.get(i));
+            }
+            return attributes;
+        }
+        return new String[] { String.valueOf(attribute) };
+    }
+
+    String getMBean() {
+        return mbean;
+    }
+
+    String getOperation() {
+        return operation;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    /**
+     * @return true if a single attribute was requested, in which case the
+     *         value of the response is the value of the attribute rather than
+     *         an object of the attributes
+     */
+    boolean isSingleAttribute() {
+        return attribute != null && !(attribute instanceof List);
+    }
+
+    /**
+     * Echo the request in its response
+     * 
+     * @param generator
+     * @throws IOException
+     */
+    void write(JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("request");
+        writeField(generator, "type", type);
+        writeField(generator, "mbean", mbean);
+        writeField(generator, "attribute", attribute);
+        writeField(generator, "operation", operation);
+        writeField(generator, "arguments", arguments);
+        generator.writeEndObject();
+    }
+
+    private void writeField(JsonGenerator generator, String field, Object value)
+                                                                                throws IOException {
+        if (value != null) {
+            generator.writeFieldName(field);
+            JsonValues.write(generator, value);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Conversion between JMX values and JSON. Values are written straight to the
+ * generator as they are walked, without an intermediate tree, so that the size
+ * of a response is bounded by the buffer of the generator rather than by the
+ * size of the result.
+ * 
+ * @author hhildebrand
+ * 
+ */
+final class JsonValues {
+    /**
+     * Values nested deeper than this are written as their string form, which
+     * guards against cyclic collections
+     */
+    private static final int MAX_DEPTH = 32;
+
+    /**
+     * Convert an argument parsed from JSON to the type of an operation
+     * parameter.
+     * 
+     * @param json
+     *            - the parsed argument
+     * @param type
+     *            - the class name of the parameter, as in the
+     *            <tt>MBeanParameterInfo</tt>
+     * @return the converted argument
+     * @throws ClassNotFoundException
+     *             if the parameter type is unknown
+     * @throws MalformedObjectNameException
+     *             if an <tt>ObjectName</tt> argument is malformed
+     * @throws IllegalArgumentException
+     *             if the argument cannot be converted
+     */
+    static Object convert(Object json, String type)
+                                                   throws ClassNotFoundException,
+                                                   MalformedObjectNameException {
+        if (json == null) {
+            return null;
+        }
+        switch (type) {
+            case "java.lang.String":
+                return json.toString();
+            case "int":
+            case "java.lang.Integer":
+                return number(json).intValue();
+            case "long":
+            case "java.lang.Long":
+                return number(json).longValue();
+            case "short":
+            case "java.lang.Short":
+                return number(json).shortValue();
+            case "byte":
+            case "java.lang.Byte":
+                return number(json).byteValue();
+            case "double":
+            case "java.lang.Double":
+                return number(json).doubleValue();
+            case "float":
+            case "java.lang.Float":
+                return number(json).floatValue();
+            case "boolean":
+            case "java.lang.Boolean":
+                return json instanceof Boolean ? json
+                                              : Boolean.valueOf(json.toString());
+            case "char":
+            case "java.lang.Character":
+                String s = json.toString();
+                if (s.length() != 1) {
+                    throw new IllegalArgumentException(
+                                                       String.format("Not a character: %s",
+                                                                     s));
+                }
+                return s.charAt(0);
+            case "java.math.BigDecimal":
+                return new BigDecimal(json.toString());
+            case "java.math.BigInteger":
+                return new BigInteger(json.toString());
+            case "javax.management.ObjectName":
+                return ObjectName.getInstance(json.toString());
+            default:
+        }
+        Class<?> clazz = Class.forName(type, false,
+                                       JsonValues.class.getClassLoader());
+        if (clazz.isArray() && json instanceof List) {
+            List<?> list = (List<?>) json;
+            Class<?> component = clazz.getComponentType();
+            Object array = Array.newInstance(component, list.size());
+            for (int i = 0; i < list.size(); i++) {
+                Array.set(array, i, convert(list.get(i), component.getName()));
+            }
+            return array;
+        }
+        if (clazz.isInstance(json)) {
+            return json;
+        }
+        throw new IllegalArgumentException(
+                                           String.format("Cannot convert %s to %s",
+                                                         json, type));
+    }
+
+    /**
+     * Write the JMX value to the generator
+     * 
+     * @param generator
+     * @param value
+     * @throws IOException
+     */
+    static void write(JsonGenerator generator, Object value) throws IOException {
+        write(generator, value, 0);
+    }
+
+    private static Number number(Object json) {
+        if (json instanceof Number) {
+            return (Number) json;
+        }
+        try {
+            return new BigDecimal(json.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Not a number: %s",
+                                                             json));
+        }
+    }
+
+    private static void write(JsonGenerator generator, Object value, int depth)
+                                                                              throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof String) {
+            generator.writeString((String) value);
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Short
+                   || value instanceof Byte) {
+            generator.writeNumber(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            generator.writeNumber((Long) value);
+        } else if (value instanceof Double) {
+            generator.writeNumber((Double) value);
+        } else if (value instanceof Float) {
+            generator.writeNumber((Float) value);
+        } else if (value instanceof BigDecimal) {
+            generator.writeNumber((BigDecimal) value);
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Number) {
+            generator.writeNumber(value.toString());
+        } else if (value instanceof ObjectName) {
+            generator.writeString(((ObjectName) value).getCanonicalName());
+        } else if (value instanceof Date) {
+            generator.writeNumber(((Date) value).getTime());
+        } else if (value instanceof Character || value instanceof Enum) {
+            generator.writeString(value.toString());
+        } else if (depth >= MAX_DEPTH) {
+            generator.writeString(value.toString());
+        } else if (value instanceof AttributeList) {
+            generator.writeStartObject();
+            for (Attribute attribute : ((AttributeList) value).asList()) {
+                generator.writeFieldName(attribute.getName());
+                write(generator, attribute.getValue(), depth + 1);
+            }
+            generator.writeEndObject();
+        } else if (value instanceof CompositeData) {
+            CompositeData composite = (CompositeData) value;
+            generator.writeStartObject();
+            for (String key : composite.getCompositeType().keySet()) {
+                generator.writeFieldName(key);
+                write(generator, composite.get(key), depth + 1);
+            }
+            generator.writeEndObject();
+        } else if (value instanceof TabularData) {
+            generator.writeStartArray();
+            for (Object row : ((TabularData) value).values()) {
+                write(generator, row, depth + 1);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(entry.getKey()));
+                write(generator, entry.getValue(), depth + 1);
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Iterable) {
+            generator.writeStartArray();
+            for (Object element : (Iterable<?>) value) {
+                write(generator, element, depth + 1);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Object[]) {
+            generator.writeStartArray();
+            for (Object element : (Object[]) value) {
+                write(generator, element, depth + 1);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof long[]) {
+            generator.writeStartArray();
+            for (long element : (long[]) value) {
+                generator.writeNumber(element);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof double[]) {
+            generator.writeStartArray();
+            for (double element : (double[]) value) {
+                generator.writeNumber(element);
+            }
+            generator.writeEndArray();
+        } else if (value.getClass().isArray()) {
+            generator.writeStartArray();
+            for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                write(generator, Array.get(value, i), depth + 1);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private JsonValues() {
+    }
+}
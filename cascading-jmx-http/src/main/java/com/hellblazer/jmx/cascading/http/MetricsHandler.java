@@ -0,0 +1,53 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.http;
+
+import java.io.IOException;
+
+import com.hellblazer.jmx.cascading.export.PrometheusExporter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * Serves the scrapes of a {@link PrometheusExporter}, streaming the rendered
+ * exposition into the chunked body of the exchange
+ * 
+ * @author hhildebrand
+ * 
+ */
+class MetricsHandler implements HttpHandler {
+    private final PrometheusExporter exporter;
+
+    MetricsHandler(PrometheusExporter exporter) {
+        this.exporter = exporter;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "GET");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type",
+                                              PrometheusExporter.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, 0);
+            exporter.render(exchange.getResponseBody());
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -52,6 +52,8 @@ package com.hellblazer.jmx.cascading;
 
 import java.io.IOException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanServerConnection;
@@ -172,26 +174,26 @@ public class BasicMBeanServerConnectionFactory implements
     }
 
     // The underlying MBeanServerConnection. Lazy evaluation done by
-    // getMBeanServerConnection(); Access should protected by
-    // synchronized() block.
+    // getMBeanServerConnection(); published without locking, as every
+    // operation of every proxy goes through getMBeanServerConnection().
     // Can be accessed by subclasses using getMBeanServerConnection();
     //
-    private MBeanServerConnection                connection;
+    private final AtomicReference<MBeanServerConnection> connection;
 
     // JMXConnector.
     // Can be accessed - getJMXConnector() by subclasses.
     //
-    private final JMXConnector                   connector;
+    private final JMXConnector                           connector;
 
-    private final NotificationBroadcasterSupport emitter;
+    private final NotificationBroadcasterSupport         emitter;
 
-    private boolean                              failed = false;
+    private final AtomicBoolean                          failed;
 
-    private final NotificationListener           listener;
+    private final NotificationListener                   listener;
 
     // Subject
     //
-    private final Subject                        subject;
+    private final Subject                                subject;
 
     /**
      * Creates a new <tt>BasicMBeanServerConnectionFactory</tt> for the given
@@ -211,7 +213,7 @@ public class BasicMBeanServerConnectionFactory implements
                                              Subject delegationSubject) {
         this.connector = connector;
         subject = delegationSubject;
-        connection = null;
+        connection = new AtomicReference<MBeanServerConnection>();
         emitter = new NotificationBroadcasterSupport();
         listener = new NotificationListener() {
             @Override
@@ -219,7 +221,7 @@ public class BasicMBeanServerConnectionFactory implements
                 handleConnectionNotification(n, handback);
             }
         };
-        failed = false;
+        failed = new AtomicBoolean();
         if (connector != null) {
             this.connector.addConnectionNotificationListener(listener, null,
                                                              connector);
@@ -239,7 +241,7 @@ public class BasicMBeanServerConnectionFactory implements
     //
     @Override
     public String getConnectionId() throws IOException {
-        if (failed) {
+        if (failed.get()) {
             throw new IOException("connection already failed");
         }
         return getJMXConnector().getConnectionId();
@@ -262,7 +264,7 @@ public class BasicMBeanServerConnectionFactory implements
      * 
      * @return the underlying <tt>JMXConnector</tt>.
      **/
-    public synchronized JMXConnector getJMXConnector() {
+    public JMXConnector getJMXConnector() {
         return connector;
     }
 
@@ -281,6 +283,11 @@ public class BasicMBeanServerConnectionFactory implements
      * </p>
      * This same <code>MBeanServerConnection</code> will then be returned by
      * subsequent calls. This behaviour can be changed by subclasses.
+     * <p>
+     * This method does not lock: should concurrent first calls race, each
+     * obtains a connection from the connector but only the first one published
+     * is ever returned.
+     * </p>
      * 
      * @return an object that implements the <code>MBeanServerConnection</code>
      *         interface by forwarding its methods to the remote MBean server.
@@ -293,15 +300,17 @@ public class BasicMBeanServerConnectionFactory implements
      * @see JMXConnector#getMBeanServerConnection(Subject)
      */
     @Override
-    public synchronized MBeanServerConnection getMBeanServerConnection()
-                                                                        throws IOException {
-        if (failed) {
+    public MBeanServerConnection getMBeanServerConnection() throws IOException {
+        if (failed.get()) {
             throw new IOException("connection already failed");
         }
-        if (connection == null) {
-            connection = connector.getMBeanServerConnection(subject);
+        final MBeanServerConnection current = connection.get();
+        if (current != null) {
+            return current;
         }
-        return connection;
+        connection.compareAndSet(null,
+                                 connector.getMBeanServerConnection(subject));
+        return connection.get();
     }
 
     // MBeanServerConnectionFactory
@@ -325,12 +334,9 @@ public class BasicMBeanServerConnectionFactory implements
     private void handleConnectionNotification(Notification n, Object handback) {
 
         try {
-            if (JMXConnectionNotification.FAILED.equals(n.getType())) {
-                synchronized (this) {
-                    if (!failed && handback == getJMXConnector()) {
-                        failed = true;
-                    }
-                }
+            if (JMXConnectionNotification.FAILED.equals(n.getType())
+                && handback == getJMXConnector()) {
+                failed.set(true);
             }
         } catch (Exception x) {
             // OK. Don't want to know...
@@ -51,13 +51,16 @@ package com.hellblazer.jmx.cascading;
 
 // java import
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.Set;
 
 import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
 import javax.management.ListenerNotFoundException;
 import javax.management.MBeanNotificationInfo;
 import javax.management.MBeanRegistration;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
 import javax.management.Notification;
 import javax.management.NotificationBroadcasterSupport;
@@ -164,6 +167,12 @@ public abstract class CascadingAgent implements MBeanRegistration,
      */
     public static final String                   CASCADED_NODE_PROPERTY_NAME    = "cascadedNode";
 
+    /**
+     * the separator of the nodes of a compound <i>cascadedNode</i>, which
+     * names an MBean cascaded through several levels of cascading agents
+     */
+    public static final String                   CASCADED_NODE_SEPARATOR        = "/";
+
     private static final String[]                jmxConnectionNotificationTypes = {
             JMXConnectionNotification.OPENED, JMXConnectionNotification.CLOSED,
             JMXConnectionNotification.FAILED,
@@ -501,6 +510,33 @@ public abstract class CascadingAgent implements MBeanRegistration,
     @Override
     public abstract void stop() throws IOException;
 
+    /**
+     * Returns the cascaded source MBeans, as currently known to the source
+     * MBeanServer.
+     * <p>
+     * By default this method asks the source MBeanServer for the
+     * <tt>ObjectInstance</tt> of each of the {@link #getCascadedMBeans
+     * cascaded MBeans}, one at a time, and drops those which are no longer
+     * registered. Subclasses may override it with a single query of the
+     * source MBeanServer, and log the discrepancies.
+     * </p>
+     * 
+     * @see CascadingAgentMBean#verify
+     **/
+    @Override
+    public Set<ObjectInstance> verify() throws IOException {
+        final MBeanServerConnection connection = getConnectionFactory().getMBeanServerConnection();
+        final Set<ObjectInstance> result = new HashSet<ObjectInstance>();
+        for (ObjectInstance moi : getCascadedMBeans()) {
+            try {
+                result.add(connection.getObjectInstance(moi.getObjectName()));
+            } catch (InstanceNotFoundException e) {
+                // no longer registered in the source MBeanServer
+            }
+        }
+        return result;
+    }
+
     /**
      * This method should only be called by subclasses. Deregister for
      * {@link JMXConnectionNotification} with the underlying
@@ -92,6 +92,12 @@ public interface CascadingAgentMBean {
      * MBeanServer: the <tt>ObjectNames</tt> correspond to the
      * <tt>ObjectNames</tt> of the source MBeans in the source MBeanServer.
      * 
+     * <p>
+     * The set is answered from the state held by this
+     * <tt>CascadingAgent</tt>, without querying the source MBeanServer; use
+     * {@link #verify} to check it against the source MBeanServer.
+     * </p>
+     * 
      * @return a {@link Set} containing all {@link ObjectInstance
      *         ObjectInstances} representing the cascaded source MBeans.
      */
@@ -288,4 +294,20 @@ public interface CascadingAgentMBean {
      */
     public void stop() throws IOException;
 
+    /**
+     * Returns the cascaded source MBeans, as currently known to the source
+     * MBeanServer. Unlike {@link #getCascadedMBeans}, this queries the source
+     * MBeanServer: only the cascaded MBeans which the source MBeanServer still
+     * registers are returned, with their current class names. Discrepancies
+     * with {@link #getCascadedMBeans} are logged.
+     * 
+     * @return a {@link Set} containing the {@link ObjectInstance
+     *         ObjectInstances} of the cascaded source MBeans, as returned by
+     *         the source MBeanServer.
+     * @exception IOException
+     *                if the connection with the source <tt>MBeanServer</tt>
+     *                fails.
+     */
+    public Set<ObjectInstance> verify() throws IOException;
+
 }
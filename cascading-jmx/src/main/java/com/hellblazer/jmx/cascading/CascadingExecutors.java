@@ -0,0 +1,180 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The threads performing the blocking remote calls of the cascading
+ * machinery: mounting, fan-out reads, polling, health checks and
+ * reconnection.
+ * <p>
+ * By default these are daemon platform threads. When the system property
+ * {@value #VIRTUAL_THREADS_PROPERTY} is <tt>true</tt> and the runtime supports
+ * virtual threads (Java 21 and later), they are virtual threads instead, and
+ * the executors which only bound the number of platform threads blocked in
+ * remote calls start a virtual thread per task. Virtual threads are created
+ * reflectively, so that this project keeps compiling at its language level.
+ * </p>
+ * <p>
+ * State guarded across remote calls is guarded by a <tt>ReentrantLock</tt>
+ * rather than a monitor, which would pin the carrier of a virtual thread for
+ * the duration of the call.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public final class CascadingExecutors {
+    public static final String  VIRTUAL_THREADS_PROPERTY = "com.hellblazer.jmx.cascading.virtualThreads";
+
+    private static final Method FACTORY;
+    private static final Logger log                      = LoggerFactory.getLogger(CascadingExecutors.class);
+    private static final Method NAME;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+    private static final Method OF_VIRTUAL;
+
+    static {
+        Method factory = null;
+        Method name = null;
+        Method newThreadPerTaskExecutor = null;
+        Method ofVirtual = null;
+        if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+            try {
+                final Class<?> builder = Class.forName("java.lang.Thread$Builder$OfVirtual");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                // a preview runtime answers, but refuses to build
+                ofVirtual.invoke(null);
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                newThreadPerTaskExecutor = java.util.concurrent.Executors.class.getMethod("newThreadPerTaskExecutor",
+                                                                                          ThreadFactory.class);
+            } catch (ReflectiveOperationException e) {
+                log.warn(String.format("Virtual threads are not supported by Java %s, using platform threads",
+                                       System.getProperty("java.version")));
+                ofVirtual = null;
+            }
+        }
+        FACTORY = factory;
+        NAME = name;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        OF_VIRTUAL = ofVirtual;
+    }
+
+    /**
+     * @return true if the cascading machinery runs on virtual threads
+     */
+    public static boolean isVirtual() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Answer an executor of tasks which block in remote calls, whose number is
+     * bounded by the caller: a pool of platform threads, whose idle threads
+     * time out, or a new virtual thread per task.
+     * 
+     * @param name
+     *            - the prefix of the names of the threads
+     */
+    public static ExecutorService newBlockingExecutor(String name) {
+        final ThreadFactory factory = newThreadFactory(name);
+        if (isVirtual()) {
+            return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null,
+                                            factory);
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60,
+                                      TimeUnit.SECONDS,
+                                      new SynchronousQueue<Runnable>(), factory);
+    }
+
+    /**
+     * Answer an executor of tasks which block in remote calls: a pool of at
+     * most <var>threads</var> platform threads, whose idle threads time out,
+     * or a new virtual thread per task.
+     * 
+     * @param name
+     *            - the prefix of the names of the threads
+     * @param threads
+     *            - the maximum number of platform threads
+     */
+    public static ExecutorService newBlockingExecutor(String name, int threads) {
+        final ThreadFactory factory = newThreadFactory(name);
+        if (isVirtual()) {
+            return (ExecutorService) invoke(NEW_THREAD_PER_TASK_EXECUTOR, null,
+                                            factory);
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                                                                   threads,
+                                                                   threads,
+                                                                   60,
+                                                                   TimeUnit.SECONDS,
+                                                                   new LinkedBlockingQueue<Runnable>(),
+                                                                   factory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Answer a factory of daemon platform threads, or of virtual threads,
+     * named <tt><var>name</var> n</tt>
+     * 
+     * @param name
+     *            - the prefix of the names of the threads
+     */
+    public static ThreadFactory newThreadFactory(final String name) {
+        if (isVirtual()) {
+            final Object builder = invoke(NAME, invoke(OF_VIRTUAL, null),
+                                          name + " ", 1L);
+            return (ThreadFactory) invoke(FACTORY, builder);
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, name + " "
+                                               + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(String.format("Unable to call %s",
+                                                          method), e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(String.format("Unable to call %s",
+                                                          method),
+                                            e.getCause());
+        }
+    }
+
+    private CascadingExecutors() {
+    }
+}
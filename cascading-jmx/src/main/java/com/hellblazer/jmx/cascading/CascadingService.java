@@ -50,23 +50,50 @@
 
 package com.hellblazer.jmx.cascading;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
 import javax.management.ListenerNotFoundException;
+import javax.management.MBeanInfo;
 import javax.management.MBeanNotificationInfo;
 import javax.management.MBeanRegistration;
+import javax.management.MBeanRegistrationException;
 import javax.management.MBeanServer;
 import javax.management.MBeanServerConnection;
 import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
 import javax.management.Notification;
 import javax.management.NotificationBroadcasterSupport;
 import javax.management.NotificationEmitter;
 import javax.management.NotificationFilter;
 import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.QueryExp;
 import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
@@ -75,6 +102,15 @@ import javax.management.remote.JMXServiceURL;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hellblazer.jmx.cascading.aggregate.Aggregate;
+import com.hellblazer.jmx.cascading.aggregate.Reducer;
+import com.hellblazer.jmx.cascading.limit.AdaptiveLimit;
+import com.hellblazer.jmx.cascading.limit.LimitedMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.metrics.MeteredMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.metrics.MountPointMetrics;
+import com.hellblazer.jmx.cascading.metrics.Operation;
+import com.hellblazer.jmx.cascading.metrics.OperationStats;
+import com.hellblazer.jmx.cascading.proxy.PlaceholderProxy;
 import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
 
 /**
@@ -136,8 +172,8 @@ import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
  * @since Java DMK 5.1
  **/
 // Note: To make this class extensible it is possible to change the
-// protection of createCascadingAgent, connectSource, and
-// terminate from "package" to "protected"
+// protection of createConnectionFactory, createCascadingAgent,
+// connectSource, and terminate from "package" to "protected"
 //
 public class CascadingService implements CascadingServiceMBean,
         NotificationEmitter, MBeanRegistration {
@@ -146,10 +182,24 @@ public class CascadingService implements CascadingServiceMBean,
         public final String                  mountPointID;
         public final ObjectName              sourcePattern;
         public final String                  nodeName;
+        public final JMXServiceURL           sourceURL;
+        public final Map<String, ?>          sourceMap;
 
         private CascadingAgent               agent                   = null;
         private MBeanServerConnectionFactory sourceConnectionFactory = null;
         private JMXConnector                 sourceConnector         = null;
+        private volatile ConnectionHealth    health                  = null;
+        private final ReentrantLock          lock                    = new ReentrantLock();
+        private volatile MountPointMetrics   metrics                 = null;
+        private volatile AdaptiveLimit       limit                   = null;
+        private MBeanServerConnectionFactory limitedFactory          = null;
+        private final List<ObjectName>       published               = new ArrayList<ObjectName>();
+        private MBeanServer                  publishedServer         = null;
+        private volatile boolean             mounted                 = false;
+        private boolean                      terminated              = false;
+        private MountPoint                   router                  = null;
+        private final Map<String, String>    routes                  = new HashMap<String, String>();
+        private final Set<String>            routedNodes             = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
         public MountPoint(JMXConnector sourceConnector,
                           ObjectName sourcePattern, String nodeName)
@@ -157,114 +207,546 @@ public class CascadingService implements CascadingServiceMBean,
             mountPointID = makeID(sourceConnector, sourcePattern, nodeName);
             this.sourcePattern = sourcePattern;
             this.nodeName = nodeName;
+            sourceURL = null;
+            sourceMap = null;
         }
 
-        public MountPoint(JMXServiceURL sourceURL, ObjectName sourcePattern,
-                          String nodeName) throws IOException {
+        public MountPoint(JMXServiceURL sourceURL, Map<String, ?> sourceMap,
+                          ObjectName sourcePattern, String nodeName)
+                                                                    throws IOException {
             mountPointID = makeID(sourceURL, sourcePattern, nodeName);
             this.sourcePattern = sourcePattern;
             this.nodeName = nodeName;
+            this.sourceURL = sourceURL;
+            this.sourceMap = sourceMap;
         }
 
-        // Must be called from a synchronized block on the containing
-        // CascadingService object.
+        // Mount points are locked individually, so that independent mount
+        // points can be mounted and unmounted concurrently.
+        //
+        // The liveness of the connection is maintained by the health
+        // checker: only the first check, when mounting, is performed here,
+        // outside of the lock, and bounded by the health check timeout.
         //
         public void checkConnection() throws IOException {
-            if (sourceConnector == null) {
-                throw new IOException("not connected");
+            final ConnectionHealth h;
+            lock.lock();
+            try {
+                if (sourceConnector == null) {
+                    throw new IOException("not connected");
+                }
+                if (sourceConnectionFactory == null || health == null) {
+                    throw new IOException("not connected");
+                }
+                h = health;
+            } finally {
+                lock.unlock();
             }
-            if (sourceConnectionFactory == null) {
-                throw new IOException("not connected");
+            if (!h.isChecked()) {
+                healthChecker.confirm(h);
             }
-            final MBeanServerConnection mbs = sourceConnectionFactory.getMBeanServerConnection();
-            if (mbs == null) {
-                throw new IOException("not connected");
+            if (!h.isAlive()) {
+                final IOException io = new IOException("not connected");
+                io.initCause(h.getLastFailure());
+                throw io;
             }
-            mbs.getDefaultDomain();
         }
 
-        // Must be called from a synchronized block on the containing
-        // CascadingService object.
-        //
+        public MBeanServerConnectionFactory getConnectionFactory() {
+            return sourceConnectionFactory;
+        }
+
+        public ConnectionHealth getHealth() {
+            return health;
+        }
+
+        public AdaptiveLimit getLimit() {
+            return limit;
+        }
+
+        public MountPointMetrics getMetrics() {
+            return metrics;
+        }
+
         public boolean isClosed() {
-            if (agent != null) {
-                try {
-                    agent.getConnectionFactory().getMBeanServerConnection().getDefaultDomain();
-                    // System.err.println("CascadingService: not closed");
-                    return false;
-                } catch (Exception x) {
-                    // System.err.println("CascadingService: closed");
-                    return true;
+            final ConnectionHealth h = health;
+            return agent == null || h == null || !h.isAlive();
+        }
+
+        public boolean isMounted() {
+            return mounted;
+        }
+
+        // The snapshot of the cascaded MBeans of the mount point, or null if
+        // they are not known
+        //
+        public TopologySnapshot.Mount snapshot() {
+            lock.lock();
+            try {
+                if (!mounted || !(agent instanceof ProxyCascadingAgent)) {
+                    return null;
                 }
+                return new TopologySnapshot.Mount(
+                                                  sourceURL == null ? null
+                                                                   : sourceURL.toString(),
+                                                  sourcePattern,
+                                                  nodeName,
+                                                  ((ProxyCascadingAgent) agent).getCascadedMBeanInfo());
+            } finally {
+                lock.unlock();
             }
-
-            // System.err.println("CascadingService: bizarely closed");
-            return true;
         }
 
-        // Must be called from a synchronized block on the containing
-        // CascadingService object.
+        // Evaluates the query in the source MBeanServer, answering the
+        // target names of the matching MBeans cascaded by this mount point
         //
+        public Set<ObjectName> query(ObjectName pattern, QueryExp query)
+                                                                        throws IOException {
+            final MountPointMetrics m = metrics;
+            final long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                final Set<ObjectName> found = limitedFactory.getMBeanServerConnection().queryNames(pattern,
+                                                                                                   query);
+                final Set<ObjectName> names = new HashSet<ObjectName>(
+                                                                      found.size());
+                for (ObjectName name : found) {
+                    if (sourcePattern == null || sourcePattern.apply(name)) {
+                        names.add(ProxyCascadingAgent.getTargetName(nodeName,
+                                                                    name));
+                    }
+                }
+                failed = false;
+                return names;
+            } finally {
+                if (m != null) {
+                    m.record(Operation.QUERY_NAMES, pattern, null,
+                             System.nanoTime() - start, failed);
+                }
+            }
+        }
+
         public void mount(JMXConnector sourceConnector, MBeanServer targetMBS)
                                                                               throws IOException,
                                                                               InstanceAlreadyExistsException {
-            this.sourceConnector = sourceConnector;
-            agent = createCascadingAgent(sourceConnector, sourcePattern,
-                                         nodeName, targetMBS, mountPointID);
-            sourceConnectionFactory = agent.getConnectionFactory();
-            agent.start(false);
-            sourceConnectionFactory.addConnectionNotificationListener(listener,
-                                                                      null,
-                                                                      this);
+            boolean routing = false;
+            lock.lock();
+            try {
+                if (terminated) {
+                    // unmounted between its reservation and its mount: the
+                    // connector is closed, as the unmount would have done
+                    try {
+                        sourceConnector.close();
+                    } catch (IOException e) {
+                        // OK, already gone
+                    }
+                    throw new IOException(
+                                          String.format("%s was unmounted while mounting",
+                                                        mountPointID));
+                }
+                this.sourceConnector = sourceConnector;
+                sourceConnectionFactory = createConnectionFactory(sourceConnector,
+                                                                  sourceURL,
+                                                                  sourceMap,
+                                                                  mountPointID);
+                health = healthChecker.register(mountPointID,
+                                                sourceConnectionFactory,
+                                                healthListener);
+                fanOutExecutor.bind(nodeName, mountPointID);
+                MBeanServerConnectionFactory agentConnectionFactory = sourceConnectionFactory;
+                if (adaptiveConcurrencyEnabled) {
+                    limit = new AdaptiveLimit();
+                    agentConnectionFactory = new LimitedMBeanServerConnectionFactory(
+                                                                                     sourceConnectionFactory,
+                                                                                     limit);
+                    publish(targetMBS, limit,
+                            AdaptiveLimit.objectNameOf(mountPointID),
+                            "concurrency limit");
+                }
+                limitedFactory = agentConnectionFactory;
+                if (metricsEnabled) {
+                    metrics = new MountPointMetrics(mountPointID);
+                    agentConnectionFactory = new MeteredMBeanServerConnectionFactory(
+                                                                                     agentConnectionFactory,
+                                                                                     metrics);
+                    publish(targetMBS, metrics,
+                            MountPointMetrics.objectNameOf(mountPointID),
+                            "metrics");
+                }
+                agent = createCascadingAgent(agentConnectionFactory,
+                                             sourcePattern, nodeName, targetMBS,
+                                             mountPointID);
+                if (agent instanceof ProxyCascadingAgent) {
+                    ((ProxyCascadingAgent) agent).setConnectionHealth(health);
+                    if (hierarchicalRoutingEnabled
+                        && !hierarchicalRoutingHosts.isEmpty()
+                        && (sourcePattern == null || sourcePattern.equals(ObjectName.WILDCARD))) {
+                        ((ProxyCascadingAgent) agent).setRoutedNodes(routedNodes);
+                        routing = true;
+                    }
+                }
+                final String key = placeholderKey(sourcePattern, nodeName);
+                final Set<ObjectName> restored = placeholders.remove(key);
+                if (restored != null) {
+                    if (agent instanceof ProxyCascadingAgent) {
+                        ((ProxyCascadingAgent) agent).setPlaceholders(restored);
+                    } else {
+                        retirePlaceholders(targetMBS, restored);
+                    }
+                }
+                try {
+                    agent.start(false);
+                } catch (IOException | InstanceAlreadyExistsException
+                        | RuntimeException e) {
+                    if (restored != null && !restored.isEmpty()) {
+                        // the placeholders remain until the next mount
+                        placeholders.put(key, restored);
+                    }
+                    throw e;
+                }
+                if (restored != null) {
+                    // the source MBeans of the placeholders left are gone
+                    retirePlaceholders(targetMBS, restored);
+                }
+                sourceConnectionFactory.addConnectionNotificationListener(listener,
+                                                                          null,
+                                                                          this);
+            } finally {
+                lock.unlock();
+            }
             checkConnection();
+            lock.lock();
+            try {
+                if (terminated) {
+                    throw new IOException(
+                                          String.format("%s was unmounted while mounting",
+                                                        mountPointID));
+                }
+                mounted = true;
+            } finally {
+                lock.unlock();
+            }
+            if (routing) {
+                // the leaves are mounted once this mount point is, outside
+                // of its lock and mount permit
+                mountExecutor.submit(mountPointID, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        route();
+                        return null;
+                    }
+                });
+            }
         }
 
-        // Must be called from a synchronized block on the containing
-        // CascadingService object.
+        // When the source MBeanServer is itself a CascadingService, mounts
+        // its leaf MBeanServers on the allowed hosts directly under the
+        // compound nodes of their MBeans, so that the requests to those
+        // MBeans, and their notifications, go through one proxy rather than
+        // two. The MBeans of a leaf are proxied through the source until its
+        // direct mount point replaces them, and again if it cannot be
+        // mounted.
         //
-        public void unmount() throws IOException {
-            Exception failure = null;
-
+        private void route() {
+            final Set<String> hosts = hierarchicalRoutingHosts;
+            final Map<String, ?> environment = hierarchicalRoutingEnvironment;
+            final MountSpec[] specs;
             try {
-                sourceConnectionFactory.removeConnectionNotificationListener(listener,
-                                                                             null,
-                                                                             this);
+                specs = leafSpecs();
             } catch (Exception x) {
-                failure = x;
-                // OK let's proceed anyway...
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Unable to route the leaves of %s",
+                                            mountPointID), x);
+                }
+                return;
+            }
+            // the leaves below a routed leaf are routed by its own mount point
+            Arrays.sort(specs, new Comparator<MountSpec>() {
+                @Override
+                public int compare(MountSpec a, MountSpec b) {
+                    return String.valueOf(a.getNodeName()).compareTo(String.valueOf(b.getNodeName()));
+                }
+            });
+            for (MountSpec spec : specs) {
+                final String leafNode = spec.getNodeName();
+                if (spec.getSourceURL() == null || leafNode == null
+                    || leafNode.length() == 0 || isBelowRoute(leafNode)
+                    || !hosts.contains(spec.getSourceURL().getHost().toLowerCase(Locale.ENGLISH))) {
+                    continue;
+                }
+                final MountPoint leaf;
+                try {
+                    leaf = new MountPoint(
+                                          spec.getSourceURL(),
+                                          environment,
+                                          spec.getSourcePattern(),
+                                          ProxyCascadingAgent.getCompoundNode(nodeName,
+                                                                              leafNode));
+                } catch (IOException x) {
+                    log.info(String.format("Unable to route %s of %s, proxying it through the source: %s",
+                                           spec, mountPointID, x));
+                    continue;
+                }
+                // already mounted directly, by another route
+                final boolean owned = !CascadingService.this.isMounted(leaf.mountPointID);
+                if (!divert(leaf, leafNode, owned)) {
+                    return;
+                }
+                if (!owned) {
+                    continue;
+                }
+                try {
+                    leaf.router = this;
+                    connectAndMount(leaf);
+                } catch (Exception x) {
+                    log.info(String.format("Unable to route %s of %s, proxying it through the source: %s",
+                                           spec, mountPointID, x));
+                    unroute(leaf);
+                    continue;
+                }
+                if (!mounted) {
+                    // this mount point went away while the leaf was mounted
+                    try {
+                        CascadingService.this.unmount(leaf.mountPointID);
+                    } catch (Exception x) {
+                        if (log.isDebugEnabled()) {
+                            log.debug(String.format("Unable to unmount %s routed by %s",
+                                                    leaf.mountPointID,
+                                                    mountPointID), x);
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean isBelowRoute(String leafNode) {
+            for (String node : routedNodes) {
+                if (leafNode.startsWith(node
+                                        + CascadingAgent.CASCADED_NODE_SEPARATOR)) {
+                    return true;
+                }
             }
+            return false;
+        }
 
+        // Stops proxying the MBeans of a leaf through the source, before the
+        // leaf is mounted under the same names. Answers false if this mount
+        // point is no longer mounted.
+        //
+        private boolean divert(MountPoint leaf, String leafNode, boolean owned) {
+            lock.lock();
             try {
-                terminate(agent, sourceConnector, mountPointID);
-            } catch (Exception x) {
-                failure = x;
+                if (!mounted) {
+                    return false;
+                }
+                if (owned) {
+                    routes.put(leaf.mountPointID, leafNode);
+                }
+                routedNodes.add(leafNode);
+                ((ProxyCascadingAgent) agent).update();
+                return true;
+            } catch (IOException x) {
+                log.warn(String.format("Unable to route %s of %s", leafNode,
+                                       mountPointID), x);
+                return false;
+            } finally {
+                lock.unlock();
             }
+        }
 
-            // Ugly...
-            //
-            if (failure instanceof IOException) {
-                throw (IOException) failure;
+        // The leaf mounts of the CascadingService of the source MBeanServer,
+        // if any. The service is looked up by its type key, as in
+        // CASCADING_SERVICE_DEFAULT_NAME.
+        //
+        private MountSpec[] leafSpecs() throws Exception {
+            final MBeanServerConnection connection = sourceConnectionFactory.getMBeanServerConnection();
+            final Set<ObjectName> services = connection.queryNames(new ObjectName(
+                                                                                  "*:type=CascadingService,*"),
+                                                                   null);
+            for (ObjectName service : services) {
+                if (service.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME) == null) {
+                    return (MountSpec[]) connection.getAttribute(service,
+                                                                 "MountSpecs");
+                }
             }
-            if (failure instanceof RuntimeException) {
-                throw (RuntimeException) failure;
+            return new MountSpec[0];
+        }
+
+        // Proxies the MBeans of a leaf through the source again, once its
+        // direct mount point is gone
+        //
+        private void unroute(MountPoint leaf) {
+            lock.lock();
+            try {
+                final String leafNode = routes.remove(leaf.mountPointID);
+                if (leafNode == null) {
+                    return;
+                }
+                routedNodes.remove(leafNode);
+                if (mounted && agent instanceof ProxyCascadingAgent) {
+                    ((ProxyCascadingAgent) agent).update();
+                }
+            } catch (IOException x) {
+                log.warn(String.format("Unable to proxy %s through %s again",
+                                       leaf.mountPointID, mountPointID), x);
+            } finally {
+                lock.unlock();
             }
-            if (failure != null) {
-                final IOException io = new IOException(mountPointID + ": "
-                                                       + failure, failure);
-                throw io;
+        }
+
+        // Unmounts the leaves routed by this mount point, and unroutes this
+        // mount point from its router. This is done outside of the lock of
+        // this mount point, as the leaves and the router take their own.
+        //
+        private void release(List<String> leaves) {
+            for (String leaf : leaves) {
+                try {
+                    CascadingService.this.unmount(leaf);
+                } catch (Exception x) {
+                    log.warn(String.format("Unable to unmount %s routed by %s",
+                                           leaf, mountPointID), x);
+                }
+            }
+            if (router != null) {
+                router.unroute(this);
+            }
+        }
+
+        // The metrics and the concurrency limit are published for
+        // monitoring only: failing to register them does not fail the mount.
+        //
+        private void publish(MBeanServer targetMBS, Object mbean,
+                             ObjectName name, String what) {
+            try {
+                targetMBS.registerMBean(mbean, name);
+                published.add(name);
+                publishedServer = targetMBS;
+            } catch (Exception x) {
+                log.warn(String.format("Unable to register the %s of %s as %s",
+                                       what, mountPointID, name), x);
+            }
+        }
+
+        private void unpublish() {
+            for (ObjectName name : published) {
+                try {
+                    publishedServer.unregisterMBean(name);
+                } catch (Exception x) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Unable to unregister %s of %s",
+                                                name, mountPointID), x);
+                    }
+                }
+            }
+            published.clear();
+        }
+
+        // Terminates the mount point at most once.
+        //
+        public void unmount() throws IOException {
+            List<String> leaves = null;
+            lock.lock();
+            try {
+                if (terminated) {
+                    return;
+                }
+                leaves = new ArrayList<String>(routes.keySet());
+                routes.clear();
+                routedNodes.clear();
+                terminated = true;
+                mounted = false;
+                if (health != null) {
+                    healthChecker.unregister(health);
+                }
+                fanOutExecutor.unbind(nodeName, mountPointID);
+                Exception failure = null;
+
+                try {
+                    if (sourceConnectionFactory != null) {
+                        sourceConnectionFactory.removeConnectionNotificationListener(listener,
+                                                                                     null,
+                                                                                     this);
+                    }
+                } catch (Exception x) {
+                    failure = x;
+                    // OK let's proceed anyway...
+                }
+
+                try {
+                    terminate(agent, sourceConnectionFactory, sourceConnector,
+                              mountPointID);
+                } catch (Exception x) {
+                    failure = x;
+                }
+                unpublish();
+
+                // Ugly...
+                //
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                }
+                if (failure != null) {
+                    final IOException io = new IOException(mountPointID + ": "
+                                                           + failure, failure);
+                    throw io;
+                }
+            } finally {
+                lock.unlock();
+                if (leaves != null) {
+                    release(leaves);
+                }
             }
         }
     }
 
+    // The number of threads reading the cascaded MBeans of the aggregates,
+    // and querying the mount points, of which one mount point holds at most
+    // FAN_OUT_PER_MOUNT
+    //
+    private static final int                   FAN_OUT_THREADS                = 32;
+    private static final int                   FAN_OUT_PER_MOUNT              = 4;
+    private static final int                   FAN_OUT_QUEUE_PER_MOUNT        = 4096;
+
+    // The number of concurrent mounts of one source
+    //
+    private static final int                   MOUNTS_PER_SOURCE              = 2;
+
+    private static final String                FAN_OUT_EXECUTOR               = "fan-out";
+    private static final String                MOUNT_EXECUTOR                 = "mount";
+
     private static final String[]              jmxConnectionNotificationTypes = {
             CASCADING_FAILED_NOTIFICATION, CASCADING_STOPPED_NOTIFICATION    };
 
+    private static final MBeanNotificationInfo mountAllNotificationInfo       = new MBeanNotificationInfo(
+                                                                                                          new String[] { CASCADING_MOUNT_ALL_NOTIFICATION },
+                                                                                                          Notification.class.getName(),
+                                                                                                          "Summary of a mountAll operation.");
+
     private static final MBeanNotificationInfo jmxConnectionNotificationInfo  = new MBeanNotificationInfo(
                                                                                                           jmxConnectionNotificationTypes,
                                                                                                           JMXConnectionNotification.class.getName(),
                                                                                                           "Notifications relating to the underlying "
                                                                                                                   + "CascadingAgent.");
 
+    /**
+     * A semaphore whose number of permits can be reduced, so that
+     * MaxConcurrentMounts can be changed at any time.
+     **/
+    private static final class MountPermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        MountPermits(int permits) {
+            super(permits);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
     static String makeID(JMXConnector sourceConnector,
                          ObjectName sourcePattern, String targetPath) {
         String id;
@@ -285,18 +767,83 @@ public class CascadingService implements CascadingServiceMBean,
         return "mount: " + url + " " + sourcePattern + " " + targetPath;
     }
 
+    static String placeholderKey(ObjectName sourcePattern, String nodeName) {
+        return sourcePattern + " " + nodeName;
+    }
+
+    // The reducer named, in any case, by a management client
+    //
+    static Reducer reducerOf(String reducer) {
+        if (reducer != null) {
+            try {
+                return Reducer.valueOf(reducer.toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                // reported below
+            }
+        }
+        throw new IllegalArgumentException(
+                                           String.format("Unknown reducer %s, expected one of %s",
+                                                         reducer,
+                                                         Arrays.toString(Reducer.values())));
+    }
+
+    private volatile boolean                     adaptiveConcurrencyEnabled = false;
+
+    private final ConcurrentHashMap<ObjectName, Aggregate> aggregates;
+
+    private volatile boolean                     deregistered = false;
+
+    private volatile int                         connectionStripes = 1;
+
     private final NotificationBroadcasterSupport emitter;
 
+    private final HealthChecker                  healthChecker;
+
+    private final HealthChecker.Listener         healthListener;
+
+    private final FanOutExecutor                 fanOutExecutor;
+
     private final NotificationListener           listener;
 
     private final Logger                         log            = LoggerFactory.getLogger(CascadingService.class);
 
-    private final HashMap<String, MountPoint>    mountMap;
+    private volatile int                         maxConcurrentMounts = 16;
+
+    private volatile boolean                     hierarchicalRoutingEnabled = false;
+
+    private volatile Map<String, ?>              hierarchicalRoutingEnvironment = null;
+
+    private volatile Set<String>                 hierarchicalRoutingHosts = Collections.emptySet();
+
+    private volatile boolean                     metricsEnabled = false;
+
+    private final FanOutExecutor                 mountExecutor;
+
+    private final ConcurrentHashMap<String, MountPoint> mountMap;
+
+    private final MountPermits                   mountPermits;
 
     private MBeanServer                          myMBS          = null;
 
+    // The target names of the placeholders restored from a snapshot, by
+    // source pattern and node name of their mount point
+    //
+    private final ConcurrentHashMap<String, Set<ObjectName>> placeholders;
+
+    private volatile boolean                     reconnectEnabled = false;
+
+    private volatile long                        reconnectInitialDelay = 500;
+
+    private volatile int                         reconnectMaxAttempts = 0;
+
+    private volatile long                        reconnectMaxDelay = 60000;
+
+    private volatile File                        snapshotFile = null;
+
     private long                                 sequenceNumber = 0;
 
+    private volatile StripedMBeanServerConnectionFactory.Routing stripeRouting = StripedMBeanServerConnectionFactory.Routing.LEAST_OUTSTANDING;
+
     private final MBeanServer                    targetMBS;
 
     /**
@@ -326,7 +873,28 @@ public class CascadingService implements CascadingServiceMBean,
             };
         };
         emitter = new NotificationBroadcasterSupport();
-        mountMap = new HashMap<String, MountPoint>();
+        healthChecker = new HealthChecker(2, 10000);
+        healthListener = new HealthChecker.Listener() {
+            @Override
+            public void alive(ConnectionHealth health) {
+            }
+
+            @Override
+            public void dead(ConnectionHealth health) {
+                handleDead(health);
+            }
+        };
+        mountMap = new ConcurrentHashMap<String, MountPoint>();
+        mountPermits = new MountPermits(maxConcurrentMounts);
+        mountExecutor = new FanOutExecutor("Cascading mount",
+                                           maxConcurrentMounts,
+                                           MOUNTS_PER_SOURCE,
+                                           Integer.MAX_VALUE);
+        aggregates = new ConcurrentHashMap<ObjectName, Aggregate>();
+        placeholders = new ConcurrentHashMap<String, Set<ObjectName>>();
+        fanOutExecutor = new FanOutExecutor("Cascading fan-out",
+                                            FAN_OUT_THREADS, FAN_OUT_PER_MOUNT,
+                                            FAN_OUT_QUEUE_PER_MOUNT);
     }
 
     // from NotificationEmitter
@@ -342,247 +910,900 @@ public class CascadingService implements CascadingServiceMBean,
     // from CascadingServiceMBean
     //
     @Override
-    public synchronized String[] getMountPointIDs() {
-        return mountMap.keySet().toArray(new String[mountMap.size()]);
+    public ObjectName declareAggregate(String aggregateName,
+                                       String sourcePattern, String attribute,
+                                       String reducer, long cacheMillis)
+                                                                        throws MalformedObjectNameException,
+                                                                        InstanceAlreadyExistsException {
+        final MBeanServer mbs = getTargetMBeanServer();
+        if (mbs == null) {
+            throw new IllegalStateException("No target MBeanServer");
+        }
+        final ObjectName name = new ObjectName(aggregateName);
+        final Aggregate aggregate = new Aggregate(
+                                                  mbs,
+                                                  new ObjectName(sourcePattern),
+                                                  attribute,
+                                                  reducerOf(reducer),
+                                                  cacheMillis, fanOutExecutor);
+        try {
+            mbs.registerMBean(aggregate, name);
+        } catch (MBeanRegistrationException | NotCompliantMBeanException e) {
+            throw new IllegalStateException(
+                                            String.format("Cannot register aggregate %s",
+                                                          name), e);
+        }
+        aggregates.put(name, aggregate);
+        return name;
     }
 
-    // from NotificationEmitter
+    // from CascadingServiceMBean
     //
     @Override
-    public MBeanNotificationInfo[] getNotificationInfo() {
-        final MBeanNotificationInfo[] info = { jmxConnectionNotificationInfo };
-        return info;
+    public ObjectName[] getAggregateNames() {
+        return aggregates.keySet().toArray(new ObjectName[0]);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public int getConnectionStripes() {
+        return connectionStripes;
     }
 
     /**
-     * The <i>target MBeanServer</i> in which the source MBeans will be mounted
-     * under the <var>target path</var>.
+     * Returns the health of the connection of the given mount point, as
+     * maintained by the health checker of this service.
      * 
-     * @return the target <tt>MBeanServer</tt>.
+     * @param mountPointID
+     *            The mount point ID.
+     * @return the connection health, or <tt>null</tt> if the mount point is
+     *         not mounted.
      **/
-    public final MBeanServer getTargetMBeanServer() {
-        return targetMBS != null ? targetMBS : myMBS;
+    public ConnectionHealth getConnectionHealth(String mountPointID) {
+        final MountPoint mpt = mountMap.get(mountPointID);
+        return mpt == null ? null : mpt.getHealth();
+    }
+
+    /**
+     * Returns the executor of the reads of the aggregates and of the queries,
+     * whose bulkheads are the mount points. It is registered in the target
+     * <tt>MBeanServer</tt> as {@link FanOutExecutor#objectNameOf(String)
+     * FanOutExecutor.objectNameOf("fan-out")} while this service is
+     * registered, and the mounts as
+     * <tt>FanOutExecutor.objectNameOf("mount")</tt>.
+     * 
+     * @return the fan-out executor
+     **/
+    public FanOutExecutor getFanOutExecutor() {
+        return fanOutExecutor;
     }
 
     // from CascadingServiceMBean
     //
     @Override
-    public synchronized boolean isMounted(String mountPointID) {
-        return mountMap.containsKey(mountPointID);
+    public int getHealthCheckFailureThreshold() {
+        return healthChecker.getFailureThreshold();
     }
 
-    // Subclassing Hooks
-    // -----------------
-
+    // from CascadingServiceMBean
+    //
     @Override
-    public final synchronized String mount(JMXConnector sourceConnector,
-                                           ObjectName sourcePattern,
-                                           String nameNode) throws IOException,
-                                                           InstanceAlreadyExistsException {
-
-        final MountPoint mpt = new MountPoint(sourceConnector, sourcePattern,
-                                              nameNode);
-
-        if (isMounted(mpt.mountPointID)) {
-            throw new IOException(mpt.mountPointID + ": already mounted.");
-        }
-
-        try {
-            mountMap.put(mpt.mountPointID, mpt);
-            mpt.mount(sourceConnector, getTargetMBeanServer());
-            return mpt.mountPointID;
-
-        } catch (Exception x) {
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("Exception mounting %s, %s, %s, %s",
-                                        sourceConnector, sourcePattern,
-                                        nameNode, mpt), x);
-            }
-            try {
-
-                // This will close the sourceConnector if needed.
-                //
-                mountMap.remove(mpt.mountPointID);
-                mpt.unmount();
+    public long getHealthCheckInterval() {
+        return healthChecker.getIntervalMillis();
+    }
 
-            } catch (Exception xx) {
-                if (log.isDebugEnabled()) {
-                    log.debug(String.format("Error closing source connector %s",
-                                            mpt), xx);
-                }
-            }
+    // from CascadingServiceMBean
+    //
+    @Override
+    public long getHealthCheckTimeout() {
+        return healthChecker.getTimeoutMillis();
+    }
 
-            // This is ugly...
-            //
-            if (x instanceof IOException) {
-                throw (IOException) x;
-            }
-            if (x instanceof InstanceAlreadyExistsException) {
-                throw (InstanceAlreadyExistsException) x;
-            }
-            if (x instanceof RuntimeException) {
-                throw (RuntimeException) x;
-            }
-            IOException io = new IOException(mpt.mountPointID + ": " + x, x);
-            throw io;
-        }
+    // from CascadingServiceMBean
+    //
+    @Override
+    public String[] getHierarchicalRoutingHosts() {
+        return hierarchicalRoutingHosts.toArray(new String[0]);
     }
 
     // from CascadingServiceMBean
     //
     @Override
-    public final synchronized String mount(JMXServiceURL sourceURL,
-                                           Map<String, ?> sourceMap,
-                                           ObjectName sourcePattern,
-                                           String nameNode) throws IOException,
-                                                           InstanceAlreadyExistsException {
+    public int getMaxConcurrentMounts() {
+        return maxConcurrentMounts;
+    }
 
-        final MountPoint mpt = new MountPoint(sourceURL, sourcePattern,
-                                              nameNode);
+    /**
+     * Returns the adaptive limit of the number of remote operations in flight
+     * on the source <tt>MBeanServer</tt> of the given mount point.
+     * 
+     * @param mountPointID
+     *            The mount point ID.
+     * @return the concurrency limit, or <tt>null</tt> if the mount point is
+     *         not mounted or was mounted while adaptive concurrency was
+     *         disabled.
+     **/
+    public AdaptiveLimit getConcurrencyLimit(String mountPointID) {
+        final MountPoint mpt = mountMap.get(mountPointID);
+        return mpt == null ? null : mpt.getLimit();
+    }
 
-        if (isMounted(mpt.mountPointID)) {
+    /**
+     * Returns the metrics of the remote operations issued to the source
+     * <tt>MBeanServer</tt> of the given mount point.
+     * 
+     * @param mountPointID
+     *            The mount point ID.
+     * @return the mount point metrics, or <tt>null</tt> if the mount point is
+     *         not mounted or was mounted while metrics were disabled.
+     **/
+    public MountPointMetrics getMetrics(String mountPointID) {
+        final MountPoint mpt = mountMap.get(mountPointID);
+        return mpt == null ? null : mpt.getMetrics();
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public String[] getMountPointIDs() {
+        return mountMap.keySet().toArray(new String[0]);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public MountSpec[] getMountSpecs() {
+        final List<MountSpec> specs = new ArrayList<MountSpec>();
+        for (MountPoint mpt : mountMap.values()) {
+            if (mpt.sourceURL != null && mpt.isMounted()) {
+                // the connection attributes may hold credentials
+                specs.add(new MountSpec(mpt.sourceURL, null,
+                                        mpt.sourcePattern, mpt.nodeName));
+            }
+        }
+        return specs.toArray(new MountSpec[specs.size()]);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public int getPlaceholderCount() {
+        int count = 0;
+        for (Set<ObjectName> names : placeholders.values()) {
+            count += names.size();
+        }
+        return count;
+    }
+
+    // from NotificationEmitter
+    //
+    @Override
+    public MBeanNotificationInfo[] getNotificationInfo() {
+        final MBeanNotificationInfo[] info = { jmxConnectionNotificationInfo,
+                mountAllNotificationInfo };
+        return info;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public long getReconnectInitialDelay() {
+        return reconnectInitialDelay;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public int getReconnectMaxAttempts() {
+        return reconnectMaxAttempts;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public long getReconnectMaxDelay() {
+        return reconnectMaxDelay;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public String getSnapshotFile() {
+        final File file = snapshotFile;
+        return file == null ? null : file.getPath();
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public String getStripeRouting() {
+        return stripeRouting.name();
+    }
+
+    /**
+     * The <i>target MBeanServer</i> in which the source MBeans will be mounted
+     * under the <var>target path</var>.
+     * 
+     * @return the target <tt>MBeanServer</tt>.
+     **/
+    public final MBeanServer getTargetMBeanServer() {
+        return targetMBS != null ? targetMBS : myMBS;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public boolean isAdaptiveConcurrencyEnabled() {
+        return adaptiveConcurrencyEnabled;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public boolean isAlive(String mountPointID) {
+        final ConnectionHealth health = getConnectionHealth(mountPointID);
+        return health != null && health.isAlive();
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public boolean isHierarchicalRoutingEnabled() {
+        return hierarchicalRoutingEnabled;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public boolean isMounted(String mountPointID) {
+        return mountMap.containsKey(mountPointID);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public boolean isReconnectEnabled() {
+        return reconnectEnabled;
+    }
+
+    // Subclassing Hooks
+    // -----------------
+
+    @Override
+    public final String mount(JMXConnector sourceConnector,
+                              ObjectName sourcePattern, String nameNode)
+                                                                        throws IOException,
+                                                                        InstanceAlreadyExistsException {
+
+        final MountPoint mpt = new MountPoint(sourceConnector, sourcePattern,
+                                              nameNode);
+
+        if (isMounted(mpt.mountPointID)) {
             throw new IOException(mpt.mountPointID + ": already mounted.");
         }
 
-        final JMXConnector sourceConnector = connectSource(sourceURL,
-                                                           sourceMap,
-                                                           mpt.mountPointID);
+        acquireMountPermit(mpt.mountPointID);
+        try {
+            reserve(mpt);
+            try {
+                mpt.mount(sourceConnector, getTargetMBeanServer());
+                return mpt.mountPointID;
+            } catch (Exception x) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Exception mounting %s, %s, %s, %s",
+                                            sourceConnector, sourcePattern,
+                                            nameNode, mpt), x);
+                }
+                throw abandon(mpt, x);
+            }
+        } finally {
+            mountPermits.release();
+        }
+    }
 
+    // from CascadingServiceMBean
+    //
+    @Override
+    public final String mount(JMXServiceURL sourceURL,
+                              Map<String, ?> sourceMap,
+                              ObjectName sourcePattern, String nameNode)
+                                                                        throws IOException,
+                                                                        InstanceAlreadyExistsException {
+
+        final MountPoint mpt = new MountPoint(sourceURL, sourceMap,
+                                              sourcePattern, nameNode);
+
+        if (isMounted(mpt.mountPointID)) {
+            throw new IOException(mpt.mountPointID + ": already mounted.");
+        }
+
+        acquireMountPermit(mpt.mountPointID);
         try {
-            mountMap.put(mpt.mountPointID, mpt);
-            mpt.mount(sourceConnector, getTargetMBeanServer());
+            connectAndMount(mpt);
             return mpt.mountPointID;
+        } finally {
+            mountPermits.release();
+        }
+    }
 
-        } catch (Exception x) {
-            if (log.isDebugEnabled()) {
-                log.debug(String.format("Exception mounting %s, %s, %s, %s, %s",
-                                        sourceURL, sourceMap, sourcePattern,
-                                        nameNode, mpt), x);
+    // from CascadingServiceMBean
+    //
+    @Override
+    public MountResult[] mountAll(MountSpec[] specs) {
+        final List<Future<String>> futures = new ArrayList<Future<String>>(
+                                                                           specs.length);
+        for (MountSpec spec : specs) {
+            futures.add(mountAsync(spec.getSourceURL(), spec.getSourceMap(),
+                                   spec.getSourcePattern(), spec.getNodeName()));
+        }
+        final MountResult[] results = new MountResult[specs.length];
+        int mounted = 0;
+        boolean interrupted = false;
+        for (int i = 0; i < specs.length; i++) {
+            try {
+                results[i] = new MountResult(specs[i], futures.get(i).get());
+                mounted++;
+            } catch (ExecutionException e) {
+                results[i] = new MountResult(specs[i], e.getCause());
+            } catch (InterruptedException e) {
+                interrupted = true;
+                futures.get(i).cancel(true);
+                results[i] = new MountResult(specs[i], e);
             }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        final Notification summary = new Notification(
+                                                       CASCADING_MOUNT_ALL_NOTIFICATION,
+                                                       this,
+                                                       newSequenceNumber(),
+                                                       String.format("mountAll: %s of %s mounted",
+                                                                     mounted,
+                                                                     specs.length));
+        summary.setUserData(results);
+        sendNotification(summary);
+        return results;
+    }
+
+    /**
+     * Asynchronously mounts MBeans from a source <tt>MBeanServer</tt> through
+     * the given connector. The mount operation is performed by
+     * {@link #mount(JMXConnector,ObjectName,String)} on one of the threads of
+     * this service, and is subject to {@link #getMaxConcurrentMounts()
+     * MaxConcurrentMounts}.
+     * 
+     * @return a <tt>Future</tt> yielding the <var>mountPointID</var>, or
+     *         failing with the exception raised by the mount operation.
+     * @see #mount(JMXConnector,ObjectName,String)
+     **/
+    public Future<String> mountAsync(final JMXConnector sourceConnector,
+                                     final ObjectName sourcePattern,
+                                     final String nameNode) {
+        return mountExecutor.submit(sourceConnector, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return mount(sourceConnector, sourcePattern, nameNode);
+            }
+        });
+    }
+
+    /**
+     * Asynchronously mounts MBeans from the source <tt>MBeanServer</tt> known
+     * by the given URL. The mount operation is performed by
+     * {@link #mount(JMXServiceURL,Map,ObjectName,String)} on one of the
+     * threads of this service, and is subject to
+     * {@link #getMaxConcurrentMounts() MaxConcurrentMounts}. Independent
+     * mount operations proceed concurrently.
+     * 
+     * @return a <tt>Future</tt> yielding the <var>mountPointID</var>, or
+     *         failing with the exception raised by the mount operation.
+     * @see #mount(JMXServiceURL,Map,ObjectName,String)
+     **/
+    public Future<String> mountAsync(final JMXServiceURL sourceURL,
+                                     final Map<String, ?> sourceMap,
+                                     final ObjectName sourcePattern,
+                                     final String nameNode) {
+        return mountExecutor.submit(sourceURL, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return mount(sourceURL, sourceMap, sourcePattern, nameNode);
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.hellblazer.jmx.cascading.CascadingServiceMBean#mount(java.lang.String
+     * , javax.management.ObjectName, java.lang.String)
+     */
+    @Override
+    public String mount(String sourceURL, String sourcePattern, String nameNode)
+                                                                                throws IOException,
+                                                                                InstanceAlreadyExistsException,
+                                                                                MalformedObjectNameException {
+        JMXServiceURL url = new JMXServiceURL(sourceURL);
+        ObjectName name = new ObjectName(sourcePattern);
+        return mount(url, null, name, nameNode);
+    }
+
+    // from MBeanRegistration
+    //
+    @Override
+    public void postDeregister() {
+        myMBS = null;
+        for (String mountPointID : getMountPointIDs()) {
             try {
+                unmount(mountPointID);
+            } catch (Exception x) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Error unmounting %s on deregistration",
+                                            mountPointID), x);
+                }
+            }
+        }
+        // The threads of the service do not outlive it: once deregistered,
+        // the service cannot be registered again
+        //
+        mountExecutor.shutdown();
+        fanOutExecutor.shutdown();
+        healthChecker.shutdown();
+        deregistered = true;
+    }
+
+    // from MBeanRegistration
+    //
+    @Override
+    public void postRegister(Boolean registrationDone) {
+        if (!Boolean.TRUE.equals(registrationDone)) {
+            return;
+        }
+        registerExecutor(fanOutExecutor, FAN_OUT_EXECUTOR);
+        registerExecutor(mountExecutor, MOUNT_EXECUTOR);
+    }
+
+    // from MBeanRegistration
+    //
+    @Override
+    public void preDeregister() throws java.lang.Exception {
+        for (ObjectName name : getAggregateNames()) {
+            undeclareAggregate(name.toString());
+        }
+        unregisterExecutor(FAN_OUT_EXECUTOR);
+        unregisterExecutor(MOUNT_EXECUTOR);
+        final MBeanServer mbs = getTargetMBeanServer();
+        for (String key : placeholders.keySet()) {
+            final Set<ObjectName> names = placeholders.remove(key);
+            if (names != null && mbs != null) {
+                retirePlaceholders(mbs, names);
+            }
+        }
+    }
+
+    /**
+     * Allows the MBean to perform any operations it needs before being
+     * registered in the MBean server. If the target MBeanServer supplied at
+     * construction time was null, then <var>server</var> becomes the target
+     * <tt>MBeanServer</tt>.
+     * 
+     * @param server
+     *            The MBean server in which the MBean will be registered.
+     * 
+     * @param name
+     *            The object name of the MBean. If <var>name</var> is
+     *            <tt>null</tt> then
+     *            {@link CascadingServiceMBean#CASCADING_SERVICE_DEFAULT_NAME}
+     *            is returned.
+     * 
+     * @return The given <var>name</var>, or if <tt>null</tt> the default name
+     *         for the <tt>CascadingService</tt>.
+     * 
+     * 
+     * @exception IllegalArgumentException
+     *                if no target <tt>MBeanServer</tt> was specified in the
+     *                constructor and this object is already registered in an
+     *                <tt>MBeanServer</tt>.
+     * @exception IllegalStateException
+     *                if this object was deregistered: its mount points are
+     *                unmounted and its threads stopped on deregistration.
+     * 
+     * @see MBeanRegistration#preRegister
+     */
+    @Override
+    public ObjectName preRegister(MBeanServer server, ObjectName name)
+                                                                      throws java.lang.Exception {
+        synchronized (this) {
+            if (deregistered) {
+                throw new IllegalStateException("Already deregistered");
+            }
+            if (targetMBS == null && myMBS != null && myMBS != server) {
+                throw new IllegalArgumentException("Already registered");
+            }
+            myMBS = server;
+        }
+        if (name != null) {
+            return name;
+        } else {
+            return CascadingServiceMBean.CASCADING_SERVICE_DEFAULT_NAME;
+        }
+    }
+
+    // from NotificationEmitter
+    //
+    @Override
+    public final void removeNotificationListener(NotificationListener listener)
+                                                                               throws ListenerNotFoundException {
+        emitter.removeNotificationListener(listener);
+    }
+
+    // from NotificationEmitter
+    //
+    @Override
+    public final void removeNotificationListener(NotificationListener listener,
+                                                 NotificationFilter filter,
+                                                 Object handback)
+                                                                 throws ListenerNotFoundException {
+        emitter.removeNotificationListener(listener, filter, handback);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public QueryResult query(ObjectName sourcePattern, QueryExp query,
+                             long timeoutMillis) {
+        return query(sourcePattern, query, timeoutMillis, null);
+    }
+
+    /**
+     * Query the source <tt>MBeanServer</tt>s of all the mount points in
+     * parallel, streaming the results of each mount point to the
+     * <var>listener</var> as it answers.
+     * 
+     * @param sourcePattern
+     *            The <tt>ObjectName</tt> pattern, as named in the source
+     *            <tt>MBeanServer</tt>s.
+     * @param query
+     *            The query evaluated by the source <tt>MBeanServer</tt>s, or
+     *            <tt>null</tt>.
+     * @param timeoutMillis
+     *            The maximum time to wait for the mount points to answer.
+     * @param listener
+     *            The listener receiving the results of each mount point, or
+     *            <tt>null</tt>.
+     * @return the merged results.
+     * @see #query(ObjectName, QueryExp, long)
+     **/
+    public QueryResult query(final ObjectName sourcePattern,
+                             final QueryExp query, long timeoutMillis,
+                             QueryListener listener) {
+        final long deadline = System.nanoTime()
+                              + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        final BlockingQueue<Future<Set<ObjectName>>> completion = new LinkedBlockingQueue<Future<Set<ObjectName>>>();
+        final Map<Future<Set<ObjectName>>, String> pending = new HashMap<Future<Set<ObjectName>>, String>();
+        for (final MountPoint mpt : mountMap.values()) {
+            if (!mpt.isMounted()) {
+                continue;
+            }
+            pending.put(fanOutExecutor.submit(mpt.mountPointID,
+                                              new Callable<Set<ObjectName>>() {
+                                                  @Override
+                                                  public Set<ObjectName> call()
+                                                                               throws Exception {
+                                                      return mpt.query(sourcePattern,
+                                                                       query);
+                                                  }
+                                              }, deadline, completion),
+                        mpt.mountPointID);
+        }
+        final Set<ObjectName> names = new HashSet<ObjectName>();
+        final List<String> answered = new ArrayList<String>();
+        final Map<String, Throwable> failures = new HashMap<String, Throwable>();
+        try {
+            while (!pending.isEmpty()) {
+                final Future<Set<ObjectName>> done = completion.poll(deadline
+                                                                             - System.nanoTime(),
+                                                                     TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    break;
+                }
+                final String id = pending.remove(done);
+                try {
+                    final Set<ObjectName> found = done.get();
+                    names.addAll(found);
+                    answered.add(id);
+                    if (listener != null) {
+                        listener.found(id, found);
+                    }
+                } catch (ExecutionException e) {
+                    failures.put(id, e.getCause());
+                    if (listener != null) {
+                        listener.failed(id, e.getCause());
+                    }
+                } catch (CancellationException e) {
+                    // its deadline expired before its turn came
+                    final TimeoutException timeout = new TimeoutException(
+                                                                          String.format("No answer within %s ms",
+                                                                                        timeoutMillis));
+                    failures.put(id, timeout);
+                    if (listener != null) {
+                        listener.failed(id, timeout);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final String timedOut = String.format("No answer within %s ms",
+                                              timeoutMillis);
+        for (Map.Entry<Future<Set<ObjectName>>, String> entry : pending.entrySet()) {
+            entry.getKey().cancel(true);
+            final TimeoutException timeout = new TimeoutException(timedOut);
+            failures.put(entry.getValue(), timeout);
+            if (listener != null) {
+                listener.failed(entry.getValue(), timeout);
+            }
+        }
+        return new QueryResult(names.toArray(new ObjectName[names.size()]),
+                               answered.toArray(new String[answered.size()]),
+                               Collections.unmodifiableMap(failures));
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public int restoreSnapshot() throws IOException {
+        final File file = requireSnapshotFile();
+        final MBeanServer mbs = getTargetMBeanServer();
+        if (mbs == null) {
+            throw new IllegalStateException("No target MBeanServer");
+        }
+        final Set<String> mounted = new HashSet<String>();
+        for (MountPoint mpt : mountMap.values()) {
+            mounted.add(placeholderKey(mpt.sourcePattern, mpt.nodeName));
+        }
+        final TopologySnapshot snapshot = TopologySnapshot.read(file);
+        int count = 0;
+        for (TopologySnapshot.Mount mount : snapshot.getMounts()) {
+            final String key = placeholderKey(mount.getSourcePattern(),
+                                              mount.getNodeName());
+            if (mounted.contains(key)) {
+                continue;
+            }
+            final Set<ObjectName> names = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+            for (Map.Entry<ObjectName, MBeanInfo> entry : mount.getMBeans().entrySet()) {
+                final ObjectName targetName = ProxyCascadingAgent.getTargetName(mount.getNodeName(),
+                                                                                entry.getKey());
+                try {
+                    mbs.registerMBean(new PlaceholderProxy(entry.getKey(),
+                                                           entry.getValue()),
+                                      targetName);
+                    names.add(targetName);
+                } catch (InstanceAlreadyExistsException e) {
+                    // OK: already cascaded, or restored
+                } catch (MBeanRegistrationException | NotCompliantMBeanException e) {
+                    log.warn(String.format("Unable to restore %s", targetName),
+                             e);
+                }
+            }
+            final Set<ObjectName> existing = placeholders.putIfAbsent(key,
+                                                                      names);
+            if (existing != null) {
+                existing.addAll(names);
+            }
+            count += names.size();
+        }
+        if (log.isInfoEnabled()) {
+            log.info(String.format("Restored %s of %s MBeans from the snapshot of %tc in %s",
+                                   count, snapshot.getMBeanCount(),
+                                   snapshot.getWritten(), file));
+        }
+        return count;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public OperationStats roundTripTimes(String mountPointID) {
+        final ConnectionHealth health = getConnectionHealth(mountPointID);
+        return health == null ? null : health.getRoundTripStats();
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setAdaptiveConcurrencyEnabled(boolean enabled) {
+        adaptiveConcurrencyEnabled = enabled;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setConnectionStripes(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException(
+                                               "At least one connection stripe is required: "
+                                                       + stripes);
+        }
+        connectionStripes = stripes;
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setHealthCheckFailureThreshold(int failures) {
+        healthChecker.setFailureThreshold(failures);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setHealthCheckInterval(long millis) {
+        healthChecker.setIntervalMillis(millis);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setHealthCheckTimeout(long millis) {
+        healthChecker.setTimeoutMillis(millis);
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setHierarchicalRoutingEnabled(boolean enabled) {
+        hierarchicalRoutingEnabled = enabled;
+    }
 
-                // This will close the sourceConnector if needed.
-                //
-                mountMap.remove(mpt.mountPointID);
-                mpt.unmount();
+    /**
+     * Sets the connection attributes of the leaf <tt>MBeanServer</tt>s
+     * mounted directly by subsequent mount operations, when
+     * {@link #isHierarchicalRoutingEnabled() routing} to the leaves of a
+     * cascading source. The <var>sourceMap</var> of the source is not passed
+     * on to its leaves, as they are advertised by the source itself. This is
+     * not exposed through the MBean interface, as the attributes may hold
+     * credentials.
+     * 
+     * @param environment
+     *            the attributes passed to
+     *            {@link JMXConnectorFactory#connect(JMXServiceURL, Map)}, or
+     *            <tt>null</tt> for none.
+     **/
+    public void setHierarchicalRoutingEnvironment(Map<String, ?> environment) {
+        hierarchicalRoutingEnvironment = environment;
+    }
 
-            } catch (Exception xx) {
-                if (log.isDebugEnabled()) {
-                    log.debug(String.format("Error closing source connector %s",
-                                            mpt), xx);
-                }
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setHierarchicalRoutingHosts(String[] hosts) {
+        final Set<String> allowed = new HashSet<String>();
+        if (hosts != null) {
+            for (String host : hosts) {
+                allowed.add(host.toLowerCase(Locale.ENGLISH));
             }
+        }
+        hierarchicalRoutingHosts = Collections.unmodifiableSet(allowed);
+    }
 
-            // This is ugly...
-            //
-            if (x instanceof IOException) {
-                throw (IOException) x;
-            }
-            if (x instanceof InstanceAlreadyExistsException) {
-                throw (InstanceAlreadyExistsException) x;
-            }
-            if (x instanceof RuntimeException) {
-                throw (RuntimeException) x;
+    // from CascadingServiceMBean
+    //
+    @Override
+    public void setMaxConcurrentMounts(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException(
+                                               "At least one concurrent mount is required: "
+                                                       + max);
+        }
+        synchronized (mountPermits) {
+            final int delta = max - maxConcurrentMounts;
+            if (delta > 0) {
+                mountPermits.release(delta);
+            } else if (delta < 0) {
+                mountPermits.reduce(-delta);
             }
-            IOException io = new IOException(mpt.mountPointID + ": " + x, x);
-            throw io;
+            mountExecutor.setMaxConcurrency(max);
+            maxConcurrentMounts = max;
         }
     }
 
-    /*
-     * (non-Javadoc)
-     * 
-     * @see
-     * com.hellblazer.jmx.cascading.CascadingServiceMBean#mount(java.lang.String
-     * , javax.management.ObjectName, java.lang.String)
-     */
+    // from CascadingServiceMBean
+    //
     @Override
-    public String mount(String sourceURL, String sourcePattern, String nameNode)
-                                                                                throws IOException,
-                                                                                InstanceAlreadyExistsException,
-                                                                                MalformedObjectNameException {
-        JMXServiceURL url = new JMXServiceURL(sourceURL);
-        ObjectName name = new ObjectName(sourcePattern);
-        return mount(url, null, name, nameNode);
+    public void setMetricsEnabled(boolean enabled) {
+        metricsEnabled = enabled;
     }
 
-    // from MBeanRegistration
+    // from CascadingServiceMBean
     //
     @Override
-    public void postDeregister() {
-        myMBS = null;
+    public void setReconnectEnabled(boolean enabled) {
+        reconnectEnabled = enabled;
     }
 
-    // from MBeanRegistration
+    // from CascadingServiceMBean
     //
     @Override
-    public void postRegister(Boolean registrationDone) {
+    public void setReconnectInitialDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException(
+                                               "Reconnect delay cannot be negative: "
+                                                       + millis);
+        }
+        reconnectInitialDelay = millis;
     }
 
-    // from MBeanRegistration
+    // from CascadingServiceMBean
     //
     @Override
-    public void preDeregister() throws java.lang.Exception {
+    public void setReconnectMaxAttempts(int attempts) {
+        if (attempts < 0) {
+            throw new IllegalArgumentException(
+                                               "Reconnect attempts cannot be negative: "
+                                                       + attempts);
+        }
+        reconnectMaxAttempts = attempts;
     }
 
-    /**
-     * Allows the MBean to perform any operations it needs before being
-     * registered in the MBean server. If the target MBeanServer supplied at
-     * construction time was null, then <var>server</var> becomes the target
-     * <tt>MBeanServer</tt>.
-     * 
-     * @param server
-     *            The MBean server in which the MBean will be registered.
-     * 
-     * @param name
-     *            The object name of the MBean. If <var>name</var> is
-     *            <tt>null</tt> then
-     *            {@link CascadingServiceMBean#CASCADING_SERVICE_DEFAULT_NAME}
-     *            is returned.
-     * 
-     * @return The given <var>name</var>, or if <tt>null</tt> the default name
-     *         for the <tt>CascadingService</tt>.
-     * 
-     * 
-     * @exception IllegalArgumentException
-     *                if no target <tt>MBeanServer</tt> was specified in the
-     *                constructor and this object is already registered in an
-     *                <tt>MBeanServer</tt>.
-     * 
-     * @see MBeanRegistration#preRegister
-     */
+    // from CascadingServiceMBean
+    //
     @Override
-    public ObjectName preRegister(MBeanServer server, ObjectName name)
-                                                                      throws java.lang.Exception {
-        synchronized (this) {
-            if (targetMBS == null && myMBS != null && myMBS != server) {
-                throw new IllegalArgumentException("Already registered");
-            }
-            myMBS = server;
-        }
-        if (name != null) {
-            return name;
-        } else {
-            return CascadingServiceMBean.CASCADING_SERVICE_DEFAULT_NAME;
+    public void setReconnectMaxDelay(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException(
+                                               "Reconnect delay cannot be negative: "
+                                                       + millis);
         }
+        reconnectMaxDelay = millis;
     }
 
-    // from NotificationEmitter
+    /**
+     * Sets the file of the topology snapshot written by {@link #writeSnapshot}
+     * and restored by {@link #restoreSnapshot}. This is not exposed through
+     * the MBean interface, so that a remote client cannot choose the file
+     * which is read or overwritten.
+     * 
+     * @param file
+     *            the snapshot file, or <tt>null</tt> for none.
+     **/
+    public void setSnapshotFile(File file) {
+        snapshotFile = file;
+    }
+
+    // from CascadingServiceMBean
     //
     @Override
-    public final void removeNotificationListener(NotificationListener listener)
-                                                                               throws ListenerNotFoundException {
-        emitter.removeNotificationListener(listener);
+    public void setStripeRouting(String routing) {
+        stripeRouting = StripedMBeanServerConnectionFactory.Routing.valueOf(routing);
     }
 
-    // from NotificationEmitter
+    // from CascadingServiceMBean
     //
     @Override
-    public final void removeNotificationListener(NotificationListener listener,
-                                                 NotificationFilter filter,
-                                                 Object handback)
-                                                                 throws ListenerNotFoundException {
-        emitter.removeNotificationListener(listener, filter, handback);
+    public boolean undeclareAggregate(String aggregateName)
+                                                           throws MalformedObjectNameException {
+        final ObjectName name = new ObjectName(aggregateName);
+        if (aggregates.remove(name) == null) {
+            return false;
+        }
+        try {
+            getTargetMBeanServer().unregisterMBean(name);
+        } catch (InstanceNotFoundException e) {
+            // OK - already unregistered
+        } catch (MBeanRegistrationException e) {
+            log.warn(String.format("Cannot unregister aggregate %s", name), e);
+        }
+        return true;
     }
 
     // from CascadingServiceMBean
@@ -592,14 +1813,14 @@ public class CascadingService implements CascadingServiceMBean,
         MountPoint mpt = null;
         Exception failure = null;
         try {
-            synchronized (this) {
-                mpt = mountMap.remove(mountPointID);
-                if (mpt == null) {
-                    return false;
-                }
-
-                mpt.unmount();
+            mpt = mountMap.remove(mountPointID);
+            if (mpt == null) {
+                return false;
             }
+
+            // Waits for a mount in progress on that mount point to complete
+            //
+            mpt.unmount();
         } catch (IOException x) {
             failure = x;
             throw x;
@@ -628,6 +1849,202 @@ public class CascadingService implements CascadingServiceMBean,
         return true;
     }
 
+    /**
+     * Asynchronously undoes the mount operation identified by
+     * <var>mountPointID</var>, on one of the threads of this service.
+     * 
+     * @return a <tt>Future</tt> yielding the result of
+     *         {@link #unmount(String)}.
+     * @see #unmount(String)
+     **/
+    public Future<Boolean> unmountAsync(final String mountPointID) {
+        return mountExecutor.submit(mountPointID, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return unmount(mountPointID);
+            }
+        });
+    }
+
+    // from CascadingServiceMBean
+    //
+    @Override
+    public int writeSnapshot() throws IOException {
+        final File file = requireSnapshotFile();
+        final List<TopologySnapshot.Mount> mounts = new ArrayList<TopologySnapshot.Mount>();
+        for (MountPoint mpt : mountMap.values()) {
+            final TopologySnapshot.Mount mount = mpt.snapshot();
+            if (mount != null) {
+                mounts.add(mount);
+            }
+        }
+        final TopologySnapshot snapshot = new TopologySnapshot(
+                                                               System.currentTimeMillis(),
+                                                               mounts);
+        snapshot.write(file);
+        return snapshot.getMBeanCount();
+    }
+
+    // Undoes a failed mount, and either throws x or returns the IOException
+    // to throw in its stead.
+    //
+    private IOException abandon(MountPoint mpt, Exception x)
+                                                            throws InstanceAlreadyExistsException {
+        try {
+
+            // This will close the sourceConnector if needed.
+            //
+            mountMap.remove(mpt.mountPointID, mpt);
+            mpt.unmount();
+
+        } catch (Exception xx) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Error closing source connector %s",
+                                        mpt), xx);
+            }
+        }
+
+        // This is ugly...
+        //
+        if (x instanceof IOException) {
+            return (IOException) x;
+        }
+        if (x instanceof InstanceAlreadyExistsException) {
+            throw (InstanceAlreadyExistsException) x;
+        }
+        if (x instanceof RuntimeException) {
+            throw (RuntimeException) x;
+        }
+        return new IOException(mpt.mountPointID + ": " + x, x);
+    }
+
+    private void retirePlaceholders(MBeanServer mbs, Set<ObjectName> names) {
+        for (ObjectName name : names) {
+            try {
+                mbs.unregisterMBean(name);
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Unable to remove placeholder %s",
+                                            name), e);
+                }
+            }
+        }
+        names.clear();
+    }
+
+    // The executors are published for monitoring only
+    //
+    private void registerExecutor(FanOutExecutor executor, String name) {
+        final MBeanServer mbs = getTargetMBeanServer();
+        if (mbs == null) {
+            return;
+        }
+        try {
+            mbs.registerMBean(executor, FanOutExecutor.objectNameOf(name));
+        } catch (Exception x) {
+            log.warn(String.format("Unable to register the %s executor", name),
+                     x);
+        }
+    }
+
+    private void unregisterExecutor(String name) {
+        final MBeanServer mbs = getTargetMBeanServer();
+        if (mbs == null) {
+            return;
+        }
+        try {
+            mbs.unregisterMBean(FanOutExecutor.objectNameOf(name));
+        } catch (Exception x) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Unable to unregister the %s executor",
+                                        name), x);
+            }
+        }
+    }
+
+    private void acquireMountPermit(String mountPointID)
+                                                        throws InterruptedIOException {
+        try {
+            mountPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(mountPointID
+                                             + ": interrupted while waiting to mount");
+        }
+    }
+
+    // Connects and mounts a mount point created from a JMXServiceURL.
+    //
+    // The leaves routed by a mount point are mounted here too, by the mount
+    // executor once their router is mounted, and without a mount permit.
+    //
+    private void connectAndMount(MountPoint mpt) throws IOException,
+                                                InstanceAlreadyExistsException {
+        reserve(mpt);
+        final JMXConnector sourceConnector;
+        try {
+            sourceConnector = connectSource(mpt.sourceURL, mpt.sourceMap,
+                                            mpt.mountPointID);
+        } catch (IOException | RuntimeException x) {
+            mountMap.remove(mpt.mountPointID, mpt);
+            throw x;
+        }
+        try {
+            mpt.mount(sourceConnector, getTargetMBeanServer());
+        } catch (Exception x) {
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Exception mounting %s, %s, %s, %s, %s",
+                                        mpt.sourceURL, mpt.sourceMap,
+                                        mpt.sourcePattern, mpt.nodeName, mpt),
+                          x);
+            }
+            throw abandon(mpt, x);
+        }
+    }
+
+    private File requireSnapshotFile() {
+        final File file = snapshotFile;
+        if (file == null) {
+            throw new IllegalStateException("No snapshot file");
+        }
+        return file;
+    }
+
+    // Claims the mount point ID, so that concurrent mounts of the same
+    // mount point fail while the mount is in progress
+    //
+    private void reserve(MountPoint mpt) throws IOException {
+        if (mountMap.putIfAbsent(mpt.mountPointID, mpt) != null) {
+            throw new IOException(mpt.mountPointID + ": already mounted.");
+        }
+    }
+
+    // Unmounts a mount point whose connection is lost, and notifies
+    //
+    private void connectionLost(MountPoint mpt, String cause, Object userData) {
+        try {
+            if (!mountMap.remove(mpt.mountPointID, mpt)) {
+                return;
+            }
+            mpt.unmount();
+        } catch (Exception x) {
+            // OK, don't be bothered.
+        }
+
+        // send notification
+        final String type = CASCADING_FAILED_NOTIFICATION;
+        JMXConnectionNotification failed = new JMXConnectionNotification(
+                                                                         type,
+                                                                         this,
+                                                                         mpt.mountPointID,
+                                                                         newSequenceNumber(),
+                                                                         mpt.mountPointID
+                                                                                 + ": connection "
+                                                                                 + cause,
+                                                                         userData);
+        sendNotification(failed);
+    }
+
     private void handleJMXCN(Notification nt, Object handback) {
         final MountPoint mpt = (MountPoint) handback;
 
@@ -637,47 +2054,39 @@ public class CascadingService implements CascadingServiceMBean,
             return;
         }
 
-        boolean closed = false;
-
-        synchronized (this) {
-            if (JMXConnectionNotification.CLOSED.equals(nt.getType())
-                && mpt.isClosed()
-                || JMXConnectionNotification.FAILED.equals(nt.getType())) {
-                try {
-                    if (mountMap.remove(mpt.mountPointID) != null) {
-                        mpt.unmount();
-                    }
-                } catch (Exception x) {
-                    // OK, don't be bothered.
-                }
-                closed = true;
+        if (JMXConnectionNotification.CLOSED.equals(nt.getType())) {
+            // Let the health checker confirm whether the connection is gone;
+            // the mount point is unmounted if it is.
+            //
+            final ConnectionHealth health = mpt.getHealth();
+            if (health != null) {
+                healthChecker.checkNow(health);
             }
+        } else if (JMXConnectionNotification.FAILED.equals(nt.getType())) {
+            connectionLost(mpt, "failed", nt);
         }
+    }
 
-        if (closed) {
-            // send notification
-            final String type = CASCADING_FAILED_NOTIFICATION;
-            final String cause = JMXConnectionNotification.FAILED.equals(nt.getType()) ? "failed"
-                                                                                      : "closed";
-
-            JMXConnectionNotification failed = new JMXConnectionNotification(
-                                                                             type,
-                                                                             this,
-                                                                             mpt.mountPointID,
-                                                                             newSequenceNumber(),
-                                                                             mpt.mountPointID
-                                                                                     + ": connection "
-                                                                                     + cause,
-                                                                             nt);
-            sendNotification(failed);
+    private void handleDead(ConnectionHealth health) {
+        final MountPoint mpt = mountMap.get(health.getName());
+        if (mpt == null || !mpt.isMounted() || mpt.getHealth() != health) {
+            return;
+        }
+        if (mpt.getConnectionFactory() instanceof ReconnectingMBeanServerConnectionFactory) {
+            // Keeps the mount point while it reconnects, and reports FAILED
+            // if it gives up
+            //
+            return;
         }
+        connectionLost(mpt, "closed", health.getLastFailure());
     }
 
     /**
      * Creates a new connected <tt>JMXConnector</tt> for communicating with the
      * source <tt>MBeanServer</tt>. This is the <var>sourceConnector</var> that
-     * will be passed to {@link #createCascadingAgent createCascadingAgent} and
-     * {@link #terminate terminate}. <br>
+     * will be passed to {@link #createConnectionFactory createConnectionFactory}
+     * and {@link #terminate terminate}. This method is also called to obtain
+     * the additional connectors of a striped mount point. <br>
      * By default this method simply returns
      * <tt>JMXConnectorFactory.newJMXConnector(sourceURL,sourceMap);</tt>
      * 
@@ -710,21 +2119,103 @@ public class CascadingService implements CascadingServiceMBean,
     }
 
     /**
-     * Creates a new cascading agent for implementing the {@link #mount mount}
-     * operation. The returned <tt>CascadingAgent</tt> is not expected to be
-     * already started: {@link #mount mount} will later call
-     * <tt>start(false)</tt> on this object.
+     * Creates the <tt>MBeanServerConnectionFactory</tt> through which the
+     * cascading agent of a mount point talks to the source
+     * <tt>MBeanServer</tt>.
      * <p>
      * By default this method creates a
      * {@link BasicMBeanServerConnectionFactory} from the
-     * <var>sourceConnector</var> and then instantiate a new
-     * {@link ProxyCascadingAgent}.
+     * <var>sourceConnector</var>. If {@link #getConnectionStripes()
+     * ConnectionStripes} is greater than one and the mount point was created
+     * from a <tt>JMXServiceURL</tt>, the additional connectors are obtained
+     * from {@link #connectSource connectSource} and a
+     * {@link StripedMBeanServerConnectionFactory} is returned instead. If
+     * {@link #isReconnectEnabled() ReconnectEnabled} is true and the mount
+     * point was created from a <tt>JMXServiceURL</tt>, a
+     * {@link ReconnectingMBeanServerConnectionFactory} is returned, which
+     * keeps the mount point and its proxies registered across transient
+     * connection losses; reconnecting mount points are not striped. If the
+     * returned factory is {@link Closeable}, it is closed by
+     * {@link #terminate terminate}.
      * 
      * @param sourceConnector
      *            A connected <tt>JMXConnector</tt> for communicating with the
      *            source <tt>MBeanServer</tt>. This is the <tt>JMXConnector</tt>
      *            that was returned by {@link #connectSource connectSource}.
      *            <p>
+     * @param sourceURL
+     *            The <tt>JMXServiceURL</tt> of the source
+     *            <tt>MBeanServer</tt>, or <tt>null</tt> if the mount point
+     *            was created from a <tt>JMXConnector</tt>.
+     *            <p>
+     * @param sourceMap
+     *            The Map passed to {@link #connectSource connectSource}. This
+     *            parameter can be null.
+     *            <p>
+     * @param mountPointID
+     *            The <var>mountPointID</var> identifying the mount operation.
+     *            <p>
+     * @return A new <tt>MBeanServerConnectionFactory</tt> for the source
+     *         <tt>MBeanServer</tt>.
+     * @exception IOException
+     *                If the additional connectors cannot be connected.
+     **/
+    // protected
+    MBeanServerConnectionFactory createConnectionFactory(JMXConnector sourceConnector,
+                                                         JMXServiceURL sourceURL,
+                                                         Map<String, ?> sourceMap,
+                                                         String mountPointID)
+                                                                             throws IOException {
+        if (reconnectEnabled && sourceURL != null) {
+            final ReconnectingMBeanServerConnectionFactory factory = new ReconnectingMBeanServerConnectionFactory(
+                                                                                                                  sourceConnector,
+                                                                                                                  sourceURL,
+                                                                                                                  sourceMap,
+                                                                                                                  null);
+            factory.setInitialDelayMillis(reconnectInitialDelay);
+            factory.setMaxDelayMillis(reconnectMaxDelay);
+            factory.setMaxAttempts(reconnectMaxAttempts);
+            return factory;
+        }
+        final int stripes = connectionStripes;
+        if (stripes <= 1 || sourceURL == null) {
+            return BasicMBeanServerConnectionFactory.newInstance(sourceConnector);
+        }
+        final List<JMXConnector> secondaries = new ArrayList<JMXConnector>();
+        try {
+            for (int i = 1; i < stripes; i++) {
+                secondaries.add(connectSource(sourceURL, sourceMap,
+                                              mountPointID));
+            }
+        } catch (IOException e) {
+            for (JMXConnector c : secondaries) {
+                try {
+                    c.close();
+                } catch (IOException x) {
+                    // OK, proceed with the others
+                }
+            }
+            throw e;
+        }
+        return new StripedMBeanServerConnectionFactory(sourceConnector,
+                                                       secondaries, null,
+                                                       stripeRouting);
+    }
+
+    /**
+     * Creates a new cascading agent for implementing the {@link #mount mount}
+     * operation. The returned <tt>CascadingAgent</tt> is not expected to be
+     * already started: {@link #mount mount} will later call
+     * <tt>start(false)</tt> on this object.
+     * <p>
+     * By default this method instantiates a new {@link ProxyCascadingAgent}.
+     * 
+     * @param sourceConnectionFactory
+     *            The <tt>MBeanServerConnectionFactory</tt> for communicating
+     *            with the source <tt>MBeanServer</tt>. This is the factory
+     *            that was returned by {@link #createConnectionFactory
+     *            createConnectionFactory}.
+     *            <p>
      * @param sourcePattern
      *            An <tt>ObjectName</tt> pattern that must be satisfied by the
      *            <tt>ObjectName</tt>s of the source MBeans. This is the
@@ -750,11 +2241,10 @@ public class CascadingService implements CascadingServiceMBean,
      *                agent.
      **/
     // protected
-    CascadingAgent createCascadingAgent(JMXConnector sourceConnector,
+    CascadingAgent createCascadingAgent(MBeanServerConnectionFactory sourceConnectionFactory,
                                         ObjectName sourcePattern,
                                         String nodeName, MBeanServer targetMBS,
                                         String mountPointID) throws IOException {
-        final MBeanServerConnectionFactory sourceConnectionFactory = BasicMBeanServerConnectionFactory.newInstance(sourceConnector);
         return new ProxyCascadingAgent(sourceConnectionFactory, sourcePattern,
                                        null, nodeName, targetMBS, mountPointID);
     }
@@ -780,7 +2270,8 @@ public class CascadingService implements CascadingServiceMBean,
     }
 
     /**
-     * Stops the <tt>CascadingAgent</tt> and closes the <tt>JMXConnector</tt>
+     * Stops the <tt>CascadingAgent</tt> and closes the
+     * <tt>MBeanServerConnectionFactory</tt> and the <tt>JMXConnector</tt>
      * associated to the mount point being unmounted.
      * 
      * @param agent
@@ -791,6 +2282,15 @@ public class CascadingService implements CascadingServiceMBean,
      *            When not <tt>null</tt>, the <tt>terminate</tt> method calls
      *            <tt>agent.stop()</tt>.
      *            <p>
+     * @param connectionFactory
+     *            The <tt>MBeanServerConnectionFactory</tt> created for this
+     *            mount point by {@link #createConnectionFactory
+     *            createConnectionFactory}. Can be <tt>null</tt> if
+     *            <tt>terminate</tt> is called before the factory was created.
+     *            <br>
+     *            If it is {@link Closeable}, the <tt>terminate</tt> method
+     *            closes it, whether or not the agent was created.
+     *            <p>
      * @param sourceConnector
      *            The <tt>JMXConnector</tt> created for this mount point by
      *            {@link #connectSource connectSource}. <br>
@@ -811,15 +2311,23 @@ public class CascadingService implements CascadingServiceMBean,
      *                never be called twice for the same mount point.
      **/
     // protected
-    void terminate(CascadingAgent agent, JMXConnector sourceConnector,
-                   String mountPointID) throws IOException {
+    void terminate(CascadingAgent agent,
+                   MBeanServerConnectionFactory connectionFactory,
+                   JMXConnector sourceConnector, String mountPointID)
+                                                                     throws IOException {
         try {
             if (agent != null) {
                 agent.stop();
             }
         } finally {
-            if (sourceConnector != null) {
-                sourceConnector.close();
+            try {
+                if (connectionFactory instanceof Closeable) {
+                    ((Closeable) connectionFactory).close();
+                }
+            } finally {
+                if (sourceConnector != null) {
+                    sourceConnector.close();
+                }
             }
         }
     }
@@ -56,11 +56,14 @@ import java.util.Map;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import javax.management.QueryExp;
 import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
+import com.hellblazer.jmx.cascading.metrics.OperationStats;
+
 /**
  * The <tt>CascadingServiceMBean</tt> is a high level service MBean that makes
  * it possible to remotely configure <tt>CascadingAgents</tt>. This MBean makes
@@ -145,6 +148,15 @@ public interface CascadingServiceMBean {
      **/
     public final String            CASCADING_FAILED_NOTIFICATION  = "com.hellblazer.jmx.cascading.failed";
 
+    /**
+     * The type of the <tt>Notification</tt> emitted once a
+     * {@link #mountAll mountAll} operation completes. Its <var>userData</var>
+     * is the array of {@link MountResult}s returned by the operation.
+     * 
+     * @see #mountAll
+     **/
+    public final String            CASCADING_MOUNT_ALL_NOTIFICATION = "com.hellblazer.jmx.cascading.mountAll";
+
     /**
      * The type of the <tt>JMXConnectionNotification</tt> emitted when a source
      * <tt>MBeanServer</tt> is unmounted.
@@ -153,6 +165,120 @@ public interface CascadingServiceMBean {
      **/
     public final String            CASCADING_STOPPED_NOTIFICATION = "com.hellblazer.jmx.cascading.stopped";
 
+    /**
+     * Declare an aggregate: one attribute of the MBeans cascaded from every
+     * mount point, reduced to a single value by a
+     * {@link com.hellblazer.jmx.cascading.aggregate.Reducer Reducer}. The
+     * aggregate is registered in the target <tt>MBeanServer</tt> under
+     * <var>aggregateName</var>, as an
+     * {@link com.hellblazer.jmx.cascading.aggregate.AggregateMBean
+     * AggregateMBean} whose <tt>Value</tt> is computed by reading the
+     * attribute of all the matching cascaded MBeans in parallel.
+     * <p>
+     * For instance, the total heap used across the fleet is declared by
+     * <tt>declareAggregate("fleet:type=HeapUsed", "java.lang:type=Memory",
+     * "HeapMemoryUsage.used", "SUM", 1000)</tt>.
+     * </p>
+     * 
+     * @param aggregateName
+     *            The <tt>ObjectName</tt> of the aggregate MBean.
+     * @param sourcePattern
+     *            The pattern of the aggregated MBeans, as named in the source
+     *            <tt>MBeanServer</tt>s.
+     * @param attribute
+     *            The attribute to aggregate. A dotted suffix selects an item
+     *            of a <tt>CompositeData</tt> attribute.
+     * @param reducer
+     *            The name of the reducer: <tt>SUM</tt>, <tt>MIN</tt>,
+     *            <tt>MAX</tt>, <tt>AVG</tt>, <tt>COUNT</tt>, <tt>P50</tt>,
+     *            <tt>P90</tt>, <tt>P95</tt> or <tt>P99</tt>.
+     * @param cacheMillis
+     *            The number of milliseconds a computed value is reused. 0
+     *            computes the value on every read.
+     * @return the <tt>ObjectName</tt> of the aggregate.
+     * @exception MalformedObjectNameException
+     *                if <var>aggregateName</var> or <var>sourcePattern</var>
+     *                is not a valid <tt>ObjectName</tt>.
+     * @exception InstanceAlreadyExistsException
+     *                if an MBean is already registered under
+     *                <var>aggregateName</var>.
+     * @exception IllegalArgumentException
+     *                if the reducer is unknown, or the attribute missing.
+     **/
+    public ObjectName declareAggregate(String aggregateName,
+                                       String sourcePattern, String attribute,
+                                       String reducer, long cacheMillis)
+                                                                        throws MalformedObjectNameException,
+                                                                        InstanceAlreadyExistsException;
+
+    /**
+     * The names of the aggregates declared with {@link #declareAggregate
+     * declareAggregate}.
+     * 
+     * @return the <tt>ObjectName</tt>s of the aggregates.
+     **/
+    public ObjectName[] getAggregateNames();
+
+    /**
+     * The number of <tt>JMXConnector</tt>s opened per source
+     * <tt>MBeanServer</tt> by subsequent {@link #mount(JMXServiceURL,Map,ObjectName,String)
+     * mount} operations. A value greater than one mounts the source through a
+     * {@link StripedMBeanServerConnectionFactory}. The default is 1.
+     * 
+     * @return the number of connectors per mounted source.
+     **/
+    public int getConnectionStripes();
+
+    /**
+     * The number of consecutive failed periodic health checks after which the
+     * connection of a mount point is declared dead. The default is 3.
+     * 
+     * @return the health check failure threshold.
+     **/
+    public int getHealthCheckFailureThreshold();
+
+    /**
+     * The nominal interval, in milliseconds, between two health checks of the
+     * connection of a mount point. Each check pings the source
+     * <tt>MBeanServer</tt>; the actual interval is randomized so that the
+     * checks of many mount points are spread over time. The default is 10000.
+     * <p>
+     * A mount point whose connection is declared dead is unmounted, and a
+     * {@link #CASCADING_FAILED_NOTIFICATION} is emitted, unless it
+     * {@link #isReconnectEnabled() reconnects}.
+     * </p>
+     * 
+     * @return the health check interval.
+     **/
+    public long getHealthCheckInterval();
+
+    /**
+     * The time, in milliseconds, after which a pending health check of the
+     * connection of a mount point counts as failed. The default is 5000.
+     * 
+     * @return the health check timeout.
+     **/
+    public long getHealthCheckTimeout();
+
+    /**
+     * The hosts whose leaf <tt>MBeanServer</tt>s may be mounted directly when
+     * {@link #isHierarchicalRoutingEnabled() routing} to the leaves of a
+     * cascading source. The default is none.
+     * 
+     * @return the host names, in lower case.
+     **/
+    public String[] getHierarchicalRoutingHosts();
+
+    /**
+     * The maximum number of mount operations performed concurrently by this
+     * service. Mount operations of distinct mount points proceed in parallel
+     * up to that limit; further mount operations wait for one of them to
+     * complete. The default is 16.
+     * 
+     * @return the maximum number of concurrent mount operations.
+     **/
+    public int getMaxConcurrentMounts();
+
     /**
      * Returns an array of current <var>mountPointIDs</var>.
      * 
@@ -160,6 +286,138 @@ public interface CascadingServiceMBean {
      **/
     public String[] getMountPointIDs();
 
+    /**
+     * Returns the specifications of the mount points created from a
+     * <tt>JMXServiceURL</tt>. The connection attributes of the mount points
+     * are not returned: the <var>sourceMap</var> of the specifications is
+     * always <tt>null</tt>.
+     * <p>
+     * A parent <tt>CascadingService</tt> reads this attribute to
+     * {@link #isHierarchicalRoutingEnabled() route} the MBeans of the leaf
+     * <tt>MBeanServer</tt>s of this service.
+     * </p>
+     * 
+     * @return the specifications of the mount points.
+     **/
+    public MountSpec[] getMountSpecs();
+
+    /**
+     * The number of placeholders restored by {@link #restoreSnapshot} which
+     * have not yet been replaced by the proxies of their mount point, or
+     * removed.
+     * 
+     * @return the number of unverified cascaded MBeans.
+     **/
+    public int getPlaceholderCount();
+
+    /**
+     * The delay, in milliseconds, before the first attempt to reconnect a
+     * mount point whose connection was lost. Each subsequent attempt doubles
+     * the delay, up to {@link #getReconnectMaxDelay() ReconnectMaxDelay}.
+     * 
+     * @return the initial reconnection delay.
+     **/
+    public long getReconnectInitialDelay();
+
+    /**
+     * The number of consecutive failed reconnection attempts after which a
+     * mount point is unmounted. 0, the default, means that reconnection is
+     * attempted until the mount point is explicitly unmounted.
+     * 
+     * @return the maximum number of reconnection attempts.
+     **/
+    public int getReconnectMaxAttempts();
+
+    /**
+     * The upper bound, in milliseconds, of the delay between two reconnection
+     * attempts.
+     * 
+     * @return the maximum reconnection delay.
+     **/
+    public long getReconnectMaxDelay();
+
+    /**
+     * The file of the topology snapshot written by {@link #writeSnapshot} and
+     * restored by {@link #restoreSnapshot}. It is set in the configuration of
+     * the service, by {@link CascadingService#setSnapshotFile}, and cannot be
+     * chosen through this interface.
+     * 
+     * @return the path of the snapshot file, or <tt>null</tt> if none.
+     **/
+    public String getSnapshotFile();
+
+    /**
+     * The name of the {@link StripedMBeanServerConnectionFactory.Routing}
+     * policy used when {@link #getConnectionStripes() ConnectionStripes} is
+     * greater than one.
+     * 
+     * @return the stripe routing policy.
+     **/
+    public String getStripeRouting();
+
+    /**
+     * Tell whether subsequent mount operations adapt the number of remote
+     * operations they keep in flight on their source <tt>MBeanServer</tt> to
+     * its round trip time. When enabled, operations beyond the current limit
+     * wait for one in flight to complete, and the limit is published by a
+     * {@link com.hellblazer.jmx.cascading.limit.AdaptiveLimitMBean} registered
+     * in the target <tt>MBeanServer</tt> as
+     * <tt>com.hellblazer.jmx.cascading:type=ConcurrencyLimit,mountPoint=</tt><i>quoted
+     * mountPointID</i> for as long as the mount point is mounted. The default
+     * is false.
+     * 
+     * @return true if the concurrency of mount points is limited.
+     **/
+    public boolean isAdaptiveConcurrencyEnabled();
+
+    /**
+     * Tell whether the connection of the given mount point was alive at its
+     * last health check. This does not perform any remote call.
+     * 
+     * @return true if the given <var>mountPointID</var> is mounted and its
+     *         connection alive.
+     **/
+    public boolean isAlive(String mountPointID);
+
+    /**
+     * Tell whether subsequent mounts of a source <tt>MBeanServer</tt> which
+     * is itself cascading leaf <tt>MBeanServer</tt>s through a
+     * <tt>CascadingService</tt> route to the leaves directly. When enabled,
+     * mounting such a source with no <var>sourcePattern</var> also mounts the
+     * leaves of its {@link #getMountSpecs() MountSpecs} on the
+     * {@link #getHierarchicalRoutingHosts() HierarchicalRoutingHosts} under
+     * the compound <i>cascadedNode</i>
+     * <tt><i>nodeName</i>/<i>leafNode</i></tt>, and the MBeans of those
+     * leaves are no longer proxied through the source. Their requests and
+     * notifications thereby cross one proxy rather than two. The leaves are
+     * mounted in the background once the source is mounted, with the
+     * connection attributes set by
+     * {@link CascadingService#setHierarchicalRoutingEnvironment} rather than
+     * the <var>sourceMap</var> of the source. The source
+     * <tt>CascadingService</tt> is found by its <tt>type=CascadingService</tt>
+     * key. A leaf on another host, or that cannot be reached directly, is
+     * proxied through the source, as are the MBeans of a leaf whose direct
+     * mount point goes away. Unmounting the source unmounts its leaves. The
+     * default is false.
+     * 
+     * @return true if hierarchical routing is enabled.
+     **/
+    public boolean isHierarchicalRoutingEnabled();
+
+    /**
+     * Tell whether subsequent mount operations meter the remote operations
+     * issued to their source <tt>MBeanServer</tt>. When enabled, the latency
+     * and throughput of each kind of remote operation are published by a
+     * {@link com.hellblazer.jmx.cascading.metrics.MountPointMetricsMXBean}
+     * registered in the target <tt>MBeanServer</tt> as
+     * <tt>com.hellblazer.jmx.cascading:type=MountPointMetrics,mountPoint=</tt><i>quoted
+     * mountPointID</i> for as long as the mount point is mounted. The default
+     * is false.
+     * 
+     * @return true if mount points are metered.
+     **/
+    public boolean isMetricsEnabled();
+
     /**
      * Tell whether the given ID identifies a currently mounted mountPoint.
      * 
@@ -167,6 +425,20 @@ public interface CascadingServiceMBean {
      **/
     public boolean isMounted(String mountPointID);
 
+    /**
+     * Tell whether subsequent {@link #mount(JMXServiceURL,Map,ObjectName,String)
+     * mount} operations reconnect automatically. When enabled, a mount point
+     * whose connection is lost is not unmounted: its proxies remain
+     * registered - and fail with an <tt>IOException</tt> - while the source is
+     * reconnected with a randomized exponential backoff, after which the
+     * proxies are resynchronized with the source <tt>MBeanServer</tt>. The
+     * default is false.
+     * 
+     * @return true if mount points reconnect automatically.
+     * @see ReconnectingMBeanServerConnectionFactory
+     **/
+    public boolean isReconnectEnabled();
+
     /**
      * Mounts a partial view of the source <tt>MBeanServer</tt> identified by
      * its <tt>JMXServiceURL</tt>.
@@ -461,6 +733,246 @@ public interface CascadingServiceMBean {
                                           InstanceAlreadyExistsException,
                                           MalformedObjectNameException;
 
+    /**
+     * Mounts several source <tt>MBeanServer</tt>s in one operation. The mount
+     * operations described by <var>specs</var> are performed in parallel, as
+     * by {@link #mount(JMXServiceURL,Map,ObjectName,String) mount}, subject
+     * to {@link #getMaxConcurrentMounts() MaxConcurrentMounts}. The failure of
+     * one of them does not affect the others.
+     * <p>
+     * Once all the mount operations have completed, a single
+     * {@link #CASCADING_MOUNT_ALL_NOTIFICATION} notification summarizing the
+     * results is emitted.
+     * </p>
+     * 
+     * @param specs
+     *            The mount operations to perform.
+     * @return The result of each mount operation, in the order of
+     *         <var>specs</var>: the <var>mountPointID</var>, or the cause of
+     *         the failure.
+     **/
+    public MountResult[] mountAll(MountSpec[] specs);
+
+    /**
+     * Query the source <tt>MBeanServer</tt>s of all the mount points in
+     * parallel. Each source evaluates the pattern and the query itself, so
+     * that queries on attribute values are answered without reading the
+     * attributes through the proxies.
+     * <p>
+     * The results of the mount points which answer within
+     * <var>timeoutMillis</var> are merged; the mount points which fail or time
+     * out are reported in the {@link QueryResult}, which is then partial.
+     * </p>
+     * 
+     * @param sourcePattern
+     *            The <tt>ObjectName</tt> pattern, as named in the source
+     *            <tt>MBeanServer</tt>s. <tt>null</tt> is equivalent to
+     *            <tt>"*:*"</tt>. Only the MBeans cascaded by a mount point -
+     *            those matching its own source pattern - are included.
+     * @param query
+     *            The query evaluated by the source <tt>MBeanServer</tt>s, or
+     *            <tt>null</tt>.
+     * @param timeoutMillis
+     *            The maximum time to wait for the mount points to answer.
+     * @return the merged results, as named in the target <tt>MBeanServer</tt>.
+     **/
+    public QueryResult query(ObjectName sourcePattern, QueryExp query,
+                             long timeoutMillis);
+
+    /**
+     * Restore the cascaded MBeans recorded by {@link #writeSnapshot} in the
+     * {@link #getSnapshotFile() snapshot file}, so that they can be browsed
+     * as soon as a restarted target starts, before the source
+     * <tt>MBeanServer</tt>s are reachable.
+     * <p>
+     * A placeholder, answering the recorded <tt>MBeanInfo</tt> marked as
+     * unverified, is registered for each cascaded MBean of the mount points
+     * which are not already mounted. When a mount point with the same source
+     * pattern and node name is later mounted, its proxies replace the
+     * placeholders of the MBeans still present in the source
+     * <tt>MBeanServer</tt>, and its remaining placeholders are removed.
+     * </p>
+     * 
+     * @return the number of placeholders registered.
+     * @exception IOException
+     *                if the snapshot cannot be read.
+     * @exception IllegalStateException
+     *                if no snapshot file is configured.
+     * @see com.hellblazer.jmx.cascading.proxy.PlaceholderProxy
+     **/
+    public int restoreSnapshot() throws IOException;
+
+    /**
+     * The round trip times of the successful health checks of the connection
+     * of the given mount point, and the number of failed checks, since it was
+     * mounted. This does not perform any remote call.
+     * 
+     * @param mountPointID
+     *            The mount point ID.
+     * @return the statistics of the health checks, or <tt>null</tt> if the
+     *         mount point is not mounted.
+     **/
+    public OperationStats roundTripTimes(String mountPointID);
+
+    /**
+     * Enables or disables the adaptive concurrency limit of subsequent mount
+     * operations.
+     * 
+     * @param enabled
+     *            true to limit the concurrency of mount points.
+     **/
+    public void setAdaptiveConcurrencyEnabled(boolean enabled);
+
+    /**
+     * Sets the number of <tt>JMXConnector</tt>s opened per source
+     * <tt>MBeanServer</tt>. Only affects the mount operations performed from a
+     * <tt>JMXServiceURL</tt> after this call; mounting from a supplied
+     * <tt>JMXConnector</tt> always uses that single connector.
+     * 
+     * @param stripes
+     *            the number of connectors per mounted source, at least 1.
+     * @exception IllegalArgumentException
+     *                if <var>stripes</var> is less than 1.
+     **/
+    public void setConnectionStripes(int stripes);
+
+    /**
+     * Sets the number of consecutive failed health checks after which a
+     * connection is declared dead.
+     * 
+     * @param failures
+     *            the failure threshold, at least 1.
+     * @exception IllegalArgumentException
+     *                if <var>failures</var> is less than 1.
+     **/
+    public void setHealthCheckFailureThreshold(int failures);
+
+    /**
+     * Sets the nominal interval between two health checks of a connection.
+     * 
+     * @param millis
+     *            the health check interval in milliseconds.
+     * @exception IllegalArgumentException
+     *                if <var>millis</var> is not positive.
+     **/
+    public void setHealthCheckInterval(long millis);
+
+    /**
+     * Sets the time after which a pending health check counts as failed.
+     * 
+     * @param millis
+     *            the health check timeout in milliseconds.
+     * @exception IllegalArgumentException
+     *                if <var>millis</var> is not positive.
+     **/
+    public void setHealthCheckTimeout(long millis);
+
+    /**
+     * Enables or disables the routing of subsequent mount operations to the
+     * leaves of cascading sources.
+     * 
+     * @param enabled
+     *            true to route to the leaves.
+     * @see #isHierarchicalRoutingEnabled()
+     **/
+    public void setHierarchicalRoutingEnabled(boolean enabled);
+
+    /**
+     * Sets the hosts whose leaf <tt>MBeanServer</tt>s may be mounted directly
+     * by subsequent mount operations.
+     * 
+     * @param hosts
+     *            the host names of the leaf <tt>JMXServiceURL</tt>s, compared
+     *            regardless of case, or <tt>null</tt> for none.
+     * @see #getHierarchicalRoutingHosts()
+     **/
+    public void setHierarchicalRoutingHosts(String[] hosts);
+
+    /**
+     * Sets the maximum number of mount operations performed concurrently.
+     * 
+     * @param max
+     *            the maximum number of concurrent mount operations, at least
+     *            1.
+     * @exception IllegalArgumentException
+     *                if <var>max</var> is less than 1.
+     **/
+    public void setMaxConcurrentMounts(int max);
+
+    /**
+     * Enables or disables the metering of subsequent mount operations.
+     * 
+     * @param enabled
+     *            true to meter mount points.
+     **/
+    public void setMetricsEnabled(boolean enabled);
+
+    /**
+     * Enables or disables automatic reconnection for subsequent mount
+     * operations performed from a <tt>JMXServiceURL</tt>.
+     * 
+     * @param enabled
+     *            true to reconnect mount points automatically.
+     **/
+    public void setReconnectEnabled(boolean enabled);
+
+    /**
+     * Sets the delay before the first reconnection attempt.
+     * 
+     * @param millis
+     *            the initial reconnection delay in milliseconds.
+     * @exception IllegalArgumentException
+     *                if <var>millis</var> is negative.
+     **/
+    public void setReconnectInitialDelay(long millis);
+
+    /**
+     * Sets the number of consecutive failed reconnection attempts after which
+     * a mount point is unmounted; 0 means never.
+     * 
+     * @param attempts
+     *            the maximum number of reconnection attempts.
+     * @exception IllegalArgumentException
+     *                if <var>attempts</var> is negative.
+     **/
+    public void setReconnectMaxAttempts(int attempts);
+
+    /**
+     * Sets the upper bound of the delay between two reconnection attempts.
+     * 
+     * @param millis
+     *            the maximum reconnection delay in milliseconds.
+     * @exception IllegalArgumentException
+     *                if <var>millis</var> is negative.
+     **/
+    public void setReconnectMaxDelay(long millis);
+
+    /**
+     * Sets the {@link StripedMBeanServerConnectionFactory.Routing} policy
+     * used for subsequent striped mount operations.
+     * 
+     * @param routing
+     *            the name of the routing policy.
+     * @exception IllegalArgumentException
+     *                if <var>routing</var> does not name a routing policy.
+     **/
+    public void setStripeRouting(String routing);
+
+    /**
+     * Remove an aggregate declared with {@link #declareAggregate
+     * declareAggregate} from the target <tt>MBeanServer</tt>.
+     * 
+     * @param aggregateName
+     *            The <tt>ObjectName</tt> of the aggregate.
+     * @return true if the aggregate was declared by this service, and is now
+     *         removed.
+     * @exception MalformedObjectNameException
+     *                if <var>aggregateName</var> is not a valid
+     *                <tt>ObjectName</tt>.
+     **/
+    public boolean undeclareAggregate(String aggregateName)
+                                                           throws MalformedObjectNameException;
+
     /**
      * Undo the mount operation identified by <var>mountPointID</var>. The
      * specified <var>mountPointID</var> must be a mount point ID obtained from
@@ -479,4 +991,20 @@ public interface CascadingServiceMBean {
      *                {@link CascadingAgentMBean#stop CascadingAgentMBean.stop}.
      **/
     public boolean unmount(String mountPointID) throws IOException;
+
+    /**
+     * Record the mount points, and the names and <tt>MBeanInfo</tt> of their
+     * cascaded MBeans, in the memory mapped {@link #getSnapshotFile()
+     * snapshot file}, replaced atomically, to be restored by
+     * {@link #restoreSnapshot} after a restart. The environment maps of the
+     * mount points are not recorded.
+     * 
+     * @return the number of cascaded MBeans recorded.
+     * @exception IOException
+     *                if the snapshot cannot be written.
+     * @exception IllegalStateException
+     *                if no snapshot file is configured.
+     * @see TopologySnapshot
+     **/
+    public int writeSnapshot() throws IOException;
 }
@@ -0,0 +1,173 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.hellblazer.jmx.cascading.metrics.LatencyHistogram;
+import com.hellblazer.jmx.cascading.metrics.OperationStats;
+
+/**
+ * The liveness of the connection to a source <tt>MBeanServer</tt>, as last
+ * observed by a {@link HealthChecker}. Components which need to know whether
+ * a connection is still usable consult this cached state rather than issuing
+ * a blocking remote call of their own.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class ConnectionHealth {
+    /**
+     * The operation of the {@link #getRoundTripStats() round trip statistics}
+     */
+    public static final String                 HEALTH_CHECK        = "HEALTH_CHECK";
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private volatile boolean                   alive               = true;
+    private volatile boolean                   checked             = false;
+    final ReentrantLock                        checking            = new ReentrantLock();
+    private final AtomicInteger                consecutiveFailures = new AtomicInteger();
+    private final AtomicLong                   failures            = new AtomicLong();
+    final MBeanServerConnectionFactory         factory;
+    private volatile long                      lastCheck;
+    private volatile Throwable                 lastFailure;
+    final HealthChecker.Listener               listener;
+    private final String                       name;
+    volatile boolean                           pinging;
+    private final LatencyHistogram             rtt                 = new LatencyHistogram();
+    private final long                         since               = System.nanoTime();
+    volatile boolean                           suspect;
+
+    ConnectionHealth(String name, MBeanServerConnectionFactory factory,
+                     HealthChecker.Listener listener) {
+        this.name = name;
+        this.factory = factory;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of consecutive failed checks
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    /**
+     * @return the time of the last check, in milliseconds since the epoch, or
+     *         0 if the connection was never checked
+     */
+    public long getLastCheck() {
+        return lastCheck;
+    }
+
+    /**
+     * @return the cause of the last failed check, or null
+     */
+    public Throwable getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return the name under which the connection is checked; the
+     *         <var>mountPointID</var> for mount points
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the round trip times of the successful checks
+     */
+    public LatencyHistogram getRoundTripTimes() {
+        return rtt;
+    }
+
+    /**
+     * @return the round trip times of the successful checks and the number
+     *         of failed checks, as published by the
+     *         {@link CascadingServiceMBean#roundTripTimes(String)
+     *         CascadingService}
+     */
+    public OperationStats getRoundTripStats() {
+        final long count = rtt.getCount();
+        final double seconds = (System.nanoTime() - since) / 1.0e9;
+        return new OperationStats(HEALTH_CHECK, count, failures.get(),
+                                  seconds <= 0 ? 0 : count / seconds,
+                                  rtt.getMean() / 1000.0,
+                                  micros(rtt.getPercentile(0.5)),
+                                  micros(rtt.getPercentile(0.9)),
+                                  micros(rtt.getPercentile(0.99)),
+                                  micros(rtt.getPercentile(0.999)),
+                                  micros(rtt.getMax()));
+    }
+
+    /**
+     * @return false if the connection has been declared dead. A connection is
+     *         alive until proven otherwise.
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * @return true if the connection was checked at least once
+     */
+    public boolean isChecked() {
+        return checked;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionHealth [%s %s, failures=%s, rtt=%s]",
+                             name, alive ? "alive" : "dead",
+                             consecutiveFailures.get(), rtt);
+    }
+
+    // Answer true if the connection has just been declared dead
+    //
+    boolean failed(Throwable cause, int failureThreshold) {
+        lastCheck = System.currentTimeMillis();
+        lastFailure = cause;
+        checked = true;
+        failures.incrementAndGet();
+        final int consecutive = consecutiveFailures.incrementAndGet();
+        if (alive && (suspect || consecutive >= failureThreshold)) {
+            alive = false;
+            return true;
+        }
+        return false;
+    }
+
+    // Answer true if the connection has just come back to life
+    //
+    boolean succeeded(long rttNanos) {
+        lastCheck = System.currentTimeMillis();
+        rtt.record(rttNanos);
+        consecutiveFailures.set(0);
+        checked = true;
+        suspect = false;
+        if (!alive) {
+            alive = true;
+            return true;
+        }
+        return false;
+    }
+}
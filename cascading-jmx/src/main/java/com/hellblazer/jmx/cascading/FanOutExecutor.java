@@ -0,0 +1,617 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * The executor of the tasks fanned out to the mount points: the reads of the
+ * aggregates and of the HTTP bulk requests, the queries and the parallel
+ * mounts.
+ * <p>
+ * Every task belongs to a <i>bulkhead</i>, usually the mount point - and so
+ * the connection factory - it calls. At most <var>maxPerBulkhead</var> tasks
+ * of a bulkhead, and <var>maxConcurrency</var> tasks overall, run at any time;
+ * the others wait in the queue of their bulkhead, and the bulkheads take turns
+ * as running tasks complete. A slow source thus holds at most
+ * <var>maxPerBulkhead</var> threads, rather than filling a shared pool with
+ * calls to itself and starving the healthy ones. When the queue of a bulkhead
+ * holds <var>maxQueuedPerBulkhead</var> tasks, further tasks fail at once
+ * with a <tt>RejectedExecutionException</tt>.
+ * </p>
+ * <p>
+ * Cancelling the <tt>Future</tt> of a task removes it from its queue, or
+ * interrupts it if it is running. A task whose deadline has expired by the
+ * time its turn comes is cancelled without running.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class FanOutExecutor implements FanOutExecutorMBean {
+    private class Bulkhead {
+        final String              name;
+        final Object              key;
+        final ArrayDeque<Task<?>> queue = new ArrayDeque<Task<?>>();
+        boolean                   ready;
+        int                       running;
+
+        Bulkhead(Object key) {
+            this.key = key;
+            name = String.valueOf(key);
+        }
+    }
+
+    private class Task<T> extends FutureTask<T> {
+        final Bulkhead                          bulkhead;
+        final BlockingQueue<? super Future<T>> completed;
+        final long                              deadline;
+        final boolean                           timed;
+
+        Task(Bulkhead bulkhead, Callable<T> callable, boolean timed,
+             long deadline, BlockingQueue<? super Future<T>> completed) {
+            super(callable);
+            this.bulkhead = bulkhead;
+            this.timed = timed;
+            this.deadline = deadline;
+            this.completed = completed;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                dequeue(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            if (completed != null) {
+                completed.add(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (timed && System.nanoTime() - deadline >= 0) {
+                    if (cancel(false)) {
+                        expired.incrementAndGet();
+                    }
+                } else {
+                    super.run();
+                }
+            } finally {
+                completed(bulkhead);
+            }
+        }
+
+        void reject() {
+            setException(new RejectedExecutionException(
+                                                        String.format("Bulkhead %s is full",
+                                                                      bulkhead.name)));
+        }
+    }
+
+    /**
+     * The bulkhead of the tasks which do not call a mount point
+     */
+    public static final String                      LOCAL     = "local";
+
+    private int                                     active;
+    private final Map<Object, Bulkhead>             bulkheads = new HashMap<Object, Bulkhead>();
+    private final ExecutorService                   executor;
+    private final AtomicLong                        expired   = new AtomicLong();
+    private final ReentrantLock                     lock      = new ReentrantLock();
+    private volatile int                            maxConcurrency;
+    private volatile int                            maxPerBulkhead;
+    private volatile int                            maxQueuedPerBulkhead;
+    private final ConcurrentHashMap<String, Object> nodes     = new ConcurrentHashMap<String, Object>();
+    private int                                     queued;
+    private final ArrayDeque<Bulkhead>              ready     = new ArrayDeque<Bulkhead>();
+    private final AtomicLong                        rejected  = new AtomicLong();
+    private final AtomicLong                        saturated = new AtomicLong();
+    private boolean                                 shutdown;
+    private final AtomicLong                        submitted = new AtomicLong();
+
+    /**
+     * Answer the name of the management MBean of the executor
+     */
+    public static ObjectName objectNameOf(String name) {
+        try {
+            return new ObjectName(
+                                  String.format("com.hellblazer.jmx.cascading:type=FanOutExecutor,name=%s",
+                                                ObjectName.quote(name)));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid executor name %s",
+                                                             name), e);
+        }
+    }
+
+    /**
+     * @param name
+     *            - the prefix of the names of the threads
+     * @param maxConcurrency
+     *            - the maximum number of tasks running, over all the
+     *            bulkheads
+     * @param maxPerBulkhead
+     *            - the maximum number of tasks of one bulkhead running
+     * @param maxQueuedPerBulkhead
+     *            - the maximum number of tasks of one bulkhead queued
+     */
+    public FanOutExecutor(String name, int maxConcurrency, int maxPerBulkhead,
+                          int maxQueuedPerBulkhead) {
+        setMaxConcurrency(maxConcurrency);
+        setMaxPerBulkhead(maxPerBulkhead);
+        setMaxQueuedPerBulkhead(maxQueuedPerBulkhead);
+        executor = CascadingExecutors.newBlockingExecutor(name);
+    }
+
+    /**
+     * Route the tasks of the cascaded MBeans of a node to a bulkhead
+     * 
+     * @param nodeName
+     *            - the value of the
+     *            {@link CascadingAgent#CASCADED_NODE_PROPERTY_NAME} key of the
+     *            target names of the node
+     * @param bulkhead
+     *            - the bulkhead of the node
+     */
+    public void bind(String nodeName, Object bulkhead) {
+        nodes.put(nodeName, bulkhead);
+    }
+
+    /**
+     * Answer the bulkhead of the tasks calling a cascaded MBean: the bulkhead
+     * bound to its node, else the node itself, else {@link #LOCAL}
+     * 
+     * @param targetName
+     *            - the name of the MBean in the target <tt>MBeanServer</tt>
+     */
+    public Object bulkheadOf(ObjectName targetName) {
+        final String node = targetName.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME);
+        if (node == null) {
+            return LOCAL;
+        }
+        final Object bulkhead = nodes.get(node);
+        return bulkhead == null ? node : bulkhead;
+    }
+
+    @Override
+    public int getActive() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getBulkheads() {
+        lock.lock();
+        try {
+            return bulkheads.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getExpired() {
+        return expired.get();
+    }
+
+    @Override
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    @Override
+    public int getMaxPerBulkhead() {
+        return maxPerBulkhead;
+    }
+
+    @Override
+    public int getMaxQueuedPerBulkhead() {
+        return maxQueuedPerBulkhead;
+    }
+
+    @Override
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getSaturated() {
+        return saturated.get();
+    }
+
+    @Override
+    public String[] getSaturatedBulkheads() {
+        final List<String> names = new ArrayList<String>();
+        lock.lock();
+        try {
+            for (Bulkhead bulkhead : bulkheads.values()) {
+                if (bulkhead.running >= maxPerBulkhead) {
+                    names.add(bulkhead.name);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public long getSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * Execute the tasks, each in its bulkhead, and wait for them to complete
+     * until the timeout expires. The tasks which have not completed by then
+     * are cancelled.
+     * 
+     * @param bulkheads
+     *            - the bulkhead of each task
+     * @param tasks
+     *            - the tasks
+     * @param timeout
+     *            - the maximum time to wait
+     * @param unit
+     *            - the unit of the timeout
+     * @return the futures of the tasks, in the order of the tasks, all done
+     * @throws InterruptedException
+     *             if interrupted while waiting, in which case the tasks which
+     *             have not completed are cancelled
+     */
+    public <T> List<Future<T>> invokeAll(List<?> bulkheads,
+                                         List<? extends Callable<T>> tasks,
+                                         long timeout, TimeUnit unit)
+                                                                     throws InterruptedException {
+        if (bulkheads.size() != tasks.size()) {
+            throw new IllegalArgumentException(
+                                               String.format("%s bulkheads for %s tasks",
+                                                             bulkheads.size(),
+                                                             tasks.size()));
+        }
+        final long            deadline = System.nanoTime() + unit.toNanos(timeout);
+        final List<Future<T>> futures  = new ArrayList<Future<T>>(tasks.size());
+        boolean done = false;
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                futures.add(submit(bulkheads.get(i), tasks.get(i), deadline));
+            }
+            for (Future<T> future : futures) {
+                if (future.isDone()) {
+                    continue;
+                }
+                try {
+                    future.get(deadline - System.nanoTime(),
+                               TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    // reported by the future
+                } catch (TimeoutException e) {
+                    return futures;
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setMaxConcurrency(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException(
+                                               "At least one concurrent task is required: "
+                                                       + max);
+        }
+        maxConcurrency = max;
+        pump(null);
+    }
+
+    @Override
+    public void setMaxPerBulkhead(int max) {
+        if (max < 1) {
+            throw new IllegalArgumentException(
+                                               "At least one concurrent task per bulkhead is required: "
+                                                       + max);
+        }
+        lock.lock();
+        try {
+            maxPerBulkhead = max;
+            // the bulkheads below the new limit may now take their turn
+            for (Bulkhead bulkhead : bulkheads.values()) {
+                if (!bulkhead.ready && !bulkhead.queue.isEmpty()
+                    && bulkhead.running < max) {
+                    bulkhead.ready = true;
+                    ready.add(bulkhead);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        pump(null);
+    }
+
+    @Override
+    public void setMaxQueuedPerBulkhead(int max) {
+        if (max < 0) {
+            throw new IllegalArgumentException(
+                                               "The queue of a bulkhead cannot be negative: "
+                                                       + max);
+        }
+        maxQueuedPerBulkhead = max;
+    }
+
+    /**
+     * Reject the tasks queued and submitted from now on, and interrupt the
+     * tasks running
+     */
+    public void shutdown() {
+        final List<Task<?>> abandoned = new ArrayList<Task<?>>();
+        lock.lock();
+        try {
+            shutdown = true;
+            for (Bulkhead bulkhead : bulkheads.values()) {
+                abandoned.addAll(bulkhead.queue);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Task<?> task : abandoned) {
+            task.cancel(false);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Execute the task in its bulkhead
+     * 
+     * @param bulkhead
+     *            - the bulkhead of the task
+     * @param task
+     *            - the task
+     * @return the future of the task, failing with a
+     *         <tt>RejectedExecutionException</tt> if the bulkhead is full
+     */
+    public <T> Future<T> submit(Object bulkhead, Callable<T> task) {
+        return submit(bulkhead, task, false, 0, null);
+    }
+
+    /**
+     * Execute the task in its bulkhead, unless its deadline expires before its
+     * turn comes
+     * 
+     * @param bulkhead
+     *            - the bulkhead of the task
+     * @param task
+     *            - the task
+     * @param deadline
+     *            - the deadline, in terms of {@link System#nanoTime()}
+     * @return the future of the task, failing with a
+     *         <tt>RejectedExecutionException</tt> if the bulkhead is full, or
+     *         cancelled if the deadline expires first
+     */
+    public <T> Future<T> submit(Object bulkhead, Callable<T> task,
+                                long deadline) {
+        return submit(bulkhead, task, true, deadline, null);
+    }
+
+    /**
+     * Execute the task in its bulkhead, unless its deadline expires before its
+     * turn comes, and add its future to the <var>completed</var> queue once
+     * it is done, in the manner of an <tt>ExecutorCompletionService</tt>
+     * 
+     * @param bulkhead
+     *            - the bulkhead of the task
+     * @param task
+     *            - the task
+     * @param deadline
+     *            - the deadline, in terms of {@link System#nanoTime()}
+     * @param completed
+     *            - the queue of the completed futures
+     * @return the future of the task
+     */
+    public <T> Future<T> submit(Object bulkhead, Callable<T> task,
+                                long deadline,
+                                BlockingQueue<? super Future<T>> completed) {
+        return submit(bulkhead, task, true, deadline, completed);
+    }
+
+    /**
+     * Stop routing the tasks of a node to a bulkhead
+     * 
+     * @param nodeName
+     *            - the name of the node
+     * @param bulkhead
+     *            - the bulkhead bound to the node
+     */
+    public void unbind(String nodeName, Object bulkhead) {
+        nodes.remove(nodeName, bulkhead);
+    }
+
+    private void completed(Bulkhead bulkhead) {
+        lock.lock();
+        try {
+            active--;
+            bulkhead.running--;
+            if (!bulkhead.ready && !bulkhead.queue.isEmpty()) {
+                bulkhead.ready = true;
+                ready.add(bulkhead);
+            }
+            retire(bulkhead);
+        } finally {
+            lock.unlock();
+        }
+        pump(null);
+    }
+
+    // Removes the task from the queue of its bulkhead, if it is still queued
+    //
+    private void dequeue(Task<?> task) {
+        lock.lock();
+        try {
+            if (task.bulkhead.queue.remove(task)) {
+                queued--;
+                retire(task.bulkhead);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Runs the queued tasks of the ready bulkheads - those with tasks queued
+    // and below their limit - in turn, while below the global limit. The
+    // first task to run may be supplied by the caller, holding its slots
+    // already.
+    //
+    private void pump(Task<?> first) {
+        final List<Task<?>> runnable = new ArrayList<Task<?>>();
+        if (first != null) {
+            runnable.add(first);
+        }
+        lock.lock();
+        try {
+            while (active < maxConcurrency && !ready.isEmpty()) {
+                final Bulkhead bulkhead = ready.poll();
+                bulkhead.ready = false;
+                final Task<?> task = bulkhead.queue.poll();
+                if (task == null) {
+                    continue;
+                }
+                queued--;
+                active++;
+                bulkhead.running++;
+                runnable.add(task);
+                if (!bulkhead.queue.isEmpty()
+                    && bulkhead.running < maxPerBulkhead) {
+                    bulkhead.ready = true;
+                    ready.add(bulkhead);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Task<?> task : runnable) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // shut down
+                task.cancel(false);
+                completed(task.bulkhead);
+            }
+        }
+    }
+
+    // Forgets an idle bulkhead
+    //
+    private void retire(Bulkhead bulkhead) {
+        if (bulkhead.running == 0 && bulkhead.queue.isEmpty()) {
+            bulkheads.remove(bulkhead.key);
+            if (bulkhead.ready) {
+                bulkhead.ready = false;
+                ready.remove(bulkhead);
+            }
+        }
+    }
+
+    private <T> Future<T> submit(Object key, Callable<T> callable,
+                                 boolean timed, long deadline,
+                                 BlockingQueue<? super Future<T>> completed) {
+        submitted.incrementAndGet();
+        final Task<T> task;
+        boolean run = false;
+        lock.lock();
+        try {
+            Bulkhead bulkhead = bulkheads.get(key);
+            if (bulkhead == null) {
+                bulkhead = new Bulkhead(key);
+                bulkheads.put(key, bulkhead);
+            }
+            task = new Task<T>(bulkhead, callable, timed, deadline,
+                               completed);
+            if (shutdown) {
+                task.cancel(false);
+                retire(bulkhead);
+                return task;
+            }
+            if (bulkhead.queue.isEmpty() && bulkhead.running < maxPerBulkhead
+                && active < maxConcurrency) {
+                active++;
+                bulkhead.running++;
+                run = true;
+            } else if (bulkhead.queue.size() >= maxQueuedPerBulkhead) {
+                rejected.incrementAndGet();
+                task.reject();
+                retire(bulkhead);
+                return task;
+            } else {
+                if (bulkhead.running >= maxPerBulkhead) {
+                    saturated.incrementAndGet();
+                } else if (!bulkhead.ready) {
+                    bulkhead.ready = true;
+                    ready.add(bulkhead);
+                }
+                bulkhead.queue.add(task);
+                queued++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        pump(run ? task : null);
+        return task;
+    }
+}
@@ -0,0 +1,101 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+/**
+ * The management interface of a {@link FanOutExecutor}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface FanOutExecutorMBean {
+
+    /**
+     * @return the number of tasks running
+     */
+    int getActive();
+
+    /**
+     * @return the number of bulkheads with tasks running or queued
+     */
+    int getBulkheads();
+
+    /**
+     * @return the number of tasks abandoned because their deadline expired
+     *         before they could run
+     */
+    long getExpired();
+
+    /**
+     * @return the maximum number of tasks running, over all the bulkheads
+     */
+    int getMaxConcurrency();
+
+    /**
+     * @return the maximum number of tasks of one bulkhead running
+     */
+    int getMaxPerBulkhead();
+
+    /**
+     * @return the maximum number of tasks of one bulkhead queued, beyond which
+     *         its tasks are rejected
+     */
+    int getMaxQueuedPerBulkhead();
+
+    /**
+     * @return the number of tasks queued
+     */
+    int getQueued();
+
+    /**
+     * @return the number of tasks rejected because their bulkhead was full
+     */
+    long getRejected();
+
+    /**
+     * @return the number of tasks which queued because their bulkhead had
+     *         reached its limit
+     */
+    long getSaturated();
+
+    /**
+     * @return the bulkheads which have reached their limit
+     */
+    String[] getSaturatedBulkheads();
+
+    /**
+     * @return the number of tasks submitted
+     */
+    long getSubmitted();
+
+    /**
+     * @param max
+     *            - the maximum number of tasks running, over all the
+     *            bulkheads
+     */
+    void setMaxConcurrency(int max);
+
+    /**
+     * @param max
+     *            - the maximum number of tasks of one bulkhead running
+     */
+    void setMaxPerBulkhead(int max);
+
+    /**
+     * @param max
+     *            - the maximum number of tasks of one bulkhead queued
+     */
+    void setMaxQueuedPerBulkhead(int max);
+}
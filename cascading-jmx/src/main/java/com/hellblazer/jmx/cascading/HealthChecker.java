@@ -0,0 +1,331 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.management.MBeanServerConnection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A central scheduler which periodically pings the connections to source
+ * <tt>MBeanServer</tt>s, by calling <tt>getDefaultDomain()</tt> through their
+ * {@link MBeanServerConnectionFactory}, and maintains their
+ * {@link ConnectionHealth}.
+ * <p>
+ * Each connection is checked on its own schedule, every
+ * <var>interval</var> randomized by &plusmn;{@value #JITTER_PERCENT}%, so that
+ * the checks of many connections mounted together do not all happen at the
+ * same instant. Checks are performed by a small pool of daemon threads; at
+ * most one check of a given connection is in progress at any time.
+ * </p>
+ * <p>
+ * Each ping is bounded by <var>timeout</var>: a ping which does not answer in
+ * time counts as a failed check, so that a hung source cannot hold up the
+ * checks of the other connections. The pings run on their own threads, and
+ * while the ping of a connection is still pending, the subsequent checks of
+ * that connection fail without pinging it again.
+ * </p>
+ * <p>
+ * A connection is declared dead after <var>failureThreshold</var> consecutive
+ * failed checks, or after a single failed check requested through
+ * {@link #checkNow(ConnectionHealth)} or {@link #confirm(ConnectionHealth)} -
+ * which is how a suspicious event, such as a <tt>CLOSED</tt> notification, is
+ * confirmed. It is alive again after the next successful check. Both
+ * transitions are reported to the {@link Listener} of the connection.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class HealthChecker {
+    /**
+     * Notified of the transitions of the liveness of a connection
+     */
+    public interface Listener {
+        void alive(ConnectionHealth health);
+
+        void dead(ConnectionHealth health);
+    }
+
+    /**
+     * The default bound of a ping, in milliseconds
+     */
+    public static final long                                    DEFAULT_TIMEOUT  = 5000;
+    private static final int                                    JITTER_PERCENT   = 20;
+    private static final Logger                                 log              = LoggerFactory.getLogger(HealthChecker.class);
+
+    private final ConcurrentHashMap<String, ConnectionHealth>   checked          = new ConcurrentHashMap<String, ConnectionHealth>();
+    private volatile int                                        failureThreshold = 3;
+    private volatile long                                       intervalMillis;
+    private final ExecutorService                               pings;
+    private final ScheduledThreadPoolExecutor                   scheduler;
+    private volatile long                                       timeoutMillis    = DEFAULT_TIMEOUT;
+
+    /**
+     * @param threads
+     *            - the number of threads performing the checks
+     * @param intervalMillis
+     *            - the nominal interval between two checks of a connection
+     */
+    public HealthChecker(int threads, long intervalMillis) {
+        setIntervalMillis(intervalMillis);
+        scheduler = new ScheduledThreadPoolExecutor(
+                                                    threads,
+                                                    CascadingExecutors.newThreadFactory("Cascading health check"));
+        pings = Executors.newCachedThreadPool(CascadingExecutors.newThreadFactory("Cascading health ping"));
+    }
+
+    /**
+     * Synchronously check the connection, unless a check is already in
+     * progress.
+     * 
+     * @return the health of the connection
+     */
+    public ConnectionHealth check(ConnectionHealth health) {
+        if (!health.checking.tryLock()) {
+            return health;
+        }
+        try {
+            probe(health);
+            return health;
+        } finally {
+            health.checking.unlock();
+        }
+    }
+
+    /**
+     * Asynchronously check the connection as soon as possible. A single
+     * failure of that check declares the connection dead.
+     */
+    public void checkNow(final ConnectionHealth health) {
+        scheduler.execute(new Runnable() {
+            @Override
+            public void run() {
+                confirm(health);
+            }
+        });
+    }
+
+    /**
+     * Synchronously check the connection. A single failure of that check
+     * declares the connection dead. If a check is already in progress, waits
+     * for it to complete before checking the connection again, so that the
+     * returned health always reflects a check which started after this call.
+     * 
+     * @return the health of the connection
+     */
+    public ConnectionHealth confirm(ConnectionHealth health) {
+        health.checking.lock();
+        try {
+            health.suspect = true;
+            probe(health);
+            return health;
+        } finally {
+            health.checking.unlock();
+        }
+    }
+
+    /**
+     * @return the health of the connection registered under the name, or null
+     */
+    public ConnectionHealth getHealth(String name) {
+        return checked.get(name);
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Start checking the connections obtained from the factory.
+     * 
+     * @param name
+     *            - the name of the connection
+     * @param factory
+     *            - the factory providing the connections to check
+     * @param listener
+     *            - notified when the connection dies or comes back to life
+     * @return the health of the connection
+     * @throws IllegalStateException
+     *             if a connection is already registered under the name
+     */
+    public ConnectionHealth register(String name,
+                                     MBeanServerConnectionFactory factory,
+                                     Listener listener) {
+        final ConnectionHealth health = new ConnectionHealth(name, factory,
+                                                             listener);
+        if (checked.putIfAbsent(name, health) != null) {
+            throw new IllegalStateException(String.format("%s is already checked",
+                                                          name));
+        }
+        schedule(health);
+        return health;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(
+                                               "Failure threshold must be at least 1: "
+                                                       + failureThreshold);
+        }
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Set the nominal interval between two checks of a connection. Takes
+     * effect after the next check of each connection.
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException(
+                                               "Health check interval must be positive: "
+                                                       + intervalMillis);
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Set the time after which a pending ping counts as a failed check.
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException(
+                                               "Health check timeout must be positive: "
+                                                       + timeoutMillis);
+        }
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Stop all the checks.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        pings.shutdownNow();
+        checked.clear();
+    }
+
+    /**
+     * Stop checking the connection
+     */
+    public void unregister(ConnectionHealth health) {
+        checked.remove(health.getName(), health);
+    }
+
+    // Performs one check; the caller holds the checking lock of the health
+    //
+    private void probe(ConnectionHealth health) {
+        final long start = System.nanoTime();
+        Throwable failure = null;
+        if (health.pinging) {
+            failure = new TimeoutException("the previous ping is still pending");
+        } else {
+            final Future<String> ping = pings.submit(ping(health));
+            try {
+                ping.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (TimeoutException e) {
+                ping.cancel(true);
+                failure = new TimeoutException(
+                                               String.format("no answer within %s ms",
+                                                             timeoutMillis));
+            } catch (InterruptedException e) {
+                // shutting down
+                ping.cancel(true);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (failure != null) {
+            if (health.failed(failure, failureThreshold)) {
+                if (log.isInfoEnabled()) {
+                    log.info(String.format("Connection %s is dead: %s",
+                                           health.getName(), failure));
+                }
+                health.listener.dead(health);
+            }
+            return;
+        }
+        if (health.succeeded(System.nanoTime() - start)) {
+            if (log.isInfoEnabled()) {
+                log.info(String.format("Connection %s is alive",
+                                       health.getName()));
+            }
+            health.listener.alive(health);
+        }
+    }
+
+    private Callable<String> ping(final ConnectionHealth health) {
+        return new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                health.pinging = true;
+                try {
+                    final MBeanServerConnection connection = health.factory.getMBeanServerConnection();
+                    if (connection == null) {
+                        throw new IllegalStateException("no connection");
+                    }
+                    return connection.getDefaultDomain();
+                } finally {
+                    health.pinging = false;
+                }
+            }
+        };
+    }
+
+    private void schedule(final ConnectionHealth health) {
+        final long interval = intervalMillis;
+        final long jitter = interval * JITTER_PERCENT / 100;
+        final long delay = interval - jitter
+                           + (jitter == 0 ? 0
+                                         : ThreadLocalRandom.current().nextLong(2 * jitter + 1));
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (checked.get(health.getName()) != health) {
+                    return;
+                }
+                try {
+                    check(health);
+                } finally {
+                    if (checked.get(health.getName()) == health) {
+                        schedule(health);
+                    }
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -170,6 +170,21 @@ public class LocalMBeanServerConnectionFactory implements
         return localConnection;
     }
 
+    /**
+     * Return the local <tt>MBeanServer</tt>, if the local
+     * <tt>MBeanServerConnection</tt> passed to the constructor of this object
+     * is one. A {@link com.hellblazer.jmx.cascading.proxy.CascadingProxy
+     * CascadingProxy} dispatches its operations and notifications directly to
+     * that <tt>MBeanServer</tt>.
+     * 
+     * @return the local <tt>MBeanServer</tt>, or <tt>null</tt> if the local
+     *         <tt>MBeanServerConnection</tt> merely wraps one.
+     */
+    public final MBeanServer getMBeanServer() {
+        return localConnection instanceof MBeanServer ? (MBeanServer) localConnection
+                                                     : null;
+    }
+
     /**
      * <p>
      * This implementation does nothing. Since local connections never change,
@@ -622,9 +622,10 @@ public abstract class MBeanServerConnectionWrapper implements MBeanServer {
         }
     }
 
-    // Take care of getMBeanServerConnection returning null.
+    // Take care of getMBeanServerConnection returning null. Not synchronized:
+    // getMBeanServerConnection() is expected to be thread safe.
     //
-    private synchronized MBeanServerConnection connection() throws IOException {
+    private MBeanServerConnection connection() throws IOException {
         final MBeanServerConnection c = getMBeanServerConnection();
         if (c == null) {
             throw new IOException("MBeanServerConnection unavailable");
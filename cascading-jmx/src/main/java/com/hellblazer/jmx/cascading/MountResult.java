@@ -0,0 +1,76 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.io.Serializable;
+
+/**
+ * The outcome of the mount operation described by a {@link MountSpec}, as
+ * returned by {@link CascadingServiceMBean#mountAll(MountSpec[])}: either the
+ * <var>mountPointID</var> of the new mount point, or the cause of the failure.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class MountResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Throwable   failure;
+    private final String      mountPointID;
+    private final MountSpec   spec;
+
+    public MountResult(MountSpec spec, String mountPointID) {
+        this(spec, mountPointID, null);
+    }
+
+    public MountResult(MountSpec spec, Throwable failure) {
+        this(spec, null, failure);
+    }
+
+    private MountResult(MountSpec spec, String mountPointID, Throwable failure) {
+        this.spec = spec;
+        this.mountPointID = mountPointID;
+        this.failure = failure;
+    }
+
+    /**
+     * @return the cause of the failure, or null if the mount succeeded.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return the <var>mountPointID</var> of the new mount point, or null if
+     *         the mount failed.
+     */
+    public String getMountPointID() {
+        return mountPointID;
+    }
+
+    public MountSpec getSpec() {
+        return spec;
+    }
+
+    public boolean isMounted() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MountResult [%s -> %s]", spec,
+                             failure == null ? mountPointID : failure);
+    }
+}
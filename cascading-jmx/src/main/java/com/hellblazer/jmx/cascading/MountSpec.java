@@ -0,0 +1,80 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.management.ObjectName;
+import javax.management.remote.JMXServiceURL;
+
+/**
+ * The description of a single mount operation, as passed to
+ * {@link CascadingServiceMBean#mountAll(MountSpec[])}. The fields are those of
+ * {@link CascadingServiceMBean#mount(JMXServiceURL,Map,ObjectName,String)}.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class MountSpec implements Serializable {
+    private static final long    serialVersionUID = 1L;
+
+    private final String         nodeName;
+    private final Map<String, ?> sourceMap;
+    private final ObjectName     sourcePattern;
+    private final JMXServiceURL  sourceURL;
+
+    /**
+     * @param sourceURL
+     *            The URL of the source <tt>MBeanServer</tt>.
+     * @param sourceMap
+     *            The attributes map used to connect to the source
+     *            <tt>MBeanServer</tt>. Can be null.
+     * @param sourcePattern
+     *            The pattern of the source MBeans to mount.
+     * @param nodeName
+     *            The <i>cascadedNode</i> under which the source MBeans are
+     *            mounted.
+     */
+    public MountSpec(JMXServiceURL sourceURL, Map<String, ?> sourceMap,
+                     ObjectName sourcePattern, String nodeName) {
+        this.sourceURL = sourceURL;
+        this.sourceMap = sourceMap;
+        this.sourcePattern = sourcePattern;
+        this.nodeName = nodeName;
+    }
+
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    public Map<String, ?> getSourceMap() {
+        return sourceMap;
+    }
+
+    public ObjectName getSourcePattern() {
+        return sourcePattern;
+    }
+
+    public JMXServiceURL getSourceURL() {
+        return sourceURL;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MountSpec [%s %s %s]", sourceURL, sourcePattern,
+                             nodeName);
+    }
+}
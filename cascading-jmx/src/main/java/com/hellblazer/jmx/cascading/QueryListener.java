@@ -0,0 +1,53 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.util.Set;
+
+import javax.management.ObjectName;
+
+/**
+ * Receives the results of a
+ * {@link CascadingService#query(ObjectName, javax.management.QueryExp, long, QueryListener)
+ * query} as each mount point answers. The methods are called on the thread
+ * performing the query, one at a time.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface QueryListener {
+
+    /**
+     * The query failed, or timed out, on a mount point
+     * 
+     * @param mountPointID
+     *            - the mount point
+     * @param cause
+     *            - the failure; a <tt>TimeoutException</tt> if the mount point
+     *            did not answer in time
+     */
+    void failed(String mountPointID, Throwable cause);
+
+    /**
+     * A mount point answered
+     * 
+     * @param mountPointID
+     *            - the mount point
+     * @param names
+     *            - the names, in the target <tt>MBeanServer</tt>, of the
+     *            matching MBeans of the mount point
+     */
+    void found(String mountPointID, Set<ObjectName> names);
+}
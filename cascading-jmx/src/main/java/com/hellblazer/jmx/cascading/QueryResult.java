@@ -0,0 +1,79 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.io.Serializable;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+/**
+ * The merged outcome of a {@link CascadingServiceMBean#query query} over all
+ * the mount points: the names of the matching MBeans of the mount points which
+ * answered in time, and the mount points which did not.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class QueryResult implements Serializable {
+    private static final long            serialVersionUID = 1L;
+
+    private final String[]               answered;
+    private final Map<String, Throwable> failures;
+    private final ObjectName[]           names;
+
+    public QueryResult(ObjectName[] names, String[] answered,
+                       Map<String, Throwable> failures) {
+        this.names = names;
+        this.answered = answered;
+        this.failures = failures;
+    }
+
+    /**
+     * @return the mount points whose results are included
+     */
+    public String[] getAnswered() {
+        return answered;
+    }
+
+    /**
+     * @return the mount points which failed or timed out, with the cause of
+     *         the failure
+     */
+    public Map<String, Throwable> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the names, in the target <tt>MBeanServer</tt>, of the matching
+     *         MBeans of the mount points which answered
+     */
+    public ObjectName[] getNames() {
+        return names;
+    }
+
+    /**
+     * @return true if every mount point answered
+     */
+    public boolean isComplete() {
+        return failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryResult [%s names from %s mount points, %s failed]",
+                             names.length, answered.length, failures.size());
+    }
+}
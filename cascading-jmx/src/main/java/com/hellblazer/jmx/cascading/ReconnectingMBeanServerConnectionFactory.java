@@ -0,0 +1,496 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link MBeanServerConnectionFactory} that supports transparent
+ * reconnection to a source <tt>MBeanServer</tt> known by its
+ * <tt>JMXServiceURL</tt>.
+ * <p>
+ * When the underlying <tt>JMXConnector</tt> is closed or fails, the factory
+ * becomes <i>unavailable</i>: {@link #getMBeanServerConnection()} throws an
+ * <tt>IOException</tt> and a {@link #RECONNECTING} notification is emitted in
+ * place of the <tt>CLOSED</tt>/<tt>FAILED</tt> notification. The cascading
+ * agents and the {@link CascadingService} do not react to that notification,
+ * so the mount point and its proxies remain registered while the factory
+ * attempts to reconnect, with an exponential backoff randomized by
+ * <var>jitter</var>. Once a new connector is obtained, a
+ * {@link JMXConnectionNotification#OPENED} notification is emitted, upon which
+ * the cascading agent resynchronizes its proxies with the source
+ * <tt>MBeanServer</tt>.
+ * </p>
+ * <p>
+ * A {@link JMXConnectionNotification#FAILED} notification is only emitted if
+ * the factory gives up, after <var>maxAttempts</var> consecutive failed
+ * attempts. A <var>maxAttempts</var> of 0 retries forever.
+ * </p>
+ * <p>
+ * The factory owns every connector it creates, and closes the current one in
+ * {@link #close()}.
+ * </p>
+ *
+ * @author hhildebrand
+ *
+ */
+public class ReconnectingMBeanServerConnectionFactory implements
+        MBeanServerConnectionFactory, Closeable {
+
+    private static class Connected {
+        final MBeanServerConnection connection;
+        final JMXConnector          connector;
+
+        Connected(JMXConnector connector, MBeanServerConnection connection) {
+            this.connector = connector;
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * The type of the <tt>JMXConnectionNotification</tt> emitted when the
+     * underlying connection is lost and the factory starts reconnecting.
+     */
+    public static final String                    RECONNECTING       = "jmx.remote.connection.reconnecting";
+
+    private static final Logger                   log                = LoggerFactory.getLogger(ReconnectingMBeanServerConnectionFactory.class);
+
+    // Shared by all factories: reconnection attempts are rare and short lived
+    //
+    private static final ScheduledExecutorService RECONNECT_SCHEDULER = newScheduler();
+
+    private static ScheduledExecutorService newScheduler() {
+        return new ScheduledThreadPoolExecutor(
+                                               2,
+                                               CascadingExecutors.newThreadFactory("Cascading reconnect"));
+    }
+
+    private final AtomicInteger                   attempts           = new AtomicInteger();
+    private final AtomicBoolean                   closed             = new AtomicBoolean();
+    private final AtomicReference<Connected>      current            = new AtomicReference<Connected>();
+    private final NotificationBroadcasterSupport  emitter            = new NotificationBroadcasterSupport();
+    private final AtomicBoolean                   failed             = new AtomicBoolean();
+    private volatile long                         initialDelayMillis = 500;
+    private volatile double                       jitter             = 0.5;
+    private volatile String                       lastConnectionId;
+    private final NotificationListener            listener;
+    private volatile int                          maxAttempts        = 0;
+    private volatile long                         maxDelayMillis     = 60000;
+    private final ScheduledExecutorService        scheduler;
+    private final AtomicLong                      sequenceNumber     = new AtomicLong();
+    private final Map<String, ?>                  sourceMap;
+    private final JMXServiceURL                   sourceURL;
+    private final Subject                         subject;
+
+    /**
+     * Creates a new factory starting from a connected connector. The
+     * connector becomes owned by the factory.
+     *
+     * @param connector
+     *            A connected <tt>JMXConnector</tt> to <var>sourceURL</var>.
+     * @param sourceURL
+     *            The URL used to reconnect.
+     * @param sourceMap
+     *            The attributes map passed to
+     *            {@link JMXConnectorFactory#connect(JMXServiceURL,Map)} when
+     *            reconnecting. Can be null.
+     * @param delegationSubject
+     *            A delegation subject used to obtain the underlying
+     *            {@link MBeanServerConnection}s. Can be null.
+     * @throws IOException
+     *             if no <tt>MBeanServerConnection</tt> can be obtained from
+     *             the given connector.
+     */
+    public ReconnectingMBeanServerConnectionFactory(JMXConnector connector,
+                                                    JMXServiceURL sourceURL,
+                                                    Map<String, ?> sourceMap,
+                                                    Subject delegationSubject)
+                                                                              throws IOException {
+        this(sourceURL, sourceMap, delegationSubject, RECONNECT_SCHEDULER);
+        attach(connector, connector.getMBeanServerConnection(subject));
+    }
+
+    /**
+     * Creates a new factory which is not connected yet. The first connection
+     * attempt is scheduled immediately; until it succeeds the factory is
+     * unavailable.
+     *
+     * @param sourceURL
+     *            The URL of the source <tt>MBeanServer</tt>.
+     * @param sourceMap
+     *            The attributes map passed to
+     *            {@link JMXConnectorFactory#connect(JMXServiceURL,Map)}. Can
+     *            be null.
+     * @param delegationSubject
+     *            A delegation subject used to obtain the underlying
+     *            {@link MBeanServerConnection}s. Can be null.
+     */
+    public ReconnectingMBeanServerConnectionFactory(JMXServiceURL sourceURL,
+                                                    Map<String, ?> sourceMap,
+                                                    Subject delegationSubject) {
+        this(sourceURL, sourceMap, delegationSubject, RECONNECT_SCHEDULER);
+        scheduleReconnect(0);
+    }
+
+    private ReconnectingMBeanServerConnectionFactory(JMXServiceURL sourceURL,
+                                                     Map<String, ?> sourceMap,
+                                                     Subject delegationSubject,
+                                                     ScheduledExecutorService scheduler) {
+        this.sourceURL = sourceURL;
+        this.sourceMap = sourceMap;
+        subject = delegationSubject;
+        this.scheduler = scheduler;
+        listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification n, Object handback) {
+                handleConnectionNotification(n, handback);
+            }
+        };
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void addConnectionNotificationListener(NotificationListener listener,
+                                                  NotificationFilter filter,
+                                                  Object handback) {
+        emitter.addNotificationListener(listener, filter, handback);
+    }
+
+    /**
+     * Stops reconnecting and closes the current connector, if any.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        final Connected c = current.getAndSet(null);
+        if (c != null) {
+            detach(c);
+            c.connector.close();
+        }
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public String getConnectionId() throws IOException {
+        return connected().connector.getConnectionId();
+    }
+
+    /**
+     * The delay before the first reconnection attempt, in milliseconds.
+     */
+    public long getInitialDelayMillis() {
+        return initialDelayMillis;
+    }
+
+    /**
+     * The fraction of each backoff delay which is randomized.
+     */
+    public double getJitter() {
+        return jitter;
+    }
+
+    /**
+     * The number of consecutive failed attempts after which the factory gives
+     * up and emits <tt>FAILED</tt>; 0 means never give up.
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * The upper bound of the backoff delay, in milliseconds.
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * Returns the <tt>MBeanServerConnection</tt> of the current connector.
+     *
+     * @exception IOException
+     *                if the factory is reconnecting, has given up or has been
+     *                closed.
+     */
+    @Override
+    public MBeanServerConnection getMBeanServerConnection() throws IOException {
+        return connected().connection;
+    }
+
+    /**
+     * The URL of the source <tt>MBeanServer</tt>.
+     */
+    public JMXServiceURL getSourceURL() {
+        return sourceURL;
+    }
+
+    /**
+     * Answer true if a connection to the source <tt>MBeanServer</tt> is
+     * currently established.
+     */
+    public boolean isAvailable() {
+        return current.get() != null;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void removeConnectionNotificationListener(NotificationListener listener)
+                                                                                   throws ListenerNotFoundException {
+        emitter.removeNotificationListener(listener);
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void removeConnectionNotificationListener(NotificationListener l,
+                                                     NotificationFilter f,
+                                                     Object handback)
+                                                                     throws ListenerNotFoundException {
+        emitter.removeNotificationListener(l, f, handback);
+    }
+
+    /**
+     * Sets the delay before the first reconnection attempt. Each subsequent
+     * attempt doubles the delay, up to {@link #getMaxDelayMillis()}.
+     */
+    public void setInitialDelayMillis(long initialDelayMillis) {
+        this.initialDelayMillis = initialDelayMillis;
+    }
+
+    /**
+     * Sets the fraction, between 0 and 1, of each backoff delay which is
+     * randomized. A jitter of 0.5 draws each delay uniformly between half and
+     * all of the nominal delay.
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Jitter must be in [0, 1]: "
+                                               + jitter);
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * Sets the number of consecutive failed attempts after which the factory
+     * gives up; 0 means never give up.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Sets the upper bound of the backoff delay.
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ReconnectingMBeanServerConnectionFactory[%s, %s]",
+                             sourceURL, isAvailable() ? "available"
+                                                     : "unavailable");
+    }
+
+    // Publishes a connection, which is only listened to from then on
+    //
+    private void attach(JMXConnector connector,
+                        MBeanServerConnection connection) {
+        try {
+            lastConnectionId = connector.getConnectionId();
+        } catch (IOException e) {
+            lastConnectionId = String.valueOf(sourceURL);
+        }
+        connector.addConnectionNotificationListener(listener, null, connector);
+        current.set(new Connected(connector, connection));
+    }
+
+    long backoff(int attempt) {
+        final long nominal = Math.min(maxDelayMillis,
+                                      initialDelayMillis << Math.min(attempt,
+                                                                     30));
+        final long randomized = (long) (nominal * jitter * ThreadLocalRandom.current().nextDouble());
+        return nominal - randomized;
+    }
+
+    private Connected connected() throws IOException {
+        if (failed.get()) {
+            throw new IOException("connection already failed");
+        }
+        if (closed.get()) {
+            throw new IOException("connection closed");
+        }
+        final Connected c = current.get();
+        if (c == null) {
+            throw new IOException("connection unavailable: reconnecting to "
+                                  + sourceURL);
+        }
+        return c;
+    }
+
+    private void detach(Connected c) {
+        try {
+            c.connector.removeConnectionNotificationListener(listener);
+        } catch (ListenerNotFoundException e) {
+            // OK, what we wanted anyway
+        }
+    }
+
+    private void handleConnectionNotification(Notification n, Object handback) {
+        final Connected c = current.get();
+        if (c == null || c.connector != handback) {
+            // From a connector we no longer use
+            return;
+        }
+        final String type = n.getType();
+        if (!JMXConnectionNotification.CLOSED.equals(type)
+            && !JMXConnectionNotification.FAILED.equals(type)) {
+            emitter.sendNotification(n);
+            return;
+        }
+        if (closed.get() || !current.compareAndSet(c, null)) {
+            return;
+        }
+        detach(c);
+        try {
+            c.connector.close();
+        } catch (IOException e) {
+            // OK, already broken
+        }
+        if (log.isInfoEnabled()) {
+            log.info(String.format("Connection to %s %s, reconnecting",
+                                   sourceURL, type));
+        }
+        send(RECONNECTING, "connection lost: " + type, n);
+        attempts.set(0);
+        scheduleReconnect(backoff(0));
+    }
+
+    private void reconnect() {
+        if (closed.get() || failed.get()) {
+            return;
+        }
+        JMXConnector connector = null;
+        final MBeanServerConnection connection;
+        try {
+            connector = connect();
+            connection = connector.getMBeanServerConnection(subject);
+            // Probe before the connection is published and listened to, so
+            // that OPENED means usable, and a failure of the probe is only
+            // handled here
+            connection.getDefaultDomain();
+        } catch (Exception e) {
+            if (connector != null) {
+                try {
+                    connector.close();
+                } catch (IOException x) {
+                    // OK
+                }
+            }
+            final int attempt = attempts.incrementAndGet();
+            final int max = maxAttempts;
+            if (max > 0 && attempt >= max) {
+                failed.set(true);
+                log.warn(String.format("Giving up reconnecting to %s after %s attempts",
+                                       sourceURL, attempt), e);
+                send(JMXConnectionNotification.FAILED,
+                     "reconnection abandoned after " + attempt + " attempts",
+                     e);
+                return;
+            }
+            final long delay = backoff(attempt);
+            if (log.isDebugEnabled()) {
+                log.debug(String.format("Reconnection attempt %s to %s failed, next in %s ms",
+                                        attempt, sourceURL, delay), e);
+            }
+            scheduleReconnect(delay);
+            return;
+        }
+        attach(connector, connection);
+        if (closed.get()) {
+            // Closed while we were connecting
+            final Connected c = current.getAndSet(null);
+            if (c != null) {
+                detach(c);
+                try {
+                    c.connector.close();
+                } catch (IOException e) {
+                    // OK
+                }
+            }
+            return;
+        }
+        attempts.set(0);
+        if (log.isInfoEnabled()) {
+            log.info(String.format("Reconnected to %s", sourceURL));
+        }
+        send(JMXConnectionNotification.OPENED, "reconnected", null);
+    }
+
+    // The connection attempts
+    //
+    JMXConnector connect() throws IOException {
+        return JMXConnectorFactory.connect(sourceURL, sourceMap);
+    }
+
+    private void scheduleReconnect(long delayMillis) {
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reconnect();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void send(String type, String message, Object userData) {
+        emitter.sendNotification(new JMXConnectionNotification(
+                                                               type,
+                                                               this,
+                                                               lastConnectionId == null ? String.valueOf(sourceURL)
+                                                                                       : lastConnectionId,
+                                                               sequenceNumber.incrementAndGet(),
+                                                               message,
+                                                               userData));
+    }
+}
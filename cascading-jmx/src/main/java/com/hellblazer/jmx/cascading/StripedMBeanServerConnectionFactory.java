@@ -0,0 +1,788 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXConnectorFactory;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BasicMBeanServerConnectionFactory} that stripes the requests to a
+ * single source <tt>MBeanServer</tt> over several {@link JMXConnector}s.
+ * <p>
+ * A single connector serializes heavy traffic on one underlying connection:
+ * large <tt>getAttributes</tt> payloads block unrelated small reads queued
+ * behind them. The <tt>MBeanServerConnection</tt> returned by this factory
+ * routes every request to one of N <i>stripes</i>, either by hashing the
+ * target <tt>ObjectName</tt> ({@link Routing#OBJECT_NAME_HASH}) or by picking
+ * the stripe with the fewest requests in flight (
+ * {@link Routing#LEAST_OUTSTANDING}).
+ * </p>
+ * <p>
+ * The connector passed as the <i>primary</i> connector is the one inherited
+ * from {@link BasicMBeanServerConnectionFactory}: it carries all notification
+ * listeners, provides the connection ID and its
+ * {@link JMXConnectionNotification}s are the ones forwarded to the listeners
+ * of this factory. The secondary connectors only carry requests. A secondary
+ * connector whose connection fails or closes is taken out of the rotation for
+ * good, and its traffic falls back on the remaining stripes. A request which
+ * fails on a secondary stripe with an <tt>IOException</tt> is retried on the
+ * primary stripe, and that secondary stripe is taken out of the rotation for
+ * {@value #RETRY_DELAY_MILLIS} milliseconds.
+ * </p>
+ * <p>
+ * The secondary connectors are owned by this factory and are closed by
+ * {@link #close()}. The primary connector remains owned by the caller, as
+ * with {@link BasicMBeanServerConnectionFactory}.
+ * </p>
+ *
+ * @author hhildebrand
+ *
+ */
+public class StripedMBeanServerConnectionFactory extends
+        BasicMBeanServerConnectionFactory implements Closeable {
+
+    /**
+     * The policy used to select the stripe serving a request.
+     */
+    public static enum Routing {
+        /**
+         * All requests targeting the same <tt>ObjectName</tt> are served by the
+         * same stripe, which preserves their relative ordering.
+         */
+        OBJECT_NAME_HASH,
+
+        /**
+         * Requests are served by the stripe with the least requests in flight.
+         */
+        LEAST_OUTSTANDING;
+    }
+
+    /**
+     * The <tt>MBeanServerConnection</tt> returned by the striped factory.
+     * Notification listener operations and MBean life cycle operations are
+     * always sent through the primary stripe, everything else is routed.
+     */
+    private class StripedConnection implements MBeanServerConnection {
+
+        @Override
+        public void addNotificationListener(ObjectName name,
+                                            NotificationListener listener,
+                                            NotificationFilter filter,
+                                            Object handback)
+                                                            throws InstanceNotFoundException,
+                                                            IOException {
+            primary().connection.addNotificationListener(name, listener,
+                                                         filter, handback);
+        }
+
+        @Override
+        public void addNotificationListener(ObjectName name,
+                                            ObjectName listener,
+                                            NotificationFilter filter,
+                                            Object handback)
+                                                            throws InstanceNotFoundException,
+                                                            IOException {
+            primary().connection.addNotificationListener(name, listener,
+                                                         filter, handback);
+        }
+
+        @Override
+        public ObjectInstance createMBean(String className, ObjectName name)
+                                                                            throws ReflectionException,
+                                                                            InstanceAlreadyExistsException,
+                                                                            MBeanRegistrationException,
+                                                                            MBeanException,
+                                                                            NotCompliantMBeanException,
+                                                                            IOException {
+            return primary().connection.createMBean(className, name);
+        }
+
+        @Override
+        public ObjectInstance createMBean(String className, ObjectName name,
+                                          Object[] params, String[] signature)
+                                                                              throws ReflectionException,
+                                                                              InstanceAlreadyExistsException,
+                                                                              MBeanRegistrationException,
+                                                                              MBeanException,
+                                                                              NotCompliantMBeanException,
+                                                                              IOException {
+            return primary().connection.createMBean(className, name, params,
+                                                    signature);
+        }
+
+        @Override
+        public ObjectInstance createMBean(String className, ObjectName name,
+                                          ObjectName loaderName)
+                                                                throws ReflectionException,
+                                                                InstanceAlreadyExistsException,
+                                                                MBeanRegistrationException,
+                                                                MBeanException,
+                                                                NotCompliantMBeanException,
+                                                                InstanceNotFoundException,
+                                                                IOException {
+            return primary().connection.createMBean(className, name,
+                                                    loaderName);
+        }
+
+        @Override
+        public ObjectInstance createMBean(String className, ObjectName name,
+                                          ObjectName loaderName,
+                                          Object[] params, String[] signature)
+                                                                              throws ReflectionException,
+                                                                              InstanceAlreadyExistsException,
+                                                                              MBeanRegistrationException,
+                                                                              MBeanException,
+                                                                              NotCompliantMBeanException,
+                                                                              InstanceNotFoundException,
+                                                                              IOException {
+            return primary().connection.createMBean(className, name,
+                                                    loaderName, params,
+                                                    signature);
+        }
+
+        @Override
+        public Object getAttribute(ObjectName name, String attribute)
+                                                                     throws MBeanException,
+                                                                     AttributeNotFoundException,
+                                                                     InstanceNotFoundException,
+                                                                     ReflectionException,
+                                                                     IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.getAttribute(name, attribute);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getAttribute(name, attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(ObjectName name,
+                                           String[] attributes)
+                                                               throws InstanceNotFoundException,
+                                                               ReflectionException,
+                                                               IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.getAttributes(name, attributes);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getAttributes(name, attributes);
+        }
+
+        @Override
+        public String getDefaultDomain() throws IOException {
+            final Stripe stripe = select(null);
+            stripe.enter();
+            try {
+                return stripe.connection.getDefaultDomain();
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getDefaultDomain();
+        }
+
+        @Override
+        public String[] getDomains() throws IOException {
+            final Stripe stripe = select(null);
+            stripe.enter();
+            try {
+                return stripe.connection.getDomains();
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getDomains();
+        }
+
+        @Override
+        public Integer getMBeanCount() throws IOException {
+            final Stripe stripe = select(null);
+            stripe.enter();
+            try {
+                return stripe.connection.getMBeanCount();
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getMBeanCount();
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo(ObjectName name)
+                                                      throws InstanceNotFoundException,
+                                                      IntrospectionException,
+                                                      ReflectionException,
+                                                      IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.getMBeanInfo(name);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getMBeanInfo(name);
+        }
+
+        @Override
+        public ObjectInstance getObjectInstance(ObjectName name)
+                                                                throws InstanceNotFoundException,
+                                                                IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.getObjectInstance(name);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.getObjectInstance(name);
+        }
+
+        @Override
+        public Object invoke(ObjectName name, String operationName,
+                             Object[] params, String[] signature)
+                                                                 throws InstanceNotFoundException,
+                                                                 MBeanException,
+                                                                 ReflectionException,
+                                                                 IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.invoke(name, operationName, params,
+                                                signature);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.invoke(name, operationName, params,
+                                               signature);
+        }
+
+        @Override
+        public boolean isInstanceOf(ObjectName name, String className)
+                                                                      throws InstanceNotFoundException,
+                                                                      IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.isInstanceOf(name, className);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.isInstanceOf(name, className);
+        }
+
+        @Override
+        public boolean isRegistered(ObjectName name) throws IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.isRegistered(name);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.isRegistered(name);
+        }
+
+        @Override
+        public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query)
+                                                                               throws IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.queryMBeans(name, query);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.queryMBeans(name, query);
+        }
+
+        @Override
+        public Set<ObjectName> queryNames(ObjectName name, QueryExp query)
+                                                                          throws IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.queryNames(name, query);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.queryNames(name, query);
+        }
+
+        @Override
+        public void removeNotificationListener(ObjectName name,
+                                               NotificationListener listener)
+                                                                             throws InstanceNotFoundException,
+                                                                             ListenerNotFoundException,
+                                                                             IOException {
+            primary().connection.removeNotificationListener(name, listener);
+        }
+
+        @Override
+        public void removeNotificationListener(ObjectName name,
+                                               NotificationListener listener,
+                                               NotificationFilter filter,
+                                               Object handback)
+                                                               throws InstanceNotFoundException,
+                                                               ListenerNotFoundException,
+                                                               IOException {
+            primary().connection.removeNotificationListener(name, listener,
+                                                            filter, handback);
+        }
+
+        @Override
+        public void removeNotificationListener(ObjectName name,
+                                               ObjectName listener)
+                                                                   throws InstanceNotFoundException,
+                                                                   ListenerNotFoundException,
+                                                                   IOException {
+            primary().connection.removeNotificationListener(name, listener);
+        }
+
+        @Override
+        public void removeNotificationListener(ObjectName name,
+                                               ObjectName listener,
+                                               NotificationFilter filter,
+                                               Object handback)
+                                                               throws InstanceNotFoundException,
+                                                               ListenerNotFoundException,
+                                                               IOException {
+            primary().connection.removeNotificationListener(name, listener,
+                                                            filter, handback);
+        }
+
+        @Override
+        public void setAttribute(ObjectName name, Attribute attribute)
+                                                                      throws InstanceNotFoundException,
+                                                                      AttributeNotFoundException,
+                                                                      InvalidAttributeValueException,
+                                                                      MBeanException,
+                                                                      ReflectionException,
+                                                                      IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                stripe.connection.setAttribute(name, attribute);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            primary().connection.setAttribute(name, attribute);
+        }
+
+        @Override
+        public AttributeList setAttributes(ObjectName name,
+                                           AttributeList attributes)
+                                                                    throws InstanceNotFoundException,
+                                                                    ReflectionException,
+                                                                    IOException {
+            final Stripe stripe = select(name);
+            stripe.enter();
+            try {
+                return stripe.connection.setAttributes(name, attributes);
+            } catch (IOException e) {
+                failed(stripe, e);
+            } finally {
+                stripe.exit();
+            }
+            return primary().connection.setAttributes(name, attributes);
+        }
+
+        @Override
+        public void unregisterMBean(ObjectName name)
+                                                    throws InstanceNotFoundException,
+                                                    MBeanRegistrationException,
+                                                    IOException {
+            primary().connection.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * One underlying connection, with its count of requests in flight.
+     */
+    private static class Stripe {
+        volatile boolean            closed      = false;
+        final MBeanServerConnection connection;
+        final JMXConnector          connector;
+        final AtomicInteger         outstanding = new AtomicInteger();
+        // the time, in terms of System.nanoTime(), until which the stripe
+        // is out of the rotation after a failed request, or 0
+        volatile long               retryAt     = 0;
+
+        Stripe(JMXConnector connector, MBeanServerConnection connection) {
+            this.connector = connector;
+            this.connection = connection;
+        }
+
+        void enter() {
+            outstanding.incrementAndGet();
+        }
+
+        void exit() {
+            outstanding.decrementAndGet();
+        }
+
+        boolean isFailed() {
+            if (closed) {
+                return true;
+            }
+            final long retry = retryAt;
+            if (retry == 0) {
+                return false;
+            }
+            if (System.nanoTime() - retry < 0) {
+                return true;
+            }
+            retryAt = 0;
+            return false;
+        }
+    }
+
+    /**
+     * The time a secondary stripe is out of the rotation after a request
+     * failed on it with an <tt>IOException</tt>
+     */
+    public static final long    RETRY_DELAY_MILLIS = 30000;
+
+    private static final Logger log                = LoggerFactory.getLogger(StripedMBeanServerConnectionFactory.class);
+
+    /**
+     * Creates a new striped factory connected to the given URL. The primary
+     * connector and the <var>stripes - 1</var> secondary connectors are all
+     * obtained from {@link JMXConnectorFactory#connect(JMXServiceURL,Map)}. The
+     * primary connector is closed by {@link #close()} as well.
+     *
+     * @param url
+     *            A JMX Service URL from which to create the connectors.
+     * @param map
+     *            An attributes map passed to the
+     *            {@link JMXConnectorFactory#connect(JMXServiceURL,Map)} method.
+     * @param subject
+     *            A subject for the underlying <tt>MBeanServerConnection</tt>s.
+     * @param stripes
+     *            The total number of connectors, including the primary one.
+     * @param routing
+     *            The routing policy.
+     * @throws IOException
+     *             if one of the connectors cannot be connected. Connectors
+     *             already connected are closed.
+     */
+    public static StripedMBeanServerConnectionFactory newInstance(JMXServiceURL url,
+                                                                  Map<String, ?> map,
+                                                                  Subject subject,
+                                                                  int stripes,
+                                                                  Routing routing)
+                                                                                  throws IOException {
+        final JMXConnector primary = JMXConnectorFactory.connect(url, map);
+        final List<JMXConnector> secondaries = new ArrayList<JMXConnector>();
+        try {
+            for (int i = 1; i < stripes; i++) {
+                secondaries.add(JMXConnectorFactory.connect(url, map));
+            }
+        } catch (IOException e) {
+            closeQuietly(primary);
+            for (JMXConnector c : secondaries) {
+                closeQuietly(c);
+            }
+            throw e;
+        }
+        final StripedMBeanServerConnectionFactory factory = new StripedMBeanServerConnectionFactory(
+                                                                                                    primary,
+                                                                                                    secondaries,
+                                                                                                    subject,
+                                                                                                    routing);
+        factory.ownsPrimary = true;
+        return factory;
+    }
+
+    private static void closeQuietly(JMXConnector connector) {
+        try {
+            connector.close();
+        } catch (IOException e) {
+            // OK, already gone
+        }
+    }
+
+    private volatile StripedConnection       connection;
+
+    // Guards the connection of the stripes
+    //
+    private final ReentrantLock              lock        = new ReentrantLock();
+
+    private boolean                          ownsPrimary = false;
+
+    private final Routing                    routing;
+
+    private final List<JMXConnector>         secondaries;
+
+    private final NotificationListener       secondaryListener;
+
+    private volatile Stripe[]                stripes;
+
+    /**
+     * Creates a new <tt>StripedMBeanServerConnectionFactory</tt>. All the
+     * given connectors must be connected to the same source
+     * <tt>MBeanServer</tt> before the factory can be used.
+     *
+     * @param primary
+     *            The connector carrying the notification listeners and whose
+     *            connection notifications are forwarded by this factory.
+     * @param secondaries
+     *            The additional connectors requests are striped over. These
+     *            connectors become owned by this factory.
+     * @param delegationSubject
+     *            A delegation subject used to obtain the underlying
+     *            {@link MBeanServerConnection}s.
+     * @param routing
+     *            The routing policy.
+     */
+    public StripedMBeanServerConnectionFactory(JMXConnector primary,
+                                               List<JMXConnector> secondaries,
+                                               Subject delegationSubject,
+                                               Routing routing) {
+        super(primary, delegationSubject);
+        this.secondaries = new ArrayList<JMXConnector>(secondaries);
+        this.routing = routing == null ? Routing.LEAST_OUTSTANDING : routing;
+        secondaryListener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification n, Object handback) {
+                handleSecondaryNotification(n, handback);
+            }
+        };
+        for (JMXConnector c : this.secondaries) {
+            c.addConnectionNotificationListener(secondaryListener, null, c);
+        }
+    }
+
+    /**
+     * Closes the secondary connectors - and the primary connector if it was
+     * created by {@link #newInstance(JMXServiceURL, Map, Subject, int, Routing)}.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (JMXConnector c : secondaries) {
+            try {
+                c.removeConnectionNotificationListener(secondaryListener);
+            } catch (ListenerNotFoundException e) {
+                // OK
+            }
+            try {
+                c.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (ownsPrimary) {
+            getJMXConnector().close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns a connection routing requests over all the live stripes. The
+     * primary connection is obtained - and the failure state checked - by
+     * {@link BasicMBeanServerConnectionFactory#getMBeanServerConnection()}.
+     */
+    @Override
+    public MBeanServerConnection getMBeanServerConnection() throws IOException {
+        final MBeanServerConnection primary = super.getMBeanServerConnection();
+        final StripedConnection c = connection;
+        if (c != null) {
+            return c;
+        }
+        return initialize(primary);
+    }
+
+    /**
+     * The routing policy of this factory.
+     */
+    public Routing getRouting() {
+        return routing;
+    }
+
+    /**
+     * The number of stripes still in the rotation, including the primary.
+     */
+    public int getLiveStripeCount() {
+        final Stripe[] s = stripes;
+        if (s == null) {
+            return secondaries.size() + 1;
+        }
+        int live = 0;
+        for (Stripe stripe : s) {
+            if (!stripe.isFailed()) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    private void handleSecondaryNotification(Notification n, Object handback) {
+        if (!JMXConnectionNotification.FAILED.equals(n.getType())
+            && !JMXConnectionNotification.CLOSED.equals(n.getType())) {
+            return;
+        }
+        final Stripe[] s = stripes;
+        if (s == null) {
+            return;
+        }
+        for (Stripe stripe : s) {
+            if (stripe.connector == handback) {
+                stripe.closed = true;
+            }
+        }
+    }
+
+    // Take a secondary stripe on which a request failed out of the rotation
+    // for a while, so that the request can be retried on the primary stripe.
+    // A failure of the primary stripe is the failure of the request.
+    //
+    private void failed(Stripe stripe, IOException e) throws IOException {
+        if (stripe == primary()) {
+            throw e;
+        }
+        if (stripe.retryAt == 0 && log.isInfoEnabled()) {
+            log.info(String.format("Stripe %s failed, retrying on the primary stripe: %s",
+                                   stripe.connector, e));
+        }
+        stripe.retryAt = System.nanoTime()
+                         + TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MILLIS);
+    }
+
+    private MBeanServerConnection initialize(MBeanServerConnection primary)
+                                                                           throws IOException {
+        lock.lock();
+        try {
+            if (connection != null) {
+                return connection;
+            }
+            final Stripe[] s = new Stripe[secondaries.size() + 1];
+            s[0] = new Stripe(getJMXConnector(), primary);
+            for (int i = 0; i < secondaries.size(); i++) {
+                final JMXConnector c = secondaries.get(i);
+                s[i + 1] = new Stripe(c,
+                                      c.getMBeanServerConnection(getDelegationSubject()));
+            }
+            stripes = s;
+            connection = new StripedConnection();
+            return connection;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Stripe primary() {
+        return stripes[0];
+    }
+
+    private Stripe select(ObjectName name) {
+        final Stripe[] s = stripes;
+        switch (routing) {
+            case OBJECT_NAME_HASH: {
+                if (name == null) {
+                    return s[0];
+                }
+                final int start = (name.hashCode() & 0x7fffffff) % s.length;
+                for (int i = 0; i < s.length; i++) {
+                    final Stripe stripe = s[(start + i) % s.length];
+                    if (!stripe.isFailed()) {
+                        return stripe;
+                    }
+                }
+                return s[0];
+            }
+            default: {
+                Stripe selected = s[0];
+                int least = Integer.MAX_VALUE;
+                for (Stripe stripe : s) {
+                    if (stripe.isFailed()) {
+                        continue;
+                    }
+                    final int outstanding = stripe.outstanding.get();
+                    if (outstanding < least) {
+                        least = outstanding;
+                        selected = stripe;
+                    }
+                }
+                return selected;
+            }
+        }
+    }
+}
@@ -0,0 +1,547 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * The topology mounted by a {@link CascadingService}: for each mount point,
+ * its mount spec and the names and <tt>MBeanInfo</tt> of its cascaded MBeans.
+ * A snapshot is persisted in a memory mapped file, so that a restarted target
+ * can register placeholders for the cascaded MBeans before the source
+ * <tt>MBeanServer</tt>s are reachable.
+ * <p>
+ * The <tt>MBeanInfo</tt>s are interned: the many MBeans of the same class
+ * share a single <tt>MBeanInfo</tt> in the file, and a single instance once
+ * read. They are recorded field by field rather than serialized, so that
+ * reading a snapshot never instantiates a class named by the file: the names,
+ * types, descriptions and flags of their attributes, constructors, operations
+ * and notifications are kept, their descriptors are not. The environment maps
+ * of the mount specs, which may hold credentials, are not persisted.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class TopologySnapshot {
+
+    /**
+     * The snapshot of a mount point
+     */
+    public static class Mount {
+        private final Map<ObjectName, MBeanInfo> mbeans;
+        private final String                     nodeName;
+        private final ObjectName                 sourcePattern;
+        private final String                     sourceURL;
+
+        /**
+         * @param sourceURL
+         *            - the URL of the source <tt>MBeanServer</tt>, or null
+         * @param sourcePattern
+         *            - the source pattern of the mount point, or null
+         * @param nodeName
+         *            - the cascaded node of the mount point, or null
+         * @param mbeans
+         *            - the <tt>MBeanInfo</tt> of the cascaded MBeans, by source
+         *            name
+         */
+        public Mount(String sourceURL, ObjectName sourcePattern,
+                     String nodeName, Map<ObjectName, MBeanInfo> mbeans) {
+            this.sourceURL = sourceURL;
+            this.sourcePattern = sourcePattern;
+            this.nodeName = nodeName;
+            this.mbeans = mbeans;
+        }
+
+        public Map<ObjectName, MBeanInfo> getMBeans() {
+            return mbeans;
+        }
+
+        public String getNodeName() {
+            return nodeName;
+        }
+
+        public ObjectName getSourcePattern() {
+            return sourcePattern;
+        }
+
+        public String getSourceURL() {
+            return sourceURL;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Mount [%s %s %s, %s MBeans]", sourceURL,
+                                 sourcePattern, nodeName, mbeans.size());
+        }
+    }
+
+    private static final int     IS       = 4;
+    private static final int     MAGIC    = 0x434a4d58;
+    private static final int     READABLE = 1;
+    private static final Charset UTF8     = Charset.forName("UTF-8");
+    private static final int     VERSION  = 2;
+    private static final int     WRITABLE = 2;
+
+    /**
+     * Read a snapshot
+     * 
+     * @param file
+     *            - the snapshot file
+     * @return the snapshot
+     * @throws IOException
+     *             if the file cannot be read, or is not a valid snapshot
+     */
+    public static TopologySnapshot read(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                        0, channel.size());
+            try {
+                return read(file, buffer);
+            } finally {
+                unmap(buffer);
+            }
+        }
+    }
+
+    private static TopologySnapshot read(File file, MappedByteBuffer buffer)
+                                                                            throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(String.format("%s is not a topology snapshot",
+                                                    file));
+            }
+            final int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(
+                                      String.format("Unsupported version %s of topology snapshot %s",
+                                                    version, file));
+            }
+            final long written = buffer.getLong();
+            final MBeanInfo[] infos = new MBeanInfo[count(buffer)];
+            for (int i = 0; i < infos.length; i++) {
+                infos[i] = decode(bytes(buffer));
+            }
+            final int count = count(buffer);
+            final List<Mount> mounts = new ArrayList<Mount>(count);
+            for (int i = 0; i < count; i++) {
+                final String url = string(buffer);
+                final String pattern = string(buffer);
+                final String node = string(buffer);
+                final int size = count(buffer);
+                final Map<ObjectName, MBeanInfo> mbeans = new LinkedHashMap<ObjectName, MBeanInfo>(
+                                                                                                   size);
+                for (int j = 0; j < size; j++) {
+                    final ObjectName name = ObjectName.getInstance(string(buffer));
+                    mbeans.put(name, infos[buffer.getInt()]);
+                }
+                mounts.add(new Mount(url,
+                                     pattern == null ? null
+                                                    : ObjectName.getInstance(pattern),
+                                     node, mbeans));
+            }
+            return new TopologySnapshot(written, mounts);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException(String.format("Truncated topology snapshot %s",
+                                                file), e);
+        } catch (MalformedObjectNameException e) {
+            throw new IOException(String.format("Corrupt topology snapshot %s",
+                                                file), e);
+        }
+    }
+
+    private static byte[] bytes(MappedByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    // The number of elements which follow, each of at least one byte
+    //
+    private static int count(MappedByteBuffer buffer) {
+        final int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    private static int count(DataInputStream in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0 || count > in.available()) {
+            throw new IOException(String.format("Invalid count %s", count));
+        }
+        return count;
+    }
+
+    private static MBeanInfo decode(byte[] bytes) throws IOException {
+        if (bytes == null) {
+            throw new IOException("Missing snapshot MBeanInfo");
+        }
+        final DataInputStream in = new DataInputStream(
+                                                       new ByteArrayInputStream(
+                                                                                bytes));
+        try {
+            final String className = readString(in);
+            final String description = readString(in);
+            final MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[count(in)];
+            for (int i = 0; i < attributes.length; i++) {
+                final String name = readString(in);
+                final String type = readString(in);
+                final String attributeDescription = readString(in);
+                final int flags = in.readByte();
+                attributes[i] = new MBeanAttributeInfo(name, type,
+                                                       attributeDescription,
+                                                       (flags & READABLE) != 0,
+                                                       (flags & WRITABLE) != 0,
+                                                       (flags & IS) != 0);
+            }
+            final MBeanConstructorInfo[] constructors = new MBeanConstructorInfo[count(in)];
+            for (int i = 0; i < constructors.length; i++) {
+                final String name = readString(in);
+                final String constructorDescription = readString(in);
+                constructors[i] = new MBeanConstructorInfo(
+                                                           name,
+                                                           constructorDescription,
+                                                           readSignature(in));
+            }
+            final MBeanOperationInfo[] operations = new MBeanOperationInfo[count(in)];
+            for (int i = 0; i < operations.length; i++) {
+                final String name = readString(in);
+                final String operationDescription = readString(in);
+                final MBeanParameterInfo[] signature = readSignature(in);
+                final String returnType = readString(in);
+                operations[i] = new MBeanOperationInfo(name,
+                                                       operationDescription,
+                                                       signature, returnType,
+                                                       in.readInt());
+            }
+            final MBeanNotificationInfo[] notifications = new MBeanNotificationInfo[count(in)];
+            for (int i = 0; i < notifications.length; i++) {
+                final String name = readString(in);
+                final String notificationDescription = readString(in);
+                final String[] types = new String[count(in)];
+                for (int j = 0; j < types.length; j++) {
+                    types[j] = readString(in);
+                }
+                notifications[i] = new MBeanNotificationInfo(types, name,
+                                                             notificationDescription);
+            }
+            return new MBeanInfo(className, description, attributes,
+                                 constructors, operations, notifications);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid snapshot MBeanInfo", e);
+        }
+    }
+
+    private static byte[] encode(MBeanInfo info) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, info.getClassName());
+        writeString(out, info.getDescription());
+        out.writeInt(info.getAttributes().length);
+        for (MBeanAttributeInfo attribute : info.getAttributes()) {
+            writeString(out, attribute.getName());
+            writeString(out, attribute.getType());
+            writeString(out, attribute.getDescription());
+            out.writeByte((attribute.isReadable() ? READABLE : 0)
+                          | (attribute.isWritable() ? WRITABLE : 0)
+                          | (attribute.isIs() ? IS : 0));
+        }
+        out.writeInt(info.getConstructors().length);
+        for (MBeanConstructorInfo constructor : info.getConstructors()) {
+            writeString(out, constructor.getName());
+            writeString(out, constructor.getDescription());
+            writeSignature(out, constructor.getSignature());
+        }
+        out.writeInt(info.getOperations().length);
+        for (MBeanOperationInfo operation : info.getOperations()) {
+            writeString(out, operation.getName());
+            writeString(out, operation.getDescription());
+            writeSignature(out, operation.getSignature());
+            writeString(out, operation.getReturnType());
+            out.writeInt(operation.getImpact());
+        }
+        out.writeInt(info.getNotifications().length);
+        for (MBeanNotificationInfo notification : info.getNotifications()) {
+            writeString(out, notification.getName());
+            writeString(out, notification.getDescription());
+            out.writeInt(notification.getNotifTypes().length);
+            for (String type : notification.getNotifTypes()) {
+                writeString(out, type);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void put(MappedByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static MBeanParameterInfo[] readSignature(DataInputStream in)
+                                                                      throws IOException {
+        final MBeanParameterInfo[] signature = new MBeanParameterInfo[count(in)];
+        for (int i = 0; i < signature.length; i++) {
+            final String name = readString(in);
+            final String type = readString(in);
+            signature[i] = new MBeanParameterInfo(name, type, readString(in));
+        }
+        return signature;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException(String.format("Invalid length %s", length));
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static int sizeOf(byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static String string(MappedByteBuffer buffer) {
+        final byte[] bytes = bytes(buffer);
+        return bytes == null ? null : new String(bytes, UTF8);
+    }
+
+    private static byte[] utf8(Object value) {
+        return value == null ? null : value.toString().getBytes(UTF8);
+    }
+
+    // Releases the mapping of the file now rather than when the buffer is
+    // collected, so that the file can be replaced on platforms which do not
+    // allow replacing a mapped file. The buffer must not be used afterwards.
+    // The cleaner is reached reflectively, as it is internal to the runtime;
+    // if it cannot be, the mapping is released by the collector.
+    //
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null),
+                                                                            buffer);
+            return;
+        } catch (Exception e) {
+            // fall through
+        }
+        try {
+            // Java 8 and earlier
+            final Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            final Object clean = cleaner.invoke(buffer);
+            if (clean != null) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (Exception e) {
+            // left to the collector
+        }
+    }
+
+    private static void writeSignature(DataOutputStream out,
+                                       MBeanParameterInfo[] signature)
+                                                                      throws IOException {
+        out.writeInt(signature.length);
+        for (MBeanParameterInfo parameter : signature) {
+            writeString(out, parameter.getName());
+            writeString(out, parameter.getType());
+            writeString(out, parameter.getDescription());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value)
+                                                                       throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private final List<Mount> mounts;
+    private final long        written;
+
+    /**
+     * @param written
+     *            - the time the snapshot was taken, in milliseconds since the
+     *            epoch
+     * @param mounts
+     *            - the snapshots of the mount points
+     */
+    public TopologySnapshot(long written, List<Mount> mounts) {
+        this.written = written;
+        this.mounts = Collections.unmodifiableList(mounts);
+    }
+
+    /**
+     * @return the snapshots of the mount points
+     */
+    public List<Mount> getMounts() {
+        return mounts;
+    }
+
+    /**
+     * @return the number of cascaded MBeans of all the mount points
+     */
+    public int getMBeanCount() {
+        int count = 0;
+        for (Mount mount : mounts) {
+            count += mount.getMBeans().size();
+        }
+        return count;
+    }
+
+    /**
+     * @return the time the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getWritten() {
+        return written;
+    }
+
+    /**
+     * Write the snapshot. The snapshot is written to a temporary file, which
+     * then replaces the file, so that a crash never leaves a partial snapshot.
+     * 
+     * @param file
+     *            - the snapshot file
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    public void write(File file) throws IOException {
+        // Intern the MBeanInfos, and size the file
+        //
+        final Map<MBeanInfo, Integer> interned = new HashMap<MBeanInfo, Integer>();
+        final List<byte[]> infos = new ArrayList<byte[]>();
+        final List<byte[][]> names = new ArrayList<byte[][]>(mounts.size());
+        final List<int[]> indexes = new ArrayList<int[]>(mounts.size());
+        long size = 24;
+        for (Mount mount : mounts) {
+            size += sizeOf(utf8(mount.getSourceURL()))
+                    + sizeOf(utf8(mount.getSourcePattern()))
+                    + sizeOf(utf8(mount.getNodeName())) + 4;
+            final byte[][] mountNames = new byte[mount.getMBeans().size()][];
+            final int[] mountIndexes = new int[mountNames.length];
+            int i = 0;
+            for (Map.Entry<ObjectName, MBeanInfo> entry : mount.getMBeans().entrySet()) {
+                Integer index = interned.get(entry.getValue());
+                if (index == null) {
+                    index = infos.size();
+                    interned.put(entry.getValue(), index);
+                    final byte[] info = encode(entry.getValue());
+                    infos.add(info);
+                    size += sizeOf(info);
+                }
+                mountNames[i] = utf8(entry.getKey().getCanonicalName());
+                mountIndexes[i] = index;
+                size += sizeOf(mountNames[i]) + 4;
+                i++;
+            }
+            names.add(mountNames);
+            indexes.add(mountIndexes);
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(String.format("Topology snapshot too large: %s bytes",
+                                                size));
+        }
+
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+                FileChannel channel = raf.getChannel()) {
+            raf.setLength(size);
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                        0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(written);
+            buffer.putInt(infos.size());
+            for (byte[] info : infos) {
+                put(buffer, info);
+            }
+            buffer.putInt(mounts.size());
+            for (int m = 0; m < mounts.size(); m++) {
+                final Mount mount = mounts.get(m);
+                put(buffer, utf8(mount.getSourceURL()));
+                put(buffer, utf8(mount.getSourcePattern()));
+                put(buffer, utf8(mount.getNodeName()));
+                final byte[][] mountNames = names.get(m);
+                final int[] mountIndexes = indexes.get(m);
+                buffer.putInt(mountNames.length);
+                for (int i = 0; i < mountNames.length; i++) {
+                    put(buffer, mountNames[i]);
+                    buffer.putInt(mountIndexes[i]);
+                }
+            }
+            buffer.force();
+            unmap(buffer);
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+}
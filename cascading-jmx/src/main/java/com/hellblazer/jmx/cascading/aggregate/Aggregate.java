@@ -0,0 +1,310 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.aggregate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import com.hellblazer.jmx.cascading.CascadingAgent;
+import com.hellblazer.jmx.cascading.FanOutExecutor;
+
+/**
+ * An MBean whose value is one attribute of all the cascaded MBeans matching a
+ * source pattern, reduced to a single value - e.g. the sum of the
+ * <tt>HeapMemoryUsage.used</tt> of every <tt>java.lang:type=Memory</tt> of the
+ * fleet.
+ * <p>
+ * The source pattern names the MBeans as they are named in the source
+ * <tt>MBeanServer</tt>s. It is matched against the proxies of the target
+ * <tt>MBeanServer</tt> which carry a
+ * {@link CascadingAgent#CASCADED_NODE_PROPERTY_NAME cascadedNode} key, so that
+ * the local MBeans of the target are not included. The attribute of each
+ * matching proxy is read in parallel, on the given executor in the bulkhead of
+ * its mount point, and the reads which do not complete within
+ * {@link #getTimeoutMillis() TimeoutMillis} are cancelled and counted as
+ * failures.
+ * </p>
+ * <p>
+ * The value is computed when read, unless the previous value is less than
+ * {@link #getCacheMillis() CacheMillis} old. Concurrent reads of an expired
+ * value share a single computation.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class Aggregate implements AggregateMBean {
+    private static class Result {
+        final long   computed;
+        final int    failures;
+        final long   nanos;
+        final int    samples;
+        final double value;
+
+        Result(double value, int samples, int failures) {
+            this.value = value;
+            this.samples = samples;
+            this.failures = failures;
+            computed = System.currentTimeMillis();
+            nanos = System.nanoTime();
+        }
+    }
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Answer the pattern matching the proxies, in the target
+     * <tt>MBeanServer</tt>, of the source MBeans matching the source pattern
+     */
+    public static ObjectName targetPatternOf(ObjectName sourcePattern) {
+        if (sourcePattern.isPropertyListPattern()) {
+            return sourcePattern;
+        }
+        try {
+            return new ObjectName(
+                                  String.format("%s:%s,*",
+                                                sourcePattern.getDomain(),
+                                                sourcePattern.getKeyPropertyListString()));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid source pattern %s",
+                                                             sourcePattern), e);
+        }
+    }
+
+    /**
+     * Read a numeric attribute of an MBean
+     * 
+     * @param server
+     *            - the <tt>MBeanServer</tt> of the MBean
+     * @param name
+     *            - the MBean
+     * @param path
+     *            - the attribute, followed by the items of the
+     *            <tt>CompositeData</tt> values leading to the number
+     * @return the numeric value of the attribute of the MBean, or null if it
+     *         is not numeric
+     */
+    public static Double readNumber(MBeanServer server, ObjectName name,
+                                    String[] path) throws Exception {
+        Object value = server.getAttribute(name, path[0]);
+        for (int i = 1; i < path.length; i++) {
+            if (!(value instanceof CompositeData)) {
+                return null;
+            }
+            value = ((CompositeData) value).get(path[i]);
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return null;
+    }
+
+    private final String          attribute;
+    private volatile long         cacheMillis;
+    private final FanOutExecutor  executor;
+    private final ReentrantLock   lock          = new ReentrantLock();
+    private final String[]        path;
+    private final Reducer         reducer;
+    private volatile Result       result;
+    private final ObjectName      sourcePattern;
+    private final MBeanServer     target;
+    private final ObjectName      targetPattern;
+    private volatile long         timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    /**
+     * @param target
+     *            - the target <tt>MBeanServer</tt> holding the cascaded MBeans
+     * @param sourcePattern
+     *            - the pattern of the source MBeans
+     * @param attribute
+     *            - the attribute to read, with an optional dotted path into
+     *            <tt>CompositeData</tt>
+     * @param reducer
+     *            - the reduction of the values read
+     * @param cacheMillis
+     *            - the number of milliseconds a computed value is reused
+     * @param executor
+     *            - the executor on which the attributes are read
+     */
+    public Aggregate(MBeanServer target, ObjectName sourcePattern,
+                     String attribute, Reducer reducer, long cacheMillis,
+                     FanOutExecutor executor) {
+        if (attribute == null || attribute.length() == 0) {
+            throw new IllegalArgumentException("An attribute is required");
+        }
+        if (cacheMillis < 0) {
+            throw new IllegalArgumentException(
+                                               "Cache duration cannot be negative: "
+                                                       + cacheMillis);
+        }
+        this.target = target;
+        this.sourcePattern = sourcePattern;
+        this.attribute = attribute;
+        this.reducer = reducer;
+        this.cacheMillis = cacheMillis;
+        this.executor = executor;
+        targetPattern = targetPatternOf(sourcePattern);
+        path = attribute.split("\\.");
+    }
+
+    @Override
+    public String getAttribute() {
+        return attribute;
+    }
+
+    @Override
+    public long getCacheMillis() {
+        return cacheMillis;
+    }
+
+    @Override
+    public int getFailures() {
+        final Result current = result;
+        return current == null ? 0 : current.failures;
+    }
+
+    @Override
+    public long getLastComputed() {
+        final Result current = result;
+        return current == null ? 0 : current.computed;
+    }
+
+    @Override
+    public String getReducer() {
+        return reducer.name();
+    }
+
+    @Override
+    public int getSamples() {
+        final Result current = result;
+        return current == null ? 0 : current.samples;
+    }
+
+    @Override
+    public String getSourcePattern() {
+        return sourcePattern.getCanonicalName();
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    @Override
+    public double getValue() {
+        final Result current = result;
+        if (isFresh(current)) {
+            return current.value;
+        }
+        return compute(false).value;
+    }
+
+    @Override
+    public double refresh() {
+        return compute(true).value;
+    }
+
+    @Override
+    public void setCacheMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException(
+                                               "Cache duration cannot be negative: "
+                                                       + millis);
+        }
+        cacheMillis = millis;
+    }
+
+    @Override
+    public void setTimeoutMillis(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive: "
+                                               + millis);
+        }
+        timeoutMillis = millis;
+    }
+
+    private Result compute(boolean force) {
+        lock.lock();
+        try {
+            if (!force && isFresh(result)) {
+                // computed by a concurrent reader while we waited
+                return result;
+            }
+            final List<Callable<Double>> reads = new ArrayList<Callable<Double>>();
+            final List<Object> bulkheads = new ArrayList<Object>();
+            for (final ObjectName name : target.queryNames(targetPattern, null)) {
+                if (name.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME) == null) {
+                    continue;
+                }
+                bulkheads.add(executor.bulkheadOf(name));
+                reads.add(new Callable<Double>() {
+                    @Override
+                    public Double call() throws Exception {
+                        return read(name);
+                    }
+                });
+            }
+            final double[] values = new double[reads.size()];
+            int samples = 0;
+            int failures = 0;
+            try {
+                for (Future<Double> future : executor.invokeAll(bulkheads,
+                                                                reads,
+                                                                timeoutMillis,
+                                                                TimeUnit.MILLISECONDS)) {
+                    try {
+                        final Double value = future.get();
+                        if (value == null) {
+                            failures++;
+                        } else {
+                            values[samples++] = value;
+                        }
+                    } catch (ExecutionException | CancellationException e) {
+                        failures++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return result == null ? new Result(Double.NaN, 0, 0) : result;
+            }
+            result = new Result(reducer.reduce(values, samples), samples, failures);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isFresh(Result current) {
+        return current != null
+               && cacheMillis > 0
+               && System.nanoTime() - current.nanos < TimeUnit.MILLISECONDS.toNanos(cacheMillis);
+    }
+
+    private Double read(ObjectName name) throws Exception {
+        return readNumber(target, name, path);
+    }
+}
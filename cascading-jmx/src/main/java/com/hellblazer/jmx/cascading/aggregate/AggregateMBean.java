@@ -0,0 +1,88 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.aggregate;
+
+/**
+ * The management interface of an {@link Aggregate}: one attribute of the
+ * MBeans cascaded from every mount point, reduced to a single value.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface AggregateMBean {
+
+    /**
+     * @return the attribute read from each cascaded MBean. A dotted suffix
+     *         selects an item of a <tt>CompositeData</tt> attribute, e.g.
+     *         <tt>HeapMemoryUsage.used</tt>.
+     */
+    String getAttribute();
+
+    /**
+     * @return the number of milliseconds a computed value is reused, 0 if the
+     *         value is computed on every read
+     */
+    long getCacheMillis();
+
+    /**
+     * @return the number of cascaded MBeans whose attribute could not be read,
+     *         or was not numeric, at the last computation
+     */
+    int getFailures();
+
+    /**
+     * @return the time, in milliseconds since the epoch, of the last
+     *         computation, 0 if none
+     */
+    long getLastComputed();
+
+    /**
+     * @return the name of the {@link Reducer}
+     */
+    String getReducer();
+
+    /**
+     * @return the number of values reduced at the last computation
+     */
+    int getSamples();
+
+    /**
+     * @return the pattern of the source MBeans, as named in the source
+     *         <tt>MBeanServer</tt>s
+     */
+    String getSourcePattern();
+
+    /**
+     * @return the maximum number of milliseconds a computation waits for the
+     *         cascaded MBeans; slower MBeans are counted as failures
+     */
+    long getTimeoutMillis();
+
+    /**
+     * @return the reduced value, computed if the cached value has expired
+     */
+    double getValue();
+
+    /**
+     * Compute the value, regardless of the cache
+     * 
+     * @return the reduced value
+     */
+    double refresh();
+
+    void setCacheMillis(long millis);
+
+    void setTimeoutMillis(long millis);
+}
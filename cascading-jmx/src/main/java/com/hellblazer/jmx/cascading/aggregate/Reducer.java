@@ -0,0 +1,123 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * The functions reducing the values of an attribute read from many cascaded
+ * MBeans into the single value of an {@link Aggregate}. The reduction of no
+ * value is <tt>NaN</tt>, except for {@link #COUNT} and {@link #SUM}.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public enum Reducer {
+    AVG {
+        @Override
+        public double reduce(double[] values, int count) {
+            return count == 0 ? Double.NaN : SUM.reduce(values, count) / count;
+        }
+    },
+    COUNT {
+        @Override
+        public double reduce(double[] values, int count) {
+            return count;
+        }
+    },
+    MAX {
+        @Override
+        public double reduce(double[] values, int count) {
+            double max = Double.NaN;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || values[i] > max) {
+                    max = values[i];
+                }
+            }
+            return max;
+        }
+    },
+    MIN {
+        @Override
+        public double reduce(double[] values, int count) {
+            double min = Double.NaN;
+            for (int i = 0; i < count; i++) {
+                if (i == 0 || values[i] < min) {
+                    min = values[i];
+                }
+            }
+            return min;
+        }
+    },
+    P50 {
+        @Override
+        public double reduce(double[] values, int count) {
+            return percentile(values, count, 0.50);
+        }
+    },
+    P90 {
+        @Override
+        public double reduce(double[] values, int count) {
+            return percentile(values, count, 0.90);
+        }
+    },
+    P95 {
+        @Override
+        public double reduce(double[] values, int count) {
+            return percentile(values, count, 0.95);
+        }
+    },
+    P99 {
+        @Override
+        public double reduce(double[] values, int count) {
+            return percentile(values, count, 0.99);
+        }
+    },
+    SUM {
+        @Override
+        public double reduce(double[] values, int count) {
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += values[i];
+            }
+            return sum;
+        }
+    };
+
+    /**
+     * The nearest rank percentile of the values
+     */
+    private static double percentile(double[] values, int count,
+                                     double fraction) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        final double[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        final int rank = (int) Math.ceil(fraction * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * Reduce the values
+     * 
+     * @param values
+     *            - the values, which are not modified
+     * @param count
+     *            - the number of values to reduce, from the start of the array
+     * @return the reduced value
+     */
+    public abstract double reduce(double[] values, int count);
+}
@@ -0,0 +1,725 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hellblazer.jmx.cascading.CascadingAgent;
+import com.hellblazer.jmx.cascading.CascadingExecutors;
+import com.hellblazer.jmx.cascading.FanOutExecutor;
+import com.hellblazer.jmx.cascading.aggregate.Aggregate;
+
+/**
+ * Renders the numeric attributes of the cascaded MBeans of a target
+ * <tt>MBeanServer</tt> in the Prometheus text exposition format.
+ * <p>
+ * A scrape never reaches the mounted <tt>MBeanServer</tt>s. The attributes of
+ * the MBeans matching the exported patterns are polled in the background, with
+ * one <tt>getAttributes</tt> per MBean, and a scrape renders the last polled
+ * values. The reads of a poll run in parallel on a {@link FanOutExecutor}, in
+ * the bulkhead of the mount point of each MBean, and those which have not
+ * completed within the period of their pattern are cancelled and counted as
+ * failures. The attributes of an MBean are discovered once, when it first
+ * matches a pattern, at which point the text preceding the value of each of
+ * its samples is rendered and kept. A scrape then only copies these templates
+ * and the formatted values through a reused buffer.
+ * </p>
+ * <p>
+ * The metric name of an attribute is the domain of its MBean and the name of
+ * the attribute joined by an underscore, and the
+ * {@link CascadingAgent#CASCADED_NODE_PROPERTY_NAME cascadedNode} and the other
+ * key properties of the MBean are its labels. Characters Prometheus does not
+ * allow in names are replaced by underscores. Boolean attributes are exported
+ * as 0 or 1; attributes which are not numbers are not exported.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class PrometheusExporter implements PrometheusExporterMBean {
+    /**
+     * An exported pattern
+     */
+    private class Export implements Runnable {
+        private boolean               closed;
+        // guards closed and members, and is not held while reading
+        private final ReentrantLock   lock    = new ReentrantLock();
+        private final Set<ObjectName> members = new HashSet<ObjectName>();
+        private final ObjectName      pattern;
+        private final long            periodMillis;
+        private ScheduledFuture<?>    polling;
+        private final String          sourcePattern;
+
+        Export(String sourcePattern, ObjectName pattern, long periodMillis) {
+            this.sourcePattern = sourcePattern;
+            this.pattern = pattern;
+            this.periodMillis = periodMillis;
+        }
+
+        @Override
+        public void run() {
+            try {
+                poll(this);
+            } catch (RuntimeException e) {
+                log.warn(String.format("Unable to poll %s", sourcePattern), e);
+            }
+        }
+    }
+
+    /**
+     * The samples sharing a metric name, held densely so that a scrape walks
+     * an array rather than a linked structure
+     */
+    private static class Family {
+        private final byte[] header;
+        private final String name;
+        private Sample[]     samples = new Sample[4];
+        private int          size;
+
+        Family(String name) {
+            this.name = name;
+            header = String.format("# TYPE %s gauge\n", name).getBytes(StandardCharsets.UTF_8);
+        }
+
+        void add(Sample sample) {
+            if (size == samples.length) {
+                samples = Arrays.copyOf(samples, size * 2);
+            }
+            sample.index = size;
+            samples[size++] = sample;
+        }
+
+        void remove(Sample sample) {
+            Sample last = samples[--size];
+            samples[sample.index] = last;
+            last.index = sample.index;
+            samples[size] = null;
+        }
+    }
+
+    /**
+     * An MBean matching at least one exported pattern
+     */
+    private static class Member {
+        private final String[]    attributes;
+        private final Set<String> exports = new HashSet<String>();
+        private final Sample[]    samples;
+
+        Member(String[] attributes, Sample[] samples) {
+            this.attributes = attributes;
+            this.samples = samples;
+        }
+    }
+
+    /**
+     * The sample of one attribute of one MBean
+     */
+    private static class Sample {
+        private Family          family;
+        private int             index;
+        private final String    metric;
+        private final byte[]    prefix;
+        private volatile double value = Double.NaN;
+
+        Sample(String metric, byte[] prefix) {
+            this.metric = metric;
+            this.prefix = prefix;
+        }
+    }
+
+    public static final String       CONTENT_TYPE  = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final int         BUFFER_SIZE   = 64 * 1024;
+    private static final Logger      log           = LoggerFactory.getLogger(PrometheusExporter.class);
+    private static final Set<String> NUMERIC_TYPES = new HashSet<String>(
+                                                                         Arrays.asList("int",
+                                                                                       "long",
+                                                                                       "double",
+                                                                                       "float",
+                                                                                       "short",
+                                                                                       "byte",
+                                                                                       "boolean",
+                                                                                       "java.lang.Integer",
+                                                                                       "java.lang.Long",
+                                                                                       "java.lang.Double",
+                                                                                       "java.lang.Float",
+                                                                                       "java.lang.Short",
+                                                                                       "java.lang.Byte",
+                                                                                       "java.lang.Boolean",
+                                                                                       "java.lang.Number",
+                                                                                       "java.math.BigDecimal",
+                                                                                       "java.math.BigInteger",
+                                                                                       "java.util.concurrent.atomic.AtomicInteger",
+                                                                                       "java.util.concurrent.atomic.AtomicLong"));
+
+    /**
+     * Answer the name, valid in Prometheus, of a metric or label
+     */
+    public static String sanitize(String name) {
+        StringBuilder builder = new StringBuilder(name.length() + 1);
+        if (name.isEmpty() || Character.isDigit(name.charAt(0))) {
+            builder.append('_');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            builder.append(c < 128 && (Character.isLetterOrDigit(c) || c == '_') ? c
+                                                                                 : '_');
+        }
+        return builder.toString();
+    }
+
+    private static void escape(String value, StringBuilder builder) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    // The labels of the samples of an MBean: its key properties, sorted
+    //
+    private static String labelsOf(ObjectName name) {
+        TreeMap<String, String> labels = new TreeMap<String, String>();
+        for (Map.Entry<String, String> key : name.getKeyPropertyList().entrySet()) {
+            String value = key.getValue();
+            if (value.startsWith("\"")) {
+                value = ObjectName.unquote(value);
+            }
+            labels.put(sanitize(key.getKey()), value);
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            if (builder.length() > 1) {
+                builder.append(',');
+            }
+            builder.append(label.getKey()).append("=\"");
+            escape(label.getValue(), builder);
+            builder.append('"');
+        }
+        builder.append("} ");
+        return builder.toString();
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return ((Boolean) value) ? 1 : 0;
+        }
+        return Double.NaN;
+    }
+
+    private final byte[]                                buffer   = new byte[BUFFER_SIZE];
+    private final FanOutExecutor                        executor;
+    private final ConcurrentHashMap<String, Export>     exports  = new ConcurrentHashMap<String, Export>();
+    private final AtomicLong                            failures = new AtomicLong();
+    private final TreeMap<String, Family>               families = new TreeMap<String, Family>();
+    private volatile long                               lastScrapeMillis;
+    private final ReadWriteLock                         lock     = new ReentrantReadWriteLock();
+    private final ConcurrentHashMap<ObjectName, Member> members  = new ConcurrentHashMap<ObjectName, Member>();
+    private int                                         position;
+    private volatile int                                sampleCount;
+    private final ScheduledThreadPoolExecutor           scheduler;
+    private final MBeanServer                           target;
+    private final FanOutExecutor                        workers;
+
+    /**
+     * @param target
+     *            - the target <tt>MBeanServer</tt> holding the cascaded MBeans
+     * @param threads
+     *            - the number of threads polling the attributes, of which the
+     *            reads of one node hold at most a quarter
+     */
+    public PrometheusExporter(MBeanServer target, int threads) {
+        this(target, threads, new FanOutExecutor("Cascading exporter worker",
+                                                 threads,
+                                                 Math.max(1, threads / 4),
+                                                 Integer.MAX_VALUE), true);
+    }
+
+    /**
+     * @param target
+     *            - the target <tt>MBeanServer</tt> holding the cascaded MBeans
+     * @param threads
+     *            - the number of threads scheduling the polls
+     * @param executor
+     *            - the executor of the reads, usually the
+     *            {@link com.hellblazer.jmx.cascading.CascadingService#getFanOutExecutor()
+     *            fan-out executor} of the cascading service of the target
+     */
+    public PrometheusExporter(MBeanServer target, int threads,
+                              FanOutExecutor executor) {
+        this(target, threads, executor, false);
+    }
+
+    private PrometheusExporter(MBeanServer target, int threads,
+                               FanOutExecutor executor, boolean owned) {
+        this.target = target;
+        this.executor = executor;
+        workers = owned ? executor : null;
+        scheduler = new ScheduledThreadPoolExecutor(
+                                                    threads,
+                                                    CascadingExecutors.newThreadFactory("Cascading exporter"));
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void export(String sourcePattern, long periodMillis)
+                                                               throws MalformedObjectNameException {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive: "
+                                               + periodMillis);
+        }
+        ObjectName source = ObjectName.getInstance(sourcePattern);
+        String key = source.getCanonicalName();
+        Export export = new Export(key, Aggregate.targetPatternOf(source),
+                                   periodMillis);
+        synchronized (exports) {
+            if (exports.putIfAbsent(key, export) != null) {
+                throw new IllegalArgumentException(
+                                                   String.format("%s is already exported",
+                                                                 key));
+            }
+            export.polling = scheduler.scheduleAtFixedRate(export, 0,
+                                                           periodMillis,
+                                                           TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public String[] getExported() {
+        return exports.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public int getFamilies() {
+        lock.readLock().lock();
+        try {
+            return families.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long getLastScrapeMillis() {
+        return lastScrapeMillis;
+    }
+
+    @Override
+    public int getSamples() {
+        return sampleCount;
+    }
+
+    /**
+     * Poll all the exported patterns now, rather than waiting for their next
+     * scheduled poll
+     */
+    public void refresh() {
+        for (Export export : exports.values()) {
+            poll(export);
+        }
+    }
+
+    /**
+     * Render the last polled values of the exported attributes.
+     * <p>
+     * The structure of the exported MBeans is locked against the discovery of
+     * new MBeans, but not against polling, for the duration of the scrape, so
+     * that a slow consumer of the output only delays the export of new
+     * MBeans.
+     * </p>
+     * 
+     * @param out
+     *            - the stream receiving the text exposition
+     * @return the number of samples rendered
+     * @throws IOException
+     */
+    public int render(OutputStream out) throws IOException {
+        long start = System.nanoTime();
+        int rendered = 0;
+        lock.readLock().lock();
+        try {
+            synchronized (buffer) {
+                position = 0;
+                for (Family family : families.values()) {
+                    put(family.header, out);
+                    Sample[] samples = family.samples;
+                    for (int i = 0; i < family.size; i++) {
+                        Sample sample = samples[i];
+                        put(sample.prefix, out);
+                        putValue(sample.value, out);
+                        rendered++;
+                    }
+                }
+                flush(out);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        lastScrapeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime()
+                                                         - start);
+        return rendered;
+    }
+
+    /**
+     * Stop polling
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    @Override
+    public boolean unexport(String sourcePattern)
+                                                 throws MalformedObjectNameException {
+        String key = ObjectName.getInstance(sourcePattern).getCanonicalName();
+        Export export;
+        synchronized (exports) {
+            export = exports.remove(key);
+            if (export == null) {
+                return false;
+            }
+            export.polling.cancel(false);
+        }
+        export.lock.lock();
+        try {
+            export.closed = true;
+            for (ObjectName name : export.members) {
+                leave(name, export.sourcePattern);
+            }
+            export.members.clear();
+        } finally {
+            export.lock.unlock();
+        }
+        return true;
+    }
+
+    private void flush(OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    // Add the MBean to the members of the export, discovering its attributes
+    // if it is not yet a member of another
+    //
+    private boolean join(ObjectName name, String sourcePattern) {
+        Member member = members.get(name);
+        if (member == null) {
+            MBeanInfo info;
+            try {
+                info = target.getMBeanInfo(name);
+            } catch (Exception e) {
+                if (log.isTraceEnabled()) {
+                    log.trace(String.format("Unable to discover %s", name), e);
+                }
+                failures.incrementAndGet();
+                return false;
+            }
+            member = newMember(name, info);
+        }
+        lock.writeLock().lock();
+        try {
+            Member existing = members.putIfAbsent(name, member);
+            if (existing != null) {
+                member = existing;
+            } else {
+                for (Sample sample : member.samples) {
+                    Family family = families.get(sample.metric);
+                    if (family == null) {
+                        family = new Family(sample.metric);
+                        families.put(sample.metric, family);
+                    }
+                    sample.family = family;
+                    family.add(sample);
+                }
+                sampleCount += member.samples.length;
+            }
+            member.exports.add(sourcePattern);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    private void leave(ObjectName name, String sourcePattern) {
+        lock.writeLock().lock();
+        try {
+            Member member = members.get(name);
+            if (member == null || !member.exports.remove(sourcePattern)
+                || !member.exports.isEmpty()) {
+                return;
+            }
+            members.remove(name);
+            for (Sample sample : member.samples) {
+                Family family = sample.family;
+                family.remove(sample);
+                if (family.size == 0) {
+                    families.remove(family.name);
+                }
+            }
+            sampleCount -= member.samples.length;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Member newMember(ObjectName name, MBeanInfo info) {
+        String labels = labelsOf(name);
+        String domain = name.getDomain();
+        MBeanAttributeInfo[] infos = info.getAttributes();
+        String[] attributes = new String[infos.length];
+        Sample[] samples = new Sample[infos.length];
+        int count = 0;
+        for (MBeanAttributeInfo attribute : infos) {
+            if (!attribute.isReadable()
+                || !NUMERIC_TYPES.contains(attribute.getType())) {
+                continue;
+            }
+            String metric = sanitize(domain + "_" + attribute.getName());
+            attributes[count] = attribute.getName();
+            samples[count] = new Sample(
+                                        metric,
+                                        (metric + labels).getBytes(StandardCharsets.UTF_8));
+            count++;
+        }
+        return new Member(Arrays.copyOf(attributes, count),
+                          Arrays.copyOf(samples, count));
+    }
+
+    // Update the members of the export, then read them in parallel, outside
+    // of the lock of the export
+    //
+    private void poll(Export export) {
+        Set<ObjectName> names = new HashSet<ObjectName>();
+        for (ObjectName name : target.queryNames(export.pattern, null)) {
+            if (name.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME) != null) {
+                names.add(name);
+            }
+        }
+        List<ObjectName> joining = new ArrayList<ObjectName>();
+        export.lock.lock();
+        try {
+            if (export.closed) {
+                return;
+            }
+            for (ObjectName name : names) {
+                if (!export.members.contains(name)) {
+                    joining.add(name);
+                }
+            }
+        } finally {
+            export.lock.unlock();
+        }
+        // discovering the attributes of an MBean may call its source
+        List<ObjectName> joined = new ArrayList<ObjectName>(joining.size());
+        for (ObjectName name : joining) {
+            if (join(name, export.sourcePattern)) {
+                joined.add(name);
+            }
+        }
+        List<Object> bulkheads = new ArrayList<Object>();
+        List<Callable<Void>> reads = new ArrayList<Callable<Void>>();
+        export.lock.lock();
+        try {
+            if (export.closed) {
+                for (ObjectName name : joined) {
+                    leave(name, export.sourcePattern);
+                }
+                return;
+            }
+            export.members.addAll(joined);
+            for (Iterator<ObjectName> iterator = export.members.iterator(); iterator.hasNext();) {
+                final ObjectName name = iterator.next();
+                if (!names.contains(name)) {
+                    iterator.remove();
+                    leave(name, export.sourcePattern);
+                    continue;
+                }
+                final Member member = members.get(name);
+                if (member == null || member.attributes.length == 0) {
+                    continue;
+                }
+                bulkheads.add(executor.bulkheadOf(name));
+                reads.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        read(name, member);
+                        return null;
+                    }
+                });
+            }
+        } finally {
+            export.lock.unlock();
+        }
+        if (reads.isEmpty()) {
+            return;
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(bulkheads, reads,
+                                                          export.periodMillis,
+                                                          TimeUnit.MILLISECONDS)) {
+                try {
+                    future.get();
+                } catch (ExecutionException | CancellationException e) {
+                    failures.incrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void put(byte[] bytes, OutputStream out) throws IOException {
+        if (bytes.length > buffer.length - position) {
+            flush(out);
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer[position++] = (byte) s.charAt(i);
+        }
+    }
+
+    private void putLong(long value) {
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        position = end;
+    }
+
+    // Write the value, and the end of its line. Integral values, the bulk of
+    // JMX attributes, are formatted without allocating
+    //
+    private void putValue(double value, OutputStream out) throws IOException {
+        if (buffer.length - position < 32) {
+            flush(out);
+        }
+        if (Double.isNaN(value)) {
+            putAscii("NaN");
+        } else if (Double.isInfinite(value)) {
+            putAscii(value > 0 ? "+Inf" : "-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            putLong((long) value);
+        } else {
+            putAscii(Double.toString(value));
+        }
+        buffer[position++] = '\n';
+    }
+
+    private void read(ObjectName name, Member member) {
+        String[] attributes = member.attributes;
+        Sample[] samples = member.samples;
+        if (attributes.length == 0) {
+            return;
+        }
+        AttributeList values;
+        try {
+            values = target.getAttributes(name, attributes);
+        } catch (Exception e) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Unable to read %s", name), e);
+            }
+            failures.incrementAndGet();
+            return;
+        }
+        // The values follow the order of the attributes, omitting those which
+        // could not be read
+        int i = 0;
+        for (Attribute attribute : values.asList()) {
+            while (i < attributes.length
+                   && !attributes[i].equals(attribute.getName())) {
+                samples[i++].value = Double.NaN;
+            }
+            if (i == attributes.length) {
+                break;
+            }
+            samples[i++].value = toDouble(attribute.getValue());
+        }
+        while (i < attributes.length) {
+            samples[i++].value = Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.export;
+
+import javax.management.MalformedObjectNameException;
+
+/**
+ * The management interface of a {@link PrometheusExporter}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface PrometheusExporterMBean {
+
+    /**
+     * Periodically poll the numeric attributes of the cascaded MBeans matching
+     * a pattern, and export them
+     * 
+     * @param sourcePattern
+     *            - the pattern of the MBeans, as named in the source
+     *            <tt>MBeanServer</tt>s
+     * @param periodMillis
+     *            - the period between two polls
+     * @throws MalformedObjectNameException
+     *             if the pattern is not a valid <tt>ObjectName</tt>
+     * @throws IllegalArgumentException
+     *             if the pattern is already exported
+     */
+    void export(String sourcePattern, long periodMillis)
+                                                        throws MalformedObjectNameException;
+
+    /**
+     * @return the exported source patterns
+     */
+    String[] getExported();
+
+    /**
+     * @return the number of MBean reads which failed
+     */
+    long getFailures();
+
+    /**
+     * @return the number of metric families rendered by a scrape
+     */
+    int getFamilies();
+
+    /**
+     * @return the time, in milliseconds, taken by the last scrape
+     */
+    long getLastScrapeMillis();
+
+    /**
+     * @return the number of samples rendered by a scrape
+     */
+    int getSamples();
+
+    /**
+     * Stop exporting the MBeans of a pattern
+     * 
+     * @return true if the pattern was exported
+     */
+    boolean unexport(String sourcePattern) throws MalformedObjectNameException;
+}
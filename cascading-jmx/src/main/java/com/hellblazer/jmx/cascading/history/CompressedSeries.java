@@ -0,0 +1,114 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import java.util.Arrays;
+
+/**
+ * A series held in {@link GorillaChunk compressed chunks}. Samples are
+ * appended to the newest chunk; once full, it is trimmed and a new chunk is
+ * started, and the oldest chunk is dropped when it no longer holds any of the
+ * last <var>capacity</var> samples.
+ * 
+ * @author hhildebrand
+ * 
+ */
+final class CompressedSeries extends Series {
+    static final int             CHUNK_SAMPLES = 120;
+
+    private final int            capacity;
+    private int                  chunkCount;
+    private final int            chunkSamples;
+    private final GorillaChunk[] chunks;
+    private int                  first;
+    private int                  total;
+
+    CompressedSeries(SeriesKey key, int capacity) {
+        super(key);
+        this.capacity = capacity;
+        chunkSamples = Math.min(capacity, CHUNK_SAMPLES);
+        chunks = new GorillaChunk[(capacity + chunkSamples - 1) / chunkSamples
+                                  + 1];
+    }
+
+    @Override
+    synchronized void add(long time, double value) {
+        GorillaChunk current = chunkCount == 0 ? null : chunk(chunkCount - 1);
+        if (current == null || current.size() == chunkSamples) {
+            if (current != null) {
+                current.trim();
+            }
+            if (chunkCount == chunks.length) {
+                total -= chunks[first].size();
+                chunks[first] = null;
+                first = (first + 1) % chunks.length;
+                chunkCount--;
+            }
+            current = new GorillaChunk();
+            chunks[(first + chunkCount) % chunks.length] = current;
+            chunkCount++;
+        }
+        current.append(time, value);
+        total++;
+    }
+
+    @Override
+    synchronized int footprint() {
+        int bytes = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            bytes += chunk(i).bytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    synchronized TimeSeries read(long from, long to) {
+        final int retained = Math.min(total, capacity);
+        final long[] t = new long[retained];
+        final double[] v = new double[retained];
+        int skip = total - retained;
+        int n = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            final GorillaChunk chunk = chunk(i);
+            if (skip >= chunk.size() || chunk.lastTime() < from) {
+                skip = Math.max(0, skip - chunk.size());
+                continue;
+            }
+            final GorillaChunk.Decoder decoder = chunk.decoder();
+            while (decoder.next()) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                final long time = decoder.time();
+                if (time > to) {
+                    break;
+                }
+                if (time >= from) {
+                    t[n] = time;
+                    v[n] = decoder.value();
+                    n++;
+                }
+            }
+        }
+        return new TimeSeries(key.node, key.name, key.attribute,
+                              n == retained ? t : Arrays.copyOf(t, n),
+                              n == retained ? v : Arrays.copyOf(v, n));
+    }
+
+    private GorillaChunk chunk(int i) {
+        return chunks[(first + i) % chunks.length];
+    }
+}
@@ -0,0 +1,283 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import java.util.Arrays;
+
+/**
+ * A compressed chunk of samples, encoded as described in "Gorilla: A Fast,
+ * Scalable, In-Memory Time Series Database" (Pelkonen et al, VLDB 2015).
+ * <p>
+ * The first sample is stored in full. Each following time is stored as the
+ * difference between its delta and the previous delta, which is a single bit
+ * when samples are taken at a regular period. Each following value is stored
+ * as its XOR with the previous value, of which only the meaningful bits are
+ * kept - a single bit when the value does not change. Samples are appended
+ * one at a time, and are read back in place by a {@link Decoder}, without
+ * copying the chunk.
+ * </p>
+ * <p>
+ * Chunks are not thread safe: appends and decodes must be serialized by the
+ * caller.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public final class GorillaChunk {
+
+    /**
+     * Decodes the samples of a chunk, oldest first, directly from the words of
+     * the chunk. The samples appended after the decoder was created are not
+     * decoded.
+     */
+    public final class Decoder {
+        private int          decoded;
+        private long         delta;
+        private int          leading;
+        private long         position;
+        private final int    size   = count;
+        private final long[] source = words;
+        private long         time;
+        private int          trailing;
+        private long         value;
+
+        /**
+         * Decode the next sample
+         * 
+         * @return false if all the samples have been decoded
+         */
+        public boolean next() {
+            if (decoded == size) {
+                return false;
+            }
+            if (decoded++ == 0) {
+                time = read(64);
+                value = read(64);
+                return true;
+            }
+            delta += readDeltaOfDelta();
+            time += delta;
+            if (read(1) != 0) {
+                if (read(1) != 0) {
+                    leading = (int) read(5);
+                    final int significant = (int) read(6);
+                    trailing = 64 - leading - (significant == 0 ? 64
+                                                               : significant);
+                }
+                value ^= read(64 - leading - trailing) << trailing;
+            }
+            return true;
+        }
+
+        /**
+         * @return the time of the current sample
+         */
+        public long time() {
+            return time;
+        }
+
+        /**
+         * @return the value of the current sample
+         */
+        public double value() {
+            return Double.longBitsToDouble(value);
+        }
+
+        private long read(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            final int word = (int) (position >>> 6);
+            final int offset = (int) (position & 63);
+            position += bits;
+            final int available = 64 - offset;
+            if (bits <= available) {
+                return (source[word] << offset) >>> (64 - bits);
+            }
+            final long high = (source[word] << offset) >>> (64 - available);
+            final int low = bits - available;
+            return (high << low) | (source[word + 1] >>> (64 - low));
+        }
+
+        private long readDeltaOfDelta() {
+            if (read(1) == 0) {
+                return 0;
+            }
+            if (read(1) == 0) {
+                return signed(read(7), 7);
+            }
+            if (read(1) == 0) {
+                return signed(read(9), 9);
+            }
+            if (read(1) == 0) {
+                return signed(read(12), 12);
+            }
+            return read(64);
+        }
+    }
+
+    private static final int INITIAL_WORDS = 4;
+
+    // Sign extend the low order bits of a value
+    //
+    private static long signed(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    private static boolean fits(long value, int bits) {
+        return value == signed(value, bits);
+    }
+
+    private int    count;
+    private long   delta;
+    private long   lastTime;
+    private long   lastValue;
+    private int    leading   = Integer.MAX_VALUE;
+    private long   position;
+    private int    trailing;
+    private long[] words     = new long[INITIAL_WORDS];
+
+    /**
+     * Append a sample
+     * 
+     * @param time
+     *            - the time of the sample, no earlier than the time of the
+     *            previous sample
+     * @param value
+     *            - the value of the sample
+     */
+    public void append(long time, double value) {
+        final long bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            write(time, 64);
+            write(bits, 64);
+        } else {
+            final long newDelta = time - lastTime;
+            writeDeltaOfDelta(newDelta - delta);
+            delta = newDelta;
+            writeXor(bits ^ lastValue);
+        }
+        lastTime = time;
+        lastValue = bits;
+        count++;
+    }
+
+    /**
+     * @return the number of bytes held by the encoded samples
+     */
+    public int bytes() {
+        return words.length * 8;
+    }
+
+    /**
+     * @return a decoder of the samples of the chunk
+     */
+    public Decoder decoder() {
+        return new Decoder();
+    }
+
+    /**
+     * @return the time of the last sample, undefined if the chunk is empty
+     */
+    public long lastTime() {
+        return lastTime;
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Release the unused capacity of the chunk, once no more samples will be
+     * appended to it
+     */
+    public void trim() {
+        final int used = (int) ((position + 63) >>> 6);
+        if (used < words.length) {
+            words = Arrays.copyOf(words, used);
+        }
+    }
+
+    private void write(long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        final int required = (int) ((position + bits + 63) >>> 6);
+        if (required > words.length) {
+            words = Arrays.copyOf(words, Math.max(required, words.length * 2));
+        }
+        final int word = (int) (position >>> 6);
+        final int offset = (int) (position & 63);
+        position += bits;
+        final long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+        final int available = 64 - offset;
+        if (bits <= available) {
+            words[word] |= masked << (available - bits);
+        } else {
+            final int low = bits - available;
+            words[word] |= masked >>> low;
+            words[word + 1] |= masked << (64 - low);
+        }
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            write(0, 1);
+        } else if (fits(dod, 7)) {
+            write(0x2, 2);
+            write(dod, 7);
+        } else if (fits(dod, 9)) {
+            write(0x6, 3);
+            write(dod, 9);
+        } else if (fits(dod, 12)) {
+            write(0xE, 4);
+            write(dod, 12);
+        } else {
+            write(0xF, 4);
+            write(dod, 64);
+        }
+    }
+
+    private void writeXor(long xor) {
+        if (xor == 0) {
+            write(0, 1);
+            return;
+        }
+        int newLeading = Long.numberOfLeadingZeros(xor);
+        final int newTrailing = Long.numberOfTrailingZeros(xor);
+        if (newLeading > 31) {
+            // the leading zeros are written in 5 bits
+            newLeading = 31;
+        }
+        if (leading != Integer.MAX_VALUE && newLeading >= leading
+            && newTrailing >= trailing) {
+            // the meaningful bits fit in the window of the previous value
+            write(0x2, 2);
+            write(xor >>> trailing, 64 - leading - trailing);
+        } else {
+            final int significant = 64 - newLeading - newTrailing;
+            write(0x3, 2);
+            write(newLeading, 5);
+            write(significant == 64 ? 0 : significant, 6);
+            write(xor >>> newTrailing, significant);
+            leading = newLeading;
+            trailing = newTrailing;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hellblazer.jmx.cascading.CascadingAgent;
+import com.hellblazer.jmx.cascading.CascadingExecutors;
+import com.hellblazer.jmx.cascading.aggregate.Aggregate;
+
+/**
+ * Periodically reads numeric attributes of the cascaded MBeans of a target
+ * <tt>MBeanServer</tt> into a {@link TimeSeriesStore}.
+ * <p>
+ * As for an {@link Aggregate}, the source pattern is matched against the
+ * proxies of the target <tt>MBeanServer</tt> which carry a
+ * {@link CascadingAgent#CASCADED_NODE_PROPERTY_NAME cascadedNode} key. All the
+ * samples of one poll share the time at which the poll started, so that the
+ * samples of the series of a pattern line up.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class HistoryPoller implements HistoryPollerMBean {
+    private static final Logger                                 log      = LoggerFactory.getLogger(HistoryPoller.class);
+
+    private final AtomicLong                                    failures = new AtomicLong();
+    private final AtomicLong                                    samples  = new AtomicLong();
+    private final ScheduledThreadPoolExecutor                   scheduler;
+    private final TimeSeriesStore                               store;
+    private final MBeanServer                                   target;
+    private final ConcurrentHashMap<String, ScheduledFuture<?>> tracked  = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+
+    /**
+     * @param target
+     *            - the target <tt>MBeanServer</tt> holding the cascaded MBeans
+     * @param store
+     *            - the store recording the samples
+     * @param threads
+     *            - the number of threads polling the attributes
+     */
+    public HistoryPoller(MBeanServer target, TimeSeriesStore store, int threads) {
+        this.target = target;
+        this.store = store;
+        scheduler = new ScheduledThreadPoolExecutor(
+                                                    threads,
+                                                    CascadingExecutors.newThreadFactory("Cascading history poller"));
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public long getSamples() {
+        return samples.get();
+    }
+
+    @Override
+    public String[] getTracked() {
+        return tracked.keySet().toArray(new String[0]);
+    }
+
+    /**
+     * Stop polling
+     */
+    public void shutdown() {
+        tracked.clear();
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public void track(String sourcePattern, final String attribute,
+                      long periodMillis) throws MalformedObjectNameException {
+        if (attribute == null || attribute.length() == 0) {
+            throw new IllegalArgumentException("An attribute is required");
+        }
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Period must be positive: "
+                                               + periodMillis);
+        }
+        final ObjectName pattern = Aggregate.targetPatternOf(ObjectName.getInstance(sourcePattern));
+        final String[] path = attribute.split("\\.");
+        final String key = keyOf(sourcePattern, attribute);
+        synchronized (tracked) {
+            if (tracked.containsKey(key)) {
+                throw new IllegalArgumentException(
+                                                   String.format("%s is already tracked",
+                                                                 key));
+            }
+            tracked.put(key, scheduler.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    poll(pattern, attribute, path);
+                }
+            }, 0, periodMillis, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Override
+    public boolean untrack(String sourcePattern, String attribute)
+                                                                  throws MalformedObjectNameException {
+        final ScheduledFuture<?> polling = tracked.remove(keyOf(sourcePattern,
+                                                                attribute));
+        if (polling == null) {
+            return false;
+        }
+        polling.cancel(false);
+        return true;
+    }
+
+    private String keyOf(String sourcePattern, String attribute)
+                                                                throws MalformedObjectNameException {
+        return String.format("%s@%s", attribute,
+                             ObjectName.getInstance(sourcePattern).getCanonicalName());
+    }
+
+    private void poll(ObjectName pattern, String attribute, String[] path) {
+        final long now = System.currentTimeMillis();
+        for (ObjectName name : target.queryNames(pattern, null)) {
+            final String node = name.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME);
+            if (node == null) {
+                continue;
+            }
+            Double value;
+            try {
+                value = Aggregate.readNumber(target, name, path);
+            } catch (Exception e) {
+                if (log.isTraceEnabled()) {
+                    log.trace(String.format("Unable to read %s of %s",
+                                            attribute, name), e);
+                }
+                value = null;
+            }
+            if (value == null) {
+                failures.incrementAndGet();
+                continue;
+            }
+            if (store.record(node, sourceNameOf(name), attribute, now, value)) {
+                samples.incrementAndGet();
+            }
+        }
+    }
+
+    // The name of the source MBean of a proxy: the name of the proxy, without
+    // its cascadedNode key
+    //
+    private ObjectName sourceNameOf(ObjectName name) {
+        final Hashtable<String, String> keys = new Hashtable<String, String>(
+                                                                             name.getKeyPropertyList());
+        keys.remove(CascadingAgent.CASCADED_NODE_PROPERTY_NAME);
+        try {
+            return ObjectName.getInstance(name.getDomain(), keys);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(
+                                            String.format("Invalid source name of %s",
+                                                          name), e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import javax.management.MalformedObjectNameException;
+
+/**
+ * The management interface of a {@link HistoryPoller}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface HistoryPollerMBean {
+
+    /**
+     * @return the number of attribute reads which failed, or were not numeric
+     */
+    long getFailures();
+
+    /**
+     * @return the number of samples recorded
+     */
+    long getSamples();
+
+    /**
+     * @return the tracked attributes, as <tt>attribute@sourcePattern</tt>
+     */
+    String[] getTracked();
+
+    /**
+     * Periodically record an attribute of the cascaded MBeans matching a
+     * pattern
+     * 
+     * @param sourcePattern
+     *            - the pattern of the MBeans, as named in the source
+     *            <tt>MBeanServer</tt>s
+     * @param attribute
+     *            - the attribute, with an optional dotted path into
+     *            <tt>CompositeData</tt>, e.g. <tt>HeapMemoryUsage.used</tt>
+     * @param periodMillis
+     *            - the period between two samples
+     * @throws MalformedObjectNameException
+     *             if the pattern is not a valid <tt>ObjectName</tt>
+     * @throws IllegalArgumentException
+     *             if the attribute of the pattern is already tracked
+     */
+    void track(String sourcePattern, String attribute, long periodMillis)
+                                                                          throws MalformedObjectNameException;
+
+    /**
+     * Stop recording an attribute
+     * 
+     * @return true if the attribute of the pattern was tracked
+     */
+    boolean untrack(String sourcePattern, String attribute)
+                                                           throws MalformedObjectNameException;
+}
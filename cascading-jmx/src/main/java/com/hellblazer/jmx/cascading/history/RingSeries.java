@@ -0,0 +1,71 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import java.util.Arrays;
+
+/**
+ * A series held in a fixed size ring buffer of primitive arrays. Once full,
+ * each new sample overwrites the oldest one.
+ * 
+ * @author hhildebrand
+ * 
+ */
+final class RingSeries extends Series {
+    private int            count;
+    private int            head;
+    private final long[]   times;
+    private final double[] values;
+
+    RingSeries(SeriesKey key, int capacity) {
+        super(key);
+        times = new long[capacity];
+        values = new double[capacity];
+    }
+
+    @Override
+    synchronized void add(long time, double value) {
+        times[head] = time;
+        values[head] = value;
+        head = (head + 1) % times.length;
+        if (count < times.length) {
+            count++;
+        }
+    }
+
+    @Override
+    int footprint() {
+        return 16 * times.length;
+    }
+
+    @Override
+    synchronized TimeSeries read(long from, long to) {
+        final long[] t = new long[count];
+        final double[] v = new double[count];
+        int n = 0;
+        int i = (head - count + times.length) % times.length;
+        for (int remaining = count; remaining > 0; remaining--) {
+            if (times[i] >= from && times[i] <= to) {
+                t[n] = times[i];
+                v[n] = values[i];
+                n++;
+            }
+            i = (i + 1) % times.length;
+        }
+        return new TimeSeries(key.node, key.name, key.attribute,
+                              n == count ? t : Arrays.copyOf(t, n),
+                              n == count ? v : Arrays.copyOf(v, n));
+    }
+}
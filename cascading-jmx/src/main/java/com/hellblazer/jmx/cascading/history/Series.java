@@ -0,0 +1,47 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+/**
+ * The retained samples of one series
+ * 
+ * @author hhildebrand
+ * 
+ */
+abstract class Series {
+    final SeriesKey key;
+    // the time of the last sample recorded by the store
+    volatile long   lastTime = Long.MIN_VALUE;
+
+    Series(SeriesKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Append a sample
+     */
+    abstract void add(long time, double value);
+
+    /**
+     * @return the number of bytes held by the samples
+     */
+    abstract int footprint();
+
+    /**
+     * @return the samples taken between <var>from</var> and <var>to</var>,
+     *         inclusive, oldest first
+     */
+    abstract TimeSeries read(long from, long to);
+}
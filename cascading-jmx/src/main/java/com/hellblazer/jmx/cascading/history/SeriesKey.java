@@ -0,0 +1,62 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import javax.management.ObjectName;
+
+/**
+ * The identity of a series: an attribute of a source MBean of a node
+ * 
+ * @author hhildebrand
+ * 
+ */
+final class SeriesKey {
+    final String      attribute;
+    final ObjectName  name;
+    final String      node;
+    private final int hash;
+
+    SeriesKey(String node, ObjectName name, String attribute) {
+        this.node = node;
+        this.name = name;
+        this.attribute = attribute;
+        hash = (31 * (31 * (node == null ? 0 : node.hashCode()) + name.hashCode()))
+               + attribute.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SeriesKey)) {
+            return false;
+        }
+        final SeriesKey other = (SeriesKey) obj;
+        return hash == other.hash
+               && (node == null ? other.node == null : node.equals(other.node))
+               && name.equals(other.name) && attribute.equals(other.attribute);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s", node, name, attribute);
+    }
+}
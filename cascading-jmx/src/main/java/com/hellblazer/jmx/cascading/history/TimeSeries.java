@@ -0,0 +1,100 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import java.io.Serializable;
+
+import javax.management.ObjectName;
+
+/**
+ * The samples of one series, as returned by a {@link TimeSeriesStoreMBean}
+ * query: the times and the values are parallel arrays, oldest first.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class TimeSeries implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String      attribute;
+    private final ObjectName  name;
+    private final String      node;
+    private final long[]      times;
+    private final double[]    values;
+
+    public TimeSeries(String node, ObjectName name, String attribute,
+                      long[] times, double[] values) {
+        if (times.length != values.length) {
+            throw new IllegalArgumentException(
+                                               String.format("%s times for %s values",
+                                                             times.length,
+                                                             values.length));
+        }
+        this.node = node;
+        this.name = name;
+        this.attribute = attribute;
+        this.times = times;
+        this.values = values;
+    }
+
+    /**
+     * @return the attribute, with its optional dotted path into
+     *         <tt>CompositeData</tt>
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    /**
+     * @return the name of the MBean in the source <tt>MBeanServer</tt>
+     */
+    public ObjectName getName() {
+        return name;
+    }
+
+    /**
+     * @return the cascaded node of the MBean
+     */
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return the times of the samples, in milliseconds since the epoch
+     */
+    public long[] getTimes() {
+        return times;
+    }
+
+    /**
+     * @return the values of the samples
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return the number of samples
+     */
+    public int size() {
+        return times.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimeSeries [%s %s %s, %s samples]", node, name,
+                             attribute, times.length);
+    }
+}
@@ -0,0 +1,267 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/**
+ * An in process store of the recent history of numeric attributes of
+ * cascaded MBeans, fed by a {@link HistoryPoller} or by any reader of the
+ * cascaded attributes.
+ * <p>
+ * A series is identified by the cascaded node, the name of the MBean in the
+ * source <tt>MBeanServer</tt> and the attribute. Each series retains its last
+ * {@link #getCapacity() Capacity} samples in a ring buffer of primitive arrays,
+ * allocated in full when the series is first recorded, and the number of
+ * series is bounded by {@link #getMaxSeries() MaxSeries}: samples of new series
+ * beyond it are refused and counted. The memory held by the store therefore
+ * never exceeds roughly <tt>MaxSeries * (16 * Capacity + 320)</tt> bytes - e.g.
+ * about 1.2GB for a million series of an hour sampled every minute.
+ * </p>
+ * <p>
+ * A series whose last sample is older than the {@link #getRetention()
+ * Retention} - such as the series of an MBean which was unregistered, or of a
+ * mount point which was unmounted - is discarded, so that it no longer counts
+ * against the maximum number of series. The store sweeps its series at most
+ * once per retention, as samples are recorded, measuring time by the
+ * timestamps of the samples; a stale series is thus discarded within twice
+ * the retention.
+ * </p>
+ * <p>
+ * A {@link #isCompressed() compressed} store instead holds each series in
+ * {@link GorillaChunk Gorilla encoded} chunks, which cost a few bits per sample
+ * when samples are taken at a regular period and values change little, at the
+ * price of decoding the series when queried.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class TimeSeriesStore implements TimeSeriesStoreMBean {
+    // The estimated overhead of a series, beyond its samples: the Series,
+    // its key and its ObjectName, the headers of its arrays and its entry in
+    // the map
+    //
+    private static final int                           SERIES_OVERHEAD = 320;
+
+    /**
+     * The default retention of a series after its last sample: a day
+     */
+    public static final long                           DEFAULT_RETENTION = TimeUnit.DAYS.toMillis(1);
+
+    private final int                                  capacity;
+    private final boolean                              compressed;
+    private final AtomicInteger                        count           = new AtomicInteger();
+    private final int                                  maxSeries;
+    private final AtomicLong                           nextSweep       = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicLong                           rejected        = new AtomicLong();
+    private volatile long                              retention       = DEFAULT_RETENTION;
+    private final ConcurrentHashMap<SeriesKey, Series> series          = new ConcurrentHashMap<SeriesKey, Series>();
+
+    /**
+     * @param capacity
+     *            - the number of samples retained per series
+     * @param maxSeries
+     *            - the maximum number of series
+     */
+    public TimeSeriesStore(int capacity, int maxSeries) {
+        this(capacity, maxSeries, false);
+    }
+
+    /**
+     * @param capacity
+     *            - the number of samples retained per series
+     * @param maxSeries
+     *            - the maximum number of series
+     * @param compressed
+     *            - if true, the samples are held in compressed chunks
+     */
+    public TimeSeriesStore(int capacity, int maxSeries, boolean compressed) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: "
+                                               + capacity);
+        }
+        if (maxSeries <= 0) {
+            throw new IllegalArgumentException(
+                                               "Maximum series must be positive: "
+                                                       + maxSeries);
+        }
+        this.capacity = capacity;
+        this.maxSeries = maxSeries;
+        this.compressed = compressed;
+    }
+
+    @Override
+    public void clear() {
+        for (SeriesKey key : series.keySet()) {
+            if (series.remove(key) != null) {
+                count.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getFootprint() {
+        if (!compressed) {
+            return (long) count.get() * (16L * capacity + SERIES_OVERHEAD);
+        }
+        long bytes = 0;
+        for (Series s : series.values()) {
+            bytes += s.footprint() + SERIES_OVERHEAD;
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getMaxSeries() {
+        return maxSeries;
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getRetention() {
+        return retention;
+    }
+
+    @Override
+    public int getSeriesCount() {
+        return count.get();
+    }
+
+    @Override
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    @Override
+    public TimeSeries[] query(ObjectName sourcePattern, String attribute,
+                              long fromMillis, long toMillis) {
+        final List<TimeSeries> result = new ArrayList<TimeSeries>();
+        for (Series s : series.values()) {
+            if ((attribute == null || attribute.equals(s.key.attribute))
+                && (sourcePattern == null || sourcePattern.apply(s.key.name))) {
+                result.add(s.read(fromMillis, toMillis));
+            }
+        }
+        return result.toArray(new TimeSeries[result.size()]);
+    }
+
+    @Override
+    public TimeSeries query(String node, ObjectName name, String attribute,
+                            long fromMillis, long toMillis) {
+        final Series s = series.get(new SeriesKey(node, name, attribute));
+        return s == null ? null : s.read(fromMillis, toMillis);
+    }
+
+    /**
+     * Record a sample
+     * 
+     * @param node
+     *            - the cascaded node of the MBean
+     * @param name
+     *            - the name of the MBean in the source <tt>MBeanServer</tt>
+     * @param attribute
+     *            - the attribute
+     * @param timeMillis
+     *            - the time of the sample, in milliseconds since the epoch.
+     *            The samples of a series are expected in time order.
+     * @param value
+     *            - the value of the sample
+     * @return false if the sample was refused, as it would create a series
+     *         beyond the maximum number of series
+     */
+    public boolean record(String node, ObjectName name, String attribute,
+                          long timeMillis, double value) {
+        sweep(timeMillis);
+        final SeriesKey key = new SeriesKey(node, name, attribute);
+        Series s = series.get(key);
+        if (s == null) {
+            if (count.incrementAndGet() > maxSeries) {
+                count.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+            final Series created = compressed ? new CompressedSeries(key,
+                                                                     capacity)
+                                             : new RingSeries(key, capacity);
+            created.lastTime = timeMillis;
+            s = series.putIfAbsent(key, created);
+            if (s == null) {
+                s = created;
+            } else {
+                count.decrementAndGet();
+            }
+        }
+        s.add(timeMillis, value);
+        s.lastTime = timeMillis;
+        return true;
+    }
+
+    @Override
+    public boolean remove(String node, ObjectName name, String attribute) {
+        if (series.remove(new SeriesKey(node, name, attribute)) == null) {
+            return false;
+        }
+        count.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void setRetention(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException(
+                                               "Retention cannot be negative: "
+                                                       + millis);
+        }
+        retention = millis;
+        nextSweep.set(Long.MIN_VALUE);
+    }
+
+    // Discard the series whose last sample is older than the retention, at
+    // most once per retention
+    //
+    private void sweep(long now) {
+        final long window = retention;
+        if (window == 0) {
+            return;
+        }
+        final long next = nextSweep.get();
+        if (now < next || !nextSweep.compareAndSet(next, now + window)) {
+            return;
+        }
+        final long oldest = now - window;
+        for (Series s : series.values()) {
+            if (s.lastTime < oldest && series.remove(s.key, s)) {
+                count.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import javax.management.ObjectName;
+
+/**
+ * The management interface of a {@link TimeSeriesStore}: the recent history
+ * of numeric attributes of cascaded MBeans.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface TimeSeriesStoreMBean {
+
+    /**
+     * Discard all the series
+     */
+    void clear();
+
+    /**
+     * @return the number of samples retained per series
+     */
+    int getCapacity();
+
+    /**
+     * @return an estimate, in bytes, of the memory held by the series
+     */
+    long getFootprint();
+
+    /**
+     * @return the maximum number of series
+     */
+    int getMaxSeries();
+
+    /**
+     * @return the number of samples refused because the maximum number of
+     *         series was reached
+     */
+    long getRejected();
+
+    /**
+     * @return the time, in milliseconds, after its last sample at which a
+     *         series is discarded, or 0 if series are never discarded
+     */
+    long getRetention();
+
+    /**
+     * @return the number of series
+     */
+    int getSeriesCount();
+
+    /**
+     * @return true if the samples are held in compressed chunks
+     */
+    boolean isCompressed();
+
+    /**
+     * Answer the samples of all the series of an attribute of the MBeans
+     * matching a pattern
+     * 
+     * @param sourcePattern
+     *            - the pattern of the MBeans, as named in the source
+     *            <tt>MBeanServer</tt>s
+     * @param attribute
+     *            - the attribute, or null for all the attributes
+     * @param fromMillis
+     *            - the earliest time, inclusive
+     * @param toMillis
+     *            - the latest time, inclusive
+     * @return the matching series
+     */
+    TimeSeries[] query(ObjectName sourcePattern, String attribute,
+                       long fromMillis, long toMillis);
+
+    /**
+     * Answer the samples of one series
+     * 
+     * @param node
+     *            - the cascaded node of the MBean
+     * @param name
+     *            - the name of the MBean in the source <tt>MBeanServer</tt>
+     * @param attribute
+     *            - the attribute
+     * @param fromMillis
+     *            - the earliest time, inclusive
+     * @param toMillis
+     *            - the latest time, inclusive
+     * @return the series, or null if there is no such series
+     */
+    TimeSeries query(String node, ObjectName name, String attribute,
+                     long fromMillis, long toMillis);
+
+    /**
+     * Discard one series
+     * 
+     * @return true if the series existed
+     */
+    boolean remove(String node, ObjectName name, String attribute);
+
+    /**
+     * Set the time after its last sample at which a series is discarded
+     * 
+     * @param millis
+     *            - the retention, or 0 to never discard a series
+     */
+    void setRetention(long millis);
+}
@@ -0,0 +1,390 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.limit;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * An adaptive limit of the number of operations in flight on one source
+ * connection, driven by their observed round trip time.
+ * <p>
+ * The round trip times are averaged over windows of {@value #WINDOW}
+ * operations. At the end of each window the average is compared with the no
+ * load round trip time of the source: as long as it is within a tolerance of
+ * {@value #TOLERANCE} times the no load round trip time, the source is taken
+ * to have spare capacity and the limit grows by about the square root of the
+ * limit; beyond the tolerance, requests are queueing in the source and the
+ * limit shrinks in proportion to the inflation of the round trip time, by at
+ * most half. The changes are smoothed, and the limit does not grow unless at
+ * least half of it was used during the window, so that an idle connection
+ * keeps its limit. The limit thus settles at the concurrency which maximizes
+ * the throughput of the source without inflating its latency.
+ * </p>
+ * <p>
+ * The no load round trip time is the lowest window average, and is measured
+ * afresh every {@value #PROBE_WINDOWS} windows - and for the first window -
+ * by lowering the limit to {@value #PROBE_LIMIT} for one window, so that it
+ * follows a source which became slower without mistaking a standing queue in
+ * the source for its no load latency. The probe is skipped while the round
+ * trip time is within the tolerance, as the source is not queueing then.
+ * </p>
+ * <p>
+ * Operations beyond the limit wait for an operation in flight to complete,
+ * for at most <var>maxWaitMillis</var>; beyond that they fail rather than
+ * stall their caller.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class AdaptiveLimit implements AdaptiveLimitMBean {
+    public static final int     DEFAULT_INITIAL_LIMIT = 16;
+    public static final int     DEFAULT_MAX_LIMIT     = 256;
+    public static final long    DEFAULT_MAX_WAIT      = 5000;
+    public static final int     DEFAULT_MIN_LIMIT     = 1;
+
+    private static final int    PROBE_LIMIT           = 4;
+
+    private static final int    PROBE_WINDOWS         = 100;
+
+    // The weight of a new limit against the current one
+    //
+    private static final double SMOOTHING             = 0.2;
+
+    private static final double TOLERANCE             = 1.5;
+
+    private static final int    WINDOW                = 16;
+
+    /**
+     * Answer the name of the limit MBean of the mount point
+     */
+    public static ObjectName objectNameOf(String mountPointID) {
+        try {
+            return new ObjectName(
+                                  String.format("com.hellblazer.jmx.cascading:type=ConcurrencyLimit,mountPoint=%s",
+                                                ObjectName.quote(mountPointID)));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid mount point ID %s",
+                                                             mountPointID), e);
+        }
+    }
+
+    private final Condition     available;
+    private double              estimate;
+    private int                 inFlight;
+    private volatile int        limit;
+    private final ReentrantLock lock                  = new ReentrantLock();
+    private volatile int        maxLimit;
+    private volatile long       maxWaitMillis         = DEFAULT_MAX_WAIT;
+    private volatile int        minLimit;
+    private double              noLoadRtt;
+    private boolean             probing;
+    private long                probeStart;
+    private long                rejected;
+    private double              rtt;
+    private long                throttled;
+    private int                 windows;
+    private int                 windowMaxInFlight;
+    private int                 windowSamples;
+    private long                windowSum;
+
+    public AdaptiveLimit() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param initialLimit
+     *            - the limit after the first window
+     * @param minLimit
+     *            - the minimum limit
+     * @param maxLimit
+     *            - the maximum limit
+     */
+    public AdaptiveLimit(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit
+            || initialLimit > maxLimit) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid limits: %s <= %s <= %s",
+                                                             minLimit,
+                                                             initialLimit,
+                                                             maxLimit));
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        estimate = initialLimit;
+        available = lock.newCondition();
+        probe();
+    }
+
+    /**
+     * Wait until the number of operations in flight is below the limit, and
+     * count one more
+     * 
+     * @return the start of the operation, in terms of
+     *         {@link System#nanoTime()}, to pass to {@link #release(long)}
+     * @throws InterruptedIOException
+     *             if interrupted while waiting
+     * @throws IOException
+     *             if the number of operations in flight did not fall below
+     *             the limit within <var>maxWaitMillis</var>
+     */
+    public long acquire() throws IOException {
+        lock.lock();
+        try {
+            if (inFlight >= limit) {
+                throttled++;
+                long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+                while (inFlight >= limit) {
+                    if (remaining <= 0) {
+                        rejected++;
+                        throw new IOException(
+                                              String.format("%s operations in flight, waited %s ms for one to complete",
+                                                            inFlight,
+                                                            maxWaitMillis));
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+            }
+            inFlight++;
+            if (inFlight > windowMaxInFlight) {
+                windowMaxInFlight = inFlight;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                                             "Interrupted while waiting for the concurrency limit");
+        } finally {
+            lock.unlock();
+        }
+        return nanoTime();
+    }
+
+    @Override
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    @Override
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    @Override
+    public long getNoLoadRttMicros() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMicros((long) noLoadRtt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRejected() {
+        lock.lock();
+        try {
+            return rejected;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getRttMicros() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMicros((long) rtt);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getThrottled() {
+        lock.lock();
+        try {
+            return throttled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Count the completion of an operation, successful or not, and sample its
+     * round trip time
+     * 
+     * @param start
+     *            - the start of the operation answered by {@link #acquire()}
+     */
+    public void release(long start) {
+        final long sample = nanoTime() - start;
+        lock.lock();
+        try {
+            inFlight--;
+            if (!probing || start - probeStart >= 0) {
+                windowSum += sample;
+                windowSamples++;
+                if (windowSamples >= WINDOW) {
+                    adjust();
+                }
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setMaxLimit(int max) {
+        lock.lock();
+        try {
+            if (max < minLimit) {
+                throw new IllegalArgumentException(
+                                                   String.format("The maximum limit %s is below the minimum %s",
+                                                                 max, minLimit));
+            }
+            maxLimit = max;
+            update(Math.min(estimate, max));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setMaxWaitMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException(
+                                               String.format("The maximum wait %s is negative",
+                                                             millis));
+        }
+        maxWaitMillis = millis;
+    }
+
+    @Override
+    public void setMinLimit(int min) {
+        lock.lock();
+        try {
+            if (min < 1 || min > maxLimit) {
+                throw new IllegalArgumentException(
+                                                   String.format("The minimum limit %s is not within [1, %s]",
+                                                                 min, maxLimit));
+            }
+            minLimit = min;
+            update(Math.max(estimate, min));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AdaptiveLimit [limit=%s, inFlight=%s]", limit,
+                             getInFlight());
+    }
+
+    // Ends the window, adjusting the limit to the gradient of the round trip
+    // time
+    //
+    private void adjust() {
+        rtt = (double) windowSum / windowSamples;
+        final int used = windowMaxInFlight;
+        windowSum = 0;
+        windowSamples = 0;
+        windowMaxInFlight = inFlight;
+        if (probing) {
+            probing = false;
+            noLoadRtt = rtt;
+            update(estimate);
+            return;
+        }
+        if (rtt < noLoadRtt) {
+            noLoadRtt = rtt;
+        }
+        final double gradient = Math.max(0.5,
+                                         Math.min(1.0, TOLERANCE * noLoadRtt
+                                                       / rtt));
+        if (gradient < 1.0 || used >= estimate / 2) {
+            final double target = estimate * gradient + Math.sqrt(estimate);
+            update(estimate * (1 - SMOOTHING) + target * SMOOTHING);
+        }
+        if (++windows >= PROBE_WINDOWS) {
+            if (gradient < 1.0) {
+                probe();
+            } else {
+                // the source is not queueing: the no load round trip time
+                // still holds
+                windows = 0;
+            }
+        }
+    }
+
+    // Lowers the limit for the next window, whose operations measure the no
+    // load round trip time; the operations already in flight are not sampled
+    //
+    private void probe() {
+        windows = 0;
+        probing = true;
+        probeStart = nanoTime();
+        windowSum = 0;
+        windowSamples = 0;
+        limit = Math.max(minLimit, Math.min(PROBE_LIMIT, (int) estimate));
+    }
+
+    // The clock of the round trip times
+    //
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void update(double next) {
+        estimate = Math.max(minLimit, Math.min(maxLimit, next));
+        if (probing) {
+            return;
+        }
+        final int previous = limit;
+        limit = (int) estimate;
+        if (limit > previous) {
+            available.signalAll();
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.limit;
+
+/**
+ * The management interface of an {@link AdaptiveLimit}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface AdaptiveLimitMBean {
+
+    /**
+     * @return the number of operations in flight
+     */
+    int getInFlight();
+
+    /**
+     * @return the current limit of the number of operations in flight
+     */
+    int getLimit();
+
+    /**
+     * @return the maximum limit
+     */
+    int getMaxLimit();
+
+    /**
+     * @return the longest time, in milliseconds, an operation waits for the
+     *         number of operations in flight to fall below the limit before
+     *         failing
+     */
+    long getMaxWaitMillis();
+
+    /**
+     * @return the minimum limit
+     */
+    int getMinLimit();
+
+    /**
+     * @return the no load round trip time, in microseconds, against which the
+     *         round trip time of each window is compared
+     */
+    long getNoLoadRttMicros();
+
+    /**
+     * @return the number of operations which failed because the number of
+     *         operations in flight did not fall below the limit in time
+     */
+    long getRejected();
+
+    /**
+     * @return the average round trip time of the last window of operations,
+     *         in microseconds
+     */
+    long getRttMicros();
+
+    /**
+     * @return the number of operations which waited for the number of
+     *         operations in flight to fall below the limit
+     */
+    long getThrottled();
+
+    /**
+     * @param max
+     *            - the maximum limit
+     */
+    void setMaxLimit(int max);
+
+    /**
+     * @param millis
+     *            - the longest time an operation waits for the limit
+     */
+    void setMaxWaitMillis(long millis);
+
+    /**
+     * @param min
+     *            - the minimum limit
+     */
+    void setMinLimit(int min);
+}
@@ -0,0 +1,410 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.limit;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+/**
+ * An <tt>MBeanServerConnection</tt> which bounds the number of operations in
+ * flight on the underlying connection by an {@link AdaptiveLimit}, and feeds
+ * it the round trip time of every operation.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class LimitedMBeanServerConnection implements MBeanServerConnection {
+    private final MBeanServerConnection delegate;
+    private final AdaptiveLimit         limit;
+
+    public LimitedMBeanServerConnection(MBeanServerConnection delegate,
+                                        AdaptiveLimit limit) {
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    @Override
+    public void addNotificationListener(ObjectName name,
+                                        NotificationListener listener,
+                                        NotificationFilter filter,
+                                        Object handback)
+                                                        throws InstanceNotFoundException,
+                                                        IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.addNotificationListener(name, listener, filter, handback);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void addNotificationListener(ObjectName name, ObjectName listener,
+                                        NotificationFilter filter,
+                                        Object handback)
+                                                        throws InstanceNotFoundException,
+                                                        IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.addNotificationListener(name, listener, filter, handback);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name)
+                                                                        throws ReflectionException,
+                                                                        InstanceAlreadyExistsException,
+                                                                        MBeanRegistrationException,
+                                                                        MBeanException,
+                                                                        NotCompliantMBeanException,
+                                                                        IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.createMBean(className, name);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name,
+                                      ObjectName loaderName)
+                                                            throws ReflectionException,
+                                                            InstanceAlreadyExistsException,
+                                                            MBeanRegistrationException,
+                                                            MBeanException,
+                                                            NotCompliantMBeanException,
+                                                            InstanceNotFoundException,
+                                                            IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.createMBean(className, name, loaderName);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name,
+                                      Object[] params, String[] signature)
+                                                                          throws ReflectionException,
+                                                                          InstanceAlreadyExistsException,
+                                                                          MBeanRegistrationException,
+                                                                          MBeanException,
+                                                                          NotCompliantMBeanException,
+                                                                          IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.createMBean(className, name, params, signature);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name,
+                                      ObjectName loaderName, Object[] params,
+                                      String[] signature)
+                                                         throws ReflectionException,
+                                                         InstanceAlreadyExistsException,
+                                                         MBeanRegistrationException,
+                                                         MBeanException,
+                                                         NotCompliantMBeanException,
+                                                         InstanceNotFoundException,
+                                                         IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.createMBean(className, name, loaderName, params,
+                                        signature);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public Object getAttribute(ObjectName name, String attribute)
+                                                                 throws MBeanException,
+                                                                 AttributeNotFoundException,
+                                                                 InstanceNotFoundException,
+                                                                 ReflectionException,
+                                                                 IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getAttribute(name, attribute);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(ObjectName name, String[] attributes)
+                                                                            throws InstanceNotFoundException,
+                                                                            ReflectionException,
+                                                                            IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getAttributes(name, attributes);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public String getDefaultDomain() throws IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getDefaultDomain();
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public String[] getDomains() throws IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getDomains();
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public Integer getMBeanCount() throws IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getMBeanCount();
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo(ObjectName name)
+                                                  throws InstanceNotFoundException,
+                                                  IntrospectionException,
+                                                  ReflectionException,
+                                                  IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getMBeanInfo(name);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public ObjectInstance getObjectInstance(ObjectName name)
+                                                            throws InstanceNotFoundException,
+                                                            IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.getObjectInstance(name);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public Object invoke(ObjectName name, String operationName, Object[] params,
+                         String[] signature)
+                                            throws InstanceNotFoundException,
+                                            MBeanException,
+                                            ReflectionException,
+                                            IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.invoke(name, operationName, params, signature);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public boolean isInstanceOf(ObjectName name, String className)
+                                                                  throws InstanceNotFoundException,
+                                                                  IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.isInstanceOf(name, className);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public boolean isRegistered(ObjectName name) throws IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.isRegistered(name);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query)
+                                                                           throws IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.queryMBeans(name, query);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public Set<ObjectName> queryNames(ObjectName name, QueryExp query)
+                                                                      throws IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.queryNames(name, query);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name, ObjectName listener)
+                                                                                throws InstanceNotFoundException,
+                                                                                ListenerNotFoundException,
+                                                                                IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.removeNotificationListener(name, listener);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name, ObjectName listener,
+                                           NotificationFilter filter,
+                                           Object handback)
+                                                           throws InstanceNotFoundException,
+                                                           ListenerNotFoundException,
+                                                           IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.removeNotificationListener(name, listener, filter,
+                                                handback);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name,
+                                           NotificationListener listener)
+                                                                         throws InstanceNotFoundException,
+                                                                         ListenerNotFoundException,
+                                                                         IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.removeNotificationListener(name, listener);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name,
+                                           NotificationListener listener,
+                                           NotificationFilter filter,
+                                           Object handback)
+                                                           throws InstanceNotFoundException,
+                                                           ListenerNotFoundException,
+                                                           IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.removeNotificationListener(name, listener, filter,
+                                                handback);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void setAttribute(ObjectName name, Attribute attribute)
+                                                                  throws InstanceNotFoundException,
+                                                                  AttributeNotFoundException,
+                                                                  InvalidAttributeValueException,
+                                                                  MBeanException,
+                                                                  ReflectionException,
+                                                                  IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.setAttribute(name, attribute);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public AttributeList setAttributes(ObjectName name,
+                                       AttributeList attributes)
+                                                                throws InstanceNotFoundException,
+                                                                ReflectionException,
+                                                                IOException {
+        final long start = limit.acquire();
+        try {
+            return delegate.setAttributes(name, attributes);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    @Override
+    public void unregisterMBean(ObjectName name)
+                                                throws InstanceNotFoundException,
+                                                MBeanRegistrationException,
+                                                IOException {
+        final long start = limit.acquire();
+        try {
+            delegate.unregisterMBean(name);
+        } finally {
+            limit.release(start);
+        }
+    }
+
+    /**
+     * @return the underlying connection
+     */
+    public MBeanServerConnection getDelegate() {
+        return delegate;
+    }
+}
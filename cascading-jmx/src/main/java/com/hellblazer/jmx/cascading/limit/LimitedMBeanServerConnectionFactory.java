@@ -0,0 +1,140 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.limit;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+
+import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
+
+/**
+ * An {@link MBeanServerConnectionFactory} decorator whose connections bound
+ * the number of remote operations in flight by an {@link AdaptiveLimit}.
+ * <p>
+ * The factory hands out the same {@link LimitedMBeanServerConnection} for as
+ * long as the underlying factory hands out the same connection, and the limit
+ * survives reconnections.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class LimitedMBeanServerConnectionFactory implements
+        MBeanServerConnectionFactory, Closeable {
+
+    /**
+     * Answer the limit of the factory, or null if the factory is not limited
+     */
+    public static AdaptiveLimit limitOf(MBeanServerConnectionFactory factory) {
+        if (factory instanceof LimitedMBeanServerConnectionFactory) {
+            return ((LimitedMBeanServerConnectionFactory) factory).getLimit();
+        }
+        return null;
+    }
+
+    private final AtomicReference<LimitedMBeanServerConnection> current = new AtomicReference<LimitedMBeanServerConnection>();
+    private final MBeanServerConnectionFactory                  delegate;
+    private final AdaptiveLimit                                 limit;
+
+    public LimitedMBeanServerConnectionFactory(MBeanServerConnectionFactory delegate,
+                                               AdaptiveLimit limit) {
+        this.delegate = delegate;
+        this.limit = limit;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void addConnectionNotificationListener(NotificationListener listener,
+                                                  NotificationFilter filter,
+                                                  Object handback) {
+        delegate.addConnectionNotificationListener(listener, filter, handback);
+    }
+
+    /**
+     * Closes the underlying factory, if it is {@link Closeable}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public String getConnectionId() throws IOException {
+        return delegate.getConnectionId();
+    }
+
+    /**
+     * @return the underlying factory
+     */
+    public MBeanServerConnectionFactory getDelegate() {
+        return delegate;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public MBeanServerConnection getMBeanServerConnection() throws IOException {
+        final MBeanServerConnection connection = delegate.getMBeanServerConnection();
+        if (connection == null) {
+            return null;
+        }
+        final LimitedMBeanServerConnection limited = current.get();
+        if (limited != null && limited.getDelegate() == connection) {
+            return limited;
+        }
+        final LimitedMBeanServerConnection update = new LimitedMBeanServerConnection(
+                                                                                     connection,
+                                                                                     limit);
+        if (current.compareAndSet(limited, update)) {
+            return update;
+        }
+        final LimitedMBeanServerConnection raced = current.get();
+        return raced != null && raced.getDelegate() == connection ? raced
+                                                                 : update;
+    }
+
+    public AdaptiveLimit getLimit() {
+        return limit;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void removeConnectionNotificationListener(NotificationListener listener)
+                                                                                   throws ListenerNotFoundException {
+        delegate.removeConnectionNotificationListener(listener);
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void removeConnectionNotificationListener(NotificationListener l,
+                                                     NotificationFilter f,
+                                                     Object handback)
+                                                                     throws ListenerNotFoundException {
+        delegate.removeConnectionNotificationListener(l, f, handback);
+    }
+}
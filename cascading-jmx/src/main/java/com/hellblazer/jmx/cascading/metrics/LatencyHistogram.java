@@ -0,0 +1,212 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies, recorded in nanoseconds.
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is divided in
+ * 2<sup><var>precision</var></sup> linear sub buckets, so that each bucket
+ * spans at most 1/2<sup><var>precision</var></sup> of the values it counts,
+ * and values below 2<sup><var>precision</var></sup> are counted exactly. A
+ * reported percentile, the highest value of its bucket, thus exceeds the
+ * recorded value by at most 1/2<sup><var>precision</var></sup> of it, over the
+ * whole range of values and for a fixed footprint: 6.25% at the default
+ * precision of {@value #DEFAULT_PRECISION}, 50% at a precision of 1. Recording
+ * a value is a handful of atomic increments, so that histograms can be
+ * updated on every remote call.
+ * </p>
+ * <p>
+ * Reads are not atomic with respect to concurrent recording: a percentile
+ * computed while values are being recorded may reflect some of them and not
+ * others.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class LatencyHistogram {
+    /**
+     * The default number of bits of the sub buckets
+     */
+    public static final int       DEFAULT_PRECISION = 4;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong      count             = new AtomicLong();
+    private final AtomicLong      max               = new AtomicLong();
+    private final int             subBucketBits;
+    private final int             subBuckets;
+    private final AtomicLong      total             = new AtomicLong();
+
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision
+     *            - the number of bits of the sub buckets, between 0 and 8
+     */
+    public LatencyHistogram(int precision) {
+        if (precision < 0 || precision > 8) {
+            throw new IllegalArgumentException(
+                                               "Precision must be between 0 and 8: "
+                                                       + precision);
+        }
+        subBucketBits = precision;
+        subBuckets = 1 << precision;
+        buckets = new AtomicLongArray((63 - subBucketBits + 1) * subBuckets);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest recorded value, in nanoseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, in nanoseconds
+     */
+    public double getMean() {
+        final long n = count.get();
+        return n == 0 ? 0.0 : (double) total.get() / n;
+    }
+
+    /**
+     * Answer the value below which the given fraction of the recorded values
+     * fall, in nanoseconds.
+     * 
+     * @param fraction
+     *            - the percentile, between 0 and 1: 0.99 for the 99th
+     *            percentile
+     * @return the percentile, or 0 if no value was recorded
+     */
+    public long getPercentile(double fraction) {
+        long n = 0;
+        final long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < buckets.length(); i++) {
+            snapshot[i] = buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1,
+                                   (long) Math.ceil(Math.min(1.0,
+                                                             Math.max(0.0,
+                                                                      fraction))
+                                                    * n));
+        long seen = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return the sum of the recorded values, in nanoseconds
+     */
+    public long getTotal() {
+        return total.get();
+    }
+
+    /**
+     * Record a latency
+     * 
+     * @param nanos
+     *            - the latency, in nanoseconds. Negative values are recorded
+     *            as 0
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Record a latency
+     * 
+     * @param duration
+     *            - the latency
+     * @param unit
+     *            - the unit of the latency
+     */
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toNanos(duration));
+    }
+
+    /**
+     * Clear all the recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Answer the index of the bucket counting the value
+     */
+    int bucketOf(long value) {
+        if (value < subBuckets) {
+            return (int) Math.max(0, value);
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - subBucketBits;
+        return (shift + 1) * subBuckets
+               + (int) ((value >>> shift) & (subBuckets - 1));
+    }
+
+    /**
+     * Answer the highest value counted by the bucket
+     */
+    long highestValueOf(int bucket) {
+        if (bucket < subBuckets) {
+            return bucket;
+        }
+        final int shift = bucket / subBuckets - 1;
+        final long sub = bucket % subBuckets;
+        return ((subBuckets + sub + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram [count=%s, mean=%.0fns, p50=%sns, p99=%sns, max=%sns]",
+                             getCount(), getMean(), getPercentile(0.5),
+                             getPercentile(0.99), getMax());
+    }
+}
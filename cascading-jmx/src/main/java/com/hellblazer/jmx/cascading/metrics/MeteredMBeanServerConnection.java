@@ -0,0 +1,512 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.io.IOException;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.IntrospectionException;
+import javax.management.InvalidAttributeValueException;
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotCompliantMBeanException;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectInstance;
+import javax.management.ObjectName;
+import javax.management.QueryExp;
+import javax.management.ReflectionException;
+
+/**
+ * An <tt>MBeanServerConnection</tt> which times every operation forwarded to
+ * the underlying connection into a {@link MountPointMetrics}. Operations which
+ * raise an exception are counted as errors.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class MeteredMBeanServerConnection implements MBeanServerConnection {
+    private final MBeanServerConnection delegate;
+    private final MountPointMetrics     metrics;
+
+    public MeteredMBeanServerConnection(MBeanServerConnection delegate,
+                                        MountPointMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void addNotificationListener(ObjectName name,
+                                        NotificationListener listener,
+                                        NotificationFilter filter,
+                                        Object handback)
+                                                        throws InstanceNotFoundException,
+                                                        IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.addNotificationListener(name, listener, filter, handback);
+            failed = false;
+        } finally {
+            metrics.record(Operation.ADD_NOTIFICATION_LISTENER, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void addNotificationListener(ObjectName name, ObjectName listener,
+                                        NotificationFilter filter,
+                                        Object handback)
+                                                        throws InstanceNotFoundException,
+                                                        IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.addNotificationListener(name, listener, filter, handback);
+            failed = false;
+        } finally {
+            metrics.record(Operation.ADD_NOTIFICATION_LISTENER, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name)
+                                                                        throws ReflectionException,
+                                                                        InstanceAlreadyExistsException,
+                                                                        MBeanRegistrationException,
+                                                                        MBeanException,
+                                                                        NotCompliantMBeanException,
+                                                                        IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ObjectInstance result = delegate.createMBean(className, name);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.CREATE_MBEAN, name, className,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name,
+                                      ObjectName loaderName)
+                                                            throws ReflectionException,
+                                                            InstanceAlreadyExistsException,
+                                                            MBeanRegistrationException,
+                                                            MBeanException,
+                                                            NotCompliantMBeanException,
+                                                            InstanceNotFoundException,
+                                                            IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ObjectInstance result = delegate.createMBean(className, name,
+                                                               loaderName);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.CREATE_MBEAN, name, className,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name,
+                                      Object[] params, String[] signature)
+                                                                          throws ReflectionException,
+                                                                          InstanceAlreadyExistsException,
+                                                                          MBeanRegistrationException,
+                                                                          MBeanException,
+                                                                          NotCompliantMBeanException,
+                                                                          IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ObjectInstance result = delegate.createMBean(className, name,
+                                                               params,
+                                                               signature);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.CREATE_MBEAN, name, className,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ObjectInstance createMBean(String className, ObjectName name,
+                                      ObjectName loaderName, Object[] params,
+                                      String[] signature)
+                                                         throws ReflectionException,
+                                                         InstanceAlreadyExistsException,
+                                                         MBeanRegistrationException,
+                                                         MBeanException,
+                                                         NotCompliantMBeanException,
+                                                         InstanceNotFoundException,
+                                                         IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ObjectInstance result = delegate.createMBean(className, name,
+                                                               loaderName,
+                                                               params,
+                                                               signature);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.CREATE_MBEAN, name, className,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public Object getAttribute(ObjectName name, String attribute)
+                                                                 throws MBeanException,
+                                                                 AttributeNotFoundException,
+                                                                 InstanceNotFoundException,
+                                                                 ReflectionException,
+                                                                 IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Object result = delegate.getAttribute(name, attribute);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_ATTRIBUTE, name, attribute,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(ObjectName name, String[] attributes)
+                                                                            throws InstanceNotFoundException,
+                                                                            ReflectionException,
+                                                                            IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final AttributeList result = delegate.getAttributes(name,
+                                                                attributes);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_ATTRIBUTES, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public String getDefaultDomain() throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final String result = delegate.getDefaultDomain();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_DEFAULT_DOMAIN, null, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public String[] getDomains() throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final String[] result = delegate.getDomains();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_DOMAINS, null, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public Integer getMBeanCount() throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Integer result = delegate.getMBeanCount();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_MBEAN_COUNT, null, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo(ObjectName name)
+                                                  throws InstanceNotFoundException,
+                                                  IntrospectionException,
+                                                  ReflectionException,
+                                                  IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final MBeanInfo result = delegate.getMBeanInfo(name);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_MBEAN_INFO, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public ObjectInstance getObjectInstance(ObjectName name)
+                                                            throws InstanceNotFoundException,
+                                                            IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final ObjectInstance result = delegate.getObjectInstance(name);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.GET_OBJECT_INSTANCE, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public Object invoke(ObjectName name, String operationName, Object[] params,
+                         String[] signature)
+                                            throws InstanceNotFoundException,
+                                            MBeanException,
+                                            ReflectionException,
+                                            IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Object result = delegate.invoke(name, operationName, params,
+                                                  signature);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.INVOKE, name, operationName,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public boolean isInstanceOf(ObjectName name, String className)
+                                                                  throws InstanceNotFoundException,
+                                                                  IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final boolean result = delegate.isInstanceOf(name, className);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.IS_INSTANCE_OF, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public boolean isRegistered(ObjectName name) throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final boolean result = delegate.isRegistered(name);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.IS_REGISTERED, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public Set<ObjectInstance> queryMBeans(ObjectName name, QueryExp query)
+                                                                           throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Set<ObjectInstance> result = delegate.queryMBeans(name,
+                                                                    query);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.QUERY_MBEANS, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public Set<ObjectName> queryNames(ObjectName name, QueryExp query)
+                                                                      throws IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final Set<ObjectName> result = delegate.queryNames(name, query);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.QUERY_NAMES, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name, ObjectName listener)
+                                                                                throws InstanceNotFoundException,
+                                                                                ListenerNotFoundException,
+                                                                                IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.removeNotificationListener(name, listener);
+            failed = false;
+        } finally {
+            metrics.record(Operation.REMOVE_NOTIFICATION_LISTENER, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name, ObjectName listener,
+                                           NotificationFilter filter,
+                                           Object handback)
+                                                           throws InstanceNotFoundException,
+                                                           ListenerNotFoundException,
+                                                           IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.removeNotificationListener(name, listener, filter,
+                                                handback);
+            failed = false;
+        } finally {
+            metrics.record(Operation.REMOVE_NOTIFICATION_LISTENER, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name,
+                                           NotificationListener listener)
+                                                                         throws InstanceNotFoundException,
+                                                                         ListenerNotFoundException,
+                                                                         IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.removeNotificationListener(name, listener);
+            failed = false;
+        } finally {
+            metrics.record(Operation.REMOVE_NOTIFICATION_LISTENER, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void removeNotificationListener(ObjectName name,
+                                           NotificationListener listener,
+                                           NotificationFilter filter,
+                                           Object handback)
+                                                           throws InstanceNotFoundException,
+                                                           ListenerNotFoundException,
+                                                           IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.removeNotificationListener(name, listener, filter,
+                                                handback);
+            failed = false;
+        } finally {
+            metrics.record(Operation.REMOVE_NOTIFICATION_LISTENER, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void setAttribute(ObjectName name, Attribute attribute)
+                                                                  throws InstanceNotFoundException,
+                                                                  AttributeNotFoundException,
+                                                                  InvalidAttributeValueException,
+                                                                  MBeanException,
+                                                                  ReflectionException,
+                                                                  IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.setAttribute(name, attribute);
+            failed = false;
+        } finally {
+            metrics.record(Operation.SET_ATTRIBUTE, name,
+                           attribute == null ? null : attribute.getName(),
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public AttributeList setAttributes(ObjectName name,
+                                       AttributeList attributes)
+                                                                throws InstanceNotFoundException,
+                                                                ReflectionException,
+                                                                IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final AttributeList result = delegate.setAttributes(name,
+                                                                attributes);
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(Operation.SET_ATTRIBUTES, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public void unregisterMBean(ObjectName name)
+                                                throws InstanceNotFoundException,
+                                                MBeanRegistrationException,
+                                                IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            delegate.unregisterMBean(name);
+            failed = false;
+        } finally {
+            metrics.record(Operation.UNREGISTER_MBEAN, name, null,
+                           System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * @return the underlying connection
+     */
+    public MBeanServerConnection getDelegate() {
+        return delegate;
+    }
+}
@@ -0,0 +1,142 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+
+import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
+
+/**
+ * An {@link MBeanServerConnectionFactory} decorator whose connections time
+ * every remote operation into a {@link MountPointMetrics}.
+ * <p>
+ * The factory hands out the same {@link MeteredMBeanServerConnection} for as
+ * long as the underlying factory hands out the same connection, so that
+ * callers relying on the identity of the connection - to detect a
+ * reconnection, for instance - behave as with the underlying factory.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class MeteredMBeanServerConnectionFactory implements
+        MBeanServerConnectionFactory, Closeable {
+
+    /**
+     * Answer the metrics of the factory, or null if the factory is not
+     * metered
+     */
+    public static MountPointMetrics metricsOf(MBeanServerConnectionFactory factory) {
+        if (factory instanceof MeteredMBeanServerConnectionFactory) {
+            return ((MeteredMBeanServerConnectionFactory) factory).getMetrics();
+        }
+        return null;
+    }
+
+    private final AtomicReference<MeteredMBeanServerConnection> current = new AtomicReference<MeteredMBeanServerConnection>();
+    private final MBeanServerConnectionFactory                  delegate;
+    private final MountPointMetrics                             metrics;
+
+    public MeteredMBeanServerConnectionFactory(MBeanServerConnectionFactory delegate,
+                                               MountPointMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void addConnectionNotificationListener(NotificationListener listener,
+                                                  NotificationFilter filter,
+                                                  Object handback) {
+        delegate.addConnectionNotificationListener(listener, filter, handback);
+    }
+
+    /**
+     * Closes the underlying factory, if it is {@link Closeable}.
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public String getConnectionId() throws IOException {
+        return delegate.getConnectionId();
+    }
+
+    /**
+     * @return the underlying factory
+     */
+    public MBeanServerConnectionFactory getDelegate() {
+        return delegate;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public MBeanServerConnection getMBeanServerConnection() throws IOException {
+        final MBeanServerConnection connection = delegate.getMBeanServerConnection();
+        if (connection == null) {
+            return null;
+        }
+        final MeteredMBeanServerConnection metered = current.get();
+        if (metered != null && metered.getDelegate() == connection) {
+            return metered;
+        }
+        final MeteredMBeanServerConnection update = new MeteredMBeanServerConnection(
+                                                                                     connection,
+                                                                                     metrics);
+        if (current.compareAndSet(metered, update)) {
+            return update;
+        }
+        final MeteredMBeanServerConnection raced = current.get();
+        return raced != null && raced.getDelegate() == connection ? raced
+                                                                 : update;
+    }
+
+    public MountPointMetrics getMetrics() {
+        return metrics;
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void removeConnectionNotificationListener(NotificationListener listener)
+                                                                                   throws ListenerNotFoundException {
+        delegate.removeConnectionNotificationListener(listener);
+    }
+
+    // MBeanServerConnectionFactory
+    //
+    @Override
+    public void removeConnectionNotificationListener(NotificationListener l,
+                                                     NotificationFilter f,
+                                                     Object handback)
+                                                                     throws ListenerNotFoundException {
+        delegate.removeConnectionNotificationListener(l, f, handback);
+    }
+}
@@ -0,0 +1,227 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+/**
+ * The metrics of the remote operations issued to the source
+ * <tt>MBeanServer</tt> of one mount point. Each kind of {@link Operation} has
+ * its own {@link LatencyHistogram} and error count; recording is lock free.
+ * The calls which account for the most time are kept by a bounded
+ * {@link SlowCallTracker}, keyed by source MBean, operation and attribute.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class MountPointMetrics implements MountPointMetricsMXBean {
+    private static class Meter {
+        final AtomicLong       errors  = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+    }
+
+    private static final Operation[] OPERATIONS             = Operation.values();
+
+    /**
+     * The default number of keys of the slow call tracker
+     */
+    public static final int          DEFAULT_SLOW_CALL_KEYS = 32;
+
+    /**
+     * Answer the name of the metrics MBean of the mount point
+     */
+    public static ObjectName objectNameOf(String mountPointID) {
+        try {
+            return new ObjectName(
+                                  String.format("%s:type=MountPointMetrics,mountPoint=%s",
+                                                DOMAIN,
+                                                ObjectName.quote(mountPointID)));
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid mount point ID %s",
+                                                             mountPointID), e);
+        }
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private final Meter[]         meters = new Meter[OPERATIONS.length];
+    private final String          mountPointID;
+    private volatile long         since  = System.nanoTime();
+    private final SlowCallTracker slowCalls;
+
+    public MountPointMetrics(String mountPointID) {
+        this(mountPointID, DEFAULT_SLOW_CALL_KEYS);
+    }
+
+    /**
+     * @param mountPointID
+     *            - the metered mount point
+     * @param slowCallKeys
+     *            - the maximum number of keys of the slow call tracker
+     */
+    public MountPointMetrics(String mountPointID, int slowCallKeys) {
+        this.mountPointID = mountPointID;
+        slowCalls = new SlowCallTracker(slowCallKeys);
+        for (int i = 0; i < meters.length; i++) {
+            meters[i] = new Meter();
+        }
+    }
+
+    /**
+     * @return the latency histogram of the kind of operation
+     */
+    public LatencyHistogram getLatency(Operation operation) {
+        return meters[operation.ordinal()].latency;
+    }
+
+    @Override
+    public String getMountPointID() {
+        return mountPointID;
+    }
+
+    @Override
+    public OperationStats[] getOperationStats() {
+        final List<OperationStats> stats = new ArrayList<OperationStats>();
+        for (Operation operation : OPERATIONS) {
+            if (meters[operation.ordinal()].latency.getCount() > 0) {
+                stats.add(statsOf(operation));
+            }
+        }
+        return stats.toArray(new OperationStats[stats.size()]);
+    }
+
+    @Override
+    public int getSlowCallCapacity() {
+        return slowCalls.getCapacity();
+    }
+
+    /**
+     * @return the tracker of the slowest calls
+     */
+    public SlowCallTracker getSlowCalls() {
+        return slowCalls;
+    }
+
+    @Override
+    public long getTotalErrors() {
+        long total = 0;
+        for (Meter meter : meters) {
+            total += meter.errors.get();
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalOperations() {
+        long total = 0;
+        for (Meter meter : meters) {
+            total += meter.latency.getCount();
+        }
+        return total;
+    }
+
+    @Override
+    public OperationStats operationStats(String operation) {
+        return statsOf(Operation.valueOf(operation));
+    }
+
+    /**
+     * Record the outcome of an operation
+     * 
+     * @param operation
+     *            - the kind of operation
+     * @param nanos
+     *            - the latency of the operation
+     * @param failed
+     *            - true if the operation raised an exception
+     */
+    public void record(Operation operation, long nanos, boolean failed) {
+        final Meter meter = meters[operation.ordinal()];
+        meter.latency.record(nanos);
+        if (failed) {
+            meter.errors.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record the outcome of an operation on an MBean of the source
+     * <tt>MBeanServer</tt>, tracking its latency per MBean as well
+     * 
+     * @param operation
+     *            - the kind of operation
+     * @param name
+     *            - the source MBean, or null
+     * @param attribute
+     *            - the attribute, the invoked operation, or null
+     * @param nanos
+     *            - the latency of the operation
+     * @param failed
+     *            - true if the operation raised an exception
+     */
+    public void record(Operation operation, ObjectName name, String attribute,
+                       long nanos, boolean failed) {
+        record(operation, nanos, failed);
+        slowCalls.record(name, operation, attribute, nanos);
+    }
+
+    @Override
+    public void reset() {
+        for (Meter meter : meters) {
+            meter.latency.reset();
+            meter.errors.set(0);
+        }
+        slowCalls.reset();
+        since = System.nanoTime();
+    }
+
+    @Override
+    public void resetSlowCalls() {
+        slowCalls.reset();
+    }
+
+    @Override
+    public SlowCall[] topByP99(int n) {
+        return slowCalls.topByP99(n);
+    }
+
+    @Override
+    public SlowCall[] topByTotalTime(int n) {
+        return slowCalls.topByTotalTime(n);
+    }
+
+    private OperationStats statsOf(Operation operation) {
+        final Meter meter = meters[operation.ordinal()];
+        final LatencyHistogram latency = meter.latency;
+        final long count = latency.getCount();
+        final double seconds = (System.nanoTime() - since) / 1.0e9;
+        return new OperationStats(operation.name(), count, meter.errors.get(),
+                                  seconds <= 0 ? 0 : count / seconds,
+                                  latency.getMean() / 1000.0,
+                                  micros(latency.getPercentile(0.5)),
+                                  micros(latency.getPercentile(0.9)),
+                                  micros(latency.getPercentile(0.99)),
+                                  micros(latency.getPercentile(0.999)),
+                                  micros(latency.getMax()));
+    }
+}
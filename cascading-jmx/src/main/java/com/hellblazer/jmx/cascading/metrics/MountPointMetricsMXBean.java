@@ -0,0 +1,90 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+/**
+ * The latency and throughput of the remote operations issued to the source
+ * <tt>MBeanServer</tt> of one mount point, per kind of {@link Operation}.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface MountPointMetricsMXBean {
+
+    /**
+     * The domain of the <tt>ObjectName</tt>s of the metrics MBeans
+     */
+    String DOMAIN = "com.hellblazer.jmx.cascading";
+
+    /**
+     * @return the <var>mountPointID</var> of the metered mount point
+     */
+    String getMountPointID();
+
+    /**
+     * @return the statistics of each kind of operation issued at least once
+     *         since the last reset
+     */
+    OperationStats[] getOperationStats();
+
+    /**
+     * @return the maximum number of (source MBean, operation, attribute) keys
+     *         tracked for the slow call log
+     */
+    int getSlowCallCapacity();
+
+    /**
+     * @return the total number of failed operations since the last reset
+     */
+    long getTotalErrors();
+
+    /**
+     * @return the total number of operations since the last reset
+     */
+    long getTotalOperations();
+
+    /**
+     * @param operation
+     *            - the name of an {@link Operation}
+     * @return the statistics of that kind of operation
+     */
+    OperationStats operationStats(String operation);
+
+    /**
+     * Clear all the statistics, including the slow call log
+     */
+    void reset();
+
+    /**
+     * Clear the slow call log
+     */
+    void resetSlowCalls();
+
+    /**
+     * @param n
+     *            - the maximum number of calls to answer
+     * @return the tracked (source MBean, operation, attribute) keys with the
+     *         highest 99th percentile latency, slowest first
+     */
+    SlowCall[] topByP99(int n);
+
+    /**
+     * @param n
+     *            - the maximum number of calls to answer
+     * @return the tracked (source MBean, operation, attribute) keys which
+     *         account for the most time spent in calls, slowest first
+     */
+    SlowCall[] topByTotalTime(int n);
+}
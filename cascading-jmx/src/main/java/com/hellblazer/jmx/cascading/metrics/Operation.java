@@ -0,0 +1,37 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+/**
+ * The kinds of remote operations issued to a source <tt>MBeanServer</tt>,
+ * which are metered separately.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public enum Operation {
+    ADD_NOTIFICATION_LISTENER, CREATE_MBEAN, GET_ATTRIBUTE, GET_ATTRIBUTES,
+    GET_DEFAULT_DOMAIN, GET_DOMAINS, GET_MBEAN_COUNT, GET_MBEAN_INFO,
+    GET_OBJECT_INSTANCE, INVOKE, IS_INSTANCE_OF, IS_REGISTERED,
+
+    /**
+     * The delivery of a notification forwarded from the source
+     * <tt>MBeanServer</tt> to the local listeners
+     */
+    NOTIFICATION,
+
+    QUERY_MBEANS, QUERY_NAMES, REMOVE_NOTIFICATION_LISTENER, SET_ATTRIBUTE,
+    SET_ATTRIBUTES, UNREGISTER_MBEAN;
+}
@@ -0,0 +1,111 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * A snapshot of the statistics of one kind of {@link Operation}, as published
+ * by the {@link MountPointMetricsMXBean}, or of the health checks of a
+ * connection. Latencies are in microseconds.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class OperationStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long   count;
+    private final long   errors;
+    private final long   maxMicros;
+    private final double meanMicros;
+    private final String operation;
+    private final long   p50Micros;
+    private final long   p90Micros;
+    private final long   p999Micros;
+    private final long   p99Micros;
+    private final double ratePerSecond;
+
+    @ConstructorProperties({ "operation", "count", "errors", "ratePerSecond",
+            "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros",
+            "maxMicros" })
+    public OperationStats(String operation, long count, long errors,
+                          double ratePerSecond, double meanMicros,
+                          long p50Micros, long p90Micros, long p99Micros,
+                          long p999Micros, long maxMicros) {
+        this.operation = operation;
+        this.count = count;
+        this.errors = errors;
+        this.ratePerSecond = ratePerSecond;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p90Micros = p90Micros;
+        this.p99Micros = p99Micros;
+        this.p999Micros = p999Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP90Micros() {
+        return p90Micros;
+    }
+
+    public long getP999Micros() {
+        return p999Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    /**
+     * @return the mean number of operations per second since the statistics
+     *         were last reset
+     */
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [count=%s, errors=%s, rate=%.1f/s, mean=%.0fus, p50=%sus, p99=%sus, max=%sus]",
+                             operation, count, errors, ratePerSecond,
+                             meanMicros, p50Micros, p99Micros, maxMicros);
+    }
+}
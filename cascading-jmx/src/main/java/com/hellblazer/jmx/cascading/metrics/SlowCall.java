@@ -0,0 +1,99 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * The statistics of the calls of one (source <tt>ObjectName</tt>, operation,
+ * attribute) key, as reported by a {@link SlowCallTracker}. Latencies are in
+ * microseconds.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class SlowCall {
+    private final String attribute;
+    private final long   count;
+    private final long   maxMicros;
+    private final double meanMicros;
+    private final String objectName;
+    private final String operation;
+    private final long   p99Micros;
+    private final long   totalMicros;
+
+    @ConstructorProperties({ "objectName", "operation", "attribute", "count",
+            "totalMicros", "meanMicros", "p99Micros", "maxMicros" })
+    public SlowCall(String objectName, String operation, String attribute,
+                    long count, long totalMicros, double meanMicros,
+                    long p99Micros, long maxMicros) {
+        this.objectName = objectName;
+        this.operation = operation;
+        this.attribute = attribute;
+        this.count = count;
+        this.totalMicros = totalMicros;
+        this.meanMicros = meanMicros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+    }
+
+    /**
+     * @return the attribute read or written, or the name of the invoked
+     *         operation, or null
+     */
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public double getMeanMicros() {
+        return meanMicros;
+    }
+
+    /**
+     * @return the name of the source MBean, or null
+     */
+    public String getObjectName() {
+        return objectName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getTotalMicros() {
+        return totalMicros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s %s [count=%s, total=%sus, mean=%.0fus, p99=%sus, max=%sus]",
+                             objectName, operation, attribute == null ? ""
+                                                                     : attribute,
+                             count, totalMicros, meanMicros, p99Micros,
+                             maxMicros);
+    }
+}
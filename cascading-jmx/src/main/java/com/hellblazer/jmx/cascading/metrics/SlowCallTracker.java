@@ -0,0 +1,341 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.ObjectName;
+
+/**
+ * A bounded tracker of the (source <tt>ObjectName</tt>, operation, attribute)
+ * keys which account for the most time spent in remote calls, so that the few
+ * MBeans which take seconds to answer - thread dumps, diagnostic commands -
+ * can be told apart from the rest.
+ * <p>
+ * At most <var>capacity</var> keys are tracked, each with a coarse
+ * {@link LatencyHistogram} of {@value #PRECISION} bit precision - about 1K per
+ * key. Recording the call of a tracked key is lock free. When a call of an
+ * untracked key is recorded while the tracker is full, the key with the least
+ * recent time is evicted in its favor, provided that call alone took longer
+ * than that time; otherwise the call is ignored. Keys which are slow,
+ * frequent, or both, thus stay in the tracker, while occasional fast calls
+ * cost a map lookup and a comparison with the cached least recent time.
+ * </p>
+ * <p>
+ * The recent time of a key is the time spent in its calls, halved every
+ * <var>window</var>, so that keys which were slow long ago make way for the
+ * keys which are slow now. The histograms of the tracked keys are not
+ * decayed.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class SlowCallTracker {
+    // A tracked key
+    //
+    private static class Entry {
+        final LatencyHistogram histogram = new LatencyHistogram(PRECISION);
+        final AtomicLong       recent    = new AtomicLong();
+
+        void record(long nanos) {
+            histogram.record(nanos);
+            recent.addAndGet(nanos);
+        }
+
+        void decay() {
+            for (;;) {
+                final long current = recent.get();
+                if (recent.compareAndSet(current, current / 2)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Key {
+        final String     attribute;
+        final int        hash;
+        final ObjectName name;
+        final Operation  operation;
+
+        Key(ObjectName name, Operation operation, String attribute) {
+            this.name = name;
+            this.operation = operation;
+            this.attribute = attribute;
+            int h = operation.hashCode();
+            h = 31 * h + (name == null ? 0 : name.hashCode());
+            h = 31 * h + (attribute == null ? 0 : attribute.hashCode());
+            hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return hash == other.hash
+                   && operation == other.operation
+                   && (name == null ? other.name == null
+                                   : name.equals(other.name))
+                   && (attribute == null ? other.attribute == null
+                                        : attribute.equals(other.attribute));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final Comparator<SlowCall> BY_P99   = new Comparator<SlowCall>() {
+                                                           @Override
+                                                           public int compare(SlowCall a,
+                                                                              SlowCall b) {
+                                                               return Long.compare(b.getP99Micros(),
+                                                                                   a.getP99Micros());
+                                                           }
+                                                       };
+
+    private static final Comparator<SlowCall> BY_TOTAL = new Comparator<SlowCall>() {
+                                                           @Override
+                                                           public int compare(SlowCall a,
+                                                                              SlowCall b) {
+                                                               return Long.compare(b.getTotalMicros(),
+                                                                                   a.getTotalMicros());
+                                                           }
+                                                       };
+
+    /**
+     * The default interval after which the recent time of the tracked keys is
+     * halved, in milliseconds
+     */
+    public static final long                  DEFAULT_WINDOW = 60000;
+
+    /**
+     * The precision of the histograms of the tracked keys
+     */
+    public static final int                   PRECISION = 1;
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private final int                           capacity;
+    private volatile long                       lastDecay;
+    private final ReentrantLock                 lock      = new ReentrantLock();
+    // The least recent time of the tracked keys when the tracker is full, 0
+    // otherwise. Recent times only grow between decays, so a call which took
+    // no longer than this cannot be admitted.
+    private volatile long                       threshold = 0;
+    private final ConcurrentHashMap<Key, Entry> tracked   = new ConcurrentHashMap<Key, Entry>();
+    private final long                          windowNanos;
+
+    /**
+     * @param capacity
+     *            - the maximum number of tracked keys
+     */
+    public SlowCallTracker(int capacity) {
+        this(capacity, DEFAULT_WINDOW, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param capacity
+     *            - the maximum number of tracked keys
+     * @param window
+     *            - the interval after which the recent time of the tracked
+     *            keys is halved
+     * @param unit
+     *            - the unit of the window
+     */
+    public SlowCallTracker(int capacity, long window, TimeUnit unit) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                                               "Capacity must be at least 1: "
+                                                       + capacity);
+        }
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive: "
+                                               + window);
+        }
+        this.capacity = capacity;
+        windowNanos = unit.toNanos(window);
+        lastDecay = nanoTime();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Record a call
+     * 
+     * @param name
+     *            - the source MBean, or null
+     * @param operation
+     *            - the kind of operation
+     * @param attribute
+     *            - the attribute, the invoked operation, or null
+     * @param nanos
+     *            - the latency of the call
+     */
+    public void record(ObjectName name, Operation operation, String attribute,
+                       long nanos) {
+        if (nanoTime() - lastDecay >= windowNanos) {
+            decay();
+        }
+        final Key key = new Key(name, operation, attribute);
+        final Entry entry = tracked.get(key);
+        if (entry != null) {
+            entry.record(nanos);
+        } else if (nanos > threshold) {
+            admit(key, nanos);
+        }
+    }
+
+    /**
+     * Stop tracking all keys
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            tracked.clear();
+            threshold = 0;
+            lastDecay = nanoTime();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the <var>n</var> tracked keys with the highest 99th percentile
+     *         latency
+     */
+    public SlowCall[] topByP99(int n) {
+        return top(n, BY_P99);
+    }
+
+    /**
+     * @return the <var>n</var> tracked keys with the highest total time
+     */
+    public SlowCall[] topByTotalTime(int n) {
+        return top(n, BY_TOTAL);
+    }
+
+    // The clock of the decay
+    //
+    long nanoTime() {
+        return System.nanoTime();
+    }
+
+    private void admit(Key key, long nanos) {
+        lock.lock();
+        try {
+            final Entry existing = tracked.get(key);
+            if (existing != null) {
+                existing.record(nanos);
+                return;
+            }
+            if (tracked.size() >= capacity) {
+                Key victim = null;
+                long least = Long.MAX_VALUE;
+                for (Map.Entry<Key, Entry> entry : tracked.entrySet()) {
+                    final long recent = entry.getValue().recent.get();
+                    if (recent < least) {
+                        least = recent;
+                        victim = entry.getKey();
+                    }
+                }
+                if (victim == null || nanos <= least) {
+                    threshold = least;
+                    return;
+                }
+                tracked.remove(victim);
+            }
+            final Entry entry = new Entry();
+            entry.record(nanos);
+            tracked.put(key, entry);
+            threshold = tracked.size() >= capacity ? leastRecent() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Halves the recent time of the tracked keys, at most once per window
+    //
+    private void decay() {
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            final long now = nanoTime();
+            if (now - lastDecay < windowNanos) {
+                return;
+            }
+            for (Entry entry : tracked.values()) {
+                entry.decay();
+            }
+            threshold = tracked.size() >= capacity ? leastRecent() : 0;
+            lastDecay = now;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The caller holds the lock
+    //
+    private long leastRecent() {
+        long least = Long.MAX_VALUE;
+        for (Entry entry : tracked.values()) {
+            least = Math.min(least, entry.recent.get());
+        }
+        return least == Long.MAX_VALUE ? 0 : least;
+    }
+
+    private SlowCall[] top(int n, Comparator<SlowCall> order) {
+        final List<SlowCall> calls = new ArrayList<SlowCall>(tracked.size());
+        for (Map.Entry<Key, Entry> entry : tracked.entrySet()) {
+            final Key key = entry.getKey();
+            final LatencyHistogram histogram = entry.getValue().histogram;
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            calls.add(new SlowCall(
+                                   key.name == null ? null
+                                                   : key.name.getCanonicalName(),
+                                   key.operation.name(), key.attribute,
+                                   histogram.getCount(),
+                                   micros(histogram.getTotal()),
+                                   histogram.getMean() / 1000.0,
+                                   micros(histogram.getPercentile(0.99)),
+                                   micros(histogram.getMax())));
+        }
+        Collections.sort(calls, order);
+        final int size = Math.max(0, Math.min(n, calls.size()));
+        return calls.subList(0, size).toArray(new SlowCall[size]);
+    }
+}
@@ -55,6 +55,7 @@ import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.Attribute;
 import javax.management.AttributeList;
@@ -79,7 +80,11 @@ import javax.management.ObjectName;
 import javax.management.ReflectionException;
 import javax.management.RuntimeMBeanException;
 
+import com.hellblazer.jmx.cascading.LocalMBeanServerConnectionFactory;
 import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.metrics.MeteredMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.metrics.MountPointMetrics;
+import com.hellblazer.jmx.cascading.metrics.Operation;
 
 // jdmk import
 
@@ -92,6 +97,13 @@ import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
  * <tt>CascadingProxy</tt> also makes it possible for
  * {@link NotificationListener Notification Listeners} to register for
  * notifications emitted by the source MBeans.
+ * <p>
+ * When the factory is a {@link LocalMBeanServerConnectionFactory} wrapping an
+ * in process <tt>MBeanServer</tt> - e.g. to merge <tt>MBeanServer</tt>s
+ * isolated by class loader - the proxy dispatches directly to that
+ * <tt>MBeanServer</tt>, and registers a single listener with the source MBean
+ * which fans its notifications out to the listeners of the proxy.
+ * </p>
  * 
  * @since Java DMK 5.1
  **/
@@ -121,7 +133,20 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
             // Only change the source if it's the object name of the
             // source object.
             //
-            listener.handleNotification(translate(notif), handback);
+            if (metrics == null) {
+                listener.handleNotification(translate(notif), handback);
+                return;
+            }
+            final long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                listener.handleNotification(translate(notif), handback);
+                failed = false;
+            } finally {
+                metrics.record(Operation.NOTIFICATION, source,
+                               notif.getType(), System.nanoTime() - start,
+                               failed);
+            }
         }
     }
 
@@ -133,13 +158,42 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
     /**
      * Current list of listeners, a List of ListenerInfo. The object referenced
      * by this field is never modified. Instead, the field is set to a new
-     * object when a listener is added or removed, within a synchronized(this).
+     * object when a listener is added or removed, while holding the lock.
      * In this way, there is no need to synchronize when traversing the list to
      * send a notification to the listeners in it. That avoids potential
      * deadlocks if the listeners end up depending on other threads that are
      * themselves accessing this <tt>NotificationBroadcasterSupport</tt>.
      */
-    private List<ListenerWrapper>              listenerList;
+    private volatile List<ListenerWrapper>     listenerList;
+
+    /**
+     * The last <tt>MBeanInfo</tt> returned by the source MBean. It is not used
+     * to answer {@link #getMBeanInfo}, only to snapshot the cascaded MBeans.
+     **/
+    private volatile MBeanInfo                 lastInfo;
+
+    /**
+     * The source <tt>MBeanServer</tt>, if it is in process. Operations are then
+     * dispatched directly to it, and a single {@link #dispatcher} is registered
+     * with the source MBean whatever the number of listeners.
+     **/
+    private final MBeanServer                  local;
+
+    /**
+     * Delivers the notifications of the source MBean to the listeners of this
+     * proxy, when the source <tt>MBeanServer</tt> is {@link #local}.
+     **/
+    private final NotificationListener         dispatcher;
+
+    /**
+     * The metrics of the underlying factory, if it is metered.
+     **/
+    private final MountPointMetrics            metrics;
+
+    /**
+     * Guards the listeners and the target name.
+     **/
+    private final ReentrantLock                lock = new ReentrantLock();
 
     /**
      * The <tt>ObjectName</tt> of the source MBean.
@@ -169,6 +223,18 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
     public CascadingProxy(ObjectName sourceMBeanName,
                           MBeanServerConnectionFactory mbscf) {
         connectionFactory = mbscf;
+        metrics = MeteredMBeanServerConnectionFactory.metricsOf(mbscf);
+        if (mbscf instanceof LocalMBeanServerConnectionFactory) {
+            local = ((LocalMBeanServerConnectionFactory) mbscf).getMBeanServer();
+        } else {
+            local = null;
+        }
+        dispatcher = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notif, Object handback) {
+                dispatch(notif);
+            }
+        };
         source = sourceMBeanName;
         targetName = null;
         listenerList = Collections.EMPTY_LIST;
@@ -221,11 +287,17 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
          * less efficient solution would be to clone the listener list every
          * time a notification is sent.
          */
-        synchronized (this) {
+        lock.lock();
+        try {
             ListenerWrapper w = new ListenerWrapper(listener, filter, handback);
             try {
-                connection().addNotificationListener(source, w, filter,
-                                                     handback);
+                if (local == null) {
+                    connection().addNotificationListener(source, w, filter,
+                                                         handback);
+                } else if (listenerList.isEmpty()) {
+                    local.addNotificationListener(source, dispatcher, null,
+                                                  null);
+                }
                 List<ListenerWrapper> newList = new ArrayList<ListenerWrapper>(
                                                                                listenerList.size() + 1);
                 newList.addAll(listenerList);
@@ -237,6 +309,8 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
                 throw handleInstanceNotFoundException(x,
                                                       "addNotificationListener");
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -317,6 +391,18 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
         return connectionFactory;
     }
 
+    /**
+     * Returns the last <tt>MBeanInfo</tt> returned by {@link #getMBeanInfo},
+     * without forwarding the request to the source MBean. The
+     * <tt>MBeanServer</tt> obtains it when the proxy is registered.
+     * 
+     * @return the last known <tt>MBeanInfo</tt> of the source MBean, or
+     *         <tt>null</tt> if it was never obtained.
+     **/
+    public MBeanInfo getLastMBeanInfo() {
+        return lastInfo;
+    }
+
     /**
      * Returns the <tt>MBeanInfo</tt> of the source MBean. This
      * <tt>MBeanInfo</tt> is not cached by the proxy, which could be considered
@@ -336,7 +422,9 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
     @Override
     public MBeanInfo getMBeanInfo() {
         try {
-            return connection().getMBeanInfo(source);
+            final MBeanInfo info = connection().getMBeanInfo(source);
+            lastInfo = info;
+            return info;
         } catch (IOException x) {
             throw handleIOException(x, "getMBeanInfo");
         } catch (InstanceNotFoundException x) {
@@ -398,8 +486,13 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
      * it is the <tt>ObjectName</tt> obtained from the {@link #preRegister}
      * method.
      **/
-    public synchronized ObjectName getTargetName() {
-        return targetName;
+    public ObjectName getTargetName() {
+        lock.lock();
+        try {
+            return targetName;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -515,8 +608,11 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
             throw new IllegalArgumentException("Illegal ObjectName: null");
         }
 
-        synchronized (this) {
+        lock.lock();
+        try {
             targetName = name;
+        } finally {
+            lock.unlock();
         }
         return targetName;
     }
@@ -542,8 +638,8 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
     @Override
     public void removeNotificationListener(NotificationListener listener)
                                                                          throws ListenerNotFoundException {
-
-        synchronized (this) {
+        lock.lock();
+        try {
             List<ListenerWrapper> newList = new ArrayList<ListenerWrapper>(
                                                                            listenerList);
             /*
@@ -556,7 +652,9 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
 
                 if (li.listener == listener) {
                     try {
-                        connection().removeNotificationListener(source, li);
+                        if (local == null) {
+                            connection().removeNotificationListener(source, li);
+                        }
                         newList.remove(i);
                     } catch (IOException x) {
                         throw handleIOException(x, "removeNotificationListener");
@@ -570,6 +668,9 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
                 throw new ListenerNotFoundException("Listener not registered");
             }
             listenerList = newList;
+            detachDispatcher();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -611,7 +712,8 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
 
         boolean found = false;
 
-        synchronized (this) {
+        lock.lock();
+        try {
             List<ListenerWrapper> newList = new ArrayList<ListenerWrapper>(
                                                                            listenerList);
             final int size = newList.size();
@@ -622,10 +724,12 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
                     found = true;
                     if (li.filter == filter && li.handback == handback) {
                         try {
-                            connection().removeNotificationListener(source, li,
-                                                                    filter,
-                                                                    handback);
-                            newList.remove(i);
+                            if (local == null) {
+                                connection().removeNotificationListener(source,
+                                                                        li,
+                                                                        filter,
+                                                                        handback);
+                            }
                         } catch (IOException x) {
                             throw handleIOException(x,
                                                     "removeNotificationListener");
@@ -635,10 +739,13 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
                         }
                         newList.remove(i);
                         listenerList = newList;
+                        detachDispatcher();
                         return;
                     }
                 }
             }
+        } finally {
+            lock.unlock();
         }
 
         if (found) {
@@ -726,6 +833,44 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
         }
     }
 
+    /**
+     * Registers the listeners of this proxy again with the source MBean,
+     * through the given connection. This method is called by the
+     * {@link ProxyCascadingAgent} when the underlying
+     * {@link MBeanServerConnectionFactory} has transparently reconnected to
+     * the source <tt>MBeanServer</tt>, as the listeners registered through the
+     * previous connection were lost with it.
+     * <p>
+     * Listeners which cannot be registered again are skipped: if the source
+     * MBean has disappeared in the meantime, the proxy is going to be removed
+     * by the agent anyway. In process sources never reconnect, so proxies of
+     * a local source are left alone.
+     * </p>
+     * 
+     * @param connection
+     *            The new connection to the source <tt>MBeanServer</tt>.
+     **/
+    void reattachListeners(MBeanServerConnection connection) {
+        if (local != null) {
+            return;
+        }
+        final List<ListenerWrapper> listeners;
+        lock.lock();
+        try {
+            listeners = listenerList;
+        } finally {
+            lock.unlock();
+        }
+        for (ListenerWrapper w : listeners) {
+            try {
+                connection.addNotificationListener(source, w, w.filter,
+                                                   w.handback);
+            } catch (InstanceNotFoundException | IOException x) {
+                // OK - see above
+            }
+        }
+    }
+
     /**
      * Returns an <tt>MBeanServerConnection</tt> obtained from the underlying
      * {@link MBeanServerConnectionFactory}. This method is called every time
@@ -740,6 +885,9 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
      *         which the source MBean resides.
      **/
     private MBeanServerConnection connection() throws IOException {
+        if (local != null) {
+            return local;
+        }
         final MBeanServerConnection c = connectionFactory.getMBeanServerConnection();
         if (c == null) {
             throw new IOException("MBeanServerConnection unavailable");
@@ -747,6 +895,51 @@ public class CascadingProxy implements DynamicMBean, MBeanRegistration,
         return c;
     }
 
+    /**
+     * Deliver a notification of the in process source MBean to the listeners
+     * of this proxy. The filters see the notification as emitted by the source
+     * MBean, the listeners see it translated. A failing listener does not
+     * prevent delivery to the others.
+     **/
+    private void dispatch(Notification notif) {
+        final List<ListenerWrapper> listeners = listenerList;
+        final ListenerWrapper[] enabled = new ListenerWrapper[listeners.size()];
+        int count = 0;
+        for (ListenerWrapper w : listeners) {
+            if (w.filter == null || w.filter.isNotificationEnabled(notif)) {
+                enabled[count++] = w;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        final Notification translated = translate(notif);
+        for (int i = 0; i < count; i++) {
+            try {
+                enabled[i].listener.handleNotification(translated,
+                                                       enabled[i].handback);
+            } catch (RuntimeException x) {
+                // OK - as NotificationBroadcasterSupport does
+            }
+        }
+    }
+
+    /**
+     * Remove the {@link #dispatcher} from the in process source MBean once the
+     * last listener of this proxy is removed. Must be called while holding the
+     * lock of this proxy.
+     **/
+    private void detachDispatcher() {
+        if (local == null || !listenerList.isEmpty()) {
+            return;
+        }
+        try {
+            local.removeNotificationListener(source, dispatcher);
+        } catch (InstanceNotFoundException | ListenerNotFoundException x) {
+            // OK - the source MBean is already gone
+        }
+    }
+
     private Object makeSource(Object source) {
         if (source != null && !source.equals(getSourceMBeanName())) {
             return source;
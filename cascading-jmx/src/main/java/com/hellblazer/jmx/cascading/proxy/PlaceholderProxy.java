@@ -0,0 +1,118 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.proxy;
+
+import java.io.IOException;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.ImmutableDescriptor;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+
+/**
+ * Stands in the target <tt>MBeanServer</tt> for a source MBean restored from a
+ * {@link com.hellblazer.jmx.cascading.TopologySnapshot topology snapshot},
+ * until the {@link ProxyCascadingAgent} of its node is started and replaces it
+ * with a {@link CascadingProxy} - or removes it, if the source MBean is gone.
+ * <p>
+ * A placeholder answers its <tt>MBeanInfo</tt>, as recorded in the snapshot
+ * and marked with an {@link #UNVERIFIED_FIELD unverified} descriptor field, so
+ * that the cascaded MBeans can be browsed and queried by name as soon as the
+ * target is restarted. Its attributes and operations are not available.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class PlaceholderProxy implements DynamicMBean {
+
+    /**
+     * The descriptor field marking the <tt>MBeanInfo</tt> of a placeholder
+     */
+    public static final String UNVERIFIED_FIELD = "unverified";
+
+    private final MBeanInfo    info;
+    private final ObjectName   source;
+
+    /**
+     * @param sourceName
+     *            - the name of the source MBean
+     * @param info
+     *            - the <tt>MBeanInfo</tt> of the source MBean, as recorded in
+     *            the snapshot
+     */
+    public PlaceholderProxy(ObjectName sourceName, MBeanInfo info) {
+        source = sourceName;
+        this.info = new MBeanInfo(
+                                  info.getClassName(),
+                                  info.getDescription(),
+                                  info.getAttributes(),
+                                  info.getConstructors(),
+                                  info.getOperations(),
+                                  info.getNotifications(),
+                                  ImmutableDescriptor.union(info.getDescriptor(),
+                                                            new ImmutableDescriptor(
+                                                                                    UNVERIFIED_FIELD
+                                                                                            + "=true")));
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws MBeanException {
+        throw unverified();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+
+    /**
+     * @return the name of the source MBean
+     */
+    public ObjectName getSourceMBeanName() {
+        return source;
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature)
+                                                                               throws MBeanException {
+        throw unverified();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws MBeanException {
+        throw unverified();
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    private MBeanException unverified() {
+        return new MBeanException(
+                                  new IOException(
+                                                  String.format("%s is restored from a snapshot, and its node is not yet mounted",
+                                                                source)));
+    }
+}
@@ -54,10 +54,15 @@ import java.io.IOException;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
+import javax.management.MBeanInfo;
 import javax.management.MBeanServer;
 import javax.management.MBeanServerConnection;
 import javax.management.MBeanServerNotification;
@@ -74,8 +79,13 @@ import org.slf4j.LoggerFactory;
 
 import com.hellblazer.jmx.cascading.CascadingAgent;
 import com.hellblazer.jmx.cascading.CascadingAgentMBean;
+import com.hellblazer.jmx.cascading.ConnectionHealth;
+import com.hellblazer.jmx.cascading.HealthChecker;
 import com.hellblazer.jmx.cascading.MBeanServerConnectionFactory;
 import com.hellblazer.jmx.cascading.MBeanServerConnectionWrapper;
+import com.hellblazer.jmx.cascading.metrics.MeteredMBeanServerConnectionFactory;
+import com.hellblazer.jmx.cascading.metrics.MountPointMetrics;
+import com.hellblazer.jmx.cascading.metrics.Operation;
 
 // jdmk import
 
@@ -158,6 +168,28 @@ public class ProxyCascadingAgent extends CascadingAgent {
     }
 
     /**
+     * Answer the <i>cascadedNode</i> of an MBean cascaded under the given node
+     * from a source MBean which was itself cascaded under the source node:
+     * <tt><i>node</i>/<i>sourceNode</i></tt>.
+     * 
+     * @param node
+     *            The node of the cascading agent, or <tt>null</tt>.
+     * @param sourceNode
+     *            The <i>cascadedNode</i> of the source MBean.
+     * @return the compound node.
+     */
+    public static String getCompoundNode(String node, String sourceNode) {
+        if (node == null || node.length() == 0) {
+            return sourceNode;
+        }
+        return node + CASCADED_NODE_SEPARATOR + sourceNode;
+    }
+
+    /**
+     * Answer the name of the source MBean cascaded under the node. When the
+     * source MBean was itself cascaded, its <i>cascadedNode</i> is prefixed
+     * with the node, forming a {@link #getCompoundNode compound node}.
+     * 
      * @param node
      * @param sourceName
      * @return
@@ -168,6 +200,14 @@ public class ProxyCascadingAgent extends CascadingAgent {
             return sourceName;
         }
         try {
+            final String sourceNode = sourceName.getKeyProperty(CASCADED_NODE_PROPERTY_NAME);
+            if (sourceNode != null) {
+                final Hashtable<String, String> keys = new Hashtable<String, String>(
+                                                                                     sourceName.getKeyPropertyList());
+                keys.put(CASCADED_NODE_PROPERTY_NAME,
+                         getCompoundNode(node, sourceNode));
+                return ObjectName.getInstance(sourceName.getDomain(), keys);
+            }
             final String domain = sourceName.getDomain();
             final String list = sourceName.getKeyPropertyListString();
             final String targetName = String.format("%s:%s=%s,%s",
@@ -182,12 +222,40 @@ public class ProxyCascadingAgent extends CascadingAgent {
         }
     }
 
+    // The connection on which mbsNotifHandler is currently registered. A
+    // factory supporting transparent reconnection hands out a new connection
+    // after OPENED, on which the listeners must be registered again.
+    //
+    private MBeanServerConnection              attached;
+
+    // The class names of the linked source MBeans, as reported by the target
+    // MBeanServer when their proxies were registered, so that the cascaded
+    // MBeans are answered without querying the source MBeanServer.
+    //
+    private final HashMap<ObjectName, String>  classNames;
+
     private final String                       description;
 
+    private volatile ConnectionHealth          health;
+
+    // Guards the state of the agent
+    //
+    private final ReentrantLock                lock = new ReentrantLock();
+
     private final HashMap<ObjectName, Object>  mbeanList;
 
     private final NotificationListener         mbsNotifHandler;
 
+    // The target names of the placeholders restored from a snapshot for the
+    // node of this agent, which the proxies of this agent replace.
+    //
+    private volatile Set<ObjectName>           placeholders;
+
+    // The cascadedNode of the source MBeans which are mounted directly from
+    // their leaf MBeanServer, and which this agent does not proxy.
+    //
+    private volatile Set<String>               routedNodes;
+
     private long                               sequenceNumber;
 
     private State                              state;
@@ -355,14 +423,28 @@ public class ProxyCascadingAgent extends CascadingAgent {
                                String nodeName, MBeanServer targetMBS,
                                String description) {
         super(sourceConnection, sourcePattern, sourceQuery, nodeName, targetMBS);
+        final MountPointMetrics metrics = MeteredMBeanServerConnectionFactory.metricsOf(sourceConnection);
         mbsNotifHandler = new NotificationListener() {
             @Override
             public void handleNotification(Notification notification,
                                            Object handback) {
-                handleMBeanServerNotification(notification, handback);
+                if (metrics == null) {
+                    handleMBeanServerNotification(notification, handback);
+                    return;
+                }
+                final long start = System.nanoTime();
+                boolean failed = true;
+                try {
+                    handleMBeanServerNotification(notification, handback);
+                    failed = false;
+                } finally {
+                    metrics.record(Operation.NOTIFICATION,
+                                   System.nanoTime() - start, failed);
+                }
             }
         };
         mbeanList = new HashMap<ObjectName, Object>();
+        classNames = new HashMap<ObjectName, String>();
         wrapper = new MBeanServerConnectionWrapper() {
             @Override
             protected MBeanServerConnection getMBeanServerConnection()
@@ -386,19 +468,18 @@ public class ProxyCascadingAgent extends CascadingAgent {
     //
     @Override
     public Set<ObjectInstance> getCascadedMBeans() {
-        final Set<ObjectInstance> result = new HashSet<ObjectInstance>();
+        lock.lock();
         try {
-            final Set<ObjectInstance> sprutstc = getConnectionFactory().getMBeanServerConnection().queryMBeans(getPattern(),
-                                                                                                               getQuery());
-            for (ObjectInstance moi : sprutstc) {
-                if (isLinked(moi.getObjectName())) {
-                    result.add(moi);
-                }
+            final Set<ObjectInstance> result = new HashSet<ObjectInstance>(
+                                                                           mbeanList.size());
+            for (ObjectName sourceName : mbeanList.keySet()) {
+                result.add(new ObjectInstance(sourceName,
+                                              classNames.get(sourceName)));
             }
-        } catch (Exception x) {
-            unexpectedException("getCascadedMBeans", getPattern(), x);
+            return result;
+        } finally {
+            lock.unlock();
         }
-        return result;
     }
 
     // from CascadingAgentMBean
@@ -408,6 +489,33 @@ public class ProxyCascadingAgent extends CascadingAgent {
         return description;
     }
 
+    /**
+     * Returns the last known <tt>MBeanInfo</tt> of each cascaded source MBean,
+     * as obtained when its proxy was registered. The source MBeanServer is not
+     * queried.
+     * 
+     * @return the <tt>MBeanInfo</tt> of the cascaded MBeans, by source name.
+     *         MBeans whose <tt>MBeanInfo</tt> is not known are omitted.
+     **/
+    public Map<ObjectName, MBeanInfo> getCascadedMBeanInfo() {
+        lock.lock();
+        try {
+            final Map<ObjectName, MBeanInfo> result = new HashMap<ObjectName, MBeanInfo>(
+                                                                                         mbeanList.size());
+            for (Map.Entry<ObjectName, Object> entry : mbeanList.entrySet()) {
+                if (entry.getValue() instanceof CascadingProxy) {
+                    final MBeanInfo info = ((CascadingProxy) entry.getValue()).getLastMBeanInfo();
+                    if (info != null) {
+                        result.put(entry.getKey(), info);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * Returns the <tt>ObjectName</tt> of the cascading proxy proxying the
      * source MBean identified by the given sourceName.
@@ -421,11 +529,63 @@ public class ProxyCascadingAgent extends CascadingAgent {
         return getTargetName(node, sourceName);
     }
 
+    /**
+     * Sets the target names of the {@link PlaceholderProxy placeholders}
+     * registered for the node of this agent. When the agent cascades the
+     * source MBean of a placeholder, the placeholder is replaced by the proxy,
+     * instead of being reported as a name conflict, and its name is removed
+     * from the set. Must be called before {@link #start()}.
+     * 
+     * @param targetNames
+     *            A thread safe set of the placeholders' names, or
+     *            <tt>null</tt>.
+     **/
+    public void setPlaceholders(Set<ObjectName> targetNames) {
+        placeholders = targetNames;
+    }
+
+    /**
+     * Sets the <i>cascadedNode</i>s of the source MBeans which this agent does
+     * not proxy. When the source <tt>MBeanServer</tt> is itself cascading the
+     * MBeans of leaf <tt>MBeanServer</tt>s, the leaves may be mounted directly
+     * under the {@link #getCompoundNode compound node} of their MBeans, which
+     * are then proxied once rather than through the proxies of the source.
+     * Call {@link #update()} after changing the set, to stop proxying the
+     * MBeans of an added node, or to proxy those of a removed node through the
+     * source again.
+     * 
+     * @param nodes
+     *            A thread safe set of the <i>cascadedNode</i>s, as seen in
+     *            the source <tt>MBeanServer</tt>, or <tt>null</tt>. The MBeans
+     *            cascaded below a routed node are not proxied either.
+     **/
+    public void setRoutedNodes(Set<String> nodes) {
+        routedNodes = nodes;
+    }
+
+    /**
+     * Sets the health of the connection to the source <tt>MBeanServer</tt>,
+     * as maintained by a {@link HealthChecker}. When set, a
+     * {@link JMXConnectionNotification#CLOSED} notification consults that
+     * cached state instead of probing the source <tt>MBeanServer</tt>.
+     * 
+     * @param health
+     *            The connection health, or <tt>null</tt>.
+     **/
+    public void setConnectionHealth(ConnectionHealth health) {
+        this.health = health;
+    }
+
     // from CascadingAgentMBean
     //
     @Override
-    public synchronized boolean isActive() {
-        return state.equals(State.STARTED);
+    public boolean isActive() {
+        lock.lock();
+        try {
+            return state.equals(State.STARTED);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -439,17 +599,22 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * @see CascadingAgent#preDeregister
      */
     @Override
-    public synchronized void preDeregister() throws java.lang.Exception {
-        if (!state.equals(State.STOPPED)) {
-            throw new IllegalStateException("ProxyCascadingAgent "
-                                            + "is still active.");
+    public void preDeregister() throws java.lang.Exception {
+        lock.lock();
+        try {
+            if (!state.equals(State.STOPPED)) {
+                throw new IllegalStateException("ProxyCascadingAgent "
+                                                + "is still active.");
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     // from CascadingAgentMBean
     //
     @Override
-    public synchronized void start() throws IOException {
+    public void start() throws IOException {
         try {
             start(true);
         } catch (InstanceAlreadyExistsException iae) {
@@ -547,116 +712,127 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * @see #preRegister
      **/
     @Override
-    public synchronized void start(boolean conflictAllowed) throws IOException,
+    public void start(boolean conflictAllowed) throws IOException,
                                                            InstanceAlreadyExistsException {
-        if (!state.equals(State.STOPPED)) {
-            throw new IllegalStateException("Can't start when state is: "
-                                            + state);
-        }
-
-        final MBeanServer mbs = getTargetMBeanServer();
-        if (mbs == null) {
-            throw new IllegalStateException("Can't start with no MBeanServer");
-        }
-
-        state = State.STARTING;
-        if (logger.isTraceEnabled()) {
-            logger.trace(String.format("start %s", state));
-        }
+        lock.lock();
         try {
-            getConnectionFactory().getMBeanServerConnection().addNotificationListener(MBSDelegateObjectName,
-                                                                                      mbsNotifHandler,
-                                                                                      null,
-                                                                                      null);
-            enableConnectionNotifications();
-        } catch (IOException io) {
-            state = State.STOPPED;
-            unexpectedException("start", MBSDelegateObjectName, io);
-            throw io;
-        } catch (Exception x) {
-            unexpectedException("start", MBSDelegateObjectName, x);
-            final IOException io = new IOException("failed to start: " + x, x);
-            state = State.STOPPED;
-            throw io;
-        } catch (Error e) {
-            state = State.STOPPED;
-            if (logger.isDebugEnabled()) {
-                logger.debug("start: failed to start", e);
+            if (!state.equals(State.STOPPED)) {
+                throw new IllegalStateException("Can't start when state is: "
+                                                + state);
             }
-            throw e;
-        }
 
-        Throwable failure = null;
+            final MBeanServer mbs = getTargetMBeanServer();
+            if (mbs == null) {
+                throw new IllegalStateException("Can't start with no MBeanServer");
+            }
 
-        try {
+            state = State.STARTING;
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("start %s", state));
+            }
+            try {
+                final MBeanServerConnection connection = getConnectionFactory().getMBeanServerConnection();
+                connection.addNotificationListener(MBSDelegateObjectName,
+                                                   mbsNotifHandler, null, null);
+                attached = connection;
+                enableConnectionNotifications();
+            } catch (IOException io) {
+                state = State.STOPPED;
+                unexpectedException("start", MBSDelegateObjectName, io);
+                throw io;
+            } catch (Exception x) {
+                unexpectedException("start", MBSDelegateObjectName, x);
+                final IOException io = new IOException("failed to start: " + x, x);
+                state = State.STOPPED;
+                throw io;
+            } catch (Error e) {
+                state = State.STOPPED;
+                if (logger.isDebugEnabled()) {
+                    logger.debug("start: failed to start", e);
+                }
+                throw e;
+            }
 
-            Set<?> mbeans = getConnectionFactory().getMBeanServerConnection().queryNames(getPattern(),
-                                                                                         getQuery());
+            Throwable failure = null;
 
-            final ObjectName[] names = new ObjectName[mbeans.size()];
-            int count = 0;
-            for (Object name : mbeans) {
-                final ObjectName sourceName = (ObjectName) name;
-                final ObjectName targetName = getTargetName(sourceName);
-                if (mbs.isRegistered(targetName) && !conflictAllowed) {
-                    nameConflictDetected("start", targetName);
-                    throw new InstanceAlreadyExistsException(
-                                                             String.valueOf(targetName));
-                } else if (targetName.getDomain().equals("JMImplementation")) {
-                    if (logger.isTraceEnabled()) {
-                        logger.trace(String.format("Not proxying JMImplementation domain source mBean %s",
-                                                   sourceName));
-                    }
-                } else {
-                    names[count++] = sourceName;
-                    if (logger.isTraceEnabled()) {
-                        logger.trace(String.format("proxying %s as %s",
-                                                   sourceName, targetName));
+            try {
+
+                Set<?> mbeans = getConnectionFactory().getMBeanServerConnection().queryNames(getPattern(),
+                                                                                             getQuery());
+
+                final ObjectName[] names = new ObjectName[mbeans.size()];
+                int count = 0;
+                for (Object name : mbeans) {
+                    final ObjectName sourceName = (ObjectName) name;
+                    final ObjectName targetName = getTargetName(sourceName);
+                    if (isRouted(sourceName)) {
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("Not proxying routed source mBean %s",
+                                                       sourceName));
+                        }
+                    } else if (mbs.isRegistered(targetName) && !conflictAllowed
+                               && !isPlaceholder(targetName)) {
+                        nameConflictDetected("start", targetName);
+                        throw new InstanceAlreadyExistsException(
+                                                                 String.valueOf(targetName));
+                    } else if (targetName.getDomain().equals("JMImplementation")) {
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("Not proxying JMImplementation domain source mBean %s",
+                                                       sourceName));
+                        }
+                    } else {
+                        names[count++] = sourceName;
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("proxying %s as %s",
+                                                       sourceName, targetName));
+                        }
                     }
                 }
-            }
 
-            for (int i = 0; i < count; i++) {
-                showMBean("start", names[i]);
-            }
+                for (int i = 0; i < count; i++) {
+                    showMBean("start", names[i]);
+                }
 
-        } catch (Throwable t) {
-            failure = t;
-        }
+            } catch (Throwable t) {
+                failure = t;
+            }
 
-        // Handle failure
-        //
-        if (failure != null) {
-            try {
-                state = State.SHUTTING_DOWN;
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("start: Failed to start: %s",
-                                               state));
-                }
-                cleanup(false);
-                throw failure;
-            } catch (IOException x) {
-                throw x;
-            } catch (InstanceAlreadyExistsException x) {
-                throw x;
-            } catch (Error e) {
-                throw e;
-            } catch (Throwable x) {
-                final IOException io = new IOException("Failed to start: " + x,
-                                                       x);
-                throw io;
-            } finally {
-                state = State.STOPPED;
-                if (logger.isDebugEnabled()) {
-                    logger.debug(String.format("start: Not started: %s", state));
+            // Handle failure
+            //
+            if (failure != null) {
+                try {
+                    state = State.SHUTTING_DOWN;
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("start: Failed to start: %s",
+                                                   state));
+                    }
+                    cleanup(false);
+                    throw failure;
+                } catch (IOException x) {
+                    throw x;
+                } catch (InstanceAlreadyExistsException x) {
+                    throw x;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable x) {
+                    final IOException io = new IOException("Failed to start: " + x,
+                                                           x);
+                    throw io;
+                } finally {
+                    state = State.STOPPED;
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(String.format("start: Not started: %s", state));
+                    }
                 }
             }
-        }
 
-        // Everything OK.
-        state = State.STARTED;
-        if (logger.isTraceEnabled()) {
-            logger.trace(String.format("start %s", state));
+            // Everything OK.
+            state = State.STARTED;
+            if (logger.isTraceEnabled()) {
+                logger.trace(String.format("start %s", state));
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -686,67 +862,135 @@ public class ProxyCascadingAgent extends CascadingAgent {
      *                if the connection with the cascaded <tt>MBeanServer</tt>
      *                fails.
      **/
-    public synchronized void update() throws IOException {
-        if (!state.equals(State.STARTED)) {
+    public void update() throws IOException {
+        lock.lock();
+        try {
+            if (!state.equals(State.STARTED)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("update", "CascadingAgent " + state);
+                }
+                return;
+            }
             if (logger.isDebugEnabled()) {
                 logger.debug("update", "CascadingAgent " + state);
             }
-            return;
-        }
-        if (logger.isDebugEnabled()) {
-            logger.debug("update", "CascadingAgent " + state);
-        }
-        final ObjectName[] names = getLinkedSourceNames();
-        final Set<?> sprutstc = new HashSet<Object>(
-                                                    getConnectionFactory().getMBeanServerConnection().queryNames(getPattern(),
-                                                                                                                 getQuery()));
-
-        final int len = names.length;
-        final MBeanServer mbs = getTargetMBeanServer();
-        if (mbs == null) {
-            return;
+            final ObjectName[] names = getLinkedSourceNames();
+            final Set<?> sprutstc = new HashSet<Object>(
+                                                        getConnectionFactory().getMBeanServerConnection().queryNames(getPattern(),
+                                                                                                                     getQuery()));
+            if (routedNodes != null) {
+                for (Iterator<?> i = sprutstc.iterator(); i.hasNext();) {
+                    if (isRouted((ObjectName) i.next())) {
+                        i.remove();
+                    }
+                }
+            }
+
+            final int len = names.length;
+            final MBeanServer mbs = getTargetMBeanServer();
+            if (mbs == null) {
+                return;
+            }
+            for (int i = 0; i < len; i++) {
+                if (sprutstc.remove(names[i])) {
+                    // Name found in cascaded MBS. show it.
+                    showMBean("update", names[i]);
+                } else {
+                    // Name not found! hide it.
+                    hideMBean("update", names[i]);
+                }
+            }
+            for (Object name : sprutstc) {
+                // show remaining mbeans.
+                showMBean("update", (ObjectName) name);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("update", "CascadingAgent updated");
+            }
+        } finally {
+            lock.unlock();
         }
-        for (int i = 0; i < len; i++) {
-            if (sprutstc.remove(names[i])) {
-                // Name found in cascaded MBS. show it.
-                showMBean("update", names[i]);
-            } else {
-                // Name not found! hide it.
-                hideMBean("update", names[i]);
+    }
+
+    // from CascadingAgentMBean
+    //
+    @Override
+    public Set<ObjectInstance> verify() throws IOException {
+        final Set<ObjectInstance> known = getCascadedMBeans();
+        final Set<ObjectInstance> remote = getConnectionFactory().getMBeanServerConnection().queryMBeans(getPattern(),
+                                                                                                         getQuery());
+        final Set<ObjectInstance> result = new HashSet<ObjectInstance>();
+        for (ObjectInstance moi : remote) {
+            if (isLinked(moi.getObjectName())) {
+                result.add(moi);
             }
         }
-        for (Object name : sprutstc) {
-            // show remaining mbeans.
-            showMBean("update", (ObjectName) name);
+        if (!result.equals(known)) {
+            final Set<ObjectInstance> stale = new HashSet<ObjectInstance>(known);
+            stale.removeAll(result);
+            final Set<ObjectInstance> unknown = new HashSet<ObjectInstance>(
+                                                                            result);
+            unknown.removeAll(known);
+            logger.warn(String.format("verify %s, cascaded MBeans differ from the source, stale: %s, unknown: %s",
+                                      getDescription(), stale, unknown));
         }
-        if (logger.isDebugEnabled()) {
-            logger.debug("update", "CascadingAgent updated");
+        return result;
+    }
+
+    // Called on OPENED. If the factory now hands out a new connection, the
+    // listeners registered through the previous one are gone: register the
+    // MBeanServerDelegate listener and the proxies' listeners again.
+    //
+    private void reattach() throws IOException,
+                                        InstanceNotFoundException {
+        lock.lock();
+        try {
+            final MBeanServerConnection connection = getConnectionFactory().getMBeanServerConnection();
+            if (connection == attached) {
+                return;
+            }
+            connection.addNotificationListener(MBSDelegateObjectName,
+                                               mbsNotifHandler, null, null);
+            attached = connection;
+            for (Object proxy : mbeanList.values()) {
+                if (proxy instanceof CascadingProxy) {
+                    ((CascadingProxy) proxy).reattachListeners(connection);
+                }
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     // If connectionDown is true - don't attempt to unregister listener
     // from remote MBeanServerDelegate: it would fail anyway.
     //
-    private synchronized void cleanup(boolean connectionDown) {
+    private void cleanup(boolean connectionDown) {
+        lock.lock();
         try {
             try {
-                if (!connectionDown) {
-                    getConnectionFactory().getMBeanServerConnection().removeNotificationListener(MBSDelegateObjectName,
-                                                                                                 mbsNotifHandler,
-                                                                                                 null,
-                                                                                                 null);
+                try {
+                    if (!connectionDown) {
+                        getConnectionFactory().getMBeanServerConnection().removeNotificationListener(MBSDelegateObjectName,
+                                                                                                     mbsNotifHandler,
+                                                                                                     null,
+                                                                                                     null);
+                    }
+                } catch (Exception x) {
+                    unexpectedCleanupException(MBSDelegateObjectName, x);
                 }
-            } catch (Exception x) {
-                unexpectedCleanupException(MBSDelegateObjectName, x);
-            }
-            try {
-                disableConnectionNotifications();
+                attached = null;
+                try {
+                    disableConnectionNotifications();
+                } catch (Exception x) {
+                    unexpectedCleanupException(null, x);
+                }
+                clearProxies();
             } catch (Exception x) {
                 unexpectedCleanupException(null, x);
             }
-            clearProxies();
-        } catch (Exception x) {
-            unexpectedCleanupException(null, x);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -760,35 +1004,46 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * @return The array of target proxy name that must be deleted from target
      *         MBeanServer.
      **/
-    private synchronized ObjectName[] clearLinks() {
-        final ObjectName[] keys = getLinkedSourceNames();
-        for (int i = 0; i < keys.length; i++) {
-            keys[i] = getTargetName(keys[i]);
+    private ObjectName[] clearLinks() {
+        lock.lock();
+        try {
+            final ObjectName[] keys = getLinkedSourceNames();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = getTargetName(keys[i]);
+            }
+            mbeanList.clear();
+            classNames.clear();
+            return keys;
+        } finally {
+            lock.unlock();
         }
-        mbeanList.clear();
-        return keys;
     }
 
-    private synchronized void clearProxies() {
+    private void clearProxies() {
+        lock.lock();
         try {
-            ObjectName[] names = clearLinks();
-            final MBeanServer mbs = getTargetMBeanServer();
-            if (mbs == null) {
-                return;
-            }
-            for (ObjectName name : names) {
-                try {
-                    mbs.unregisterMBean(name);
-                    if (logger.isTraceEnabled()) {
-                        logger.trace(String.format("clearProxies, Unregistered target proxy: %s",
-                                                   name));
+            try {
+                ObjectName[] names = clearLinks();
+                final MBeanServer mbs = getTargetMBeanServer();
+                if (mbs == null) {
+                    return;
+                }
+                for (ObjectName name : names) {
+                    try {
+                        mbs.unregisterMBean(name);
+                        if (logger.isTraceEnabled()) {
+                            logger.trace(String.format("clearProxies, Unregistered target proxy: %s",
+                                                       name));
+                        }
+                    } catch (Exception x) {
+                        unexpectedCleanupException(name, x);
                     }
-                } catch (Exception x) {
-                    unexpectedCleanupException(name, x);
                 }
+            } catch (Exception x) {
+                unexpectedCleanupException(null, x);
             }
-        } catch (Exception x) {
-            unexpectedCleanupException(null, x);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -799,8 +1054,13 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * 
      * @return The linked target proxy, if any.
      **/
-    private synchronized Object getLinked(ObjectName sourceName) {
-        return mbeanList.get(sourceName);
+    private Object getLinked(ObjectName sourceName) {
+        lock.lock();
+        try {
+            return mbeanList.get(sourceName);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -810,8 +1070,13 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * @return The number of source MBeans which are currently mounted in the
      *         target MBeanServer.
      **/
-    private synchronized int getLinkedCount() {
-        return mbeanList.size();
+    private int getLinkedCount() {
+        lock.lock();
+        try {
+            return mbeanList.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -820,10 +1085,15 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * 
      * @return The source MBeans names.
      **/
-    private synchronized ObjectName[] getLinkedSourceNames() {
-        final ObjectName[] keys = new ObjectName[mbeanList.size()];
-        mbeanList.keySet().toArray(keys);
-        return keys;
+    private ObjectName[] getLinkedSourceNames() {
+        lock.lock();
+        try {
+            final ObjectName[] keys = new ObjectName[mbeanList.size()];
+            mbeanList.keySet().toArray(keys);
+            return keys;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -863,7 +1133,8 @@ public class ProxyCascadingAgent extends CascadingAgent {
     private boolean isIncluded(ObjectName sourceName, ObjectName sourcePattern,
                                QueryExp sourceQuery) {
 
-        if (sourceName.getDomain().equals("JMImplementation")) {
+        if (sourceName.getDomain().equals("JMImplementation")
+            || isRouted(sourceName)) {
             return false;
         }
         // match the sourcePattern
@@ -892,8 +1163,39 @@ public class ProxyCascadingAgent extends CascadingAgent {
      *            The name of the source MBean.
      * @return true if that name is linked ({@link #link} was called.)
      **/
-    private synchronized boolean isLinked(ObjectName sourceName) {
-        return mbeanList.get(sourceName) != null;
+    private boolean isLinked(ObjectName sourceName) {
+        lock.lock();
+        try {
+            return mbeanList.get(sourceName) != null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The source MBean is routed if its cascadedNode is a routed node, or
+    // lies below one
+    //
+    private boolean isRouted(ObjectName sourceName) {
+        final Set<String> routed = routedNodes;
+        if (routed == null || routed.isEmpty()) {
+            return false;
+        }
+        final String node = sourceName.getKeyProperty(CASCADED_NODE_PROPERTY_NAME);
+        if (node == null) {
+            return false;
+        }
+        for (String prefix : routed) {
+            if (node.equals(prefix)
+                || node.startsWith(prefix + CASCADED_NODE_SEPARATOR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isPlaceholder(ObjectName targetName) {
+        final Set<ObjectName> restored = placeholders;
+        return restored != null && restored.contains(targetName);
     }
 
     /**
@@ -907,35 +1209,45 @@ public class ProxyCascadingAgent extends CascadingAgent {
      *            The cascading proxy that will be registered for that source
      *            MBean in the target MBeanServer.
      **/
-    private synchronized void link(ObjectName sourceName, Object targetProxy) {
-        mbeanList.put(sourceName, targetProxy);
+    private void link(ObjectName sourceName, Object targetProxy) {
+        lock.lock();
+        try {
+            mbeanList.put(sourceName, targetProxy);
+        } finally {
+            lock.unlock();
+        }
     }
 
     // If connectionDown is true - don't attempt to unregister listener
     // from remote MBeanServerDelegate: it would fail anyway.
     //
-    private synchronized void stop(boolean connectionDown) throws IOException {
-        if (state.equals(State.STOPPED)) {
-            if (logger.isTraceEnabled()) {
-                logger.trace(String.format("stop, Already: %s ", state));
-            }
-            return;
-        }
-        if (!state.equals(State.STARTED)) {
-            throw new IllegalStateException("Can't stop when state is: "
-                                            + state);
-        }
-        state = State.SHUTTING_DOWN;
-        if (logger.isTraceEnabled()) {
-            logger.trace(String.format("stop: %s", state));
-        }
+    private void stop(boolean connectionDown) throws IOException {
+        lock.lock();
         try {
-            cleanup(connectionDown);
-        } finally {
-            state = State.STOPPED;
+            if (state.equals(State.STOPPED)) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("stop, Already: %s ", state));
+                }
+                return;
+            }
+            if (!state.equals(State.STARTED)) {
+                throw new IllegalStateException("Can't stop when state is: "
+                                                + state);
+            }
+            state = State.SHUTTING_DOWN;
             if (logger.isTraceEnabled()) {
                 logger.trace(String.format("stop: %s", state));
             }
+            try {
+                cleanup(connectionDown);
+            } finally {
+                state = State.STOPPED;
+                if (logger.isTraceEnabled()) {
+                    logger.trace(String.format("stop: %s", state));
+                }
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -948,6 +1260,17 @@ public class ProxyCascadingAgent extends CascadingAgent {
         if (!state.equals(State.STARTED)) {
             return;
         }
+        final ConnectionHealth h = health;
+        if (h != null) {
+            // The health checker confirms the closure, and whoever set it
+            // stops this agent if it is.
+            //
+            if (h.isAlive()) {
+                return;
+            }
+            stop(true);
+            return;
+        }
         try {
             getConnectionFactory().getMBeanServerConnection().getDefaultDomain();
             return;
@@ -967,8 +1290,14 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * @param sourceName
      *            The name of the source MBean.
      **/
-    private synchronized void unlink(ObjectName sourceName) {
-        mbeanList.remove(sourceName);
+    private void unlink(ObjectName sourceName) {
+        lock.lock();
+        try {
+            mbeanList.remove(sourceName);
+            classNames.remove(sourceName);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -1001,7 +1330,11 @@ public class ProxyCascadingAgent extends CascadingAgent {
      * <ul>
      * {@link JMXConnectionNotification#OPENED} and
      * {@link JMXConnectionNotification#NOTIFS_LOST} trigger an {@link #update}
-     * operation.
+     * operation. If, on <tt>OPENED</tt>, the factory hands out a different
+     * <tt>MBeanServerConnection</tt> than the one the agent was listening to -
+     * which is the case after a transparent reconnection - the
+     * <tt>MBeanServerDelegate</tt> listener and the listeners of the proxies
+     * are first registered again on the new connection.
      * </ul>
      * <ul>
      * {@link JMXConnectionNotification#CLOSED} makes the
@@ -1033,18 +1366,23 @@ public class ProxyCascadingAgent extends CascadingAgent {
                                                    Object handback) {
         final String nt = n.getType();
         try {
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (!state.equals(State.STARTED)) {
                     return;
                 }
-                if (JMXConnectionNotification.OPENED.equals(nt)
-                    || JMXConnectionNotification.NOTIFS_LOST.equals(nt)) {
+                if (JMXConnectionNotification.OPENED.equals(nt)) {
+                    reattach();
+                    update();
+                } else if (JMXConnectionNotification.NOTIFS_LOST.equals(nt)) {
                     update();
                 } else if (JMXConnectionNotification.CLOSED.equals(nt)) {
                     stopIfClosed();
                 } else if (JMXConnectionNotification.FAILED.equals(nt)) {
                     stop(true);
                 }
+            } finally {
+                lock.unlock();
             }
         } catch (Exception x) {
             unexpectedException(nt, null, x);
@@ -1119,8 +1457,13 @@ public class ProxyCascadingAgent extends CascadingAgent {
     /**
      * Increments and returns this object's notification sequence number.
      **/
-    protected final synchronized long newSequenceNumber() {
-        return sequenceNumber++;
+    protected final long newSequenceNumber() {
+        lock.lock();
+        try {
+            return sequenceNumber++;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -1150,39 +1493,44 @@ public class ProxyCascadingAgent extends CascadingAgent {
     // * <p>This method calls {@link #getTargetName} in order to obtain
     // * the name with which the cascading proxy was registered.</p>
     // *
-    synchronized void hideMBean(String operation, ObjectName sourceName) {
-        final MBeanServer srv = getTargetMBeanServer();
-        if (srv == null) {
-            return;
-        }
-        if (state.equals(State.STOPPED)) {
-            return;
-        }
-        if (state.equals(State.SHUTTING_DOWN)) {
-            return;
-        }
-
+    void hideMBean(String operation, ObjectName sourceName) {
+        lock.lock();
         try {
-            if (isLinked(sourceName)) {
-                final ObjectName targetName = getTargetName(sourceName);
-                srv.unregisterMBean(targetName);
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("operation: %s Unregistered proxy: %s for %s",
-                                               operation, targetName,
-                                               sourceName));
+            final MBeanServer srv = getTargetMBeanServer();
+            if (srv == null) {
+                return;
+            }
+            if (state.equals(State.STOPPED)) {
+                return;
+            }
+            if (state.equals(State.SHUTTING_DOWN)) {
+                return;
+            }
+
+            try {
+                if (isLinked(sourceName)) {
+                    final ObjectName targetName = getTargetName(sourceName);
+                    srv.unregisterMBean(targetName);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("operation: %s Unregistered proxy: %s for %s",
+                                                   operation, targetName,
+                                                   sourceName));
+                    }
+                    unlink(sourceName);
                 }
-                unlink(sourceName);
+            } catch (InstanceNotFoundException x) {
+                // Already removed? that's strange, but hell, that's
+                // what we wanted anyway
+                // ==> should log something...
+                return;
+            } catch (Exception x) {
+                // no good: log something.
+                // possibly with a given Exception Handler?
+                unexpectedException(operation, sourceName, x);
+                return;
             }
-        } catch (InstanceNotFoundException x) {
-            // Already removed? that's strange, but hell, that's
-            // what we wanted anyway
-            // ==> should log something...
-            return;
-        } catch (Exception x) {
-            // no good: log something.
-            // possibly with a given Exception Handler?
-            unexpectedException(operation, sourceName, x);
-            return;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -1242,55 +1590,71 @@ public class ProxyCascadingAgent extends CascadingAgent {
     // * <p>This method calls {@link #getTargetName} in order to obtain
     // * the name with which the cascading proxy will be registered.</p>
     // *
-    synchronized void showMBean(String operation, ObjectName sourceName) {
-        if (state.equals(State.STOPPED)) {
-            return;
-        }
-        if (state.equals(State.SHUTTING_DOWN)) {
-            return;
-        }
-
-        final MBeanServer srv = getTargetMBeanServer();
-        if (srv == null) {
-            return;
-        }
-
+    void showMBean(String operation, ObjectName sourceName) {
+        lock.lock();
         try {
-
-            final ObjectName targetName = getTargetName(sourceName);
-
-            if (isLinked(sourceName) && srv.isRegistered(targetName)) {
+            if (state.equals(State.STOPPED)) {
+                return;
+            }
+            if (state.equals(State.SHUTTING_DOWN)) {
                 return;
             }
 
-            final Object proxy = getProxy(sourceName, getConnectionFactory());
+            final MBeanServer srv = getTargetMBeanServer();
+            if (srv == null) {
+                return;
+            }
 
-            link(sourceName, proxy);
             try {
-                // Register the proxy locally
-                srv.registerMBean(proxy, targetName);
-                if (logger.isTraceEnabled()) {
-                    logger.trace(String.format("operation %s, Registered proxy: %s for %s ",
-                                               operation, targetName,
-                                               sourceName));
+
+                final ObjectName targetName = getTargetName(sourceName);
+
+                if (isLinked(sourceName) && srv.isRegistered(targetName)) {
+                    return;
+                }
+
+                final Set<ObjectName> restored = placeholders;
+                if (restored != null && restored.remove(targetName)) {
+                    try {
+                        srv.unregisterMBean(targetName);
+                    } catch (InstanceNotFoundException x) {
+                        // OK: already removed
+                    }
+                }
+
+                final Object proxy = getProxy(sourceName, getConnectionFactory());
+
+                link(sourceName, proxy);
+                try {
+                    // Register the proxy locally
+                    final ObjectInstance registered = srv.registerMBean(proxy,
+                                                                        targetName);
+                    classNames.put(sourceName, registered.getClassName());
+                    if (logger.isTraceEnabled()) {
+                        logger.trace(String.format("operation %s, Registered proxy: %s for %s ",
+                                                   operation, targetName,
+                                                   sourceName));
+                    }
+                    assert srv.isRegistered(targetName) : String.format("Did not register proxy %s",
+                                                                        targetName);
+                } catch (InstanceAlreadyExistsException x) {
+                    unlink(sourceName);
+                    nameConflictDetected(operation, targetName);
+                    return;
+                } catch (Exception x) {
+                    unlink(sourceName);
+                    // no good: log something.
+                    // possibly with a given Exception Handler?
+                    unexpectedException(operation, sourceName, x);
+                    return;
                 }
-                assert srv.isRegistered(targetName) : String.format("Did not register proxy %s",
-                                                                    targetName);
-            } catch (InstanceAlreadyExistsException x) {
-                unlink(sourceName);
-                nameConflictDetected(operation, targetName);
-                return;
             } catch (Exception x) {
-                unlink(sourceName);
                 // no good: log something.
                 // possibly with a given Exception Handler?
                 unexpectedException(operation, sourceName, x);
-                return;
             }
-        } catch (Exception x) {
-            // no good: log something.
-            // possibly with a given Exception Handler?
-            unexpectedException(operation, sourceName, x);
+        } finally {
+            lock.unlock();
         }
     }
 
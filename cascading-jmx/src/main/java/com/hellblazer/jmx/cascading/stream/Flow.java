@@ -0,0 +1,83 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+/**
+ * The interfaces of reactive streams, with the shape and the contract of
+ * <tt>java.util.concurrent.Flow</tt>, which is not available at the language
+ * level of this project.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public final class Flow {
+
+    /**
+     * A producer of items, received by its subscribers as they request them
+     */
+    public static interface Publisher<T> {
+        /**
+         * Add the subscriber. Its {@link Subscriber#onSubscribe(Subscription)}
+         * is called before any other of its methods.
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. The methods of a subscriber are called in
+     * sequence, never concurrently.
+     */
+    public static interface Subscriber<T> {
+        /**
+         * The publisher completed; no other method is called afterwards
+         */
+        void onComplete();
+
+        /**
+         * The publisher failed; no other method is called afterwards
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * The next item, never called more than the items requested
+         */
+        void onNext(T item);
+
+        /**
+         * The first call of a new subscription
+         */
+        void onSubscribe(Subscription subscription);
+    }
+
+    /**
+     * The link between a publisher and one of its subscribers
+     */
+    public static interface Subscription {
+        /**
+         * Stop receiving items, eventually
+         */
+        void cancel();
+
+        /**
+         * Add to the number of items the subscriber is ready to receive.
+         * Requesting a non positive number fails the subscription with an
+         * <tt>IllegalArgumentException</tt>.
+         */
+        void request(long n);
+    }
+
+    private Flow() {
+    }
+}
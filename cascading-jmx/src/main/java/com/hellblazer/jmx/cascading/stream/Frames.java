@@ -0,0 +1,78 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+
+/**
+ * The frames of the notification stream protocol. A frame is the length of
+ * the rest of the frame, as a 4 byte big endian integer, followed by the type
+ * of the frame and its payload:
+ * <ul>
+ * <li>{@link #CREDIT} - client to server, the number of further notifications
+ * the client is ready to receive, as a 4 byte integer</li>
+ * <li>{@link #NOTIFICATION} - server to client, a serialized
+ * <tt>Notification</tt></li>
+ * <li>{@link #COMPLETE} - server to client, the end of the stream</li>
+ * <li>{@link #ERROR} - server to client, the failure of the stream, as a
+ * modified UTF-8 message</li>
+ * </ul>
+ * 
+ * @author hhildebrand
+ * 
+ */
+final class Frames {
+    static final byte COMPLETE     = 3;
+    static final byte CREDIT       = 1;
+    static final byte ERROR        = 4;
+    static final int  MAX_LENGTH   = 16 * 1024 * 1024;
+    static final byte NOTIFICATION = 2;
+
+    /**
+     * Read the length of the next frame, that is of its type and payload
+     * 
+     * @throws StreamCorruptedException
+     *             if the length is not valid
+     */
+    static int readLength(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_LENGTH) {
+            throw new StreamCorruptedException(
+                                               String.format("Invalid frame length: %s",
+                                                             length));
+        }
+        return length;
+    }
+
+    static void write(DataOutputStream out, byte type, byte[] payload,
+                      int length) throws IOException {
+        out.writeInt(length + 1);
+        out.writeByte(type);
+        out.write(payload, 0, length);
+    }
+
+    static void writeCredit(DataOutputStream out, int credit)
+                                                             throws IOException {
+        out.writeInt(5);
+        out.writeByte(CREDIT);
+        out.writeInt(credit);
+    }
+
+    private Frames() {
+    }
+}
@@ -0,0 +1,373 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerNotification;
+import javax.management.Notification;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.relation.MBeanServerNotificationFilter;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hellblazer.jmx.cascading.CascadingAgent;
+import com.hellblazer.jmx.cascading.aggregate.Aggregate;
+
+/**
+ * A single stream of the notifications emitted by all the cascaded MBeans, of
+ * all the mount points, matching a pattern and a filter.
+ * <p>
+ * The publisher registers one listener with each matching cascaded MBean of
+ * the target <tt>MBeanServer</tt>, through the proxy of the MBean, and follows
+ * the registration and unregistration of the cascaded MBeans. Any number of
+ * subscribers then share these registrations, rather than each registering
+ * with every MBean.
+ * </p>
+ * <p>
+ * Notifications arrive as they are emitted, whatever the demand of the
+ * subscribers. Each subscriber has a bounded buffer of the notifications it
+ * has not yet requested; when the buffer is full, new notifications are
+ * dropped for that subscriber, and counted, rather than holding up the other
+ * subscribers or the delivery threads of the JMX connectors.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class NotificationPublisher implements Flow.Publisher<Notification>,
+        NotificationPublisherMBean {
+
+    /**
+     * The subscription of one subscriber. Signals to the subscriber are
+     * serialized by a work-in-progress counter: whoever raises it from zero
+     * schedules a drain, which loops until it has caught up with all the
+     * signals raised meanwhile.
+     */
+    private class Feed implements Flow.Subscription, Runnable {
+        private volatile boolean                            completed;
+        private final AtomicLong                            demand = new AtomicLong();
+        private volatile boolean                            done;
+        private volatile Throwable                          error;
+        private final ArrayBlockingQueue<Notification>      queue;
+        private final Flow.Subscriber<? super Notification> subscriber;
+        private final AtomicInteger                         wip    = new AtomicInteger();
+
+        Feed(Flow.Subscriber<? super Notification> subscriber) {
+            this.subscriber = subscriber;
+            queue = new ArrayBlockingQueue<Notification>(bufferSize);
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            feeds.remove(this);
+            queue.clear();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException(
+                                                     String.format("Non positive request: %s",
+                                                                   n));
+            } else {
+                long current;
+                do {
+                    current = demand.get();
+                    if (current == Long.MAX_VALUE) {
+                        break;
+                    }
+                } while (!demand.compareAndSet(current,
+                                               current + n < 0 ? Long.MAX_VALUE
+                                                              : current + n));
+            }
+            schedule();
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        void complete() {
+            completed = true;
+            schedule();
+        }
+
+        void offer(Notification notification) {
+            if (done) {
+                return;
+            }
+            if (!queue.offer(notification)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    log.warn("Unable to deliver notifications, cancelling the subscription",
+                             e);
+                    cancel();
+                    wip.set(0);
+                }
+            }
+        }
+
+        private void drain() {
+            while (!done) {
+                if (error != null) {
+                    cancel();
+                    subscriber.onError(error);
+                    return;
+                }
+                if (demand.get() == 0) {
+                    break;
+                }
+                Notification notification = queue.poll();
+                if (notification == null) {
+                    break;
+                }
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                published.incrementAndGet();
+                try {
+                    subscriber.onNext(notification);
+                } catch (Throwable t) {
+                    log.warn(String.format("Subscriber %s failed, cancelling its subscription",
+                                           subscriber), t);
+                    cancel();
+                    return;
+                }
+            }
+            if (!done && completed && queue.isEmpty()) {
+                cancel();
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    private static final Logger              log       = LoggerFactory.getLogger(NotificationPublisher.class);
+
+    private final int                        bufferSize;
+    private volatile boolean                 closed;
+    private final NotificationListener       delegateListener;
+    private final AtomicLong                 dropped   = new AtomicLong();
+    private final Executor                   executor;
+    private final CopyOnWriteArrayList<Feed> feeds     = new CopyOnWriteArrayList<Feed>();
+    private final NotificationFilter         filter;
+    private final Set<ObjectName>            listened  = Collections.newSetFromMap(new ConcurrentHashMap<ObjectName, Boolean>());
+    private final NotificationListener       listener;
+    private final ObjectName                 pattern;
+    private final AtomicLong                 published = new AtomicLong();
+    private final AtomicLong                 received  = new AtomicLong();
+    private final MBeanServer                target;
+
+    /**
+     * @param target
+     *            - the target <tt>MBeanServer</tt> holding the cascaded MBeans
+     * @param sourcePattern
+     *            - the pattern of the MBeans, as named in the source
+     *            <tt>MBeanServer</tt>s
+     * @param filter
+     *            - the filter of the notifications, or null. It is sent to the
+     *            source <tt>MBeanServer</tt>s, and so must be serializable.
+     * @param bufferSize
+     *            - the number of notifications held for a subscriber which has
+     *            not requested them
+     * @param executor
+     *            - the executor delivering the notifications to the
+     *            subscribers
+     */
+    public NotificationPublisher(MBeanServer target, ObjectName sourcePattern,
+                                 NotificationFilter filter, int bufferSize,
+                                 Executor executor) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: "
+                                               + bufferSize);
+        }
+        this.target = target;
+        this.filter = filter;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+        pattern = Aggregate.targetPatternOf(sourcePattern);
+        listener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification,
+                                           Object handback) {
+                received.incrementAndGet();
+                for (Feed feed : feeds) {
+                    feed.offer(notification);
+                }
+            }
+        };
+        delegateListener = new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification,
+                                           Object handback) {
+                handleMBeanServerNotification((MBeanServerNotification) notification);
+            }
+        };
+    }
+
+    /**
+     * Stop listening to the cascaded MBeans, and complete all the
+     * subscriptions once they have received the notifications already
+     * buffered for them
+     */
+    public void close() {
+        closed = true;
+        try {
+            target.removeNotificationListener(CascadingAgent.MBSDelegateObjectName,
+                                              delegateListener);
+        } catch (Exception e) {
+            log.trace("Unable to remove the delegate listener", e);
+        }
+        for (ObjectName name : listened) {
+            unlisten(name);
+        }
+        for (Feed feed : feeds) {
+            feed.complete();
+        }
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public int getListened() {
+        return listened.size();
+    }
+
+    @Override
+    public long getPublished() {
+        return published.get();
+    }
+
+    @Override
+    public long getReceived() {
+        return received.get();
+    }
+
+    @Override
+    public int getSubscribers() {
+        return feeds.size();
+    }
+
+    /**
+     * Start listening to the cascaded MBeans
+     * 
+     * @throws Exception
+     *             if the registrations of the target <tt>MBeanServer</tt>
+     *             cannot be followed
+     */
+    public void start() throws Exception {
+        MBeanServerNotificationFilter registrations = new MBeanServerNotificationFilter();
+        registrations.enableAllObjectNames();
+        target.addNotificationListener(CascadingAgent.MBSDelegateObjectName,
+                                       delegateListener, registrations, null);
+        for (ObjectName name : target.queryNames(pattern, null)) {
+            listen(name);
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Notification> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber can't be null");
+        }
+        Feed feed = new Feed(subscriber);
+        // Hold the drain until the subscriber has seen its subscription
+        feed.wip.set(1);
+        subscriber.onSubscribe(feed);
+        if (!feed.done) {
+            feeds.add(feed);
+            if (closed) {
+                feed.completed = true;
+            }
+        }
+        try {
+            executor.execute(feed);
+        } catch (RejectedExecutionException e) {
+            feed.cancel();
+            subscriber.onError(e);
+        }
+    }
+
+    private void handleMBeanServerNotification(MBeanServerNotification notification) {
+        ObjectName name = notification.getMBeanName();
+        if (MBeanServerNotification.REGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            if (!closed && pattern.apply(name)) {
+                listen(name);
+            }
+        } else if (MBeanServerNotification.UNREGISTRATION_NOTIFICATION.equals(notification.getType())) {
+            listened.remove(name);
+        }
+    }
+
+    private void listen(ObjectName name) {
+        if (name.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME) == null
+            || !listened.add(name)) {
+            return;
+        }
+        try {
+            target.addNotificationListener(name, listener, filter, null);
+        } catch (Exception e) {
+            // Not all source MBeans are notification broadcasters
+            listened.remove(name);
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Unable to listen to %s", name), e);
+            }
+        }
+    }
+
+    private void unlisten(ObjectName name) {
+        if (!listened.remove(name)) {
+            return;
+        }
+        try {
+            target.removeNotificationListener(name, listener, filter, null);
+        } catch (Exception e) {
+            if (log.isTraceEnabled()) {
+                log.trace(String.format("Unable to stop listening to %s", name),
+                          e);
+            }
+        }
+    }
+}
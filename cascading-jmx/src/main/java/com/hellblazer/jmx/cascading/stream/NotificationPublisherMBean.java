@@ -0,0 +1,50 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+/**
+ * The management interface of a {@link NotificationPublisher}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface NotificationPublisherMBean {
+
+    /**
+     * @return the number of notifications dropped because a subscriber fell
+     *         behind by more than the buffer size
+     */
+    long getDropped();
+
+    /**
+     * @return the number of cascaded MBeans listened to
+     */
+    int getListened();
+
+    /**
+     * @return the number of notifications delivered to subscribers
+     */
+    long getPublished();
+
+    /**
+     * @return the number of notifications received from the cascaded MBeans
+     */
+    long getReceived();
+
+    /**
+     * @return the number of current subscribers
+     */
+    int getSubscribers();
+}
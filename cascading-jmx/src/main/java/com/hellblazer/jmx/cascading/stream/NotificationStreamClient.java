@@ -0,0 +1,194 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.management.Notification;
+
+/**
+ * The client of a {@link NotificationStreamServer}. Each subscription opens
+ * its own connection to the server, and the items requested by the
+ * subscriber are granted to the server as credit. Requests beyond
+ * <tt>Integer.MAX_VALUE</tt> outstanding notifications are granted as
+ * <tt>Integer.MAX_VALUE</tt>.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class NotificationStreamClient implements Flow.Publisher<Notification> {
+
+    /**
+     * A connection to the server, whose reader delivers the notifications to
+     * the subscriber
+     */
+    private class Connection implements Flow.Subscription, Runnable {
+        private volatile boolean                            cancelled;
+        private volatile Throwable                          error;
+        private final DataInputStream                       in;
+        private final DataOutputStream                      out;
+        private final Socket                                socket;
+        private final Flow.Subscriber<? super Notification> subscriber;
+
+        Connection(Socket socket, Flow.Subscriber<? super Notification> subscriber)
+                                                                                   throws IOException {
+            this.socket = socket;
+            this.subscriber = subscriber;
+            in = new DataInputStream(
+                                     new BufferedInputStream(
+                                                             socket.getInputStream()));
+            out = new DataOutputStream(
+                                       new BufferedOutputStream(
+                                                                socket.getOutputStream()));
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            close();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // Signalled by the reader, to keep the signals in sequence
+                error = new IllegalArgumentException(
+                                                     String.format("Non positive request: %s",
+                                                                   n));
+                close();
+                return;
+            }
+            try {
+                synchronized (out) {
+                    Frames.writeCredit(out, (int) Math.min(n, Integer.MAX_VALUE));
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int length = Frames.readLength(in);
+                    byte type = in.readByte();
+                    switch (type) {
+                        case Frames.NOTIFICATION:
+                            byte[] payload = new byte[length - 1];
+                            in.readFully(payload);
+                            Notification notification;
+                            try (ObjectInputStream ois = new ObjectInputStream(
+                                                                               new ByteArrayInputStream(
+                                                                                                        payload))) {
+                                notification = (Notification) ois.readObject();
+                            }
+                            subscriber.onNext(notification);
+                            break;
+                        case Frames.COMPLETE:
+                            close();
+                            subscriber.onComplete();
+                            return;
+                        case Frames.ERROR:
+                            String message = in.readUTF();
+                            close();
+                            subscriber.onError(new IOException(message));
+                            return;
+                        default:
+                            throw new StreamCorruptedException(
+                                                               String.format("Unexpected frame: %s",
+                                                                             type));
+                    }
+                }
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                close();
+                if (error != null) {
+                    subscriber.onError(error);
+                } else if (!cancelled) {
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        private void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private final InetSocketAddress address;
+    private final int               connectTimeoutMillis;
+
+    /**
+     * @param address
+     *            - the address of the server
+     * @param connectTimeoutMillis
+     *            - the time allowed to connect to the server
+     */
+    public NotificationStreamClient(InetSocketAddress address,
+                                    int connectTimeoutMillis) {
+        this.address = address;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Notification> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber can't be null");
+        }
+        Socket socket = new Socket();
+        Connection connection;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, connectTimeoutMillis);
+            connection = new Connection(socket, subscriber);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException e1) {
+                // ignored
+            }
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void cancel() {
+                }
+
+                @Override
+                public void request(long n) {
+                }
+            });
+            subscriber.onError(e);
+            return;
+        }
+        subscriber.onSubscribe(connection);
+        Thread reader = new Thread(connection, "Notification stream client "
+                                               + address);
+        reader.setDaemon(true);
+        reader.start();
+    }
+}
@@ -0,0 +1,307 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves a stream of notifications to clients connecting over TCP, with the
+ * protocol of {@link Frames}.
+ * <p>
+ * Each connection is a subscription to the publisher, whose demand is the
+ * credit granted by the client: the server only sends as many notifications
+ * as the client has asked for, and the notifications the client is not ready
+ * for are held, and eventually dropped, by the publisher rather than by the
+ * socket buffers. Notifications are sent as serialized Java objects, as by the
+ * RMI connector, so the server should only be exposed to the same clients as
+ * the JMX connectors.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class NotificationStreamServer implements NotificationStreamServerMBean {
+
+    /**
+     * A <tt>ByteArrayOutputStream</tt> whose buffer is written without being
+     * copied
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(1024);
+        }
+
+        void writeTo(DataOutputStream out, byte type) throws IOException {
+            Frames.write(out, type, buf, count);
+        }
+    }
+
+    /**
+     * A connected client: the reader of its credits, and the subscriber
+     * writing its notifications
+     */
+    private class Connection implements Flow.Subscriber<Notification>,
+            Runnable {
+        private final Buffer               buffer = new Buffer();
+        private final AtomicBoolean        closed = new AtomicBoolean();
+        private final DataInputStream      in;
+        private final DataOutputStream     out;
+        private final Socket               socket;
+        private volatile Flow.Subscription subscription;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            in = new DataInputStream(
+                                     new BufferedInputStream(
+                                                             socket.getInputStream()));
+            out = new DataOutputStream(
+                                       new BufferedOutputStream(
+                                                                socket.getOutputStream()));
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                out.writeInt(1);
+                out.writeByte(Frames.COMPLETE);
+                out.flush();
+            } catch (IOException e) {
+                log.trace("Unable to complete the stream", e);
+            }
+            close();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            try {
+                buffer.reset();
+                new DataOutputStream(buffer).writeUTF(String.valueOf(throwable));
+                buffer.writeTo(out, Frames.ERROR);
+                out.flush();
+            } catch (IOException e) {
+                log.trace("Unable to fail the stream", e);
+            }
+            close();
+        }
+
+        @Override
+        public void onNext(Notification notification) {
+            buffer.reset();
+            try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+                oos.writeObject(notification);
+            } catch (NotSerializableException e) {
+                if (log.isTraceEnabled()) {
+                    log.trace(String.format("Skipping %s", notification), e);
+                }
+                unserializable.incrementAndGet();
+                // The credit of the skipped notification is still due
+                subscription.request(1);
+                return;
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to serialize", e);
+            }
+            try {
+                buffer.writeTo(out, Frames.NOTIFICATION);
+                out.flush();
+            } catch (IOException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Unable to write to %s",
+                                            socket.getRemoteSocketAddress()),
+                              e);
+                }
+                close();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void run() {
+            try {
+                publisher.subscribe(this);
+                if (closed.get()) {
+                    subscription.cancel();
+                    return;
+                }
+                while (!closed.get()) {
+                    int length = Frames.readLength(in);
+                    byte type = in.readByte();
+                    if (type != Frames.CREDIT || length != 5) {
+                        throw new StreamCorruptedException(
+                                                           String.format("Unexpected frame: %s",
+                                                                         type));
+                    }
+                    int credit = in.readInt();
+                    if (credit <= 0) {
+                        throw new StreamCorruptedException(
+                                                           String.format("Invalid credit: %s",
+                                                                         credit));
+                    }
+                    subscription.request(credit);
+                }
+            } catch (EOFException | SocketException e) {
+                if (log.isTraceEnabled()) {
+                    log.trace(String.format("%s disconnected",
+                                            socket.getRemoteSocketAddress()),
+                              e);
+                }
+            } catch (IOException e) {
+                log.warn(String.format("Closing %s",
+                                       socket.getRemoteSocketAddress()), e);
+            } finally {
+                close();
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            connections.remove(this);
+            Flow.Subscription s = subscription;
+            if (s != null) {
+                s.cancel();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                log.trace("Error closing the socket", e);
+            }
+        }
+    }
+
+    private static final Logger                log            = LoggerFactory.getLogger(NotificationStreamServer.class);
+
+    private final Set<Connection>              connections    = new CopyOnWriteArraySet<Connection>();
+    private final Flow.Publisher<Notification> publisher;
+    private final ServerSocket                 serverSocket;
+    private final AtomicLong                   unserializable = new AtomicLong();
+
+    /**
+     * @param publisher
+     *            - the publisher of the notifications served
+     * @param address
+     *            - the address to listen on
+     * @throws IOException
+     *             if the address cannot be bound
+     */
+    public NotificationStreamServer(Flow.Publisher<Notification> publisher,
+                                    InetSocketAddress address)
+                                                              throws IOException {
+        this.publisher = publisher;
+        serverSocket = new ServerSocket();
+        serverSocket.bind(address);
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.size();
+    }
+
+    @Override
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public long getUnserializable() {
+        return unserializable.get();
+    }
+
+    /**
+     * Start accepting connections
+     */
+    public void start() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "Notification stream acceptor " + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stop accepting connections, and close the connected ones
+     */
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            log.trace("Error closing the server socket", e);
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Unable to accept a connection", e);
+                }
+                continue;
+            }
+            try {
+                socket.setTcpNoDelay(true);
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                Thread reader = new Thread(connection,
+                                           "Notification stream "
+                                                   + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                log.warn(String.format("Unable to serve %s",
+                                       socket.getRemoteSocketAddress()), e);
+                try {
+                    socket.close();
+                } catch (IOException e1) {
+                    log.trace("Error closing the socket", e1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.stream;
+
+/**
+ * The management interface of a {@link NotificationStreamServer}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public interface NotificationStreamServerMBean {
+
+    /**
+     * @return the number of connected clients
+     */
+    int getConnections();
+
+    /**
+     * @return the port the server listens on
+     */
+    int getPort();
+
+    /**
+     * @return the number of notifications which could not be serialized, and
+     *         were skipped
+     */
+    long getUnserializable();
+}
@@ -0,0 +1,256 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Concurrent mounts and unmounts of the same and of different mount points of
+ * a {@link CascadingService}, over in process RMI connectors.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class ConcurrentMountTest {
+    public interface EchoMBean {
+        int getValue();
+    }
+
+    public static class Echo implements EchoMBean {
+        @Override
+        public int getValue() {
+            return 1;
+        }
+    }
+
+    private static final int         MBEANS  = 25;
+    private static final int         THREADS = 6;
+
+    private ExecutorService          executor;
+    private ObjectName               pattern;
+    private List<JMXConnectorServer> servers = new ArrayList<>();
+    private CascadingService         service;
+    private MBeanServer              target;
+
+    @After
+    public void cleanup() {
+        service.postDeregister();
+        executor.shutdownNow();
+        for (JMXConnectorServer server : servers) {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        pattern = new ObjectName("test:type=echo,*");
+        target = MBeanServerFactory.newMBeanServer();
+        service = new CascadingService(target);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @Test
+    public void testDifferentMountPoints() throws Exception {
+        final List<JMXServiceURL> sources = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            sources.add(startSource());
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<String>> mounts = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            final JMXServiceURL source = sources.get(i);
+            final String node = "node" + i;
+            mounts.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return service.mount(source, null, pattern, node);
+                }
+            }));
+        }
+        start.countDown();
+        final List<String> ids = new ArrayList<>();
+        for (Future<String> mount : mounts) {
+            ids.add(mount.get());
+        }
+        assertEquals(THREADS, service.getMountPointIDs().length);
+        assertEquals(THREADS * MBEANS, proxies());
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(MBEANS, proxiesOf("node" + i));
+        }
+
+        final CountDownLatch unmount = new CountDownLatch(1);
+        final List<Future<Boolean>> unmounts = new ArrayList<>();
+        for (final String id : ids) {
+            unmounts.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    unmount.await();
+                    return service.unmount(id);
+                }
+            }));
+        }
+        unmount.countDown();
+        for (Future<Boolean> result : unmounts) {
+            assertTrue(result.get());
+        }
+        assertEquals(0, service.getMountPointIDs().length);
+        assertEquals(0, proxies());
+    }
+
+    @Test
+    public void testSameMountPoint() throws Exception {
+        final JMXServiceURL source = startSource();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<String>> mounts = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            mounts.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return service.mount(source, null, pattern, "node");
+                }
+            }));
+        }
+        start.countDown();
+        String id = null;
+        int rejected = 0;
+        for (Future<String> mount : mounts) {
+            try {
+                id = mount.get();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                rejected++;
+            }
+        }
+        assertEquals(THREADS - 1, rejected);
+        assertTrue(service.isMounted(id));
+        assertEquals(MBEANS, proxies());
+
+        final String mountPointID = id;
+        final CountDownLatch unmount = new CountDownLatch(1);
+        final List<Future<Boolean>> unmounts = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            unmounts.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    unmount.await();
+                    return service.unmount(mountPointID);
+                }
+            }));
+        }
+        unmount.countDown();
+        int unmounted = 0;
+        for (Future<Boolean> result : unmounts) {
+            if (result.get()) {
+                unmounted++;
+            }
+        }
+        assertEquals(1, unmounted);
+        assertFalse(service.isMounted(mountPointID));
+        assertEquals(0, proxies());
+    }
+
+    @Test
+    public void testMountRacingUnmount() throws Exception {
+        final JMXServiceURL source = startSource();
+        final String id = CascadingService.makeID(source, pattern, "node");
+        for (int round = 0; round < 10; round++) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final Future<String> mount = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    start.await();
+                    return service.mount(source, null, pattern, "node");
+                }
+            });
+            final Future<Boolean> unmount = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    start.await();
+                    return service.unmount(id);
+                }
+            });
+            start.countDown();
+            try {
+                mount.get();
+            } catch (ExecutionException e) {
+                // unmounted while mounting
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            unmount.get();
+            // whichever won, the mount point is either whole or gone
+            if (service.isMounted(id)) {
+                assertEquals(MBEANS, proxies());
+                assertTrue(service.unmount(id));
+            }
+            assertEquals(0, proxies());
+        }
+    }
+
+    private int proxies() {
+        return target.queryNames(pattern, null).size();
+    }
+
+    private int proxiesOf(String node) throws Exception {
+        return target.queryNames(new ObjectName(
+                                                String.format("test:type=echo,%s=%s,*",
+                                                              CascadingAgent.CASCADED_NODE_PROPERTY_NAME,
+                                                              node)),
+                                 null).size();
+    }
+
+    private JMXServiceURL startSource() throws Exception {
+        final MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+        for (int i = 0; i < MBEANS; i++) {
+            mbs.registerMBean(new Echo(),
+                              new ObjectName("test:type=echo,id=" + i));
+        }
+        final JMXConnectorServer server = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL(
+                                                                                                              "service:jmx:rmi://localhost"),
+                                                                                            null,
+                                                                                            mbs);
+        server.start();
+        servers.add(server);
+        return server.getAddress();
+    }
+}
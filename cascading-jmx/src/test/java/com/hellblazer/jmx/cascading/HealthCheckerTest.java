@@ -0,0 +1,134 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServerConnection;
+
+import org.junit.Test;
+
+import com.hellblazer.jmx.cascading.metrics.OperationStats;
+
+/**
+ * The bounded pings of a {@link HealthChecker}, over a connection whose
+ * <tt>getDefaultDomain()</tt> hangs, ignoring interrupts, until released.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class HealthCheckerTest {
+    private static class HangingSource implements InvocationHandler {
+        final AtomicInteger  pings   = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("getMBeanServerConnection")) {
+                return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                              new Class<?>[] { MBeanServerConnection.class },
+                                              this);
+            }
+            if (method.getName().equals("getDefaultDomain")) {
+                pings.incrementAndGet();
+                boolean interrupted = false;
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                return "DefaultDomain";
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private static class Transitions implements HealthChecker.Listener {
+        final AtomicInteger alive = new AtomicInteger();
+        final AtomicInteger dead  = new AtomicInteger();
+
+        @Override
+        public void alive(ConnectionHealth health) {
+            alive.incrementAndGet();
+        }
+
+        @Override
+        public void dead(ConnectionHealth health) {
+            dead.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void testHungPingFailsWithinTimeout() throws Exception {
+        final HangingSource source = new HangingSource();
+        final MBeanServerConnectionFactory factory = (MBeanServerConnectionFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                                                            new Class<?>[] { MBeanServerConnectionFactory.class },
+                                                                                                            source);
+        final Transitions transitions = new Transitions();
+        final HealthChecker checker = new HealthChecker(1, 60000);
+        checker.setTimeoutMillis(100);
+        try {
+            final ConnectionHealth health = checker.register("hung", factory,
+                                                             transitions);
+            long start = System.nanoTime();
+            checker.confirm(health);
+            assertTrue("the ping was not bounded",
+                       System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertFalse(health.isAlive());
+            assertTrue(health.getLastFailure() instanceof TimeoutException);
+            assertEquals(1, transitions.dead.get());
+
+            // the hung ping is not piled up on
+            start = System.nanoTime();
+            checker.check(health);
+            assertTrue("the check waited on the pending ping",
+                       System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            assertEquals(1, source.pings.get());
+            assertEquals(2, health.getConsecutiveFailures());
+
+            source.release.countDown();
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (health.pinging && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            checker.confirm(health);
+            assertTrue(health.isAlive());
+            assertEquals(1, transitions.alive.get());
+            assertEquals(2, source.pings.get());
+
+            final OperationStats rtt = health.getRoundTripStats();
+            assertEquals(ConnectionHealth.HEALTH_CHECK, rtt.getOperation());
+            assertEquals(1, rtt.getCount());
+            assertEquals(2, rtt.getErrors());
+        } finally {
+            checker.shutdown();
+        }
+    }
+}
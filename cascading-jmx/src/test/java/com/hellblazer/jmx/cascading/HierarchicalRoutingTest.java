@@ -0,0 +1,164 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * Hierarchical routing of a {@link CascadingService} mounting another
+ * <tt>CascadingService</tt>, which itself mounts two leaf
+ * <tt>MBeanServer</tt>s, over in process RMI connectors.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class HierarchicalRoutingTest {
+    public interface WhoMBean {
+        String getWho();
+    }
+
+    public static class Who extends NotificationBroadcasterSupport implements
+            WhoMBean {
+        private final String who;
+
+        public Who(String who) {
+            this.who = who;
+        }
+
+        @Override
+        public String getWho() {
+            return who;
+        }
+    }
+
+    private final List<CascadingService>   services = new ArrayList<>();
+    private final List<JMXConnectorServer> servers  = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        for (CascadingService service : services) {
+            service.postDeregister();
+        }
+        for (JMXConnectorServer server : servers) {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    @Test
+    public void testLeavesAreMountedOnceUnderTheirCompoundNode()
+                                                                  throws Exception {
+        final MBeanServer middle = MBeanServerFactory.newMBeanServer();
+        final CascadingService middleService = service(middle);
+        for (int i = 1; i <= 2; i++) {
+            final MBeanServer leaf = MBeanServerFactory.newMBeanServer();
+            leaf.registerMBean(new Who("leaf" + i),
+                               new ObjectName("app:type=Leaf"));
+            middleService.mount(export(leaf).getAddress(), null, null, "l"
+                                                                       + i);
+        }
+        middle.registerMBean(new Who("middle"),
+                             new ObjectName("app:type=Middle"));
+
+        final MBeanServer top = MBeanServerFactory.newMBeanServer();
+        final CascadingService topService = service(top);
+        topService.setHierarchicalRoutingEnabled(true);
+        topService.setHierarchicalRoutingHosts(new String[] { "127.0.0.1" });
+        topService.mount(export(middle).getAddress(), null, null, "m");
+
+        // the leaves are mounted in the background
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (routedNodes(topService).size() < 2
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        final Set<String> expected = new HashSet<>();
+        expected.add(ProxyCascadingAgent.getCompoundNode("m", "l1"));
+        expected.add(ProxyCascadingAgent.getCompoundNode("m", "l2"));
+        assertEquals(expected, routedNodes(topService));
+
+        final Set<ObjectName> leaves = top.queryNames(new ObjectName(
+                                                                     "app:type=Leaf,*"),
+                                                      null);
+        assertEquals(2, leaves.size());
+        final Set<String> nodes = new HashSet<>();
+        for (ObjectName name : leaves) {
+            final String node = name.getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME);
+            assertTrue(nodes.add(node));
+            assertEquals("leaf" + node.substring(node.length() - 1),
+                         top.getAttribute(name, "Who"));
+        }
+        assertEquals(expected, nodes);
+
+        // the MBeans of the middle server itself are still proxied through it
+        final Set<ObjectName> own = top.queryNames(new ObjectName(
+                                                                  "app:type=Middle,*"),
+                                                   null);
+        assertEquals(1, own.size());
+        assertEquals("m",
+                     own.iterator().next().getKeyProperty(CascadingAgent.CASCADED_NODE_PROPERTY_NAME));
+    }
+
+    private JMXConnectorServer export(MBeanServer mbs) throws Exception {
+        final JMXConnectorServer server = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL(
+                                                                                                           "service:jmx:rmi://127.0.0.1"),
+                                                                                         null, mbs);
+        server.start();
+        servers.add(server);
+        return server;
+    }
+
+    // The nodes of the leaves mounted directly
+    //
+    private Set<String> routedNodes(CascadingService service) {
+        final Set<String> nodes = new HashSet<>();
+        for (MountSpec spec : service.getMountSpecs()) {
+            if (spec.getNodeName().indexOf(CascadingAgent.CASCADED_NODE_SEPARATOR) >= 0) {
+                nodes.add(spec.getNodeName());
+            }
+        }
+        return nodes;
+    }
+
+    private CascadingService service(MBeanServer mbs) throws Exception {
+        final CascadingService service = new CascadingService(mbs);
+        mbs.registerMBean(service, null);
+        services.add(service);
+        return service;
+    }
+}
@@ -0,0 +1,392 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.Notification;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.NotificationFilter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+import javax.security.auth.Subject;
+
+import org.junit.Test;
+
+import com.hellblazer.jmx.cascading.proxy.ProxyCascadingAgent;
+
+/**
+ * The reconnection of a {@link ReconnectingMBeanServerConnectionFactory}, over
+ * in-process connectors whose connections stop delivering notifications once
+ * they fail.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class ReconnectingMBeanServerConnectionFactoryTest {
+
+    public static class Emitter extends NotificationBroadcasterSupport
+            implements EmitterMBean {
+        private long sequence;
+
+        @Override
+        public void emit() {
+            sendNotification(new Notification("test.emitted", this,
+                                              ++sequence));
+        }
+    }
+
+    public interface EmitterMBean {
+        void emit();
+    }
+
+    /**
+     * A connector to an MBeanServer of this VM
+     */
+    private static class StubConnector implements JMXConnector {
+        private static final AtomicInteger                           ids     = new AtomicInteger();
+
+        private final MBeanServerConnection                          connection;
+        private final NotificationBroadcasterSupport                 emitter = new NotificationBroadcasterSupport();
+        private final Map<NotificationListener, NotificationListener> gates   = new ConcurrentHashMap<NotificationListener, NotificationListener>();
+        private final String                                         id      = "stub-"
+                                                                               + ids.incrementAndGet();
+        private volatile boolean                                     open    = true;
+
+        StubConnector(final MBeanServer mbs, final boolean failProbe) {
+            connection = (MBeanServerConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                                        new Class<?>[] { MBeanServerConnection.class },
+                                                                        new InvocationHandler() {
+                                                                            @Override
+                                                                            public Object invoke(Object proxy,
+                                                                                                 Method method,
+                                                                                                 Object[] args)
+                                                                                                               throws Throwable {
+                                                                                return call(mbs,
+                                                                                            failProbe,
+                                                                                            method,
+                                                                                            args);
+                                                                            }
+                                                                        });
+        }
+
+        @Override
+        public void addConnectionNotificationListener(NotificationListener listener,
+                                                      NotificationFilter filter,
+                                                      Object handback) {
+            emitter.addNotificationListener(listener, filter, handback);
+        }
+
+        @Override
+        public void close() {
+            open = false;
+            send(JMXConnectionNotification.CLOSED);
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void connect(Map<String, ?> env) {
+        }
+
+        @Override
+        public String getConnectionId() {
+            return id;
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection() {
+            return connection;
+        }
+
+        @Override
+        public MBeanServerConnection getMBeanServerConnection(Subject delegationSubject) {
+            return connection;
+        }
+
+        @Override
+        public void removeConnectionNotificationListener(NotificationListener listener)
+                                                                                       throws javax.management.ListenerNotFoundException {
+            emitter.removeNotificationListener(listener);
+        }
+
+        @Override
+        public void removeConnectionNotificationListener(NotificationListener l,
+                                                         NotificationFilter f,
+                                                         Object handback)
+                                                                         throws javax.management.ListenerNotFoundException {
+            emitter.removeNotificationListener(l, f, handback);
+        }
+
+        void fail() {
+            open = false;
+            send(JMXConnectionNotification.FAILED);
+        }
+
+        private Object call(MBeanServer mbs, boolean failProbe, Method method,
+                            Object[] args) throws Throwable {
+            if (!open) {
+                throw new IOException(id + " is closed");
+            }
+            if (failProbe && method.getName().equals("getDefaultDomain")) {
+                // the connector fails while probed
+                fail();
+                throw new IOException(id + " failed");
+            }
+            if (method.getName().equals("addNotificationListener")
+                && args[1] instanceof NotificationListener) {
+                args[1] = gate((NotificationListener) args[1]);
+            } else if (method.getName().equals("removeNotificationListener")
+                       && args[1] instanceof NotificationListener) {
+                final NotificationListener gate = gates.get(args[1]);
+                if (gate != null) {
+                    args[1] = gate;
+                }
+            }
+            try {
+                return method.invoke(mbs, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        // Delivers the notifications to the listener while the connector is
+        // open
+        //
+        private NotificationListener gate(final NotificationListener listener) {
+            NotificationListener gate = gates.get(listener);
+            if (gate == null) {
+                gate = new NotificationListener() {
+                    @Override
+                    public void handleNotification(Notification notification,
+                                                   Object handback) {
+                        if (open) {
+                            listener.handleNotification(notification,
+                                                        handback);
+                        }
+                    }
+                };
+                gates.put(listener, gate);
+            }
+            return gate;
+        }
+
+        private void send(String type) {
+            emitter.sendNotification(new JMXConnectionNotification(type, this,
+                                                                   id, 0, type,
+                                                                   null));
+        }
+    }
+
+    private static final JMXServiceURL URL = url();
+
+    private static JMXServiceURL url() {
+        try {
+            return new JMXServiceURL("service:jmx:rmi://localhost/stub");
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final AtomicInteger                        connects      = new AtomicInteger();
+    private final List<String>                         notifications = new CopyOnWriteArrayList<String>();
+
+    @Test
+    public void testBackoff() throws Exception {
+        final ReconnectingMBeanServerConnectionFactory factory = new ReconnectingMBeanServerConnectionFactory(
+                                                                                                              new StubConnector(
+                                                                                                                                MBeanServerFactory.newMBeanServer(),
+                                                                                                                                false),
+                                                                                                              URL,
+                                                                                                              null,
+                                                                                                              null);
+        factory.setInitialDelayMillis(100);
+        factory.setMaxDelayMillis(1000);
+        factory.setJitter(0);
+        assertEquals(100, factory.backoff(0));
+        assertEquals(200, factory.backoff(1));
+        assertEquals(400, factory.backoff(2));
+        assertEquals(800, factory.backoff(3));
+        assertEquals(1000, factory.backoff(4));
+        assertEquals(1000, factory.backoff(40));
+        factory.setJitter(0.5);
+        for (int i = 0; i < 100; i++) {
+            final long delay = factory.backoff(2);
+            assertTrue("Delay out of range: " + delay, delay > 200
+                                                       && delay <= 400);
+        }
+        factory.close();
+    }
+
+    @Test
+    public void testFailsAfterMaxAttempts() throws Exception {
+        final MBeanServer source = MBeanServerFactory.newMBeanServer();
+        final StubConnector initial = new StubConnector(source, false);
+        final ReconnectingMBeanServerConnectionFactory factory = new ReconnectingMBeanServerConnectionFactory(
+                                                                                                              initial,
+                                                                                                              URL,
+                                                                                                              null,
+                                                                                                              null) {
+            @Override
+            JMXConnector connect() {
+                connects.incrementAndGet();
+                // every reconnected connector fails while probed
+                return new StubConnector(source, true);
+            }
+        };
+        factory.setInitialDelayMillis(1);
+        factory.setJitter(0);
+        factory.setMaxAttempts(3);
+        final CountDownLatch failed = listen(factory,
+                                             JMXConnectionNotification.FAILED);
+        initial.fail();
+        assertTrue("Did not give up", failed.await(10, TimeUnit.SECONDS));
+        // no reconnection chain outlives the one which gave up
+        Thread.sleep(200);
+        assertEquals(3, connects.get());
+        assertEquals(1, count(JMXConnectionNotification.FAILED));
+        assertEquals(1, count(ReconnectingMBeanServerConnectionFactory.RECONNECTING));
+        assertEquals(0, count(JMXConnectionNotification.OPENED));
+        assertFalse(factory.isAvailable());
+        try {
+            factory.getMBeanServerConnection();
+            fail("Connection available after giving up");
+        } catch (IOException e) {
+            // expected
+        }
+        factory.close();
+    }
+
+    @Test
+    public void testReconnectsAndReattaches() throws Exception {
+        final MBeanServer source = MBeanServerFactory.newMBeanServer();
+        final MBeanServer target = MBeanServerFactory.newMBeanServer();
+        final ObjectName name = new ObjectName("test:type=Emitter");
+        final Emitter emitter = new Emitter();
+        source.registerMBean(emitter, name);
+        final StubConnector initial = new StubConnector(source, false);
+        final ReconnectingMBeanServerConnectionFactory factory = new ReconnectingMBeanServerConnectionFactory(
+                                                                                                              initial,
+                                                                                                              URL,
+                                                                                                              null,
+                                                                                                              null) {
+            @Override
+            JMXConnector connect() throws IOException {
+                // the first attempt fails, the next succeeds
+                if (connects.incrementAndGet() == 1) {
+                    throw new IOException("source unreachable");
+                }
+                return new StubConnector(source, false);
+            }
+        };
+        factory.setInitialDelayMillis(1);
+        factory.setJitter(0);
+        final ProxyCascadingAgent agent = new ProxyCascadingAgent(
+                                                                  factory,
+                                                                  new ObjectName(
+                                                                                 "test:*"),
+                                                                  null, "n",
+                                                                  target,
+                                                                  "test");
+        agent.start();
+        final ObjectName proxy = ProxyCascadingAgent.getTargetName("n", name);
+        final List<Long> received = new CopyOnWriteArrayList<Long>();
+        target.addNotificationListener(proxy, new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification,
+                                           Object handback) {
+                received.add(notification.getSequenceNumber());
+            }
+        }, null, null);
+        emitter.emit();
+        awaitSize(received, 1);
+
+        // registered after the agent, so that the agent has handled OPENED
+        // once it is seen here
+        final CountDownLatch opened = listen(factory,
+                                             JMXConnectionNotification.OPENED);
+        initial.fail();
+        assertTrue("Did not reconnect", opened.await(10, TimeUnit.SECONDS));
+        assertEquals(2, connects.get());
+        assertTrue(factory.isAvailable());
+        assertTrue("The proxy is gone", target.isRegistered(proxy));
+
+        // delivered through the listeners registered again on the new
+        // connection
+        emitter.emit();
+        awaitSize(received, 2);
+        assertEquals(2L, received.get(1).longValue());
+        agent.stop();
+        factory.close();
+    }
+
+    private void awaitSize(List<?> list, int size) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, list.size());
+    }
+
+    private int count(String type) {
+        int count = 0;
+        for (String notification : notifications) {
+            if (notification.equals(type)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private CountDownLatch listen(ReconnectingMBeanServerConnectionFactory factory,
+                                  final String type) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        factory.addConnectionNotificationListener(new NotificationListener() {
+            @Override
+            public void handleNotification(Notification notification,
+                                           Object handback) {
+                notifications.add(notification.getType());
+                if (notification.getType().equals(type)) {
+                    latch.countDown();
+                }
+            }
+        }, null, null);
+        return latch;
+    }
+}
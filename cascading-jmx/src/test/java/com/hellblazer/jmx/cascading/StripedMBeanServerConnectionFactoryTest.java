@@ -0,0 +1,154 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerConnection;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnector;
+
+import org.junit.Test;
+
+import com.hellblazer.jmx.cascading.StripedMBeanServerConnectionFactory.Routing;
+
+/**
+ * The failover of the requests of a {@link StripedMBeanServerConnectionFactory}
+ * from a failing secondary stripe to the primary stripe.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class StripedMBeanServerConnectionFactoryTest {
+    public interface ValueMBean {
+        int getValue();
+    }
+
+    public static class Value implements ValueMBean {
+        @Override
+        public int getValue() {
+            return 42;
+        }
+    }
+
+    // A connector to an MBeanServer whose requests fail with an IOException
+    // once broken
+    //
+    private static class StubConnector implements InvocationHandler {
+        final AtomicBoolean broken   = new AtomicBoolean();
+        final AtomicInteger requests = new AtomicInteger();
+        final MBeanServer   server;
+
+        StubConnector(MBeanServer server) {
+            this.server = server;
+        }
+
+        JMXConnector connector() {
+            return (JMXConnector) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                         new Class<?>[] { JMXConnector.class },
+                                                         this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+                                                                        throws Throwable {
+            if (method.getDeclaringClass() == JMXConnector.class) {
+                switch (method.getName()) {
+                    case "getMBeanServerConnection":
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                      new Class<?>[] { MBeanServerConnection.class },
+                                                      this);
+                    case "addConnectionNotificationListener":
+                    case "removeConnectionNotificationListener":
+                    case "close":
+                        return null;
+                    case "getConnectionId":
+                        return "stub-" + System.identityHashCode(this);
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(this, args);
+            }
+            requests.incrementAndGet();
+            if (broken.get()) {
+                throw new IOException("broken");
+            }
+            try {
+                return method.invoke(server, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    @Test
+    public void testFailsOverToPrimary() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        // a name routed to the secondary stripe
+        ObjectName name = null;
+        for (int i = 0; name == null; i++) {
+            final ObjectName candidate = new ObjectName("test:name=" + i);
+            if ((candidate.hashCode() & 0x7fffffff) % 2 == 1) {
+                name = candidate;
+            }
+        }
+        server.registerMBean(new Value(), name);
+        final StubConnector primary = new StubConnector(server);
+        final StubConnector secondary = new StubConnector(server);
+        final StripedMBeanServerConnectionFactory factory = new StripedMBeanServerConnectionFactory(
+                                                                                                    primary.connector(),
+                                                                                                    Arrays.asList(secondary.connector()),
+                                                                                                    null,
+                                                                                                    Routing.OBJECT_NAME_HASH);
+        final MBeanServerConnection connection = factory.getMBeanServerConnection();
+        assertEquals(42, connection.getAttribute(name, "Value"));
+        assertEquals(1, secondary.requests.get());
+        assertEquals(0, primary.requests.get());
+
+        secondary.broken.set(true);
+        assertEquals(42, connection.getAttribute(name, "Value"));
+        assertEquals(2, secondary.requests.get());
+        assertEquals(1, primary.requests.get());
+        assertEquals(1, factory.getLiveStripeCount());
+
+        // out of the rotation
+        assertEquals(42, connection.getAttribute(name, "Value"));
+        assertEquals(2, secondary.requests.get());
+        assertEquals(2, primary.requests.get());
+
+        primary.broken.set(true);
+        try {
+            connection.getAttribute(name, "Value");
+            fail("a failure of the primary stripe is not retried");
+        } catch (IOException e) {
+            // expected
+        }
+        factory.close();
+    }
+}
@@ -0,0 +1,138 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Round trips of the topology through a snapshot file.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class TopologySnapshotTest {
+
+    private static MBeanInfo info(String className) {
+        final MBeanParameterInfo[] signature = new MBeanParameterInfo[] { new MBeanParameterInfo(
+                                                                                                 "delta",
+                                                                                                 "int",
+                                                                                                 "the delta") };
+        return new MBeanInfo(
+                             className,
+                             "A test MBean",
+                             new MBeanAttributeInfo[] {
+                                     new MBeanAttributeInfo("Count", "long",
+                                                            "the count", true,
+                                                            true, false),
+                                     new MBeanAttributeInfo("Enabled",
+                                                            "boolean", null,
+                                                            true, false, true) },
+                             new MBeanConstructorInfo[] { new MBeanConstructorInfo(
+                                                                                   className,
+                                                                                   "the constructor",
+                                                                                   signature) },
+                             new MBeanOperationInfo[] { new MBeanOperationInfo(
+                                                                               "add",
+                                                                               "adds the delta",
+                                                                               signature,
+                                                                               "void",
+                                                                               MBeanOperationInfo.ACTION) },
+                             new MBeanNotificationInfo[] { new MBeanNotificationInfo(
+                                                                                     new String[] {
+                                                                                             "test.a",
+                                                                                             "test.b" },
+                                                                                     "javax.management.Notification",
+                                                                                     "the notifications") });
+    }
+
+    @Test
+    public void testRejectsCorrupt() throws Exception {
+        final File file = File.createTempFile("topology", ".snapshot");
+        file.deleteOnExit();
+        final Map<ObjectName, MBeanInfo> mbeans = new LinkedHashMap<ObjectName, MBeanInfo>();
+        mbeans.put(new ObjectName("test:type=A"), info("test.A"));
+        final List<TopologySnapshot.Mount> mounts = new ArrayList<TopologySnapshot.Mount>();
+        mounts.add(new TopologySnapshot.Mount(null, null, "n", mbeans));
+        new TopologySnapshot(1L, mounts).write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the count of the interned MBeanInfos
+            raf.seek(16);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        try {
+            TopologySnapshot.read(file);
+            fail("read a corrupt snapshot");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final File file = File.createTempFile("topology", ".snapshot");
+        file.deleteOnExit();
+        final MBeanInfo a = info("test.A");
+        final MBeanInfo b = info("test.B");
+        final Map<ObjectName, MBeanInfo> first = new LinkedHashMap<ObjectName, MBeanInfo>();
+        first.put(new ObjectName("test:type=A,id=1"), a);
+        first.put(new ObjectName("test:type=A,id=2"), a);
+        first.put(new ObjectName("test:type=B"), b);
+        final Map<ObjectName, MBeanInfo> second = new LinkedHashMap<ObjectName, MBeanInfo>();
+        second.put(new ObjectName("test:type=A,id=3"), a);
+        final List<TopologySnapshot.Mount> mounts = new ArrayList<TopologySnapshot.Mount>();
+        mounts.add(new TopologySnapshot.Mount("service:jmx:rmi://host1",
+                                              new ObjectName("test:*"), "n1",
+                                              first));
+        mounts.add(new TopologySnapshot.Mount(null, null, null, second));
+        new TopologySnapshot(1234L, mounts).write(file);
+        // replacing the file again must not be prevented by the mapping
+        new TopologySnapshot(1234L, mounts).write(file);
+
+        final TopologySnapshot read = TopologySnapshot.read(file);
+        assertEquals(1234L, read.getWritten());
+        assertEquals(4, read.getMBeanCount());
+        assertEquals(2, read.getMounts().size());
+        final TopologySnapshot.Mount mount = read.getMounts().get(0);
+        assertEquals("service:jmx:rmi://host1", mount.getSourceURL());
+        assertEquals(new ObjectName("test:*"), mount.getSourcePattern());
+        assertEquals("n1", mount.getNodeName());
+        assertEquals(first, mount.getMBeans());
+        assertSame("MBeanInfo not interned",
+                   mount.getMBeans().get(new ObjectName("test:type=A,id=1")),
+                   read.getMounts().get(1).getMBeans().get(new ObjectName(
+                                                                          "test:type=A,id=3")));
+        assertEquals(null, read.getMounts().get(1).getNodeName());
+    }
+}
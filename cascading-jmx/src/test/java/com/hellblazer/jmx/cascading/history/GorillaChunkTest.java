@@ -0,0 +1,197 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Round trips of series through a {@link GorillaChunk}, compared bit for bit.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class GorillaChunkTest {
+
+    @Test
+    public void testConstant() {
+        final long[] times = new long[1000];
+        final double[] values = new double[times.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = 1000000L + i * 15000L;
+            values[i] = 42.5;
+        }
+        final GorillaChunk chunk = roundTrip(times, values);
+        chunk.trim();
+        // a bit for the time and a bit for the value of each following
+        // sample, but for the first delta
+        assertTrue(String.format("%s bytes", chunk.bytes()),
+                   chunk.bytes() <= 16 + 9 + (2 * times.length + 7) / 8 + 8);
+    }
+
+    @Test
+    public void testDecoderSnapshot() {
+        final GorillaChunk chunk = new GorillaChunk();
+        chunk.append(1, 1.0);
+        chunk.append(2, 2.0);
+        final GorillaChunk.Decoder decoder = chunk.decoder();
+        chunk.append(3, 3.0);
+        assertTrue(decoder.next());
+        assertTrue(decoder.next());
+        assertEquals(2, decoder.time());
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void testLargeJumps() {
+        final long[] times = { 0, 1, 2, 100, 100, 5000, 5001, 1L << 40,
+                (1L << 40) + 1, Long.MAX_VALUE / 2, Long.MAX_VALUE / 2 + 60,
+                Long.MAX_VALUE - 1, Long.MAX_VALUE };
+        final double[] values = { 0.0, 1.0E300, -1.0E-300, 1.0, 2.0,
+                Double.MAX_VALUE, -Double.MAX_VALUE, Double.MIN_VALUE, 0.0,
+                Long.MAX_VALUE, Long.MIN_VALUE, 7.0, 7.0 };
+        roundTrip(times, values);
+    }
+
+    @Test
+    public void testLeadingZerosClamped() {
+        // the XOR of neighbouring raw bits has up to 63 leading zeros
+        final double[] values = new double[64];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Double.longBitsToDouble(i % 2 == 0 ? 1L : 1L << (i / 2));
+        }
+        roundTrip(times(values.length), values);
+    }
+
+    @Test
+    public void testRandom() {
+        final Random random = new Random(0x5eed);
+        for (int run = 0; run < 100; run++) {
+            final int size = 1 + random.nextInt(500);
+            final long[] times = new long[size];
+            final double[] values = new double[size];
+            long time = random.nextLong();
+            for (int i = 0; i < size; i++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        time += 15000;
+                        break;
+                    case 1:
+                        time += random.nextInt(5000);
+                        break;
+                    case 2:
+                        time += random.nextInt(Integer.MAX_VALUE);
+                        break;
+                    default:
+                        break;
+                }
+                times[i] = time;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        values[i] = i == 0 ? 0.0 : values[i - 1];
+                        break;
+                    case 1:
+                        values[i] = random.nextInt(100);
+                        break;
+                    case 2:
+                        values[i] = random.nextGaussian() * 1.0E6;
+                        break;
+                    default:
+                        values[i] = Double.longBitsToDouble(random.nextLong());
+                        break;
+                }
+            }
+            roundTrip(times, values);
+        }
+    }
+
+    @Test
+    public void testSignificantBits64() {
+        // XORs with both the highest and the lowest bit set
+        final double[] values = { Double.longBitsToDouble(0L),
+                Double.longBitsToDouble(0x8000000000000001L),
+                Double.longBitsToDouble(0L),
+                Double.longBitsToDouble(0xFFFFFFFFFFFFFFFFL),
+                Double.longBitsToDouble(0x7FFFFFFFFFFFFFFEL),
+                Double.longBitsToDouble(0x8000000000000001L) };
+        roundTrip(times(values.length), values);
+    }
+
+    @Test
+    public void testSpecialValues() {
+        final double[] values = { Double.NaN, Double.NaN, 0.0, -0.0, 0.0,
+                -0.0, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.longBitsToDouble(0x7FF0000000000001L),
+                Double.longBitsToDouble(0xFFF8000000000123L), Double.NaN,
+                Double.MIN_VALUE, -Double.MIN_VALUE, 1.0, 1.0 };
+        roundTrip(times(values.length), values);
+    }
+
+    @Test
+    public void testTrimmed() {
+        final Random random = new Random(7);
+        for (int size = 1; size < 200; size++) {
+            final long[] times = new long[size];
+            final double[] values = new double[size];
+            for (int i = 0; i < size; i++) {
+                times[i] = i * 1000L + random.nextInt(3);
+                values[i] = random.nextDouble();
+            }
+            final GorillaChunk chunk = encode(times, values);
+            chunk.trim();
+            decode(chunk, times, values);
+        }
+    }
+
+    private void decode(GorillaChunk chunk, long[] times, double[] values) {
+        assertEquals(times.length, chunk.size());
+        final GorillaChunk.Decoder decoder = chunk.decoder();
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(String.format("time %s", i), times[i], decoder.time());
+            assertEquals(String.format("value %s", i),
+                         Double.doubleToRawLongBits(values[i]),
+                         Double.doubleToRawLongBits(decoder.value()));
+        }
+        assertFalse(decoder.next());
+    }
+
+    private GorillaChunk encode(long[] times, double[] values) {
+        final GorillaChunk chunk = new GorillaChunk();
+        for (int i = 0; i < times.length; i++) {
+            chunk.append(times[i], values[i]);
+        }
+        return chunk;
+    }
+
+    private GorillaChunk roundTrip(long[] times, double[] values) {
+        final GorillaChunk chunk = encode(times, values);
+        decode(chunk, times, values);
+        return chunk;
+    }
+
+    private long[] times(int size) {
+        final long[] times = new long[size];
+        for (int i = 0; i < size; i++) {
+            times[i] = 1000L * i;
+        }
+        return times;
+    }
+}
@@ -0,0 +1,70 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.history;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * The bound on the series of a {@link TimeSeriesStore}, and the retention of
+ * the series which are no longer sampled.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class TimeSeriesStoreTest {
+
+    @Test
+    public void testStaleSeriesAreDiscarded() throws Exception {
+        final TimeSeriesStore store = new TimeSeriesStore(16, 2);
+        store.setRetention(60000);
+        final ObjectName gone = new ObjectName("test:name=gone");
+        final ObjectName live = new ObjectName("test:name=live");
+        final ObjectName next = new ObjectName("test:name=next");
+        long now = 1000000;
+        assertTrue(store.record("a", gone, "Count", now, 1));
+        assertTrue(store.record("a", live, "Count", now, 1));
+        assertFalse(store.record("a", next, "Count", now, 1));
+        assertEquals(1, store.getRejected());
+
+        for (int i = 0; i < 5; i++) {
+            now += 30000;
+            store.record("a", live, "Count", now, 1);
+        }
+        assertEquals(1, store.getSeriesCount());
+        assertNull(store.query("a", gone, "Count", 0, Long.MAX_VALUE));
+        assertNotNull(store.query("a", live, "Count", 0, Long.MAX_VALUE));
+        assertTrue(store.record("a", next, "Count", now, 1));
+        assertEquals(2, store.getSeriesCount());
+    }
+
+    @Test
+    public void testNoRetention() throws Exception {
+        final TimeSeriesStore store = new TimeSeriesStore(16, 2);
+        store.setRetention(0);
+        final ObjectName old = new ObjectName("test:name=old");
+        final ObjectName live = new ObjectName("test:name=live");
+        store.record("a", old, "Count", 0, 1);
+        store.record("a", live, "Count", Long.MAX_VALUE / 2, 1);
+        assertEquals(2, store.getSeriesCount());
+    }
+}
@@ -0,0 +1,129 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.limit;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Drives an {@link AdaptiveLimit} with synthetic round trip times, on a clock
+ * of its own.
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class AdaptiveLimitTest {
+    private static class ClockedLimit extends AdaptiveLimit {
+        long now;
+
+        @Override
+        long nanoTime() {
+            return now;
+        }
+    }
+
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testFailsFast() throws Exception {
+        ClockedLimit limit = new ClockedLimit();
+        limit.setMaxWaitMillis(0);
+        for (int i = 0; i < limit.getLimit(); i++) {
+            limit.acquire();
+        }
+        try {
+            limit.acquire();
+            fail("Acquired beyond the limit");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(1, limit.getThrottled());
+        assertEquals(1, limit.getRejected());
+        assertEquals(limit.getLimit(), limit.getInFlight());
+    }
+
+    @Test
+    public void testGrows() throws Exception {
+        ClockedLimit limit = new ClockedLimit();
+        assertEquals(4, limit.getLimit());
+        run(limit, MILLI, 200);
+        assertEquals(1000, limit.getNoLoadRttMicros());
+        assertEquals(AdaptiveLimit.DEFAULT_MAX_LIMIT, limit.getLimit());
+    }
+
+    @Test
+    public void testProbesWhenQueueing() throws Exception {
+        ClockedLimit limit = new ClockedLimit();
+        run(limit, MILLI, 10);
+        assertEquals(1000, limit.getNoLoadRttMicros());
+        boolean probed = false;
+        for (int i = 0; i < 2000 && !probed; i++) {
+            batch(limit, 2 * MILLI);
+            probed = limit.getLimit() == 4;
+        }
+        assertTrue("Never probed", probed);
+        run(limit, 2 * MILLI, 10);
+        assertEquals(2000, limit.getNoLoadRttMicros());
+    }
+
+    @Test
+    public void testShrinks() throws Exception {
+        ClockedLimit limit = new ClockedLimit();
+        run(limit, MILLI, 200);
+        final int grown = limit.getLimit();
+        run(limit, 3 * MILLI, 20);
+        assertTrue(String.format("%s >= %s", limit.getLimit(), grown),
+                   limit.getLimit() < grown / 4);
+    }
+
+    @Test
+    public void testSkipsProbeWithinTolerance() throws Exception {
+        ClockedLimit limit = new ClockedLimit();
+        limit.setMaxLimit(32);
+        run(limit, MILLI, 10);
+        for (int i = 0; i < 2000; i++) {
+            batch(limit, MILLI + MILLI / 4);
+            assertTrue("Probed within the tolerance", limit.getLimit() > 4);
+        }
+    }
+
+    // Fills the limit with operations which all complete after the round
+    // trip time
+    //
+    private void batch(ClockedLimit limit, long rtt) throws IOException {
+        final int n = limit.getLimit() - limit.getInFlight();
+        final long[] starts = new long[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = limit.acquire();
+        }
+        limit.now += rtt;
+        for (int i = 0; i < n; i++) {
+            limit.release(starts[i]);
+        }
+    }
+
+    private void run(ClockedLimit limit, long rtt, int batches)
+                                                                throws IOException {
+        for (int i = 0; i < batches; i++) {
+            batch(limit, rtt);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hellblazer.jmx.cascading.metrics;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * The admission and the decay of the keys of a {@link SlowCallTracker}
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class SlowCallTrackerTest {
+    private static SlowCallTracker tracker(int capacity, final AtomicLong clock) {
+        return new SlowCallTracker(capacity, 1, TimeUnit.SECONDS) {
+            @Override
+            long nanoTime() {
+                return clock.get();
+            }
+        };
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        final SlowCallTracker tracker = tracker(2, new AtomicLong());
+        final ObjectName a = new ObjectName("test:name=a");
+        final ObjectName b = new ObjectName("test:name=b");
+        final ObjectName c = new ObjectName("test:name=c");
+        tracker.record(a, Operation.GET_ATTRIBUTE, "A", 1000);
+        tracker.record(b, Operation.GET_ATTRIBUTE, "B", 5000);
+
+        // no faster than the least recent time of the full tracker
+        tracker.record(c, Operation.GET_ATTRIBUTE, "C", 1000);
+        SlowCall[] top = tracker.topByTotalTime(3);
+        assertEquals(2, top.length);
+        assertEquals("B", top[0].getAttribute());
+        assertEquals("A", top[1].getAttribute());
+
+        // slower evicts the least recent time
+        tracker.record(c, Operation.GET_ATTRIBUTE, "C", 2000);
+        top = tracker.topByTotalTime(3);
+        assertEquals(2, top.length);
+        assertEquals("B", top[0].getAttribute());
+        assertEquals("C", top[1].getAttribute());
+    }
+
+    @Test
+    public void testDecay() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        final SlowCallTracker tracker = tracker(1, clock);
+        final ObjectName old = new ObjectName("test:name=old");
+        final ObjectName now = new ObjectName("test:name=now");
+        for (int i = 0; i < 8; i++) {
+            tracker.record(old, Operation.INVOKE, "dump", 1000000);
+        }
+        tracker.record(now, Operation.INVOKE, "dump", 1000000);
+        assertEquals("test:name=old", tracker.topByTotalTime(1)[0].getObjectName());
+
+        // 8ms of calls halved four times is less than a 1ms call
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        tracker.record(now, Operation.INVOKE, "dump", 1);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        tracker.record(now, Operation.INVOKE, "dump", 1);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        tracker.record(now, Operation.INVOKE, "dump", 1);
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        tracker.record(now, Operation.INVOKE, "dump", 1000000);
+        final SlowCall[] top = tracker.topByTotalTime(1);
+        assertEquals("test:name=now", top[0].getObjectName());
+        assertEquals(1, top[0].getCount());
+    }
+}
@@ -0,0 +1,158 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package com.hellblazer.slp.jmx;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A consistent hash ring of the members sharing a set of keys. Each member is
+ * placed on the ring at a number of virtual nodes, and a key is owned by the
+ * member of the first virtual node at or after the hash of the key. Adding a
+ * member only moves to it the keys it now owns, and removing a member only
+ * moves its keys, to the remaining members in proportion.
+ * <p>
+ * The ring is not thread safe.
+ * </p>
+ * 
+ * @author hhildebrand
+ * 
+ */
+public class ConsistentHashRing {
+    public static final int                  DEFAULT_VIRTUAL_NODES = 128;
+
+    private final Set<String>                members               = new TreeSet<String>();
+    private final NavigableMap<Long, String> ring                  = new TreeMap<Long, String>();
+    private final int                        virtualNodes;
+
+    public ConsistentHashRing() {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param virtualNodes
+     *            - the number of points of each member on the ring
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException(
+                                               String.format("Invalid number of virtual nodes: %s",
+                                                             virtualNodes));
+        }
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Add the member to the ring
+     * 
+     * @return true if the member was not already on the ring
+     */
+    public boolean add(String member) {
+        if (!members.add(member)) {
+            return false;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            ring.put(hash(member + "#" + i), member);
+        }
+        return true;
+    }
+
+    /**
+     * Remove all the members
+     */
+    public void clear() {
+        members.clear();
+        ring.clear();
+    }
+
+    public boolean contains(String member) {
+        return members.contains(member);
+    }
+
+    public Set<String> getMembers() {
+        return Collections.unmodifiableSet(members);
+    }
+
+    public boolean isEmpty() {
+        return members.isEmpty();
+    }
+
+    /**
+     * Answer the member owning the key
+     * 
+     * @return the owner of the key, or null if the ring is empty
+     */
+    public String ownerOf(String key) {
+        if (ring.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = ring.ceilingEntry(hash(key));
+        if (entry == null) {
+            entry = ring.firstEntry();
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Remove the member from the ring
+     * 
+     * @return true if the member was on the ring
+     */
+    public boolean remove(String member) {
+        if (!members.remove(member)) {
+            return false;
+        }
+        for (int i = 0; i < virtualNodes; i++) {
+            final long point = hash(member + "#" + i);
+            if (member.equals(ring.get(point))) {
+                ring.remove(point);
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConsistentHashRing %s", members);
+    }
+
+    // The first 8 bytes of the MD5 digest, which spreads similar keys - such
+    // as the URLs of the nodes of one host - evenly around the ring
+    //
+    private static long hash(String key) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+        long hash = 0;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+}
@@ -16,18 +16,26 @@ package com.hellblazer.slp.jmx;
 
 import static com.hellblazer.slp.ServiceScope.SERVICE_TYPE;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.chiralBehaviors.disovery.configuration.DiscoveryModule;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -42,6 +50,7 @@ import com.hellblazer.slp.config.ServiceScopeConfiguration;
  * 
  */
 public class JmxDiscoveryConfiguration {
+    private static final Logger log = LoggerFactory.getLogger(JmxDiscoveryConfiguration.class);
 
     public static JmxDiscoveryConfiguration fromYaml(InputStream yaml)
                                                                       throws JsonParseException,
@@ -57,7 +66,7 @@ public class JmxDiscoveryConfiguration {
      * the target <tt>MBeanServer</tt>. This string may contain up to 2 %s
      * patterns to accomidate the host and port of the remote MBeanServer.
      */
-    public String                    targetPath   = "/[%s/%s]";
+    public String                    targetPath              = "/[%s/%s]";
 
     /**
      * An <tt>ObjectName</tt> pattern that must be satisfied by the
@@ -87,7 +96,34 @@ public class JmxDiscoveryConfiguration {
      * The list of abstract service names corresponding to desired JMX adapter
      * services
      */
-    public List<String>              serviceNames = Collections.emptyList();
+    public List<String>              serviceNames            = Collections.emptyList();
+
+    /**
+     * The abstract service type under which the aggregators sharing the
+     * discovered services advertise themselves. When set, this aggregator
+     * only mounts the discovered services it owns on the consistent hash ring
+     * of the aggregators; see
+     * {@link JmxServerListener#shard(String, JMXServiceURL)}
+     */
+    public String                    shardServiceType;
+
+    /**
+     * The JMX service URL under which the other aggregators of the shard ring
+     * reach this one, which identifies it on the ring
+     */
+    public String                    shardServiceURL;
+
+    /**
+     * The topology snapshot file. When set, the snapshot is restored when the
+     * cascading service is constructed, and written every
+     * snapshotIntervalSeconds
+     */
+    public String                    snapshotFile;
+
+    /**
+     * The interval between two writes of the topology snapshot
+     */
+    public long                      snapshotIntervalSeconds = 300;
 
     public JmxServerListener construct() throws Exception {
         ServiceScope scope = discovery.construct();
@@ -95,13 +131,50 @@ public class JmxDiscoveryConfiguration {
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
         CascadingService cascadingService = new CascadingService();
         mbs.registerMBean(cascadingService, new ObjectName(name));
+        if (snapshotFile != null) {
+            snapshot(cascadingService);
+        }
         JmxServerListener listener = new JmxServerListener(cascadingService,
                                                            sourcePattern,
                                                            sourceMap, scope,
                                                            targetPath);
+        if (shardServiceType != null) {
+            listener.shard(shardServiceType, new JMXServiceURL(shardServiceURL));
+        }
         for (String serviceType : serviceNames) {
             listener.listenFor("(" + SERVICE_TYPE + "=" + serviceType + ")");
         }
         return listener;
     }
+
+    private void snapshot(final CascadingService cascadingService) {
+        cascadingService.setSnapshotFile(new File(snapshotFile));
+        if (new File(snapshotFile).exists()) {
+            try {
+                cascadingService.restoreSnapshot();
+            } catch (IOException e) {
+                log.warn(String.format("Unable to restore the topology snapshot %s",
+                                       snapshotFile), e);
+            }
+        }
+        final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "Topology snapshot");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cascadingService.writeSnapshot();
+                } catch (Throwable e) {
+                    log.warn(String.format("Unable to write the topology snapshot %s",
+                                           snapshotFile), e);
+                }
+            }
+        }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
 }
@@ -22,8 +22,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanServerConnection;
@@ -32,6 +40,7 @@ import javax.management.ObjectName;
 import javax.management.remote.JMXServiceURL;
 
 import net.gescobar.jmx.annotation.Impact;
+import net.gescobar.jmx.annotation.ManagedAttribute;
 import net.gescobar.jmx.annotation.ManagedOperation;
 
 import org.slf4j.Logger;
@@ -43,6 +52,7 @@ import com.hellblazer.slp.ServiceEvent;
 import com.hellblazer.slp.ServiceListener;
 import com.hellblazer.slp.ServiceReference;
 import com.hellblazer.slp.ServiceScope;
+import com.hellblazer.slp.ServiceType;
 import com.hellblazer.slp.ServiceURL;
 
 /**
@@ -50,6 +60,30 @@ import com.hellblazer.slp.ServiceURL;
  * 
  */
 public class JmxServerListener {
+    private class AggregatorListener implements ServiceListener {
+
+        /* (non-Javadoc)
+         * @see com.hellblazer.slp.ServiceListener#serviceChanged(com.hellblazer.slp.ServiceEvent)
+         */
+        @Override
+        public void serviceChanged(ServiceEvent event) {
+            switch (event.getType()) {
+                case REGISTERED: {
+                    joined(event.getReference());
+                    break;
+                }
+                case MODIFIED: {
+                    break;
+                }
+                case UNREGISTERED: {
+                    left(event.getReference());
+                    break;
+                }
+            }
+        }
+
+    }
+
     private class Listener implements ServiceListener {
 
         /* (non-Javadoc)
@@ -116,13 +150,22 @@ public class JmxServerListener {
         }
     }
 
-    private final Map<ServiceReference, String> registrations = new ConcurrentHashMap<ServiceReference, String>();
-    private final Listener                      listener      = new Listener();
-    private final ServiceScope                  scope;
-    private final CascadingServiceMBean         cascadingService;
-    private final String                        targetPath;
-    private final ObjectName                    sourcePattern;
-    private final Map<String, ?>                sourceMap;
+    private final Map<ServiceReference, String>        registrations      = new ConcurrentHashMap<ServiceReference, String>();
+    private final Listener                             listener           = new Listener();
+    private final ServiceScope                         scope;
+    private final CascadingServiceMBean                cascadingService;
+    private final String                               targetPath;
+    private final ObjectName                           sourcePattern;
+    private final Map<String, ?>                       sourceMap;
+    private final Map<ServiceReference, JMXServiceURL> discovered         = new HashMap<ServiceReference, JMXServiceURL>();
+    private final Map<ServiceReference, String>        aggregators        = new HashMap<ServiceReference, String>();
+    private final AggregatorListener                   aggregatorListener = new AggregatorListener();
+    private final ReentrantLock                        lock               = new ReentrantLock();
+    private final Set<ServiceReference>                mounting           = new HashSet<ServiceReference>();
+    private final ConsistentHashRing                   ring               = new ConsistentHashRing();
+    private String                                     member;
+    private String                                     shardQuery;
+    private UUID                                       shardRegistration;
 
     public JmxServerListener(CascadingServiceMBean cascadingService,
                              String sourcePattern, Map<String, ?> sourceMap,
@@ -167,6 +210,157 @@ public class JmxServerListener {
         removeQuery(String.format("(%s=%s)", SERVICE_TYPE, serviceName));
     }
 
+    /**
+     * Answer the JMX service URLs of the aggregators sharing the discovered
+     * services with this one, including this one
+     */
+    @ManagedAttribute(description = "The aggregators sharing the discovered JMX services")
+    public String[] getAggregators() {
+        lock.lock();
+        try {
+            return ring.getMembers().toArray(new String[ring.size()]);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leave the shard ring: stop advertising this aggregator and unmount the
+     * discovered services it mounted, which the remaining aggregators take
+     * over. The services discovered afterwards are not mounted.
+     * 
+     * @throws InvalidSyntaxException
+     */
+    @ManagedOperation(description = "Leave the shard ring, handing the mounted JMX services over to the remaining aggregators", impact = Impact.ACTION)
+    public void leave() throws InvalidSyntaxException {
+        final Map<ServiceReference, JMXServiceURL> mounts = new HashMap<ServiceReference, JMXServiceURL>();
+        final List<ServiceReference> unmounts = new ArrayList<ServiceReference>();
+        lock.lock();
+        try {
+            if (member == null) {
+                return;
+            }
+            log.info(String.format("Aggregator %s leaving the shard ring",
+                                   member));
+            scope.removeServiceListener(aggregatorListener, shardQuery);
+            scope.unregister(shardRegistration);
+            ring.clear();
+            aggregators.clear();
+            rebalance(mounts, unmounts);
+        } finally {
+            lock.unlock();
+        }
+        apply(mounts, unmounts);
+    }
+
+    /**
+     * Share the discovered services with the other aggregators advertising
+     * the same abstract service type. The aggregator advertises itself in the
+     * scope as <tt>service:</tt><i>abstractServiceType</i><tt>:jmx:</tt>
+     * <i>protocol</i> at the URL under which the others reach it, and the
+     * aggregators which discover each other form a consistent hash ring: each
+     * discovered service is mounted by the aggregator owning its JMX service
+     * URL on the ring only. When an aggregator joins or leaves the ring, only
+     * the services whose owner changed are unmounted and mounted.
+     * 
+     * @param abstractServiceType
+     *            - the abstract service type advertised by the aggregators
+     *            of the ring
+     * @param self
+     *            - the JMX service URL of this aggregator, which identifies
+     *            it on the ring
+     * @throws InvalidSyntaxException
+     * @throws MalformedURLException
+     */
+    public void shard(String abstractServiceType, JMXServiceURL self)
+                                                                     throws InvalidSyntaxException,
+                                                                     MalformedURLException {
+        ServiceURL url = new ServiceURL(
+                                        String.format("%s%s:jmx:%s://%s:%s%s",
+                                                      ServiceType.SERVICE_PREFIX,
+                                                      abstractServiceType,
+                                                      self.getProtocol(),
+                                                      self.getHost(),
+                                                      self.getPort(),
+                                                      self.getURLPath()));
+        final Map<ServiceReference, JMXServiceURL> mounts = new HashMap<ServiceReference, JMXServiceURL>();
+        final List<ServiceReference> unmounts = new ArrayList<ServiceReference>();
+        lock.lock();
+        try {
+            if (member != null) {
+                throw new IllegalStateException(
+                                                String.format("Already sharding as %s",
+                                                              member));
+            }
+            member = toServiceURL(url).toString();
+            shardQuery = String.format("(%s=%s%s:jmx:%s)", SERVICE_TYPE,
+                                       ServiceType.SERVICE_PREFIX,
+                                       abstractServiceType,
+                                       self.getProtocol());
+            log.info(String.format("Aggregator %s sharding with %s", member,
+                                   shardQuery));
+            ring.add(member);
+            rebalance(mounts, unmounts);
+            shardRegistration = scope.register(url,
+                                               Collections.<String, String> emptyMap());
+            scope.addServiceListener(aggregatorListener, shardQuery);
+        } finally {
+            lock.unlock();
+        }
+        apply(mounts, unmounts);
+    }
+
+    /**
+     * Perform the mounts and unmounts planned under the lock. The remote
+     * calls are made outside of the lock, so that discovery events are not
+     * held up by the connection of the mounts; a mount whose service is no
+     * longer owned once it completes is undone.
+     */
+    private void apply(Map<ServiceReference, JMXServiceURL> mounts,
+                       List<ServiceReference> unmounts) {
+        for (ServiceReference reference : unmounts) {
+            unmount(reference);
+        }
+        for (Map.Entry<ServiceReference, JMXServiceURL> entry : mounts.entrySet()) {
+            mount(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Answer true if this aggregator mounts the service at the URL
+     */
+    private boolean owns(JMXServiceURL jmxServiceURL) {
+        return member == null
+               || member.equals(ring.ownerOf(jmxServiceURL.toString()));
+    }
+
+    /**
+     * Plan the mount of the service, unless it is mounted or being mounted.
+     * Called under the lock.
+     */
+    private void planMount(ServiceReference reference,
+                           JMXServiceURL jmxServiceURL,
+                           Map<ServiceReference, JMXServiceURL> mounts) {
+        if (!registrations.containsKey(reference) && mounting.add(reference)) {
+            mounts.put(reference, jmxServiceURL);
+        }
+    }
+
+    /**
+     * Plan the mounts of the discovered services this aggregator now owns,
+     * and the unmounts of those it no longer owns. Called under the lock.
+     */
+    private void rebalance(Map<ServiceReference, JMXServiceURL> mounts,
+                           List<ServiceReference> unmounts) {
+        for (Map.Entry<ServiceReference, JMXServiceURL> entry : discovered.entrySet()) {
+            if (owns(entry.getValue())) {
+                planMount(entry.getKey(), entry.getValue(), mounts);
+            } else if (registrations.containsKey(entry.getKey())) {
+                unmounts.add(entry.getKey());
+            }
+        }
+    }
+
     /**
      * @param reference
      * @return
@@ -174,7 +368,16 @@ public class JmxServerListener {
      */
     private JMXServiceURL toServiceURL(ServiceReference reference)
                                                                   throws MalformedURLException {
-        ServiceURL url = reference.getUrl();
+        return toServiceURL(reference.getUrl());
+    }
+
+    /**
+     * @param url
+     * @return
+     * @throws MalformedURLException
+     */
+    private JMXServiceURL toServiceURL(ServiceURL url)
+                                                      throws MalformedURLException {
         String jmxUrl = "jmx".equals(url.getServiceType().getAbstractTypeName()) ? String.format("%s://%s:%s%s",
                                                                                                  url.getServiceType().toString(),
                                                                                                  url.getHost(),
@@ -188,6 +391,61 @@ public class JmxServerListener {
         return new JMXServiceURL(jmxUrl);
     }
 
+    /**
+     * @param reference
+     */
+    protected void joined(ServiceReference reference) {
+        String aggregator;
+        try {
+            aggregator = toServiceURL(reference).toString();
+        } catch (MalformedURLException e) {
+            log.error(String.format("Invalid jmx url for aggregator %s",
+                                    reference), e);
+            return;
+        }
+        final Map<ServiceReference, JMXServiceURL> mounts = new HashMap<ServiceReference, JMXServiceURL>();
+        final List<ServiceReference> unmounts = new ArrayList<ServiceReference>();
+        lock.lock();
+        try {
+            if (member == null) {
+                return;
+            }
+            aggregators.put(reference, aggregator);
+            if (ring.add(aggregator)) {
+                log.info(String.format("Aggregator %s joined the shard ring of %s",
+                                       aggregator, member));
+                rebalance(mounts, unmounts);
+            }
+        } finally {
+            lock.unlock();
+        }
+        apply(mounts, unmounts);
+    }
+
+    /**
+     * @param reference
+     */
+    protected void left(ServiceReference reference) {
+        final Map<ServiceReference, JMXServiceURL> mounts = new HashMap<ServiceReference, JMXServiceURL>();
+        final List<ServiceReference> unmounts = new ArrayList<ServiceReference>();
+        lock.lock();
+        try {
+            String aggregator = aggregators.remove(reference);
+            if (aggregator == null || aggregator.equals(member)
+                || aggregators.containsValue(aggregator)) {
+                return;
+            }
+            if (ring.remove(aggregator)) {
+                log.info(String.format("Aggregator %s left the shard ring of %s",
+                                       aggregator, member));
+                rebalance(mounts, unmounts);
+            }
+        } finally {
+            lock.unlock();
+        }
+        apply(mounts, unmounts);
+    }
+
     /**
      * @param reference
      */
@@ -208,43 +466,116 @@ public class JmxServerListener {
             log.error(String.format("Invalid jmx url for %s", reference), e);
             return;
         }
+        final Map<ServiceReference, JMXServiceURL> mounts = new HashMap<ServiceReference, JMXServiceURL>();
+        lock.lock();
+        try {
+            discovered.put(reference, jmxServiceURL);
+            if (owns(jmxServiceURL)) {
+                planMount(reference, jmxServiceURL, mounts);
+            } else if (log.isDebugEnabled()) {
+                log.debug(String.format("%s is owned by aggregator %s",
+                                        jmxServiceURL,
+                                        ring.ownerOf(jmxServiceURL.toString())));
+            }
+        } finally {
+            lock.unlock();
+        }
+        apply(mounts, Collections.<ServiceReference> emptyList());
+    }
+
+    /**
+     * @param reference
+     * @throws IOException
+     */
+    protected void unregistered(ServiceReference reference) {
+        lock.lock();
+        try {
+            discovered.remove(reference);
+            if (!registrations.containsKey(reference)
+                && !mounting.contains(reference) && member == null) {
+                log.warn(String.format("No cascading registration for %s",
+                                       reference));
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // a mount in progress is undone once it completes
+        unmount(reference);
+    }
+
+    /**
+     * @param reference
+     * @param jmxServiceURL
+     */
+    private void mount(ServiceReference reference, JMXServiceURL jmxServiceURL) {
         ServiceURL url = reference.getUrl();
+        String registration = null;
         try {
             log.info(String.format("Registering MBeans for: %s:%s",
                                    url.getHost(), url.getPort()));
-            registrations.put(reference,
-                              cascadingService.mount(jmxServiceURL,
-                                                     sourceMap,
-                                                     sourcePattern,
-                                                     targetPath == null ? null
-                                                                       : String.format(targetPath,
-                                                                                       url.getHost(),
-                                                                                       url.getPort())));
+            registration = cascadingService.mount(jmxServiceURL,
+                                                  sourceMap,
+                                                  sourcePattern,
+                                                  targetPath == null ? null
+                                                                    : String.format(targetPath,
+                                                                                    url.getHost(),
+                                                                                    url.getPort()));
         } catch (InstanceAlreadyExistsException | IOException e) {
             log.info(String.format("Error registering MBeans for: %s:%s",
                                    url.getHost(), url.getPort()), e);
         }
+        lock.lock();
+        try {
+            mounting.remove(reference);
+            if (registration == null) {
+                return;
+            }
+            if (discovered.containsKey(reference) && owns(jmxServiceURL)) {
+                registrations.put(reference, registration);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        // unregistered or handed over while mounting
+        unmount(reference, registration);
     }
 
     /**
      * @param reference
-     * @throws IOException
      */
-    protected void unregistered(ServiceReference reference) {
-        String registration = registrations.remove(reference);
-        ServiceURL url = reference.getUrl();
-        if (registration != null) {
-            try {
-                log.info(String.format("Unregistering MBeans for: %s:%s",
-                                       url.getHost(), url.getPort()));
-                cascadingService.unmount(registration);
-            } catch (IOException e) {
-                log.warn(String.format("Unable to unmount %s, mount point id %s",
-                                       reference, registration));
+    private void unmount(ServiceReference reference) {
+        final String registration;
+        lock.lock();
+        try {
+            JMXServiceURL jmxServiceURL = discovered.get(reference);
+            if (jmxServiceURL != null && owns(jmxServiceURL)) {
+                // owned again since the unmount was planned
+                return;
             }
-        } else {
-            log.warn(String.format("No cascading registration for %s",
-                                   reference));
+            registration = registrations.remove(reference);
+        } finally {
+            lock.unlock();
+        }
+        if (registration != null) {
+            unmount(reference, registration);
+        }
+    }
+
+    /**
+     * @param reference
+     * @param registration
+     */
+    private void unmount(ServiceReference reference, String registration) {
+        ServiceURL url = reference.getUrl();
+        try {
+            log.info(String.format("Unregistering MBeans for: %s:%s",
+                                   url.getHost(), url.getPort()));
+            cascadingService.unmount(registration);
+        } catch (IOException e) {
+            log.warn(String.format("Unable to unmount %s, mount point id %s",
+                                   reference, registration));
         }
     }
 }
@@ -0,0 +1,118 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package com.hellblazer.slp.jmx;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * @author hhildebrand
+ * 
+ */
+public class ConsistentHashRingTest {
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testBalance() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        for (int i = 0; i < 4; i++) {
+            ring.add(member(i));
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            String owner = ring.ownerOf(key(i));
+            Integer count = counts.get(owner);
+            counts.put(owner, count == null ? 1 : count + 1);
+        }
+        assertEquals(4, counts.size());
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            assertTrue(String.format("%s owns %s keys", entry.getKey(),
+                                     entry.getValue()),
+                       entry.getValue() > KEYS / 8
+                               && entry.getValue() < KEYS / 2);
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        assertNull(ring.ownerOf(key(0)));
+        ring.add(member(0));
+        assertEquals(member(0), ring.ownerOf(key(0)));
+        ring.remove(member(0));
+        assertNull(ring.ownerOf(key(0)));
+    }
+
+    @Test
+    public void testJoin() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        for (int i = 0; i < 4; i++) {
+            ring.add(member(i));
+        }
+        String[] before = owners(ring);
+        assertTrue(ring.add(member(4)));
+        String[] after = owners(ring);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals(after[i])) {
+                assertEquals("Key moved between existing members", member(4),
+                             after[i]);
+                moved++;
+            }
+        }
+        assertTrue(String.format("%s keys moved", moved), moved > KEYS / 10
+                                                          && moved < KEYS / 3);
+    }
+
+    @Test
+    public void testLeave() {
+        ConsistentHashRing ring = new ConsistentHashRing();
+        for (int i = 0; i < 5; i++) {
+            ring.add(member(i));
+        }
+        String[] before = owners(ring);
+        assertTrue(ring.remove(member(2)));
+        String[] after = owners(ring);
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals(member(2))) {
+                assertEquals("Key of a remaining member moved", before[i],
+                             after[i]);
+            }
+        }
+        assertTrue(!ring.remove(member(2)));
+    }
+
+    private String key(int i) {
+        return String.format("service:jmx:rmi://host-%s:9999/jmxrmi", i);
+    }
+
+    private String member(int i) {
+        return String.format("service:jmx:rmi://aggregator-%s:9999/jmxrmi", i);
+    }
+
+    private String[] owners(ConsistentHashRing ring) {
+        String[] owners = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            owners[i] = ring.ownerOf(key(i));
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,219 @@
+/** (C) Copyright 2014 Hal Hildebrand, All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *     
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, 
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and 
+ * limitations under the License.
+ */
+package com.hellblazer.slp.jmx;
+
+import static com.hellblazer.utils.Utils.allocatePort;
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+
+import net.gescobar.jmx.impl.MBeanFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.chiralBehaviors.slp.hive.configuration.HiveScopeConfiguration;
+import com.hellblazer.jmx.cascading.CascadingService;
+import com.hellblazer.slp.ServiceScope;
+import com.hellblazer.slp.ServiceType;
+import com.hellblazer.slp.ServiceURL;
+
+/**
+ * @author hhildebrand
+ * 
+ */
+public class ShardingTest {
+
+    private static final String AGGREGATOR = "yeOldTimeAggregator";
+    private static final String DUMMY      = "dummy";
+    private static final String ID         = "id";
+    private static final String TYPE       = "type";
+
+    private List<JMXConnectorServer> servers = new ArrayList<>();
+    private List<ServiceScope>       scopes  = new ArrayList<>();
+
+    @After
+    public void cleanup() {
+        for (JMXConnectorServer server : servers) {
+            try {
+                server.stop();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+        for (ServiceScope scope : scopes) {
+            scope.stop();
+        }
+    }
+
+    @Test
+    public void shards() throws Exception {
+        String abstractServiceType = "yeOldTimeShardedJmx";
+        System.setProperty("java.rmi.server.randomIDs", "true");
+        int aggregators = 3;
+        int members = 12;
+        List<MBeanServer> aggregatorMbs = new ArrayList<>();
+        List<JmxServerListener> listeners = new ArrayList<>();
+        for (int i = 0; i < aggregators; i++) {
+            MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+            aggregatorMbs.add(mbs);
+            CascadingService cascadingService = new CascadingService();
+            mbs.registerMBean(cascadingService,
+                              new ObjectName(
+                                             "com.hellblazer:type=CascadingService"));
+            JMXConnectorServer server = start(mbs);
+            ServiceScope scope = new HiveScopeConfiguration().construct();
+            scopes.add(scope);
+            scope.start();
+            JmxServerListener listener = new JmxServerListener(
+                                                               cascadingService,
+                                                               null, null,
+                                                               scope,
+                                                               "/[%s/%s]");
+            listeners.add(listener);
+            listener.shard(AGGREGATOR, server.getAddress());
+            listener.listenForService(String.format("service:%s:jmx:rmi",
+                                                    abstractServiceType));
+        }
+        for (int i = 0; i < members; i++) {
+            ServiceScope scope = new HiveScopeConfiguration().construct();
+            scopes.add(scope);
+            scope.start();
+            MBeanServer mbs = MBeanServerFactory.newMBeanServer();
+            register(mbs, new DummyMBean(i));
+            JMXConnectorServer server = start(mbs);
+            scope.register(constructServiceURL(abstractServiceType,
+                                               server.getAddress()),
+                           new HashMap<String, String>());
+        }
+
+        Map<Integer, Integer> owners = awaitOwners(aggregatorMbs, listeners,
+                                                   members);
+        System.out.println(String.format("Cascaded mbean servers sharded as %s",
+                                         owners));
+
+        listeners.get(0).leave();
+        Map<Integer, Integer> remaining = awaitOwners(aggregatorMbs.subList(1,
+                                                                            aggregators),
+                                                      listeners.subList(1,
+                                                                        aggregators),
+                                                      members);
+        assertEquals("The leaving aggregator still mounts mbean servers", 0,
+                     owned(aggregatorMbs.get(0)).size());
+        for (Map.Entry<Integer, Integer> entry : owners.entrySet()) {
+            if (entry.getValue() != 0) {
+                assertEquals(String.format("Mbean server %s moved",
+                                           entry.getKey()),
+                             entry.getValue().intValue(),
+                             remaining.get(entry.getKey()) + 1);
+            }
+        }
+        System.out.println("Mbean servers of the leaving aggregator correctly taken over");
+    }
+
+    /**
+     * Wait until the aggregators form a ring and mount each of the mbean
+     * servers exactly once
+     * 
+     * @return the index of the aggregator mounting each mbean server
+     */
+    private Map<Integer, Integer> awaitOwners(List<MBeanServer> aggregatorMbs,
+                                              List<JmxServerListener> listeners,
+                                              int members) throws Exception {
+        long deadline = System.currentTimeMillis() + 60000;
+        while (System.currentTimeMillis() < deadline) {
+            Map<Integer, Integer> owners = new HashMap<>();
+            boolean once = true;
+            for (int i = 0; i < aggregatorMbs.size(); i++) {
+                for (Integer id : owned(aggregatorMbs.get(i))) {
+                    once &= owners.put(id, i) == null;
+                }
+            }
+            boolean ring = true;
+            for (JmxServerListener listener : listeners) {
+                ring &= listener.getAggregators().length == listeners.size();
+            }
+            if (ring && once && owners.size() == members) {
+                return owners;
+            }
+            Thread.sleep(100);
+        }
+        fail("The aggregators did not shard the cascaded mbean servers");
+        return null;
+    }
+
+    private ServiceURL constructServiceURL(String serviceType,
+                                           JMXServiceURL url)
+                                                             throws MalformedURLException {
+        StringBuilder builder = new StringBuilder();
+        builder.append(ServiceType.SERVICE_PREFIX);
+        builder.append(serviceType);
+        builder.append(':');
+        builder.append("jmx:");
+        builder.append(url.getProtocol());
+        builder.append("://");
+        builder.append(url.getHost());
+        builder.append(':');
+        builder.append(url.getPort());
+        builder.append(url.getURLPath());
+        return new ServiceURL(builder.toString());
+    }
+
+    private List<Integer> owned(MBeanServer mbs)
+                                                throws MalformedObjectNameException {
+        List<Integer> ids = new ArrayList<>();
+        for (ObjectName name : mbs.queryNames(new ObjectName("*:" + TYPE + "="
+                                                             + DUMMY + ",*"),
+                                              null)) {
+            ids.add(Integer.parseInt(name.getKeyProperty(ID)));
+        }
+        return ids;
+    }
+
+    private void register(MBeanServer mbs, DummyMBean dummy) throws Exception {
+        Hashtable<String, String> properties = new Hashtable<>();
+        properties.put(TYPE, DUMMY);
+        properties.put(ID, Integer.toString(dummy.getId()));
+        mbs.registerMBean(MBeanFactory.createMBean(dummy),
+                          new ObjectName("test", properties));
+    }
+
+    private JMXConnectorServer start(MBeanServer mbs) throws IOException {
+        JMXConnectorServer server = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL(
+                                                                                                      "rmi",
+                                                                                                      "localhost",
+                                                                                                      allocatePort()),
+                                                                                    new HashMap<String, Object>(),
+                                                                                    mbs);
+        servers.add(server);
+        server.start();
+        return server;
+    }
+}